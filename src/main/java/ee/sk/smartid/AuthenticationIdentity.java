@@ -26,12 +26,18 @@ package ee.sk.smartid;
  * #L%
  */
 
+import ee.sk.smartid.rest.dao.SemanticsIdentifier.IdentityType;
+
+import java.time.LocalDate;
+
 public class AuthenticationIdentity {
 
   private String givenName;
   private String surname;
   private String identityNumber;
   private String country;
+  private LocalDate dateOfBirth;
+  private IdentityType identityType;
 
   public String getGivenName() {
     return givenName;
@@ -82,4 +88,28 @@ public class AuthenticationIdentity {
   public void setCountry(String country) {
     this.country = country;
   }
+
+  /**
+   * @return date of birth encoded in the Estonian, Latvian or Lithuanian personal code
+   * or null when the identity number does not contain it
+   */
+  public LocalDate getDateOfBirth() {
+    return dateOfBirth;
+  }
+
+  public void setDateOfBirth(LocalDate dateOfBirth) {
+    this.dateOfBirth = dateOfBirth;
+  }
+
+  /**
+   * @return type of the identity number (personal code, passport or national identity card number)
+   * or null when the certificate does not state it
+   */
+  public IdentityType getIdentityType() {
+    return identityType;
+  }
+
+  public void setIdentityType(IdentityType identityType) {
+    this.identityType = identityType;
+  }
 }
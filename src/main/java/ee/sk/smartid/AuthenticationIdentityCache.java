@@ -0,0 +1,168 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Identities of persons whose authentications were recently found to be valid
+ * <p>
+ * With this cache set on an {@link AuthenticationResponseValidator} the subject of a certificate is read
+ * only once and later authentications with the same certificate get a copy of the identity read then.
+ * Identities are keyed by the SHA-256 fingerprint of the certificate, kept until the time to live passes
+ * but never after the certificate expires, and the identity of the least recently used certificate is
+ * dropped when the cache is full. Only identities from valid authentications are added.
+ * <p>
+ * The cache holds personal data, keep its time to live as short as the use case allows.
+ */
+public class AuthenticationIdentityCache {
+
+  public static final int DEFAULT_MAX_CERTIFICATES = 10000;
+  public static final long DEFAULT_TIME_TO_LIVE_MS = 3600000L;
+
+  private final int maxCertificates;
+  private final long timeToLiveMs;
+  // access ordered, the eldest entry is the least recently used one
+  private final Map<String, Entry> entriesByFingerprint = new LinkedHashMap<>(16, 0.75f, true);
+  private final ReentrantLock lock = new ReentrantLock();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public AuthenticationIdentityCache() {
+    this(DEFAULT_MAX_CERTIFICATES, TimeUnit.MILLISECONDS, DEFAULT_TIME_TO_LIVE_MS);
+  }
+
+  /**
+   * @param maxCertificates maximum number of identities kept
+   * @param timeUnit time unit of the {@code timeToLive} argument
+   * @param timeToLive how long an identity is kept, it is never kept after the certificate expires
+   */
+  public AuthenticationIdentityCache(int maxCertificates, TimeUnit timeUnit, long timeToLive) {
+    if (maxCertificates <= 0 || timeToLive <= 0) {
+      throw new SmartIdClientException("Size and time to live of authentication identity cache must be positive");
+    }
+    this.maxCertificates = maxCertificates;
+    this.timeToLiveMs = timeUnit.toMillis(timeToLive);
+  }
+
+  /**
+   * @return number of identities found in the cache
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of identities that had to be read from the certificate
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return entriesByFingerprint.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void clear() {
+    lock.lock();
+    try {
+      entriesByFingerprint.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @param fingerprint SHA-256 fingerprint of the certificate
+   * @return new identity object the caller may modify or null when the identity is not in the cache
+   */
+  AuthenticationIdentity get(String fingerprint) {
+    long now = System.currentTimeMillis();
+    AuthenticationIdentity identity = null;
+    lock.lock();
+    try {
+      Entry entry = entriesByFingerprint.get(fingerprint);
+      if (entry != null && entry.expiresAt > now) {
+        identity = entry.identity;
+      } else if (entry != null) {
+        entriesByFingerprint.remove(fingerprint);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (identity == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return AuthenticationIdentityExtractor.copy(identity);
+  }
+
+  /**
+   * @param fingerprint SHA-256 fingerprint of the certificate
+   * @param identity identity read from the certificate, a copy of it is kept
+   */
+  void add(String fingerprint, X509Certificate certificate, AuthenticationIdentity identity) {
+    long expiresAt = Math.min(System.currentTimeMillis() + timeToLiveMs, certificate.getNotAfter().getTime());
+    Entry entry = new Entry(expiresAt, AuthenticationIdentityExtractor.copy(identity));
+    lock.lock();
+    try {
+      entriesByFingerprint.put(fingerprint, entry);
+      Iterator<Entry> eldest = entriesByFingerprint.values().iterator();
+      while (entriesByFingerprint.size() > maxCertificates) {
+        eldest.next();
+        eldest.remove();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Entry {
+
+    private final long expiresAt;
+    private final AuthenticationIdentity identity;
+
+    private Entry(long expiresAt, AuthenticationIdentity identity) {
+      this.expiresAt = expiresAt;
+      this.identity = identity;
+    }
+  }
+}
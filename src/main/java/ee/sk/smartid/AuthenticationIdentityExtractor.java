@@ -0,0 +1,258 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier.IdentityType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Reads the identity of the authenticating person from the subject of the certificate
+ * <p>
+ * The attributes are read straight from the DER encoded subject name instead of parsing its string form.
+ */
+final class AuthenticationIdentityExtractor {
+
+  private static final Logger logger = LoggerFactory.getLogger(AuthenticationIdentityExtractor.class);
+
+  private static final int DER_SEQUENCE = 0x30;
+  private static final int DER_SET = 0x31;
+  private static final int DER_OBJECT_IDENTIFIER = 0x06;
+  private static final int DER_UTF8_STRING = 0x0c;
+  private static final int DER_PRINTABLE_STRING = 0x13;
+  private static final int DER_TELETEX_STRING = 0x14;
+  private static final int DER_IA5_STRING = 0x16;
+  private static final int DER_BMP_STRING = 0x1e;
+
+  // attribute types of the arc 2.5.4
+  private static final int SURNAME = 4;
+  private static final int SERIAL_NUMBER = 5;
+  private static final int COUNTRY_NAME = 6;
+  private static final int GIVEN_NAME = 42;
+
+  private AuthenticationIdentityExtractor() {
+  }
+
+  /**
+   * @return new identity object the caller may modify
+   */
+  static AuthenticationIdentity extractIdentity(X509Certificate certificate) {
+    AuthenticationIdentity identity = new AuthenticationIdentity();
+    try {
+      byte[] name = certificate.getSubjectX500Principal().getEncoded();
+      int nameEnd = valueEnd(name, 0, DER_SEQUENCE);
+      int rdn = valueStart(name, 0);
+      while (rdn < nameEnd) {
+        int rdnEnd = valueEnd(name, rdn, DER_SET);
+        int attribute = valueStart(name, rdn);
+        while (attribute < rdnEnd) {
+          int attributeEnd = valueEnd(name, attribute, DER_SEQUENCE);
+          int type = valueStart(name, attribute);
+          int value = valueEnd(name, type, DER_OBJECT_IDENTIFIER);
+          if (value < attributeEnd) {
+            setAttribute(identity, getAttributeType(name, type), name, value);
+          }
+          attribute = attributeEnd;
+        }
+        rdn = rdnEnd;
+      }
+    } catch (IllegalArgumentException e) {
+      logger.error("Error getting authentication identity from the certificate", e);
+      throw new SmartIdClientException("Error getting authentication identity from the certificate", e);
+    }
+    return identity;
+  }
+
+  private static void setAttribute(AuthenticationIdentity identity, int attributeType, byte[] der, int value) {
+    switch (attributeType) {
+      case GIVEN_NAME:
+        identity.setGivenName(readString(der, value));
+        break;
+      case SURNAME:
+        identity.setSurname(readString(der, value));
+        break;
+      case COUNTRY_NAME:
+        identity.setCountry(readString(der, value));
+        break;
+      case SERIAL_NUMBER:
+        setSerialNumber(identity, readString(der, value));
+        break;
+      default:
+    }
+  }
+
+  // serial number is e.g. PNOEE-10101010005: type of the identifier, country and the identity number
+  private static void setSerialNumber(AuthenticationIdentity identity, String serialNumber) {
+    int separator = serialNumber.indexOf('-');
+    if (separator < 0) {
+      identity.setIdentityNumber(serialNumber);
+      return;
+    }
+    String identityNumber = serialNumber.substring(separator + 1);
+    IdentityType identityType = getIdentityType(serialNumber.substring(0, separator));
+    identity.setIdentityNumber(identityNumber);
+    identity.setIdentityType(identityType);
+    if (identityType == IdentityType.PNO) {
+      identity.setDateOfBirth(getDateOfBirth(serialNumber.substring(3, separator), identityNumber));
+    }
+  }
+
+  private static IdentityType getIdentityType(String semanticsIdentifierPrefix) {
+    if (semanticsIdentifierPrefix.length() < 3) {
+      return null;
+    }
+    for (IdentityType identityType : IdentityType.values()) {
+      if (semanticsIdentifierPrefix.startsWith(identityType.name())) {
+        return identityType;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return date of birth encoded in a personal code or null when the code does not contain it
+   */
+  static LocalDate getDateOfBirth(String country, String personalCode) {
+    try {
+      if (("EE".equals(country) || "LT".equals(country)) && personalCode.length() == 11 && isDigits(personalCode)) {
+        // GYYMMDDSSSC where G is the century and sex of the person
+        if (personalCode.charAt(0) < '1' || personalCode.charAt(0) > '8') {
+          return null;
+        }
+        int century = 1800 + (personalCode.charAt(0) - '1') / 2 * 100;
+        return LocalDate.of(century + Integer.parseInt(personalCode.substring(1, 3)),
+            Integer.parseInt(personalCode.substring(3, 5)), Integer.parseInt(personalCode.substring(5, 7)));
+      }
+      if ("LV".equals(country) && personalCode.length() == 12 && personalCode.charAt(6) == '-'
+          && isDigits(personalCode.substring(0, 6)) && isDigits(personalCode.substring(7))) {
+        // DDMMYY-CNNNN where C is the century, codes issued since 2017 starting with 32 do not contain the date
+        if (personalCode.startsWith("32") || personalCode.charAt(7) > '2') {
+          return null;
+        }
+        int century = 1800 + (personalCode.charAt(7) - '0') * 100;
+        return LocalDate.of(century + Integer.parseInt(personalCode.substring(4, 6)),
+            Integer.parseInt(personalCode.substring(2, 4)), Integer.parseInt(personalCode.substring(0, 2)));
+      }
+    } catch (DateTimeException e) {
+      logger.debug("Personal code '{}' does not contain a valid date of birth", personalCode);
+    }
+    return null;
+  }
+
+  private static boolean isDigits(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return !value.isEmpty();
+  }
+
+  /**
+   * @return last arc of an attribute type under 2.5.4 or -1 for other object identifiers
+   */
+  private static int getAttributeType(byte[] der, int objectIdentifier) {
+    int end = valueEnd(der, objectIdentifier, DER_OBJECT_IDENTIFIER);
+    int start = valueStart(der, objectIdentifier);
+    int length = end - start;
+    if (length != 3 || der[start] != 0x55 || der[start + 1] != 0x04) {
+      return -1;
+    }
+    return der[start + 2] & 0xff;
+  }
+
+  private static String readString(byte[] der, int offset) {
+    Charset charset = getCharset(der[offset] & 0xff);
+    int end = valueEnd(der, offset, der[offset] & 0xff);
+    int start = valueStart(der, offset);
+    return new String(der, start, end - start, charset);
+  }
+
+  private static Charset getCharset(int stringTag) {
+    switch (stringTag) {
+      case DER_UTF8_STRING:
+        return StandardCharsets.UTF_8;
+      case DER_PRINTABLE_STRING:
+      case DER_IA5_STRING:
+        return StandardCharsets.US_ASCII;
+      case DER_TELETEX_STRING:
+        return StandardCharsets.ISO_8859_1;
+      case DER_BMP_STRING:
+        return StandardCharsets.UTF_16BE;
+      default:
+        throw new IllegalArgumentException("Unsupported string type " + stringTag);
+    }
+  }
+
+  private static int valueStart(byte[] der, int offset) {
+    int length = der[offset + 1] & 0xff;
+    return offset + 2 + (length > 0x7f ? length & 0x7f : 0);
+  }
+
+  /**
+   * @return offset following the DER value starting at the offset
+   */
+  private static int valueEnd(byte[] der, int offset, int expectedTag) {
+    if (offset + 2 > der.length || (der[offset] & 0xff) != expectedTag) {
+      throw new IllegalArgumentException("Unexpected DER value at " + offset);
+    }
+    int length = der[offset + 1] & 0xff;
+    int start = offset + 2;
+    if (length > 0x7f) {
+      int lengthBytes = length & 0x7f;
+      if (lengthBytes > 3 || start + lengthBytes > der.length) {
+        throw new IllegalArgumentException("Unsupported DER length at " + offset);
+      }
+      length = 0;
+      for (int i = 0; i < lengthBytes; i++) {
+        length = (length << 8) | (der[start++] & 0xff);
+      }
+    }
+    if (start + length > der.length) {
+      throw new IllegalArgumentException("Truncated DER value at " + offset);
+    }
+    return start + length;
+  }
+
+  static AuthenticationIdentity copy(AuthenticationIdentity identity) {
+    AuthenticationIdentity copy = new AuthenticationIdentity();
+    copy.setGivenName(identity.getGivenName());
+    copy.setSurname(identity.getSurname());
+    copy.setIdentityNumber(identity.getIdentityNumber());
+    copy.setCountry(identity.getCountry());
+    copy.setDateOfBirth(identity.getDateOfBirth());
+    copy.setIdentityType(identity.getIdentityType());
+    return copy;
+  }
+}
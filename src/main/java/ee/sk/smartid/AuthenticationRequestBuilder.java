@@ -32,8 +32,12 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.SessionSupersededException;
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
 import ee.sk.smartid.exception.useraccount.DocumentUnusableException;
@@ -41,6 +45,7 @@ import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
 import ee.sk.smartid.exception.useraction.SessionTimeoutException;
 import ee.sk.smartid.exception.useraction.UserRefusedException;
 import ee.sk.smartid.exception.useraction.UserSelectedWrongVerificationCodeException;
+import ee.sk.smartid.rest.Deadline;
 import ee.sk.smartid.rest.SessionStatusPoller;
 import ee.sk.smartid.rest.SmartIdConnector;
 import ee.sk.smartid.rest.dao.AuthenticationSessionRequest;
@@ -52,6 +57,7 @@ import ee.sk.smartid.rest.dao.SessionCertificate;
 import ee.sk.smartid.rest.dao.SessionResult;
 import ee.sk.smartid.rest.dao.SessionSignature;
 import ee.sk.smartid.rest.dao.SessionStatus;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,6 +83,8 @@ public class AuthenticationRequestBuilder extends SmartIdRequestBuilder {
 
   private static final Logger logger = LoggerFactory.getLogger(AuthenticationRequestBuilder.class);
 
+  private SessionArbiter sessionArbiter;
+
 /**
  * Constructs a new {@code AuthenticationRequestBuilder}
  *
@@ -258,6 +266,21 @@ public class AuthenticationRequestBuilder extends SmartIdRequestBuilder {
     return this;
   }
 
+  /**
+   * Sets the deadline for the whole operation
+   * <p>
+   * Requests to the Smart-ID service and session status polling give up
+   * with {@link DeadlineExceededException} when the deadline passes.
+   * The same deadline may be passed to several builders to share one time budget.
+   *
+   * @param deadline deadline of the operation
+   * @return this builder
+   */
+  public AuthenticationRequestBuilder withDeadline(Deadline deadline) {
+    this.deadline = deadline;
+    return this;
+  }
+
   /**
    * Send the authentication request and get the response
    * <p>
@@ -271,16 +294,42 @@ public class AuthenticationRequestBuilder extends SmartIdRequestBuilder {
    * @throws DocumentUnusableException when for some reason, this relying party request cannot be completed.
    *                                   User must either check his/her Smart-ID mobile application or turn to customer support for getting the exact reason.
    * @throws ServerMaintenanceException when the server is under maintenance
+   * @throws DeadlineExceededException when the operation did not finish before the deadline set with {@link #withDeadline(Deadline)}
+   * @throws SessionSupersededException when a newer authentication of the same person replaced this one, see {@link SessionArbiter}
    *
    * @return the authentication response
    */
   public SmartIdAuthenticationResponse authenticate() throws UserAccountNotFoundException, UserRefusedException,
       UserSelectedWrongVerificationCodeException, SessionTimeoutException, DocumentUnusableException, ServerMaintenanceException {
+    if (sessionArbiter != null) {
+      return awaitResult(initiate());
+    }
     String sessionId = initiateAuthentication();
-    SessionStatus sessionStatus = getSessionStatusPoller().fetchFinalSessionStatus(sessionId);
+    SessionStatus sessionStatus = getSessionStatusPoller().fetchFinalSessionStatus(sessionId, getExpectedInteractionFlow(), deadline);
     return createSmartIdAuthenticationResponse(sessionStatus);
   }
 
+  /**
+   * Send the authentication request and return without waiting for the user
+   * <p>
+   * The session is polled in the background. The verification code is
+   * available right away so it can be displayed while the user is confirming.
+   * With a {@link SessionArbiter} the handle can be of a session started by an earlier request.
+   *
+   * @throws UserAccountNotFoundException when the user account was not found
+   * @throws ServerMaintenanceException when the server is under maintenance
+   *
+   * @return handle of the started session, its result completes with the authentication response
+   */
+  public SessionHandle<SmartIdAuthenticationResponse> initiate() throws UserAccountNotFoundException, ServerMaintenanceException {
+    if (sessionArbiter != null) {
+      validateParameters();
+      return sessionArbiter.initiate(getArbitrationIdentity(), getArbitrationSessionParameters(), deadline, this::startSharedSession);
+    }
+    String sessionId = initiateAuthentication();
+    return createSessionHandle(sessionId, hashToSign.calculateVerificationCode(), this::createSmartIdAuthenticationResponse);
+  }
+
   /**
    * Send the authentication request and get the session Id
    *
@@ -347,13 +396,73 @@ public class AuthenticationRequestBuilder extends SmartIdRequestBuilder {
     }
   }
 
+  void setSessionArbiter(SessionArbiter sessionArbiter) {
+    this.sessionArbiter = sessionArbiter;
+  }
+
+  private SharedSession<SmartIdAuthenticationResponse> startSharedSession() {
+    String sessionId = initiateAuthentication();
+    return createSharedSession(sessionId, hashToSign.calculateVerificationCode(), this::createSmartIdAuthenticationResponse);
+  }
+
+  private String getArbitrationIdentity() {
+    if (isNotEmpty(getDocumentNumber())) {
+      return getRelyingPartyUUID() + "/document/" + getDocumentNumber();
+    }
+    return getRelyingPartyUUID() + "/identifier/" + getSemanticsIdentifier().getIdentifier();
+  }
+
+  // every parameter that affects the session, so that only identical requests share one
+  private String getArbitrationSessionParameters() {
+    AuthenticationSessionRequest request = createAuthenticationSessionRequest();
+    StringBuilder parameters = new StringBuilder();
+    appendArbitrationParameter(parameters, request.getCertificateLevel());
+    appendArbitrationParameter(parameters, request.getHashType());
+    appendArbitrationParameter(parameters, request.getHash());
+    appendArbitrationParameter(parameters, request.getNonce());
+    appendArbitrationParameter(parameters, request.getCapabilities() == null ? null : new TreeSet<>(request.getCapabilities()).toString());
+    if (request.getAllowedInteractionsOrder() != null) {
+      for (Interaction interaction : request.getAllowedInteractionsOrder()) {
+        appendArbitrationParameter(parameters, interaction.getType() == null ? null : interaction.getType().getCode());
+        appendArbitrationParameter(parameters, interaction.getDisplayText60());
+        appendArbitrationParameter(parameters, interaction.getDisplayText200());
+      }
+    }
+    return DigestUtils.sha256Hex(parameters.toString());
+  }
+
+  private static void appendArbitrationParameter(StringBuilder parameters, String value) {
+    // length prefixed so that values containing separators cannot be mistaken for other parameters
+    parameters.append(value == null ? -1 : value.length()).append(':').append(value == null ? "" : value);
+  }
+
+  private static SmartIdAuthenticationResponse awaitResult(SessionHandle<SmartIdAuthenticationResponse> handle) {
+    try {
+      return handle.getResult().get();
+    } catch (InterruptedException e) {
+      handle.cancel();
+      Thread.currentThread().interrupt();
+      logger.error("Failed to poll session status: " + e.getMessage());
+      throw new UnprocessableSmartIdResponseException("Failed to poll session status: " + e.getMessage(), e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new UnprocessableSmartIdResponseException("Failed to poll session status: " + cause.getMessage(), (Exception) cause);
+    }
+  }
+
   private AuthenticationSessionResponse getAuthenticationResponse(AuthenticationSessionRequest request) {
     SemanticsIdentifier semanticsIdentifier = getSemanticsIdentifier();
     if (isNotEmpty(getDocumentNumber())) {
-      return getConnector().authenticate(getDocumentNumber(), request);
+      return getRequestConnector().authenticate(getDocumentNumber(), request);
     }
     else {
-      return getConnector().authenticate(semanticsIdentifier, request);
+      return getRequestConnector().authenticate(semanticsIdentifier, request);
     }
   }
 
@@ -30,14 +30,10 @@ import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.permanent.SmartIdClientException;
 import ee.sk.smartid.exception.useraccount.CertificateLevelMismatchException;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.naming.InvalidNameException;
-import javax.naming.ldap.LdapName;
-import javax.naming.ldap.Rdn;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -48,20 +44,46 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Arrays.asList;
 
 /**
  * Class used to validate the authentication
+ * <p>
+ * One instance can be shared by all threads. Trusted CA certificates are kept in
+ * an immutable snapshot that is replaced as a whole when certificates are added or
+ * cleared, so validations never wait for each other. The default trusted CA certificates
+ * are read from the library once per process.
  */
 public class AuthenticationResponseValidator {
 
   private static final Logger logger = LoggerFactory.getLogger(AuthenticationResponseValidator.class);
 
-  private List<X509Certificate> trustedCACertificates = new ArrayList<>();
+  // longest chain of intermediate CA certificates followed from the authenticating person's certificate
+  private static final int MAX_INTERMEDIATE_CERTIFICATES = 5;
+  // responses validated by one task of validateAll
+  private static final int BATCH_TASK_SIZE = 64;
+  // Signature instances are not thread-safe, so each thread keeps its own for every provider and algorithm,
+  // shared by all validators so that the number of instances does not grow with the number of validators
+  private static final ThreadLocal<Map<String, Signature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+
+  // trusted and intermediate CA certificates, replaced together so that a validation sees one consistent snapshot
+  private final AtomicReference<TrustAnchors> trustAnchors;
+  private volatile VerifiedCertificateCache verifiedCertificateCache;
+  private volatile Provider signatureProvider;
+  private volatile AuthenticationIdentityCache authenticationIdentityCache;
+
   /**
    * Constructs a new {@code AuthenticationResponseValidator}.
    * <p>
@@ -71,7 +93,7 @@ public class AuthenticationResponseValidator {
    * @throws SmartIdClientException when there was an error initializing trusted CA certificates
    */
   public AuthenticationResponseValidator() {
-      initializeTrustedCACertificatesFromKeyStore();
+    trustAnchors = new AtomicReference<>(new TrustAnchors(DefaultTrustedCACertificates.get(), TrustAnchorIndex.EMPTY));
   }
 
   /**
@@ -83,7 +105,7 @@ public class AuthenticationResponseValidator {
    * @throws SmartIdClientException when there was an error initializing trusted CA certificates
    */
   public AuthenticationResponseValidator(X509Certificate[] trustedCertificates) {
-    trustedCACertificates.addAll(asList(trustedCertificates));
+    trustAnchors = new AtomicReference<>(new TrustAnchors(new TrustAnchorIndex(asList(trustedCertificates)), TrustAnchorIndex.EMPTY));
   }
 
   /**
@@ -99,23 +121,101 @@ public class AuthenticationResponseValidator {
    * @return authentication result
    */
   public AuthenticationIdentity validate(SmartIdAuthenticationResponse authenticationResponse) {
+    return validate(authenticationResponse, trustAnchors.get(), null);
+  }
+
+  /**
+   * Validates many authentication responses in parallel on the common fork-join pool
+   *
+   * @see #validateAll(Collection, Executor)
+   *
+   * @param authenticationResponses authentication responses to be validated
+   * @return outcome of every response, in the iteration order of the collection
+   */
+  public List<AuthenticationValidationResult> validateAll(Collection<SmartIdAuthenticationResponse> authenticationResponses) {
+    return validateAll(authenticationResponses, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Validates many authentication responses in parallel, e.g. when stored responses are audited
+   * <p>
+   * Performs the same validations as {@link #validate(SmartIdAuthenticationResponse)} but does not
+   * throw when a response is not valid, the reason is returned in its outcome instead. All responses
+   * are validated against the trusted CA certificates as they were when this method was called, and
+   * a certificate appearing in many responses is verified against them only once.
+   *
+   * @param authenticationResponses authentication responses to be validated
+   * @param executor executor validating the responses, a share of them per task
+   * @return outcome of every response, in the iteration order of the collection
+   */
+  public List<AuthenticationValidationResult> validateAll(Collection<SmartIdAuthenticationResponse> authenticationResponses, Executor executor) {
+    List<SmartIdAuthenticationResponse> responses = new ArrayList<>(authenticationResponses);
+    AuthenticationValidationResult[] results = new AuthenticationValidationResult[responses.size()];
+    TrustAnchors anchors = trustAnchors.get();
+    Map<X509Certificate, Boolean> certificatesTrusted = new ConcurrentHashMap<>();
+
+    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    for (int start = 0; start < responses.size(); start += BATCH_TASK_SIZE) {
+      int from = start;
+      int to = Math.min(start + BATCH_TASK_SIZE, responses.size());
+      tasks.add(CompletableFuture.runAsync(() -> {
+        for (int i = from; i < to; i++) {
+          results[i] = validateForResult(responses.get(i), anchors, certificatesTrusted);
+        }
+      }, executor));
+    }
+    CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+    return asList(results);
+  }
+
+  private AuthenticationValidationResult validateForResult(SmartIdAuthenticationResponse authenticationResponse, TrustAnchors anchors,
+      Map<X509Certificate, Boolean> certificatesTrusted) {
+    try {
+      AuthenticationIdentity identity = validate(authenticationResponse, anchors, certificatesTrusted);
+      return AuthenticationValidationResult.valid(authenticationResponse, identity);
+    } catch (RuntimeException e) {
+      logger.debug("Authentication response is not valid: " + e.getMessage());
+      return AuthenticationValidationResult.invalid(authenticationResponse, e);
+    }
+  }
+
+  private AuthenticationIdentity validate(SmartIdAuthenticationResponse authenticationResponse, TrustAnchors anchors,
+      Map<X509Certificate, Boolean> certificatesTrusted) {
     validateAuthenticationResponse(authenticationResponse);
-    AuthenticationIdentity identity = constructAuthenticationIdentity(authenticationResponse.getCertificate());
+    X509Certificate certificate = authenticationResponse.getCertificate();
+    VerifiedCertificateCache certificateCache = verifiedCertificateCache;
+    AuthenticationIdentityCache identityCache = authenticationIdentityCache;
+    // both caches are keyed by the fingerprint, computed once and only when a cache is set
+    String fingerprint = certificateCache == null && identityCache == null ? null : VerifiedCertificateCache.getFingerprint(certificate);
+    AuthenticationIdentity cachedIdentity = identityCache == null ? null : identityCache.get(fingerprint);
+    AuthenticationIdentity identity = cachedIdentity != null ? cachedIdentity : constructAuthenticationIdentity(certificate);
     if (!verifyResponseEndResult(authenticationResponse)) {
       throw new UnprocessableSmartIdResponseException("Smart-ID API returned end result code '" + authenticationResponse.getEndResult() + "'");
     }
     if (!verifySignature(authenticationResponse)) {
       throw new UnprocessableSmartIdResponseException("Failed to verify validity of signature returned by Smart-ID");
     }
-    if (!verifyCertificateExpiry(authenticationResponse.getCertificate())) {
-      throw new UnprocessableSmartIdResponseException("Signer's certificate has expired");
-    }
-    if (!isCertificateTrusted(authenticationResponse.getCertificate())) {
-      throw new UnprocessableSmartIdResponseException("Signer's certificate is not trusted");
+    // entries are keyed by the snapshot they were verified against, so a change of trust is never bypassed
+    if (certificateCache == null || !certificateCache.isVerified(fingerprint, anchors)) {
+      if (!verifyCertificateExpiry(certificate)) {
+        throw new UnprocessableSmartIdResponseException("Signer's certificate has expired");
+      }
+      boolean certificateTrusted = certificatesTrusted == null
+          ? isCertificateTrusted(certificate, anchors)
+          : certificatesTrusted.computeIfAbsent(certificate, trustedCertificate -> isCertificateTrusted(trustedCertificate, anchors));
+      if (!certificateTrusted) {
+        throw new UnprocessableSmartIdResponseException("Signer's certificate is not trusted");
+      }
+      if (certificateCache != null) {
+        certificateCache.add(fingerprint, certificate, anchors);
+      }
     }
     if (!verifyCertificateLevel(authenticationResponse)) {
       throw new CertificateLevelMismatchException();
     }
+    if (identityCache != null && cachedIdentity == null) {
+      identityCache.add(fingerprint, certificate, identity);
+    }
     return identity;
   }
 
@@ -125,11 +225,13 @@ public class AuthenticationResponseValidator {
    * Authenticating person's certificate has to be issued by
    * one of the trusted CA certificates. Otherwise the person's
    * authentication is deemed untrusted and therefore not valid.
+   * The returned list is a snapshot that cannot be modified, use
+   * {@link #addTrustedCACertificate(X509Certificate)} and {@link #clearTrustedCACertificates()}.
    *
    * @return list of trusted CA certificates
    */
   public List<X509Certificate> getTrustedCACertificates() {
-    return trustedCACertificates;
+    return trustAnchors.get().trustedCertificates.getCertificates();
   }
 
   /**
@@ -142,7 +244,8 @@ public class AuthenticationResponseValidator {
    * @param certificate trusted CA certificate
    */
   public void addTrustedCACertificate(X509Certificate certificate) {
-    trustedCACertificates.add(certificate);
+    trustAnchors.updateAndGet(anchors -> new TrustAnchors(anchors.trustedCertificates.with(certificate), anchors.intermediateCertificates));
+    clearVerifiedCertificateCache();
   }
 
   /**
@@ -189,23 +292,65 @@ public class AuthenticationResponseValidator {
    * authenticating person.
    */
   public void clearTrustedCACertificates() {
-    trustedCACertificates.clear();
+    trustAnchors.updateAndGet(anchors -> new TrustAnchors(TrustAnchorIndex.EMPTY, anchors.intermediateCertificates));
+    clearVerifiedCertificateCache();
   }
 
-  private void initializeTrustedCACertificatesFromKeyStore() {
-    try (InputStream is = AuthenticationResponseValidator.class.getResourceAsStream("/trusted_certificates.jks")) {
-      KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
-      keystore.load(is, "changeit".toCharArray());
-      Enumeration<String> aliases = keystore.aliases();
-      while (aliases.hasMoreElements()) {
-        String alias = aliases.nextElement();
-        X509Certificate certificate = (X509Certificate) keystore.getCertificate(alias);
-        addTrustedCACertificate(certificate);
-      }
-    } catch (IOException | CertificateException | KeyStoreException | NoSuchAlgorithmException e) {
-      logger.error("Error initializing trusted CA certificates", e);
-      throw new SmartIdClientException("Error initializing trusted CA certificates", e);
-    }
+  /**
+   * Adds an intermediate CA certificate
+   * <p>
+   * Intermediate CA certificates are not trusted by themselves. They let the
+   * authenticating person's certificate be verified when it was issued by a CA
+   * whose own certificate chains up to one of the trusted CA certificates.
+   *
+   * @param certificate intermediate CA certificate
+   */
+  public void addIntermediateCACertificate(X509Certificate certificate) {
+    trustAnchors.updateAndGet(anchors -> new TrustAnchors(anchors.trustedCertificates, anchors.intermediateCertificates.with(certificate)));
+    clearVerifiedCertificateCache();
+  }
+
+  /**
+   * Clears the list of intermediate CA certificates
+   */
+  public void clearIntermediateCACertificates() {
+    trustAnchors.updateAndGet(anchors -> new TrustAnchors(anchors.trustedCertificates, TrustAnchorIndex.EMPTY));
+    clearVerifiedCertificateCache();
+  }
+
+  /**
+   * Sets the cache of certificates already found to be trusted and not expired
+   * <p>
+   * Certificates found in the cache are not verified against the trusted
+   * CA certificates again, see {@link VerifiedCertificateCache}. Not used by default.
+   *
+   * @param verifiedCertificateCache verified certificate cache or null to verify every certificate
+   */
+  public void setVerifiedCertificateCache(VerifiedCertificateCache verifiedCertificateCache) {
+    this.verifiedCertificateCache = verifiedCertificateCache;
+  }
+
+  /**
+   * Sets the cache of identities of persons whose authentications were found to be valid
+   * <p>
+   * The identity of a certificate found in the cache is not read from the
+   * certificate again, see {@link AuthenticationIdentityCache}. Not used by default.
+   *
+   * @param authenticationIdentityCache authentication identity cache or null to read the identity of every certificate
+   */
+  public void setAuthenticationIdentityCache(AuthenticationIdentityCache authenticationIdentityCache) {
+    this.authenticationIdentityCache = authenticationIdentityCache;
+  }
+
+  /**
+   * Sets the JCA provider verifying the signatures of authentication responses
+   * <p>
+   * By default the most preferred provider supporting the algorithm of the signer's key is used.
+   *
+   * @param provider signature provider or null to use the default one
+   */
+  public void setSignatureProvider(Provider provider) {
+    this.signatureProvider = provider;
   }
 
   private void validateAuthenticationResponse(SmartIdAuthenticationResponse authenticationResponse) {
@@ -230,11 +375,11 @@ public class AuthenticationResponseValidator {
   private boolean verifySignature(SmartIdAuthenticationResponse authenticationResponse) {
     try {
       PublicKey signersPublicKey = authenticationResponse.getCertificate().getPublicKey();
-      Signature signature = Signature.getInstance("NONEwith" + signersPublicKey.getAlgorithm());
+      Signature signature = getSignature("NONEwith" + signersPublicKey.getAlgorithm());
       signature.initVerify(signersPublicKey);
       byte[] signedHash = Base64.decodeBase64(authenticationResponse.getSignedHashInBase64());
-      byte[] signedDigestWithPadding = addPadding(authenticationResponse.getHashType().getDigestInfoPrefix(), signedHash);
-      signature.update(signedDigestWithPadding);
+      authenticationResponse.getHashType().updateWithDigestInfoPrefix(signature);
+      signature.update(signedHash);
       return signature.verify(authenticationResponse.getSignatureValue());
     } catch (GeneralSecurityException e) {
       logger.error("Signature verification failed");
@@ -242,54 +387,114 @@ public class AuthenticationResponseValidator {
     }
   }
 
+  private Signature getSignature(String algorithm) throws NoSuchAlgorithmException {
+    Provider provider = signatureProvider;
+    Map<String, Signature> threadSignatures = SIGNATURES.get();
+    String key = provider == null ? algorithm : provider.getName() + "/" + algorithm;
+    Signature signature = threadSignatures.get(key);
+    // an instance of another provider with the same name, e.g. after a redeployment, is replaced
+    if (signature == null || (provider != null && signature.getProvider() != provider)) {
+      signature = provider == null ? Signature.getInstance(algorithm) : Signature.getInstance(algorithm, provider);
+      threadSignatures.put(key, signature);
+    }
+    return signature;
+  }
+
   private boolean verifyCertificateExpiry(X509Certificate certificate) {
     return !certificate.getNotAfter().before(new Date());
   }
 
-  private boolean isCertificateTrusted(X509Certificate certificate) {
-    for (X509Certificate trustedCACertificate : trustedCACertificates) {
-      try {
-        certificate.verify(trustedCACertificate.getPublicKey());
-        logger.info("Certificate verification passed for '{}' against CA certificate '{}' ", certificate.getSubjectDN() ,trustedCACertificate.getSubjectDN() );
+  boolean isCertificateTrusted(X509Certificate certificate) {
+    return isCertificateTrusted(certificate, trustAnchors.get());
+  }
 
+  private boolean isCertificateTrusted(X509Certificate certificate, TrustAnchors anchors) {
+    X509Certificate current = certificate;
+    for (int i = 0; i <= MAX_INTERMEDIATE_CERTIFICATES; i++) {
+      X509Certificate trustedCACertificate = anchors.trustedCertificates.findIssuer(current);
+      if (trustedCACertificate != null) {
+        logger.info("Certificate verification passed for '{}' against CA certificate '{}' ", certificate.getSubjectDN() ,trustedCACertificate.getSubjectDN() );
         return true;
-      } catch (GeneralSecurityException e) {
-        logger.debug("Error verifying signer's certificate: " + certificate.getSubjectDN() + " against CA certificate: " + trustedCACertificate.getSubjectDN(), e);
       }
+      X509Certificate intermediateCACertificate = anchors.intermediateCertificates.findIssuer(current);
+      if (intermediateCACertificate == null || intermediateCACertificate == current || !verifyCertificateExpiry(intermediateCACertificate)) {
+        return false;
+      }
+      current = intermediateCACertificate;
     }
     return false;
   }
 
+  private void clearVerifiedCertificateCache() {
+    VerifiedCertificateCache certificateCache = verifiedCertificateCache;
+    if (certificateCache != null) {
+      certificateCache.clear();
+    }
+  }
+
   private boolean verifyCertificateLevel(SmartIdAuthenticationResponse authenticationResponse) {
     CertificateLevel certLevel = new CertificateLevel(authenticationResponse.getCertificateLevel());
     String requestedCertificateLevel = authenticationResponse.getRequestedCertificateLevel();
     return StringUtils.isEmpty(requestedCertificateLevel) || certLevel.isEqualOrAbove(requestedCertificateLevel);
   }
 
-  private static byte[] addPadding(byte[] digestInfoPrefix, byte[] digest) {
-    return ArrayUtils.addAll(digestInfoPrefix, digest);
+  AuthenticationIdentity constructAuthenticationIdentity(X509Certificate certificate) {
+    return AuthenticationIdentityExtractor.extractIdentity(certificate);
   }
 
-  AuthenticationIdentity constructAuthenticationIdentity(X509Certificate certificate) {
-    AuthenticationIdentity identity = new AuthenticationIdentity();
-    try {
-      LdapName ln = new LdapName(certificate.getSubjectDN().getName());
-      for(Rdn rdn : ln.getRdns()) {
-        if(rdn.getType().equalsIgnoreCase("GIVENNAME")) {
-          identity.setGivenName(rdn.getValue().toString());
-        } else if(rdn.getType().equalsIgnoreCase("SURNAME")) {
-          identity.setSurname(rdn.getValue().toString());
-        } else if(rdn.getType().equalsIgnoreCase("SERIALNUMBER")) {
-          identity.setIdentityNumber(rdn.getValue().toString().split("-", 2)[1]);
-        } else if(rdn.getType().equalsIgnoreCase("C")) {
-          identity.setCountry(rdn.getValue().toString());
-        }
+  /**
+   * Trusted and intermediate CA certificates a validation is done against, compared by identity
+   */
+  private static final class TrustAnchors {
+
+    private final TrustAnchorIndex trustedCertificates;
+    private final TrustAnchorIndex intermediateCertificates;
+
+    private TrustAnchors(TrustAnchorIndex trustedCertificates, TrustAnchorIndex intermediateCertificates) {
+      this.trustedCertificates = trustedCertificates;
+      this.intermediateCertificates = intermediateCertificates;
+    }
+  }
+
+  /**
+   * Trusted CA certificates bundled with the library, read when the first validator using them is created
+   */
+  private static final class DefaultTrustedCACertificates {
+
+    private static final TrustAnchorIndex CERTIFICATES;
+    private static final Exception LOADING_ERROR;
 
+    static {
+      TrustAnchorIndex certificates = null;
+      Exception loadingError = null;
+      try {
+        certificates = load();
+      } catch (IOException | GeneralSecurityException e) {
+        logger.error("Error initializing trusted CA certificates", e);
+        loadingError = e;
+      }
+      CERTIFICATES = certificates;
+      LOADING_ERROR = loadingError;
+    }
+
+    private static TrustAnchorIndex get() {
+      if (LOADING_ERROR != null) {
+        throw new SmartIdClientException("Error initializing trusted CA certificates", LOADING_ERROR);
+      }
+      return CERTIFICATES;
+    }
+
+    private static TrustAnchorIndex load() throws IOException, GeneralSecurityException {
+      try (InputStream is = AuthenticationResponseValidator.class.getResourceAsStream("/trusted_certificates.jks")) {
+        KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keystore.load(is, "changeit".toCharArray());
+        List<X509Certificate> certificates = new ArrayList<>();
+        Enumeration<String> aliases = keystore.aliases();
+        while (aliases.hasMoreElements()) {
+          certificates.add((X509Certificate) keystore.getCertificate(aliases.nextElement()));
+        }
+        return new TrustAnchorIndex(certificates);
       }
-      return identity;
-    } catch (InvalidNameException e) {
-      logger.error("Error getting authentication identity from the certificate", e);
-      throw new SmartIdClientException("Error getting authentication identity from the certificate", e);
     }
   }
 }
@@ -0,0 +1,85 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+/**
+ * Outcome of validating one authentication response with
+ * {@link AuthenticationResponseValidator#validateAll(java.util.Collection)}
+ */
+public class AuthenticationValidationResult {
+
+  private final SmartIdAuthenticationResponse authenticationResponse;
+  private final AuthenticationIdentity identity;
+  private final RuntimeException error;
+
+  private AuthenticationValidationResult(SmartIdAuthenticationResponse authenticationResponse, AuthenticationIdentity identity, RuntimeException error) {
+    this.authenticationResponse = authenticationResponse;
+    this.identity = identity;
+    this.error = error;
+  }
+
+  static AuthenticationValidationResult valid(SmartIdAuthenticationResponse authenticationResponse, AuthenticationIdentity identity) {
+    return new AuthenticationValidationResult(authenticationResponse, identity, null);
+  }
+
+  static AuthenticationValidationResult invalid(SmartIdAuthenticationResponse authenticationResponse, RuntimeException error) {
+    return new AuthenticationValidationResult(authenticationResponse, null, error);
+  }
+
+  public SmartIdAuthenticationResponse getAuthenticationResponse() {
+    return authenticationResponse;
+  }
+
+  public boolean isValid() {
+    return error == null;
+  }
+
+  /**
+   * @return identity of the authenticated person or null when the response is not valid
+   */
+  public AuthenticationIdentity getIdentity() {
+    return identity;
+  }
+
+  /**
+   * @return exception {@link AuthenticationResponseValidator#validate(SmartIdAuthenticationResponse)} would have thrown
+   * or null when the response is valid
+   */
+  public RuntimeException getError() {
+    return error;
+  }
+
+  /**
+   * @return why the response is not valid or null when it is valid
+   */
+  public String getFailureReason() {
+    if (error == null) {
+      return null;
+    }
+    return error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+  }
+}
@@ -34,6 +34,7 @@ import java.util.HashSet;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+import ee.sk.smartid.exception.DeadlineExceededException;
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
 import ee.sk.smartid.exception.permanent.SmartIdClientException;
@@ -41,6 +42,7 @@ import ee.sk.smartid.exception.useraccount.DocumentUnusableException;
 import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
 import ee.sk.smartid.exception.useraction.SessionTimeoutException;
 import ee.sk.smartid.exception.useraction.UserRefusedException;
+import ee.sk.smartid.rest.Deadline;
 import ee.sk.smartid.rest.SessionStatusPoller;
 import ee.sk.smartid.rest.SmartIdConnector;
 import ee.sk.smartid.rest.dao.Capability;
@@ -227,6 +229,21 @@ public class CertificateRequestBuilder extends SmartIdRequestBuilder {
     return this;
   }
 
+  /**
+   * Sets the deadline for the whole operation
+   * <p>
+   * Requests to the Smart-ID service and session status polling give up
+   * with {@link DeadlineExceededException} when the deadline passes.
+   * The same deadline may be passed to several builders to share one time budget.
+   *
+   * @param deadline deadline of the operation
+   * @return this builder
+   */
+  public CertificateRequestBuilder withDeadline(Deadline deadline) {
+    this.deadline = deadline;
+    return this;
+  }
+
   /**
    * Send the certificate choice request and get the response
    *x
@@ -236,6 +253,7 @@ public class CertificateRequestBuilder extends SmartIdRequestBuilder {
    * @throws DocumentUnusableException when for some reason, this relying party request cannot be completed.
    *                                   User must either check his/her Smart-ID mobile application or turn to customer support for getting the exact reason.
    * @throws ServerMaintenanceException when the server is under maintenance
+   * @throws DeadlineExceededException when the operation did not finish before the deadline set with {@link #withDeadline(Deadline)}
    *
    * @return the certificate choice response
    */
@@ -244,10 +262,26 @@ public class CertificateRequestBuilder extends SmartIdRequestBuilder {
     logger.debug("Starting to fetch certificate");
     validateParameters();
     String sessionId = initiateCertificateChoice();
-    SessionStatus sessionStatus = getSessionStatusPoller().fetchFinalSessionStatus(sessionId);
+    SessionStatus sessionStatus = getSessionStatusPoller().fetchFinalSessionStatus(sessionId, null, deadline);
     return createSmartIdCertificate(sessionStatus);
   }
 
+  /**
+   * Send the certificate choice request and return without waiting for the user
+   * <p>
+   * The session is polled in the background. Certificate choice has no
+   * verification code.
+   *
+   * @throws UserAccountNotFoundException when the user account was not found
+   * @throws ServerMaintenanceException when the server is under maintenance
+   *
+   * @return handle of the started session, its result completes with the chosen certificate
+   */
+  public SessionHandle<SmartIdCertificate> initiate() throws UserAccountNotFoundException, ServerMaintenanceException {
+    String sessionId = initiateCertificateChoice();
+    return createSessionHandle(sessionId, null, this::createSmartIdCertificate);
+  }
+
   /**
    * Send the certificate choice request and get the session Id
    *
@@ -289,10 +323,10 @@ public class CertificateRequestBuilder extends SmartIdRequestBuilder {
 
   private CertificateChoiceResponse fetchCertificateChoiceSessionResponse(CertificateRequest request) {
     if (isNotEmpty(getDocumentNumber())) {
-      return getConnector().getCertificate(getDocumentNumber(), request);
+      return getRequestConnector().getCertificate(getDocumentNumber(), request);
     }
     else if(getSemanticsIdentifier() != null) {
-      return getConnector().getCertificate(getSemanticsIdentifier(), request);
+      return getRequestConnector().getCertificate(getSemanticsIdentifier(), request);
     }
     else {
       throw new IllegalStateException("Either set semanticsIdentifier or documentNumber");
@@ -26,6 +26,9 @@ package ee.sk.smartid;
  * #L%
  */
 
+import java.security.Signature;
+import java.security.SignatureException;
+
 public enum HashType {
 
   SHA256("SHA-256", "SHA256", new byte[] { 0x30, 0x31, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01, 0x05, 0x00, 0x04, 0x20 }),
@@ -53,4 +56,8 @@ public enum HashType {
   public byte[] getDigestInfoPrefix() {
     return digestInfoPrefix.clone();
   }
+
+  void updateWithDigestInfoPrefix(Signature signature) throws SignatureException {
+    signature.update(digestInfoPrefix);
+  }
 }
@@ -0,0 +1,197 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.SessionSupersededException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides what happens when an authentication is started for a person who already has one running
+ * <p>
+ * A double click on "Log in" or two browser tabs would otherwise start two Smart-ID sessions for
+ * the same person, one of which is cancelled on the phone while both are polled until they end.
+ * With {@link Policy#JOIN} later identical requests take part in the session already running and get
+ * its result, including its verification code and signed hash. Requests are identical when all parameters
+ * of the session are equal: certificate level, hash type and hash, nonce, capabilities and allowed
+ * interactions with their display texts. A request with other parameters starts a session of its own.
+ * <p>
+ * As the hash is one of the parameters, requests only join when the caller reuses the same
+ * {@link AuthenticationHash} for one login attempt, e.g. by keeping it in the HTTP session until the
+ * authentication has ended. A hash generated with {@link AuthenticationHash#generateRandomHash()} for
+ * every request makes every request start a session of its own and {@link Policy#JOIN} does nothing.
+ * With {@link Policy#SUPERSEDE} any later request of the person starts a new session and polling of the
+ * older one stops right away, its request fails with {@link SessionSupersededException}.
+ * <p>
+ * People are told apart by relying party and document number or semantics identifier.
+ * Running sessions are kept in a {@link ConcurrentHashMap}, so requests of different people
+ * do not wait for each other. A joining request waits until the session it joins has been
+ * started, i.e. until the initiation request of the first one has been answered. Every request is bound to its own
+ * deadline set with {@link AuthenticationRequestBuilder#withDeadline(Deadline)}: at the deadline
+ * it fails with {@link DeadlineExceededException} and the session is polled on for the
+ * other requests. Polling stops when all requests have been cancelled or passed their deadline. Only sessions started with
+ * {@link AuthenticationRequestBuilder#authenticate()} or {@link AuthenticationRequestBuilder#initiate()}
+ * take part. One instance can be shared between clients, see {@link SmartIdClient#setSessionArbiter(SessionArbiter)}.
+ */
+public class SessionArbiter {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionArbiter.class);
+
+  public enum Policy {
+    /**
+     * Later requests with the same parameters, including the same authentication hash,
+     * take part in the session already running for the person
+     */
+    JOIN,
+    /**
+     * Later requests start a new session and polling of the older one is stopped
+     */
+    SUPERSEDE
+  }
+
+  private final Policy policy;
+  private final ConcurrentMap<String, CompletableFuture<SharedSession<?>>> sessions = new ConcurrentHashMap<>();
+  private final AtomicLong joinedRequests = new AtomicLong();
+  private final AtomicLong supersededSessions = new AtomicLong();
+
+  public SessionArbiter(Policy policy) {
+    if (policy == null) {
+      throw new SmartIdClientException("Session arbitration policy must be set");
+    }
+    this.policy = policy;
+  }
+
+  /**
+   * Starts a session for the person or takes part in the identical one already running
+   *
+   * @param identity identifies the person and relying party of the request
+   * @param sessionParameters identifies all parameters of the session the request starts
+   * @param deadline deadline of the request, or null to wait until the session is no longer running
+   * @param sessionStarter starts a new session
+   * @return handle of the session for this request
+   */
+  <T> SessionHandle<T> initiate(String identity, String sessionParameters, Deadline deadline, Supplier<SharedSession<T>> sessionStarter) {
+    CompletableFuture<SharedSession<?>> claim = new CompletableFuture<>();
+    if (policy == Policy.SUPERSEDE) {
+      CompletableFuture<SharedSession<?>> previous = sessions.put(identity, claim);
+      if (previous != null) {
+        previous.thenAccept(this::supersede);
+      }
+      return startSession(identity, claim, deadline, sessionStarter);
+    }
+    // only requests with the same parameters share a session
+    String key = identity + "/" + sessionParameters;
+    while (true) {
+      CompletableFuture<SharedSession<?>> current = sessions.putIfAbsent(key, claim);
+      if (current == null) {
+        return startSession(key, claim, deadline, sessionStarter);
+      }
+      SessionHandle<T> handle = join(current, deadline);
+      if (handle != null) {
+        joinedRequests.incrementAndGet();
+        return handle;
+      }
+      // the session failed to start or all its requests were cancelled
+      sessions.remove(key, current);
+    }
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * @return number of requests that took part in a session started by an earlier request
+   */
+  public long getJoinedRequestCount() {
+    return joinedRequests.get();
+  }
+
+  /**
+   * @return number of sessions whose polling was stopped because a newer session was started
+   */
+  public long getSupersededSessionCount() {
+    return supersededSessions.get();
+  }
+
+  /**
+   * @return number of sessions being started or polled
+   */
+  public int getSessionsInFlightCount() {
+    return sessions.size();
+  }
+
+  private <T> SessionHandle<T> startSession(String key, CompletableFuture<SharedSession<?>> claim, Deadline deadline,
+      Supplier<SharedSession<T>> sessionStarter) {
+    SharedSession<T> session;
+    try {
+      session = sessionStarter.get();
+    } catch (RuntimeException e) {
+      sessions.remove(key, claim);
+      claim.completeExceptionally(e);
+      throw e;
+    }
+    // handle of the starting request is created before others can join or supersede the session
+    SessionHandle<T> handle = session.newHandle(deadline);
+    claim.complete(session);
+    session.whenDone(() -> sessions.remove(key, claim));
+    return handle;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> SessionHandle<T> join(CompletableFuture<SharedSession<?>> current, Deadline deadline) {
+    SharedSession<?> session;
+    try {
+      session = current.join();
+    } catch (CompletionException | CancellationException e) {
+      return null;
+    }
+    SessionHandle<T> handle = (SessionHandle<T>) session.newHandle(deadline);
+    if (handle != null) {
+      logger.debug("Request joined running session " + session.getSessionId());
+    }
+    return handle;
+  }
+
+  private void supersede(SharedSession<?> session) {
+    if (session.supersede()) {
+      supersededSessions.incrementAndGet();
+      logger.debug("Session " + session.getSessionId() + " was superseded, stopped polling it");
+    }
+  }
+}
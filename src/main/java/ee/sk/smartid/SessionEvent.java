@@ -0,0 +1,86 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.rest.dao.SessionStatus;
+
+/**
+ * Step in the lifecycle of a Smart-ID session
+ *
+ * @see SessionHandle#getEvents()
+ */
+public class SessionEvent {
+
+  public enum Type {
+    /** Session was created, user has not answered yet */
+    INITIATED,
+    /** Session status poll returned RUNNING */
+    RUNNING,
+    /** Session is finished, see {@link #getEndResult()} */
+    COMPLETE
+  }
+
+  private final Type type;
+  private final String sessionId;
+  private final SessionStatus sessionStatus;
+
+  SessionEvent(Type type, String sessionId, SessionStatus sessionStatus) {
+    this.type = type;
+    this.sessionId = sessionId;
+    this.sessionStatus = sessionStatus;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * @return session status the event was created from, null for {@link Type#INITIATED}
+   */
+  public SessionStatus getSessionStatus() {
+    return sessionStatus;
+  }
+
+  /**
+   * @return end result of a completed session (e.g. OK, USER_REFUSED, TIMEOUT), null before the session is complete
+   */
+  public String getEndResult() {
+    if (sessionStatus == null || sessionStatus.getResult() == null) {
+      return null;
+    }
+    return sessionStatus.getResult().getEndResult();
+  }
+
+  @Override
+  public String toString() {
+    return "SessionEvent{type=" + type + ", sessionId='" + sessionId + "', endResult=" + getEndResult() + '}';
+  }
+}
@@ -0,0 +1,218 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the events of one session to a single subscriber
+ * <p>
+ * Events are buffered until requested. A RUNNING event that has not been
+ * delivered yet is replaced by the next one, so a slow subscriber holds at
+ * most the initiated event, the latest RUNNING event and the final event.
+ * The stream completes after the COMPLETE event, or fails with the
+ * exception the blocking request would have thrown.
+ */
+class SessionEventPublisher implements Publisher<SessionEvent> {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionEventPublisher.class);
+
+  private final String sessionId;
+  private final AtomicReference<Subscriber<? super SessionEvent>> subscriber = new AtomicReference<>();
+  private final ReentrantLock eventsLock = new ReentrantLock();
+  private final Deque<SessionEvent> events = new ArrayDeque<>();
+  private final AtomicLong requested = new AtomicLong();
+  private final AtomicInteger drainRequests = new AtomicInteger();
+  private volatile Runnable cancelAction;
+  private volatile boolean finished;
+  private volatile Throwable error;
+  private volatile Throwable invalidRequest;
+  private volatile boolean cancelled;
+  private boolean terminated;
+
+  SessionEventPublisher(String sessionId) {
+    this.sessionId = sessionId;
+    events.add(new SessionEvent(SessionEvent.Type.INITIATED, sessionId, null));
+  }
+
+  void setCancelAction(Runnable cancelAction) {
+    this.cancelAction = cancelAction;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super SessionEvent> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+    if (!this.subscriber.compareAndSet(null, subscriber)) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      subscriber.onError(new IllegalStateException("Events of session " + sessionId + " can only be subscribed once"));
+      return;
+    }
+    subscriber.onSubscribe(new SessionSubscription());
+    drain();
+  }
+
+  void onRunningStatus(SessionStatus sessionStatus) {
+    addEvent(new SessionEvent(SessionEvent.Type.RUNNING, sessionId, sessionStatus));
+  }
+
+  void onFinalStatus(SessionStatus sessionStatus) {
+    addEvent(new SessionEvent(SessionEvent.Type.COMPLETE, sessionId, sessionStatus));
+  }
+
+  void onResult(Object result, Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+    this.error = error;
+    this.finished = true;
+    drain();
+  }
+
+  private void addEvent(SessionEvent event) {
+    eventsLock.lock();
+    try {
+      if (event.getType() == SessionEvent.Type.RUNNING && !events.isEmpty()
+          && events.peekLast().getType() == SessionEvent.Type.RUNNING) {
+        events.pollLast();
+      }
+      events.add(event);
+    } finally {
+      eventsLock.unlock();
+    }
+    drain();
+  }
+
+  private SessionEvent nextEvent() {
+    eventsLock.lock();
+    try {
+      return events.poll();
+    } finally {
+      eventsLock.unlock();
+    }
+  }
+
+  private boolean hasEvents() {
+    eventsLock.lock();
+    try {
+      return !events.isEmpty();
+    } finally {
+      eventsLock.unlock();
+    }
+  }
+
+  private void drain() {
+    Subscriber<? super SessionEvent> subscriber = this.subscriber.get();
+    if (subscriber == null) {
+      return;
+    }
+    // only one thread signals the subscriber at a time, others just ask it to go another round
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      if (!terminated && !cancelled) {
+        signal(subscriber);
+      }
+      missed = drainRequests.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void signal(Subscriber<? super SessionEvent> subscriber) {
+    if (invalidRequest != null) {
+      terminated = true;
+      subscriber.onError(invalidRequest);
+      return;
+    }
+    while (requested.get() > 0 && !cancelled) {
+      SessionEvent event = nextEvent();
+      if (event == null) {
+        break;
+      }
+      if (requested.get() != Long.MAX_VALUE) {
+        requested.decrementAndGet();
+      }
+      subscriber.onNext(event);
+    }
+    if (finished && !cancelled && !hasEvents()) {
+      terminated = true;
+      if (error != null) {
+        subscriber.onError(error);
+      } else {
+        subscriber.onComplete();
+      }
+    }
+  }
+
+  private class SessionSubscription implements Subscription {
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = new IllegalArgumentException("Requested number of events must be positive, got " + n);
+      } else {
+        requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      logger.debug("Subscriber cancelled events of session " + sessionId);
+      Runnable cancelAction = SessionEventPublisher.this.cancelAction;
+      if (cancelAction != null) {
+        cancelAction.run();
+      }
+    }
+  }
+}
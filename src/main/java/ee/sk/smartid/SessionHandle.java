@@ -0,0 +1,122 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.reactivestreams.Publisher;
+
+/**
+ * Session that has been started and is polled in the background
+ * <p>
+ * Returned right after the session is created, so the verification code
+ * can be shown to the user while the result is still pending.
+ *
+ * @param <T> type of the final result of the session
+ */
+public class SessionHandle<T> {
+
+  private final String sessionId;
+  private final String verificationCode;
+  private final CompletableFuture<SessionStatus> sessionStatus;
+  private final CompletableFuture<T> result;
+  private final SessionEventPublisher events;
+
+  SessionHandle(String sessionId, String verificationCode, CompletableFuture<SessionStatus> sessionStatus,
+      Function<SessionStatus, T> resultFactory, SessionEventPublisher events) {
+    this.sessionId = sessionId;
+    this.verificationCode = verificationCode;
+    this.sessionStatus = sessionStatus;
+    this.events = events;
+    this.result = sessionStatus.thenApply(status -> {
+      events.onFinalStatus(status);
+      return resultFactory.apply(status);
+    });
+    this.result.whenComplete((response, error) -> {
+      if (error instanceof CancellationException) {
+        sessionStatus.cancel(false);
+      }
+      events.onResult(response, error);
+    });
+    events.setCancelAction(this::cancel);
+  }
+
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * @return verification code to display to the user, or null when the session has none (certificate choice)
+   */
+  public String getVerificationCode() {
+    return verificationCode;
+  }
+
+  /**
+   * Gets the result of the session
+   * <p>
+   * Completes exceptionally with the same exceptions the blocking
+   * variant of the request throws.
+   *
+   * @return future completed when the session is no longer running
+   */
+  public CompletableFuture<T> getResult() {
+    return result;
+  }
+
+  /**
+   * Stops polling the session
+   * <p>
+   * The session itself stays open on the Smart-ID side until it times out.
+   *
+   * @return true if polling was stopped by this call
+   */
+  public boolean cancel() {
+    return result.cancel(false);
+  }
+
+  /**
+   * Gets the state transitions of the session
+   * <p>
+   * Emits INITIATED, a RUNNING event per poll (only the latest one is kept
+   * while the subscriber has no demand) and COMPLETE, then completes, or
+   * fails with the same exception as {@link #getResult()}. Only one
+   * subscriber is allowed. Cancelling the subscription stops polling.
+   *
+   * @return publisher of the session events
+   */
+  public Publisher<SessionEvent> getEvents() {
+    return events;
+  }
+
+  public boolean isDone() {
+    return result.isDone();
+  }
+}
@@ -0,0 +1,139 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import ee.sk.smartid.exception.SessionSupersededException;
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.rest.Deadline;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Session that is polled once for every request taking part in it
+ * <p>
+ * Every request gets its own {@link SessionHandle} bound to its own deadline. Polling stops when the
+ * session is finished, superseded or when all handles have been cancelled or passed their deadline.
+ *
+ * @param <T> type of the final result of the session
+ */
+class SharedSession<T> {
+
+  private static final Logger logger = LoggerFactory.getLogger(SharedSession.class);
+
+  private final String sessionId;
+  private final String verificationCode;
+  private final Function<SessionStatus, T> resultFactory;
+  private final List<SessionEventPublisher> publishers = new CopyOnWriteArrayList<>();
+  // number of handles that are not cancelled, -1 once all of them have been cancelled
+  private final AtomicInteger participants = new AtomicInteger();
+  private final CompletableFuture<SessionStatus> sessionStatus;
+  private final BiConsumer<CompletableFuture<?>, Deadline> deadlineBinder;
+
+  /**
+   * @param poller polls the session until it is no longer running, regardless of the deadlines of its requests
+   * @param deadlineBinder fails the result of a request with {@link DeadlineExceededException} at the deadline of the request
+   */
+  SharedSession(String sessionId, String verificationCode, Function<SessionStatus, T> resultFactory,
+      Function<Consumer<SessionStatus>, CompletableFuture<SessionStatus>> poller, BiConsumer<CompletableFuture<?>, Deadline> deadlineBinder) {
+    this.sessionId = sessionId;
+    this.verificationCode = verificationCode;
+    this.resultFactory = resultFactory;
+    this.deadlineBinder = deadlineBinder;
+    this.sessionStatus = poller.apply(this::onRunningStatus);
+  }
+
+  /**
+   * @param deadline deadline of the request, or null to wait until the session is no longer running
+   * @return handle of a new request taking part in the session or null when all earlier handles were cancelled
+   */
+  SessionHandle<T> newHandle(Deadline deadline) {
+    int count;
+    do {
+      count = participants.get();
+      if (count < 0) {
+        return null;
+      }
+    } while (!participants.compareAndSet(count, count + 1));
+
+    SessionEventPublisher events = new SessionEventPublisher(sessionId);
+    publishers.add(events);
+    SessionHandle<T> handle = new SessionHandle<>(sessionId, verificationCode, sessionStatus.thenApply(Function.identity()), resultFactory, events);
+    handle.getResult().whenComplete((result, error) -> {
+      publishers.remove(events);
+      // a request giving up leaves the session to the others
+      if (error instanceof CancellationException || error instanceof DeadlineExceededException) {
+        leave();
+      }
+    });
+    if (deadline != null) {
+      deadlineBinder.accept(handle.getResult(), deadline);
+    }
+    return handle;
+  }
+
+  /**
+   * @return true if the session was still polled and polling was stopped by this call
+   */
+  boolean supersede() {
+    return sessionStatus.completeExceptionally(new SessionSupersededException("Session " + sessionId + " was superseded by a newer session"));
+  }
+
+  void whenDone(Runnable action) {
+    sessionStatus.whenComplete((status, error) -> action.run());
+  }
+
+  String getSessionId() {
+    return sessionId;
+  }
+
+  private void leave() {
+    int count;
+    do {
+      count = participants.get();
+    } while (!participants.compareAndSet(count, count == 1 ? -1 : count - 1));
+    if (count == 1) {
+      logger.debug("All requests of session " + sessionId + " were cancelled or passed their deadline, stopping polling");
+      sessionStatus.cancel(false);
+    }
+  }
+
+  private void onRunningStatus(SessionStatus status) {
+    for (SessionEventPublisher publisher : publishers) {
+      publisher.onRunningStatus(status);
+    }
+  }
+}
@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+import ee.sk.smartid.exception.DeadlineExceededException;
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
 import ee.sk.smartid.exception.useraccount.DocumentUnusableException;
@@ -41,6 +42,7 @@ import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
 import ee.sk.smartid.exception.useraction.SessionTimeoutException;
 import ee.sk.smartid.exception.useraction.UserRefusedException;
 import ee.sk.smartid.exception.useraction.UserSelectedWrongVerificationCodeException;
+import ee.sk.smartid.rest.Deadline;
 import ee.sk.smartid.rest.SessionStatusPoller;
 import ee.sk.smartid.rest.SmartIdConnector;
 import ee.sk.smartid.rest.dao.Capability;
@@ -270,6 +272,21 @@ public class SignatureRequestBuilder extends SmartIdRequestBuilder {
     return this;
   }
 
+  /**
+   * Sets the deadline for the whole operation
+   * <p>
+   * Requests to the Smart-ID service and session status polling give up
+   * with {@link DeadlineExceededException} when the deadline passes.
+   * The same deadline may be passed to several builders to share one time budget.
+   *
+   * @param deadline deadline of the operation
+   * @return this builder
+   */
+  public SignatureRequestBuilder withDeadline(Deadline deadline) {
+    this.deadline = deadline;
+    return this;
+  }
+
   /**
    * Send the signature request and get the response
    * <p>
@@ -283,6 +300,7 @@ public class SignatureRequestBuilder extends SmartIdRequestBuilder {
    * @throws DocumentUnusableException when for some reason, this relying party request cannot be completed.
    *                                   User must either check his/her Smart-ID mobile application or turn to customer support for getting the exact reason.
    * @throws ServerMaintenanceException when the server is under maintenance
+   * @throws DeadlineExceededException when the operation did not finish before the deadline set with {@link #withDeadline(Deadline)}
    *
    * @return the signature response
    */
@@ -290,10 +308,27 @@ public class SignatureRequestBuilder extends SmartIdRequestBuilder {
       UserSelectedWrongVerificationCodeException, SessionTimeoutException, DocumentUnusableException, ServerMaintenanceException {
     validateParameters();
     String sessionId = initiateSigning();
-    SessionStatus sessionStatus = getSessionStatusPoller().fetchFinalSessionStatus(sessionId);
+    SessionStatus sessionStatus = getSessionStatusPoller().fetchFinalSessionStatus(sessionId, getExpectedInteractionFlow(), deadline);
     return createSmartIdSignature(sessionStatus);
   }
 
+  /**
+   * Send the signature request and return without waiting for the user
+   * <p>
+   * The session is polled in the background. The verification code is
+   * available right away so it can be displayed while the user is confirming.
+   *
+   * @throws UserAccountNotFoundException when the user account was not found
+   * @throws ServerMaintenanceException when the server is under maintenance
+   *
+   * @return handle of the started session, its result completes with the signature
+   */
+  public SessionHandle<SmartIdSignature> initiate() throws UserAccountNotFoundException, ServerMaintenanceException {
+    String sessionId = initiateSigning();
+    String verificationCode = hashToSign != null ? hashToSign.calculateVerificationCode() : dataToSign.calculateVerificationCode();
+    return createSessionHandle(sessionId, verificationCode, this::createSmartIdSignature);
+  }
+
   /**
    * Send the signature request and get the session Id
    *
@@ -311,10 +346,10 @@ public class SignatureRequestBuilder extends SmartIdRequestBuilder {
 
   private SignatureSessionResponse getSignatureResponse(SignatureSessionRequest request) {
     if (isNotEmpty(getDocumentNumber())) {
-      return getConnector().sign(getDocumentNumber(), request);
+      return getRequestConnector().sign(getDocumentNumber(), request);
     }
     else {
-      return getConnector().sign(getSemanticsIdentifier(), request);
+      return getRequestConnector().sign(getSemanticsIdentifier(), request);
     }
   }
 
@@ -36,9 +36,19 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -46,15 +56,28 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.core.Configuration;
 
 import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.AdaptivePollingStrategy;
+import ee.sk.smartid.rest.FixedPollingStrategy;
+import ee.sk.smartid.rest.AsyncSessionStatusPoller;
+import ee.sk.smartid.rest.AsyncSmartIdConnector;
+import ee.sk.smartid.rest.CircuitBreakerSmartIdConnector;
+import ee.sk.smartid.rest.FailoverSmartIdConnector;
+import ee.sk.smartid.rest.HedgingSmartIdConnector;
+import ee.sk.smartid.rest.PollingStrategy;
+import ee.sk.smartid.rest.RetryPolicy;
+import ee.sk.smartid.rest.RetryingSmartIdConnector;
+import ee.sk.smartid.rest.SessionStatusCoalescer;
 import ee.sk.smartid.rest.SessionStatusPoller;
 import ee.sk.smartid.rest.SmartIdConnector;
 import ee.sk.smartid.rest.SmartIdRestConnector;
 
-public class SmartIdClient {
+public class SmartIdClient implements AutoCloseable {
+
+  public static final int DEFAULT_WARM_UP_CONNECTIONS = 4;
 
   private String relyingPartyUUID;
   private String relyingPartyName;
-  private String hostUrl;
+  private List<String> hostUrls;
   private Configuration networkConnectionConfig;
   private Client configuredClient;
   private TimeUnit pollingSleepTimeUnit = TimeUnit.SECONDS;
@@ -63,6 +86,27 @@ public class SmartIdClient {
   private long sessionStatusResponseSocketOpenTimeValue;
   private SmartIdConnector connector;
   private SSLContext trustSslContext;
+  private int maxConnectionsTotal = SmartIdRestConnector.DEFAULT_MAX_CONNECTIONS_TOTAL;
+  private int maxConnectionsPerRoute = SmartIdRestConnector.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  private int maxSessionStatusConnectionsTotal = SmartIdRestConnector.DEFAULT_MAX_SESSION_STATUS_CONNECTIONS_TOTAL;
+  private int maxSessionStatusConnectionsPerRoute = SmartIdRestConnector.DEFAULT_MAX_SESSION_STATUS_CONNECTIONS_PER_ROUTE;
+  private long connectionIdleTimeoutMs = SmartIdRestConnector.DEFAULT_CONNECTION_IDLE_TIMEOUT_MS;
+  private Executor asyncExecutor;
+  private ThreadFactory threadFactory;
+  private ExecutorService threadFactoryExecutor;
+  private AsyncSmartIdConnector asyncConnector;
+  private ScheduledExecutorService pollingScheduler;
+  private ScheduledExecutorService ownedPollingScheduler;
+  private ExecutorService hedgingExecutor;
+  private int maxInFlightSessionStatusPolls = AsyncSessionStatusPoller.DEFAULT_MAX_IN_FLIGHT_POLLS;
+  private AsyncSessionStatusPoller asyncSessionStatusPoller;
+  private PollingStrategy pollingStrategy = new FixedPollingStrategy();
+  private RetryPolicy retryPolicy;
+  private boolean circuitBreakerEnabled;
+  private boolean sessionStatusHedgingEnabled;
+  private SessionStatusCoalescer sessionStatusCoalescer;
+  private SessionArbiter sessionArbiter;
+  private final List<SmartIdRestConnector> ownedConnectors = new ArrayList<>();
 
   /**
    * Gets an instance of the certificate request builder
@@ -74,6 +118,7 @@ public class SmartIdClient {
     CertificateRequestBuilder builder = new CertificateRequestBuilder(getSmartIdConnector(), sessionStatusPoller);
     builder.withRelyingPartyUUID(this.getRelyingPartyUUID());
     builder.withRelyingPartyName(this.getRelyingPartyName());
+    builder.setAsyncSessionStatusPollerSupplier(this::getAsyncSessionStatusPoller);
     return builder;
   }
 
@@ -87,6 +132,7 @@ public class SmartIdClient {
     SignatureRequestBuilder builder = new SignatureRequestBuilder(getSmartIdConnector(), sessionStatusPoller);
     builder.withRelyingPartyUUID(this.getRelyingPartyUUID());
     builder.withRelyingPartyName(this.getRelyingPartyName());
+    builder.setAsyncSessionStatusPollerSupplier(this::getAsyncSessionStatusPoller);
     return builder;
   }
 
@@ -100,6 +146,8 @@ public class SmartIdClient {
     AuthenticationRequestBuilder builder = new AuthenticationRequestBuilder(getSmartIdConnector(), sessionStatusPoller);
     builder.withRelyingPartyUUID(this.getRelyingPartyUUID());
     builder.withRelyingPartyName(this.getRelyingPartyName());
+    builder.setAsyncSessionStatusPollerSupplier(this::getAsyncSessionStatusPoller);
+    builder.setSessionArbiter(sessionArbiter);
     return builder;
   }
 
@@ -155,7 +203,22 @@ public class SmartIdClient {
    * @param hostUrl base URL of the Smart-ID backend environment
    */
   public void setHostUrl(String hostUrl) {
-    this.hostUrl = hostUrl;
+    this.hostUrls = Collections.singletonList(hostUrl);
+  }
+
+  /**
+   * Sets several base URLs of the same Smart-ID backend environment,
+   * e.g. of different data centres or proxies
+   * <p>
+   * Requests are routed to the healthiest of them by {@link FailoverSmartIdConnector}.
+   *
+   * @param hostUrls base URLs of the Smart-ID backend environment, in order of preference
+   */
+  public void setHostUrls(String... hostUrls) {
+    if (hostUrls.length == 0) {
+      throw new SmartIdClientException("At least one host URL must be provided");
+    }
+    this.hostUrls = Arrays.asList(hostUrls.clone());
   }
 
   /**
@@ -210,31 +273,389 @@ public class SmartIdClient {
   public void setPollingSleepTimeout(TimeUnit unit, long timeout) {
     pollingSleepTimeUnit = unit;
     pollingSleepTimeout = timeout;
+    if (asyncSessionStatusPoller != null) {
+      asyncSessionStatusPoller.setPollingSleepTime(unit, timeout);
+    }
+  }
+
+  /**
+   * Sets the strategy deciding when session status is polled
+   * <p>
+   * Defaults to {@link FixedPollingStrategy} which always sleeps the full
+   * polling sleep time. Use {@link AdaptivePollingStrategy} to not sleep after
+   * a long poll that already lasted the polling sleep time and to learn how
+   * long users take to answer.
+   *
+   * @param pollingStrategy polling strategy shared by all sessions of this client
+   */
+  public void setPollingStrategy(PollingStrategy pollingStrategy) {
+    this.pollingStrategy = pollingStrategy;
+    if (asyncSessionStatusPoller != null) {
+      asyncSessionStatusPoller.setPollingStrategy(pollingStrategy);
+    }
+  }
+
+  /**
+   * Sets the size of the HTTP connection pool used for requests starting sessions
+   * <p>
+   * The connector keeps long-lived clients with pools of
+   * keep-alive connections to the Smart-ID backend. Session status requests
+   * use a pool of their own, see {@link #setSessionStatusConnectionPoolSize(int, int)}.
+   * Has no effect when a client is passed in using {@link #setConfiguredClient(Client)}.
+   *
+   * @param maxConnectionsTotal maximum number of pooled connections
+   * @param maxConnectionsPerRoute maximum number of pooled connections to a single host
+   */
+  public void setConnectionPoolSize(int maxConnectionsTotal, int maxConnectionsPerRoute) {
+    this.maxConnectionsTotal = maxConnectionsTotal;
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+  }
+
+  /**
+   * Sets the size of the separate connection pool used for session status requests
+   * <p>
+   * Session status long polls (see {@link #setSessionStatusResponseSocketOpenTime(TimeUnit, long)})
+   * hold a connection for a long time, so they do not share a pool with requests starting
+   * new sessions. Does not apply when a client is passed in using {@link #setConfiguredClient(Client)}.
+   *
+   * @param maxConnectionsTotal maximum number of pooled connections
+   * @param maxConnectionsPerRoute maximum number of pooled connections to a single host
+   */
+  public void setSessionStatusConnectionPoolSize(int maxConnectionsTotal, int maxConnectionsPerRoute) {
+    this.maxSessionStatusConnectionsTotal = maxConnectionsTotal;
+    this.maxSessionStatusConnectionsPerRoute = maxConnectionsPerRoute;
+  }
+
+  /**
+   * Sets the time after which idle pooled connections are closed
+   *
+   * @param unit time unit of the {@code timeout} argument
+   * @param timeout timeout value in the given {@code unit}
+   */
+  public void setConnectionIdleTimeout(TimeUnit unit, long timeout) {
+    this.connectionIdleTimeoutMs = unit.toMillis(timeout);
+  }
+
+  /**
+   * Sets the policy for retrying requests that failed with a transient error
+   * <p>
+   * Requests are not retried by default. Applies to the connector created by the client,
+   * a connector set with {@link #setSmartIdConnector(SmartIdConnector)} can be wrapped
+   * in {@link RetryingSmartIdConnector} instead. Clients sharing a policy share its retry budget.
+   *
+   * @param retryPolicy retry policy or null to not retry requests
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Sets whether requests to each host go through a {@link CircuitBreakerSmartIdConnector}
+   * <p>
+   * While a circuit is open requests fail fast with
+   * {@link ee.sk.smartid.exception.permanent.CircuitBreakerOpenException} instead of waiting
+   * for socket timeouts. With several hosts (see {@link #setHostUrls(String...)}) the next
+   * host is used instead. Disabled by default.
+   *
+   * @param circuitBreakerEnabled true to use circuit breakers with default settings
+   */
+  public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+    this.circuitBreakerEnabled = circuitBreakerEnabled;
+  }
+
+  /**
+   * Sets whether a session status request that takes unusually long is sent again
+   * <p>
+   * The answer that arrives first is used. See {@link HedgingSmartIdConnector}.
+   * The second requests of blocking calls are sent on threads the client creates, limited to
+   * {@link HedgingSmartIdConnector#DEFAULT_MAX_HEDGED_REQUESTS} at once and released by {@link #close()}.
+   * A blocking call still waits for its own request, so asynchronous requests benefit the most.
+   * Disabled by default.
+   *
+   * @param sessionStatusHedgingEnabled true to hedge session status requests
+   */
+  public void setSessionStatusHedgingEnabled(boolean sessionStatusHedgingEnabled) {
+    this.sessionStatusHedgingEnabled = sessionStatusHedgingEnabled;
+  }
+
+  /**
+   * Sets the coalescer that lets all requests waiting for the same session share one poll loop
+   * <p>
+   * Final statuses are also kept for a while for requests arriving later, see {@link SessionStatusCoalescer}.
+   * Clients sharing a coalescer share its poll loops and cache. Not used by default.
+   *
+   * @param sessionStatusCoalescer session status coalescer or null to poll separately for every request
+   */
+  public void setSessionStatusCoalescer(SessionStatusCoalescer sessionStatusCoalescer) {
+    this.sessionStatusCoalescer = sessionStatusCoalescer;
+  }
+
+  /**
+   * Sets what happens when an authentication is started for a person who already has one running
+   * <p>
+   * See {@link SessionArbiter}. Clients sharing an arbiter arbitrate between each other's sessions.
+   * Not used by default, every request starts its own session.
+   *
+   * @param sessionArbiter session arbiter or null to start a session for every request
+   */
+  public void setSessionArbiter(SessionArbiter sessionArbiter) {
+    this.sessionArbiter = sessionArbiter;
   }
 
   private SessionStatusPoller createSessionStatusPoller(SmartIdConnector connector) {
     connector.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
     SessionStatusPoller sessionStatusPoller = new SessionStatusPoller(connector);
     sessionStatusPoller.setPollingSleepTime(pollingSleepTimeUnit, pollingSleepTimeout);
+    sessionStatusPoller.setPollingStrategy(pollingStrategy);
+    sessionStatusPoller.setSessionStatusCoalescer(sessionStatusCoalescer);
     return sessionStatusPoller;
   }
 
   public SmartIdConnector getSmartIdConnector() {
     if (null == connector) {
       // Fallback to REST connector when not initialised
-      SmartIdRestConnector connector = configuredClient != null ? new SmartIdRestConnector(hostUrl, configuredClient) : new SmartIdRestConnector(hostUrl, networkConnectionConfig);
-      connector.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
-
       if (trustSslContext == null && configuredClient == null) {
         throw new SmartIdClientException("You must provide trusted API server certificates either by calling setTrustStore(), setTrustedCertificates() or setTrustSslContext() or setConfiguredClient()");
       }
+      SmartIdConnector smartIdConnector;
+      if (hostUrls != null && hostUrls.size() > 1) {
+        List<SmartIdConnector> connectors = new ArrayList<>();
+        for (String hostUrl : hostUrls) {
+          connectors.add(createHostConnector(hostUrl));
+        }
+        smartIdConnector = new FailoverSmartIdConnector(connectors);
+      } else {
+        smartIdConnector = createHostConnector(hostUrls == null ? null : hostUrls.get(0));
+      }
+      if (sessionStatusHedgingEnabled) {
+        smartIdConnector = new HedgingSmartIdConnector(smartIdConnector, getHedgingExecutor());
+      }
+      setSmartIdConnector(retryPolicy != null ? new RetryingSmartIdConnector(smartIdConnector, retryPolicy) : smartIdConnector);
+    }
+    return connector;
+  }
 
-      connector.setSslContext(this.trustSslContext);
-      setSmartIdConnector(connector);
+  private SmartIdConnector createHostConnector(String hostUrl) {
+    SmartIdRestConnector restConnector = createRestConnector(hostUrl);
+    return circuitBreakerEnabled ? new CircuitBreakerSmartIdConnector(restConnector) : restConnector;
+  }
+
+  private SmartIdRestConnector createRestConnector(String hostUrl) {
+    SmartIdRestConnector connector = configuredClient != null ? new SmartIdRestConnector(hostUrl, configuredClient) : new SmartIdRestConnector(hostUrl, networkConnectionConfig);
+    connector.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    connector.setSslContext(this.trustSslContext);
+    connector.setConnectionPoolSize(maxConnectionsTotal, maxConnectionsPerRoute);
+    connector.setSessionStatusConnectionPoolSize(maxSessionStatusConnectionsTotal, maxSessionStatusConnectionsPerRoute);
+    connector.setConnectionIdleTimeout(TimeUnit.MILLISECONDS, connectionIdleTimeoutMs);
+    if (threadFactory != null) {
+      connector.setAsyncRequestExecutor(getThreadFactoryExecutor());
     }
+    ownedConnectors.add(connector);
     return connector;
   }
 
+  /**
+   * Sets the executor that completes the futures returned by
+   * the asynchronous connector
+   * <p>
+   * If not provided, threads from {@link #setThreadFactory(ThreadFactory)}
+   * are used, or {@link ForkJoinPool#commonPool()} when no thread factory is set.
+   *
+   * @param asyncExecutor executor for completing asynchronous requests
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+    this.asyncConnector = null;
+    this.asyncSessionStatusPoller = null;
+  }
+
+  /**
+   * Sets the factory for threads the client creates itself
+   * <p>
+   * Used for asynchronous HTTP requests, for completing asynchronous
+   * requests, for the session status polling scheduler and for hedged
+   * session status requests.
+   * On Java 21 and later pass {@code Thread.ofVirtual().factory()} to run
+   * these on virtual threads. Blocking calls such as
+   * {@link AuthenticationRequestBuilder#authenticate()} can be run on
+   * virtual threads by the caller directly as the client never holds a
+   * monitor while waiting on the network.
+   * <p>
+   * Must be set before the connector is first used. The threads are
+   * created by the given factory and are not daemon threads unless the
+   * factory makes them so. Call {@link #close()} once the client is no
+   * longer needed so that they do not keep the JVM running.
+   *
+   * @param threadFactory factory for client threads
+   */
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  /**
+   * Gets the non-blocking connector
+   * <p>
+   * Shares the HTTP client and connection pool with {@link #getSmartIdConnector()}.
+   *
+   * @return asynchronous connector
+   */
+  public AsyncSmartIdConnector getAsyncSmartIdConnector() {
+    if (null == asyncConnector) {
+      SmartIdConnector connector = getSmartIdConnector();
+      asyncConnector = connector.getAsyncConnector(getAsyncExecutor());
+      if (asyncConnector == null) {
+        throw new SmartIdClientException("Asynchronous requests are not supported by " + connector.getClass().getSimpleName());
+      }
+    }
+    return asyncConnector;
+  }
+
+  /**
+   * Sets the scheduler the asynchronous session status poller times its polls on
+   * <p>
+   * If not provided, a scheduler with two daemon threads is created on first use
+   * and shut down by {@link #close()}. A scheduler passed in is left running.
+   *
+   * @param pollingScheduler scheduler for session status polls
+   */
+  public void setPollingScheduler(ScheduledExecutorService pollingScheduler) {
+    this.pollingScheduler = pollingScheduler;
+    this.asyncSessionStatusPoller = null;
+  }
+
+  /**
+   * Sets the maximum number of session status requests the
+   * asynchronous poller keeps in flight at the same time
+   *
+   * @param maxInFlightSessionStatusPolls maximum number of concurrent session status requests
+   */
+  public void setMaxInFlightSessionStatusPolls(int maxInFlightSessionStatusPolls) {
+    this.maxInFlightSessionStatusPolls = maxInFlightSessionStatusPolls;
+    this.asyncSessionStatusPoller = null;
+  }
+
+  /**
+   * Gets the session status poller shared by all asynchronous sessions of this client
+   *
+   * @return asynchronous session status poller
+   */
+  public AsyncSessionStatusPoller getAsyncSessionStatusPoller() {
+    if (null == asyncSessionStatusPoller) {
+      getSmartIdConnector().setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+      AsyncSessionStatusPoller poller = new AsyncSessionStatusPoller(getAsyncSmartIdConnector(), getPollingScheduler(), maxInFlightSessionStatusPolls);
+      poller.setPollingSleepTime(pollingSleepTimeUnit, pollingSleepTimeout);
+      poller.setPollingStrategy(pollingStrategy);
+      asyncSessionStatusPoller = poller;
+    }
+    return asyncSessionStatusPoller;
+  }
+
+  /**
+   * Prepares the client for the first requests by initialising the connector,
+   * opening {@value #DEFAULT_WARM_UP_CONNECTIONS} connections to the Smart-ID host
+   * and running the JSON mapping of request and response types
+   *
+   * @see #warmUp(int)
+   */
+  public void warmUp() {
+    warmUp(DEFAULT_WARM_UP_CONNECTIONS);
+  }
+
+  /**
+   * Prepares the client for the first requests by initialising the connector,
+   * opening connections to the Smart-ID host (including the TLS handshake) and
+   * running the JSON mapping of request and response types
+   * <p>
+   * Connections are opened with session status requests for a nonexistent session
+   * and are kept in the connection pool. Call it at application startup so that
+   * the first users do not wait for it.
+   *
+   * @param connections number of connections to open to each host, limited by the connection pool size
+   * @throws javax.ws.rs.ProcessingException when the Smart-ID host cannot be connected to
+   */
+  public void warmUp(int connections) {
+    getSmartIdConnector().warmUp(connections);
+  }
+
+  /**
+   * Warms up the client in the background on the executor set with {@link #setAsyncExecutor(Executor)}
+   *
+   * @param connections number of connections to open to each host
+   * @return future that completes when the client is warmed up
+   * @see #warmUp(int)
+   */
+  public CompletableFuture<Void> warmUpAsync(int connections) {
+    return CompletableFuture.runAsync(() -> warmUp(connections), getAsyncExecutor());
+  }
+
+  /**
+   * Releases the threads and HTTP clients the client has created itself
+   * <p>
+   * Shuts down the threads created with the factory set with {@link #setThreadFactory(ThreadFactory)},
+   * the default session status polling scheduler, the threads sending hedged session status requests
+   * and the HTTP clients and connection pools
+   * of the connectors the client created. Sessions still being polled asynchronously are abandoned.
+   * Executors, schedulers, connectors and clients passed in by the caller are left as they are.
+   * The client must not be used after it is closed.
+   */
+  @Override
+  public synchronized void close() {
+    for (SmartIdRestConnector ownedConnector : ownedConnectors) {
+      ownedConnector.close();
+    }
+    ownedConnectors.clear();
+    if (ownedPollingScheduler != null) {
+      ownedPollingScheduler.shutdownNow();
+      ownedPollingScheduler = null;
+    }
+    if (hedgingExecutor != null) {
+      hedgingExecutor.shutdownNow();
+      hedgingExecutor = null;
+    }
+    if (threadFactoryExecutor != null) {
+      threadFactoryExecutor.shutdownNow();
+      threadFactoryExecutor = null;
+    }
+  }
+
+  private synchronized ScheduledExecutorService getPollingScheduler() {
+    if (null == pollingScheduler) {
+      if (threadFactory != null) {
+        pollingScheduler = Executors.newScheduledThreadPool(2, threadFactory);
+      } else {
+        AtomicInteger threadNumber = new AtomicInteger();
+        pollingScheduler = Executors.newScheduledThreadPool(2, runnable -> {
+          Thread thread = new Thread(runnable, "smart-id-poller-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      ownedPollingScheduler = pollingScheduler;
+    }
+    return pollingScheduler;
+  }
+
+  private synchronized ExecutorService getHedgingExecutor() {
+    if (null == hedgingExecutor) {
+      hedgingExecutor = HedgingSmartIdConnector.createExecutor(threadFactory);
+    }
+    return hedgingExecutor;
+  }
+
+  private Executor getAsyncExecutor() {
+    if (asyncExecutor != null) {
+      return asyncExecutor;
+    }
+    return threadFactory != null ? getThreadFactoryExecutor() : ForkJoinPool.commonPool();
+  }
+
+  private synchronized ExecutorService getThreadFactoryExecutor() {
+    if (null == threadFactoryExecutor) {
+      threadFactoryExecutor = Executors.newCachedThreadPool(threadFactory);
+    }
+    return threadFactoryExecutor;
+  }
+
   public static SSLContext createSslContext(List<String> sslCertificates)
        throws NoSuchAlgorithmException, KeyStoreException, IOException, CertificateException, KeyManagementException {
     SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
@@ -256,29 +677,41 @@ public class SmartIdClient {
     this.trustSslContext = trustSslContext;
   }
 
+  /**
+   * Trusts the certificates of the given key store when connecting to Smart-ID
+   * <p>
+   * Clients trusting the same certificates share an SSL context, see {@link SslContextRegistry}.
+   *
+   * @param trustStore key store with trusted certificates
+   */
   public void setTrustStore(KeyStore trustStore) {
-    try {
-      SSLContext trustSslContext = SSLContext.getInstance("TLSv1.2");
-      TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("X509");
-      trustManagerFactory.init(trustStore);
-      trustSslContext.init(null, trustManagerFactory.getTrustManagers(), null);
-      this.trustSslContext = trustSslContext;
-    }
-    catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
-      throw new SmartIdClientException("Problem with supplied trust store file: " + e.getMessage());
-    }
+    this.trustSslContext = SslContextRegistry.getSslContext(trustStore);
   }
 
+  /**
+   * Trusts the given PEM encoded certificates when connecting to Smart-ID
+   * <p>
+   * Clients trusting the same certificates share an SSL context, see {@link SslContextRegistry}.
+   *
+   * @param sslCertificates PEM encoded certificates
+   */
   public void setTrustedCertificates(String ...sslCertificates) {
     try {
-      this.trustSslContext = createSslContext(Arrays.asList(sslCertificates));
-    } catch (CertificateException | IOException | NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
+      CertificateFactory factory = CertificateFactory.getInstance("X509");
+      List<Certificate> certificates = new ArrayList<>();
+      for (String sslCertificate : sslCertificates) {
+        certificates.add(factory.generateCertificate(new ByteArrayInputStream(sslCertificate.getBytes(StandardCharsets.UTF_8))));
+      }
+      this.trustSslContext = SslContextRegistry.getSslContext(certificates);
+    } catch (CertificateException e) {
       throw new SmartIdClientException("Failed to createSslContext", e);
     }
   }
 
   public void setSmartIdConnector(SmartIdConnector smartIdConnector) {
     this.connector = smartIdConnector;
+    this.asyncConnector = null;
+    this.asyncSessionStatusPoller = null;
   }
 
   /** Use setTrustStore() instead
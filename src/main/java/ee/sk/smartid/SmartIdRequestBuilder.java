@@ -30,6 +30,9 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.permanent.SmartIdClientException;
@@ -43,11 +46,15 @@ import ee.sk.smartid.exception.useraction.UserRefusedDisplayTextAndPinException;
 import ee.sk.smartid.exception.useraction.UserRefusedException;
 import ee.sk.smartid.exception.useraction.UserRefusedVerificationChoiceException;
 import ee.sk.smartid.exception.useraction.UserSelectedWrongVerificationCodeException;
+import ee.sk.smartid.rest.AsyncSessionStatusPoller;
+import ee.sk.smartid.rest.Deadline;
 import ee.sk.smartid.rest.SessionStatusPoller;
 import ee.sk.smartid.rest.SmartIdConnector;
 import ee.sk.smartid.rest.dao.Interaction;
+import ee.sk.smartid.rest.dao.InteractionFlow;
 import ee.sk.smartid.rest.dao.SemanticsIdentifier;
 import ee.sk.smartid.rest.dao.SessionResult;
+import ee.sk.smartid.rest.dao.SessionStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,6 +63,7 @@ public abstract class SmartIdRequestBuilder {
   private static final Logger logger = LoggerFactory.getLogger(SmartIdRequestBuilder.class);
   private SmartIdConnector connector;
   private SessionStatusPoller sessionStatusPoller;
+  private Supplier<AsyncSessionStatusPoller> asyncSessionStatusPollerSupplier;
   protected String relyingPartyUUID;
   protected String relyingPartyName;
   protected SemanticsIdentifier semanticsIdentifier;
@@ -67,6 +75,7 @@ public abstract class SmartIdRequestBuilder {
   protected String nonce;
   protected Set<String> capabilities;
   protected List<Interaction> allowedInteractionsOrder;
+  protected Deadline deadline;
 
   protected SmartIdRequestBuilder(SmartIdConnector connector, SessionStatusPoller sessionStatusPoller) {
     this.connector = connector;
@@ -196,10 +205,41 @@ public abstract class SmartIdRequestBuilder {
     return connector;
   }
 
+  protected SmartIdConnector getRequestConnector() {
+    return deadline != null ? connector.withDeadline(deadline) : connector;
+  }
+
   protected SessionStatusPoller getSessionStatusPoller() {
     return sessionStatusPoller;
   }
 
+  void setAsyncSessionStatusPollerSupplier(Supplier<AsyncSessionStatusPoller> asyncSessionStatusPollerSupplier) {
+    this.asyncSessionStatusPollerSupplier = asyncSessionStatusPollerSupplier;
+  }
+
+  protected <T> SessionHandle<T> createSessionHandle(String sessionId, String verificationCode, Function<SessionStatus, T> resultFactory) {
+    if (asyncSessionStatusPollerSupplier == null) {
+      logger.error("Asynchronous session status poller is not available, create the builder with SmartIdClient");
+      throw new SmartIdClientException("Asynchronous session status poller is not available, create the builder with SmartIdClient");
+    }
+    SessionEventPublisher events = new SessionEventPublisher(sessionId);
+    CompletableFuture<SessionStatus> sessionStatus = asyncSessionStatusPollerSupplier.get()
+        .fetchFinalSessionStatus(sessionId, getExpectedInteractionFlow(), deadline, events::onRunningStatus);
+    return new SessionHandle<>(sessionId, verificationCode, sessionStatus, resultFactory, events);
+  }
+
+  protected <T> SharedSession<T> createSharedSession(String sessionId, String verificationCode, Function<SessionStatus, T> resultFactory) {
+    if (asyncSessionStatusPollerSupplier == null) {
+      logger.error("Asynchronous session status poller is not available, create the builder with SmartIdClient");
+      throw new SmartIdClientException("Asynchronous session status poller is not available, create the builder with SmartIdClient");
+    }
+    AsyncSessionStatusPoller poller = asyncSessionStatusPollerSupplier.get();
+    // the session is polled for requests joining later too, each request is bound to its own deadline
+    return new SharedSession<>(sessionId, verificationCode, resultFactory,
+        runningStatusListener -> poller.fetchFinalSessionStatus(sessionId, getExpectedInteractionFlow(), null, runningStatusListener),
+        (result, resultDeadline) -> poller.bindToDeadline(sessionId, result, resultDeadline));
+  }
+
   protected String getRelyingPartyUUID() {
     return relyingPartyUUID;
   }
@@ -228,4 +268,15 @@ public abstract class SmartIdRequestBuilder {
     return allowedInteractionsOrder;
   }
 
+  public Deadline getDeadline() {
+    return deadline;
+  }
+
+  protected InteractionFlow getExpectedInteractionFlow() {
+    if (allowedInteractionsOrder == null || allowedInteractionsOrder.isEmpty()) {
+      return null;
+    }
+    return allowedInteractionsOrder.get(0).getType();
+  }
+
 }
@@ -0,0 +1,187 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of SSL contexts trusting a given set of certificates
+ * <p>
+ * Clients and connectors trusting the same certificates share one SSL context and
+ * with it the cache of TLS sessions, so that new connections to a Smart-ID host resume
+ * an earlier session instead of doing a full handshake. Contexts are keyed by the
+ * SHA-256 fingerprints of the trusted certificates, the order of the certificates does not matter.
+ */
+public final class SslContextRegistry {
+
+  public static final int DEFAULT_SESSION_CACHE_SIZE = 1000;
+  public static final long DEFAULT_SESSION_TIMEOUT_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+  private static final Logger logger = LoggerFactory.getLogger(SslContextRegistry.class);
+
+  private static final Map<String, SSLContext> sslContexts = new ConcurrentHashMap<>();
+  private static volatile int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+  private static volatile int sessionTimeoutSeconds = (int) DEFAULT_SESSION_TIMEOUT_SECONDS;
+
+  private SslContextRegistry() {
+  }
+
+  /**
+   * @param trustedCertificates certificates of Smart-ID hosts or their issuers
+   * @return SSL context trusting exactly the given certificates
+   */
+  public static SSLContext getSslContext(Collection<? extends Certificate> trustedCertificates) {
+    SortedMap<String, Certificate> certificatesByFingerprint = new TreeMap<>();
+    for (Certificate certificate : trustedCertificates) {
+      certificatesByFingerprint.put(getFingerprint(certificate), certificate);
+    }
+    String key = String.join(",", certificatesByFingerprint.keySet());
+    return sslContexts.computeIfAbsent(key, k -> createSslContext(certificatesByFingerprint.values()));
+  }
+
+  /**
+   * @param trustStore key store whose certificates are trusted
+   * @return SSL context trusting the certificates of the key store
+   */
+  public static SSLContext getSslContext(KeyStore trustStore) {
+    List<Certificate> certificates = new ArrayList<>();
+    try {
+      Enumeration<String> aliases = trustStore.aliases();
+      while (aliases.hasMoreElements()) {
+        Certificate certificate = trustStore.getCertificate(aliases.nextElement());
+        if (certificate != null) {
+          certificates.add(certificate);
+        }
+      }
+    } catch (KeyStoreException e) {
+      throw new SmartIdClientException("Problem with supplied trust store file: " + e.getMessage());
+    }
+    return getSslContext(certificates);
+  }
+
+  /**
+   * Sets the maximum number of TLS sessions kept for resumption by each SSL context
+   *
+   * @param size maximum number of cached sessions, 0 for no limit
+   */
+  public static synchronized void setSessionCacheSize(int size) {
+    if (size < 0) {
+      throw new SmartIdClientException("TLS session cache size cannot be negative");
+    }
+    sessionCacheSize = size;
+    for (SSLContext sslContext : sslContexts.values()) {
+      configureSessionContext(sslContext);
+    }
+  }
+
+  /**
+   * Sets the time after which a cached TLS session is no longer resumed
+   *
+   * @param unit time unit of the {@code timeout} argument
+   * @param timeout timeout value in the given {@code unit}, 0 for no limit
+   */
+  public static synchronized void setSessionTimeout(TimeUnit unit, long timeout) {
+    long timeoutSeconds = unit.toSeconds(timeout);
+    if (timeoutSeconds < 0 || timeoutSeconds > Integer.MAX_VALUE) {
+      throw new SmartIdClientException("TLS session timeout must be between 0 and " + Integer.MAX_VALUE + " seconds");
+    }
+    sessionTimeoutSeconds = (int) timeoutSeconds;
+    for (SSLContext sslContext : sslContexts.values()) {
+      configureSessionContext(sslContext);
+    }
+  }
+
+  /**
+   * @return number of SSL contexts in the registry
+   */
+  public static int size() {
+    return sslContexts.size();
+  }
+
+  /**
+   * Removes all SSL contexts from the registry. Clients already using them are not affected.
+   */
+  public static void clear() {
+    sslContexts.clear();
+  }
+
+  static String getFingerprint(Certificate certificate) {
+    try {
+      return DigestUtils.sha256Hex(certificate.getEncoded());
+    } catch (CertificateEncodingException e) {
+      throw new SmartIdClientException("Failed to encode trusted certificate", e);
+    }
+  }
+
+  private static SSLContext createSslContext(Collection<Certificate> certificates) {
+    try {
+      KeyStore keyStore = KeyStore.getInstance("JKS");
+      keyStore.load(null);
+      int i = 0;
+      for (Certificate certificate : certificates) {
+        keyStore.setCertificateEntry("sid_api_ssl_cert_" + (++i), certificate);
+      }
+      TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("X509");
+      trustManagerFactory.init(keyStore);
+      SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+      sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+      configureSessionContext(sslContext);
+      logger.debug("Created SSL context trusting " + certificates.size() + " certificates");
+      return sslContext;
+    } catch (GeneralSecurityException | IOException e) {
+      throw new SmartIdClientException("Failed to createSslContext", e);
+    }
+  }
+
+  private static void configureSessionContext(SSLContext sslContext) {
+    SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+    sessionContext.setSessionCacheSize(sessionCacheSize);
+    sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+  }
+}
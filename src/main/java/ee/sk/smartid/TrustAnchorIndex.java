@@ -0,0 +1,164 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trusted CA certificates indexed by subject and subject key identifier
+ * <p>
+ * The issuer of a certificate is looked up by its authority key identifier,
+ * or by its issuer name when it has none, so that it is verified only against
+ * the CA certificates that can have issued it. Instances are immutable and
+ * can be read by any number of threads, {@link #with(X509Certificate)} returns a new index.
+ */
+final class TrustAnchorIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(TrustAnchorIndex.class);
+
+  private static final String SUBJECT_KEY_IDENTIFIER_OID = "2.5.29.14";
+  private static final String AUTHORITY_KEY_IDENTIFIER_OID = "2.5.29.35";
+  private static final int DER_SEQUENCE = 0x30;
+  private static final int DER_OCTET_STRING = 0x04;
+  private static final int DER_KEY_IDENTIFIER = 0x80;
+
+  static final TrustAnchorIndex EMPTY = new TrustAnchorIndex(Collections.emptyList());
+
+  private final List<X509Certificate> certificates;
+  private final Map<X500Principal, List<X509Certificate>> certificatesBySubject = new HashMap<>();
+  private final Map<String, List<X509Certificate>> certificatesByKeyIdentifier = new HashMap<>();
+
+  TrustAnchorIndex(List<X509Certificate> certificates) {
+    this.certificates = Collections.unmodifiableList(new ArrayList<>(certificates));
+    for (X509Certificate certificate : this.certificates) {
+      certificatesBySubject.computeIfAbsent(certificate.getSubjectX500Principal(), subject -> new ArrayList<>()).add(certificate);
+      String keyIdentifier = getSubjectKeyIdentifier(certificate);
+      if (keyIdentifier != null) {
+        certificatesByKeyIdentifier.computeIfAbsent(keyIdentifier, key -> new ArrayList<>()).add(certificate);
+      }
+    }
+  }
+
+  /**
+   * @return new index holding the certificates of this index and the given certificate
+   */
+  TrustAnchorIndex with(X509Certificate certificate) {
+    List<X509Certificate> extendedCertificates = new ArrayList<>(certificates.size() + 1);
+    extendedCertificates.addAll(certificates);
+    extendedCertificates.add(certificate);
+    return new TrustAnchorIndex(extendedCertificates);
+  }
+
+  /**
+   * @return unmodifiable list of the indexed certificates
+   */
+  List<X509Certificate> getCertificates() {
+    return certificates;
+  }
+
+  /**
+   * Finds the trusted CA certificate that issued the certificate
+   *
+   * @param certificate certificate to find the issuer of
+   * @return trusted CA certificate whose key verifies the signature of the certificate or null when there is none
+   */
+  X509Certificate findIssuer(X509Certificate certificate) {
+    for (X509Certificate candidate : getIssuerCandidates(certificate)) {
+      try {
+        certificate.verify(candidate.getPublicKey());
+        return candidate;
+      } catch (GeneralSecurityException e) {
+        logger.debug("Error verifying signer's certificate: " + certificate.getSubjectDN() + " against CA certificate: " + candidate.getSubjectDN(), e);
+      }
+    }
+    return null;
+  }
+
+  private List<X509Certificate> getIssuerCandidates(X509Certificate certificate) {
+    String authorityKeyIdentifier = getAuthorityKeyIdentifier(certificate);
+    if (authorityKeyIdentifier != null) {
+      List<X509Certificate> candidates = certificatesByKeyIdentifier.get(authorityKeyIdentifier);
+      if (candidates != null) {
+        return candidates;
+      }
+    }
+    // CA certificates without a subject key identifier can only be found by name
+    return certificatesBySubject.getOrDefault(certificate.getIssuerX500Principal(), Collections.emptyList());
+  }
+
+  static String getSubjectKeyIdentifier(X509Certificate certificate) {
+    byte[] extension = readDerValue(certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER_OID), DER_OCTET_STRING);
+    byte[] keyIdentifier = readDerValue(extension, DER_OCTET_STRING);
+    return keyIdentifier == null ? null : Hex.encodeHexString(keyIdentifier);
+  }
+
+  static String getAuthorityKeyIdentifier(X509Certificate certificate) {
+    byte[] extension = readDerValue(certificate.getExtensionValue(AUTHORITY_KEY_IDENTIFIER_OID), DER_OCTET_STRING);
+    byte[] authorityKeyIdentifier = readDerValue(extension, DER_SEQUENCE);
+    // keyIdentifier is the first, optional field of the sequence
+    byte[] keyIdentifier = readDerValue(authorityKeyIdentifier, DER_KEY_IDENTIFIER);
+    return keyIdentifier == null ? null : Hex.encodeHexString(keyIdentifier);
+  }
+
+  /**
+   * @return contents of the DER value at the start of the bytes or null when it has another tag or is malformed
+   */
+  private static byte[] readDerValue(byte[] der, int expectedTag) {
+    if (der == null || der.length < 2 || (der[0] & 0xff) != expectedTag) {
+      return null;
+    }
+    int length = der[1] & 0xff;
+    int offset = 2;
+    if (length > 0x7f) {
+      int lengthBytes = length & 0x7f;
+      if (lengthBytes > 3 || der.length < offset + lengthBytes) {
+        return null;
+      }
+      length = 0;
+      for (int i = 0; i < lengthBytes; i++) {
+        length = (length << 8) | (der[offset++] & 0xff);
+      }
+    }
+    if (der.length < offset + length) {
+      return null;
+    }
+    byte[] value = new byte[length];
+    System.arraycopy(der, offset, value, 0, length);
+    return value;
+  }
+}
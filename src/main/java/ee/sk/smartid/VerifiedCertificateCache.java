@@ -0,0 +1,192 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Certificates of authenticating persons that were already found to be trusted and not expired
+ * <p>
+ * The same people authenticate many times a day. With this cache set on an {@link AuthenticationResponseValidator}
+ * their certificate is verified against the trusted CA certificates only once and later authentications
+ * only verify the signature of the session. Certificates are keyed by their SHA-256 fingerprint, kept until
+ * the time to live passes but never after the certificate expires, and the least recently used
+ * certificate is dropped when the cache is full.
+ * <p>
+ * Every certificate is kept together with the snapshot of trusted CA certificates it was verified against
+ * and is found only by validations against the same snapshot. A certificate verified while the trusted
+ * CA certificates change is therefore never taken as verified against the new ones. The cache is also
+ * emptied when the trusted CA certificates of the validator change.
+ */
+public class VerifiedCertificateCache {
+
+  public static final int DEFAULT_MAX_CERTIFICATES = 10000;
+  public static final long DEFAULT_TIME_TO_LIVE_MS = 3600000L;
+
+  private final int maxCertificates;
+  private final long timeToLiveMs;
+  // access ordered, the eldest entry is the least recently used one
+  private final Map<String, Entry> entriesByFingerprint = new LinkedHashMap<>(16, 0.75f, true);
+  private final ReentrantLock lock = new ReentrantLock();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public VerifiedCertificateCache() {
+    this(DEFAULT_MAX_CERTIFICATES, TimeUnit.MILLISECONDS, DEFAULT_TIME_TO_LIVE_MS);
+  }
+
+  /**
+   * @param maxCertificates maximum number of certificates kept
+   * @param timeUnit time unit of the {@code timeToLive} argument
+   * @param timeToLive how long a certificate is kept, it is never kept after it expires
+   */
+  public VerifiedCertificateCache(int maxCertificates, TimeUnit timeUnit, long timeToLive) {
+    if (maxCertificates <= 0 || timeToLive <= 0) {
+      throw new SmartIdClientException("Size and time to live of verified certificate cache must be positive");
+    }
+    this.maxCertificates = maxCertificates;
+    this.timeToLiveMs = timeUnit.toMillis(timeToLive);
+  }
+
+  /**
+   * @return number of certificates found in the cache
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of certificates that had to be verified
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return entriesByFingerprint.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void clear() {
+    lock.lock();
+    try {
+      entriesByFingerprint.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @param trustAnchors snapshot of the trusted CA certificates the certificate must have been verified against, compared by identity
+   */
+  boolean isVerified(X509Certificate certificate, Object trustAnchors) {
+    return isVerified(getFingerprint(certificate), trustAnchors);
+  }
+
+  /**
+   * @param fingerprint SHA-256 fingerprint of the certificate, see {@link #getFingerprint(X509Certificate)}
+   * @param trustAnchors snapshot of the trusted CA certificates the certificate must have been verified against, compared by identity
+   */
+  boolean isVerified(String fingerprint, Object trustAnchors) {
+    long now = System.currentTimeMillis();
+    lock.lock();
+    try {
+      Entry entry = entriesByFingerprint.get(fingerprint);
+      if (entry != null && entry.expiresAt > now && entry.trustAnchors == trustAnchors) {
+        hits.incrementAndGet();
+        return true;
+      }
+      if (entry != null && entry.expiresAt <= now) {
+        entriesByFingerprint.remove(fingerprint);
+      }
+    } finally {
+      lock.unlock();
+    }
+    misses.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * @param trustAnchors snapshot of the trusted CA certificates the certificate was verified against
+   */
+  void add(X509Certificate certificate, Object trustAnchors) {
+    add(getFingerprint(certificate), certificate, trustAnchors);
+  }
+
+  /**
+   * @param fingerprint SHA-256 fingerprint of the certificate, see {@link #getFingerprint(X509Certificate)}
+   * @param trustAnchors snapshot of the trusted CA certificates the certificate was verified against
+   */
+  void add(String fingerprint, X509Certificate certificate, Object trustAnchors) {
+    long expiresAt = Math.min(System.currentTimeMillis() + timeToLiveMs, certificate.getNotAfter().getTime());
+    lock.lock();
+    try {
+      entriesByFingerprint.put(fingerprint, new Entry(expiresAt, trustAnchors));
+      Iterator<Entry> eldest = entriesByFingerprint.values().iterator();
+      while (entriesByFingerprint.size() > maxCertificates) {
+        eldest.next();
+        eldest.remove();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  static String getFingerprint(X509Certificate certificate) {
+    try {
+      return DigestUtils.sha256Hex(certificate.getEncoded());
+    } catch (CertificateEncodingException e) {
+      throw new UnprocessableSmartIdResponseException("Failed to encode certificate", e);
+    }
+  }
+
+  private static final class Entry {
+
+    private final long expiresAt;
+    private final Object trustAnchors;
+
+    private Entry(long expiresAt, Object trustAnchors) {
+      this.expiresAt = expiresAt;
+      this.trustAnchors = trustAnchors;
+    }
+  }
+}
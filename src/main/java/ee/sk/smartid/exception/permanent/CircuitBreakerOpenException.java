@@ -0,0 +1,52 @@
+package ee.sk.smartid.exception.permanent;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.EnduringSmartIdException;
+
+/**
+ * Thrown without sending the request when recent requests of the same kind
+ * mostly failed or were slow and the circuit breaker does not let requests through
+ *
+ * @see ee.sk.smartid.rest.CircuitBreakerSmartIdConnector
+ */
+public class CircuitBreakerOpenException extends EnduringSmartIdException {
+
+  private final long retryAfterMs;
+
+  public CircuitBreakerOpenException(String message, long retryAfterMs) {
+    super(message);
+    this.retryAfterMs = retryAfterMs;
+  }
+
+  /**
+   * @return time in milliseconds until trial requests are let through again
+   */
+  public long getRetryAfterMs() {
+    return retryAfterMs;
+  }
+}
@@ -0,0 +1,129 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.InteractionFlow;
+import ee.sk.smartid.rest.dao.SessionStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls as soon as the user is likely to have answered
+ * <p>
+ * The polling sleep time is treated as the minimum interval between the
+ * starts of two requests. When the server held the previous request open
+ * (see {@link SmartIdConnector#setSessionStatusResponseSocketOpenTime(TimeUnit, long)})
+ * for at least that long, the next request is sent without sleeping.
+ * <p>
+ * The time users take to answer is learned per interaction flow from sessions
+ * that ended with result OK, and the first poll of a new session is delayed by a fraction of it.
+ * <p>
+ * Not used by default, set with {@code SmartIdClient.setPollingStrategy()}.
+ */
+public class AdaptivePollingStrategy implements PollingStrategy {
+
+  public static final double DEFAULT_INITIAL_DELAY_FACTOR = 0.5;
+  public static final long DEFAULT_MAX_INITIAL_DELAY_MS = 5000L;
+
+  private static final double SMOOTHING_FACTOR = 0.2;
+
+  private final double initialDelayFactor;
+  private final long maxInitialDelayMs;
+  private final Map<InteractionFlow, Double> averageResponseTimesMs = new ConcurrentHashMap<>();
+
+  public AdaptivePollingStrategy() {
+    this(DEFAULT_INITIAL_DELAY_FACTOR, TimeUnit.MILLISECONDS, DEFAULT_MAX_INITIAL_DELAY_MS);
+  }
+
+  /**
+   * @param initialDelayFactor share of the average user response time to wait before the first poll, between 0 and 1
+   * @param maxInitialDelayUnit time unit of the maximum initial delay
+   * @param maxInitialDelay upper bound for the delay before the first poll
+   */
+  public AdaptivePollingStrategy(double initialDelayFactor, TimeUnit maxInitialDelayUnit, long maxInitialDelay) {
+    if (initialDelayFactor < 0 || initialDelayFactor > 1) {
+      throw new SmartIdClientException("Initial delay factor must be between 0 and 1");
+    }
+    this.initialDelayFactor = initialDelayFactor;
+    this.maxInitialDelayMs = maxInitialDelayUnit.toMillis(maxInitialDelay);
+  }
+
+  @Override
+  public long getInitialPollDelayMs(InteractionFlow expectedInteractionFlow) {
+    if (expectedInteractionFlow == null) {
+      return 0;
+    }
+    Double averageResponseTimeMs = averageResponseTimesMs.get(expectedInteractionFlow);
+    if (averageResponseTimeMs == null) {
+      return 0;
+    }
+    return Math.min(maxInitialDelayMs, (long) (averageResponseTimeMs * initialDelayFactor));
+  }
+
+  @Override
+  public long getNextPollDelayMs(long pollingSleepTimeoutMs, long lastPollDurationMs) {
+    return Math.max(0, pollingSleepTimeoutMs - lastPollDurationMs);
+  }
+
+  @Override
+  public void onFinalSessionStatus(SessionStatus sessionStatus, long sessionDurationMs) {
+    // sessions that timed out or were refused do not tell how long users take to answer
+    if (sessionStatus.getResult() == null || !"OK".equalsIgnoreCase(sessionStatus.getResult().getEndResult())) {
+      return;
+    }
+    InteractionFlow interactionFlow = findInteractionFlow(sessionStatus.getInteractionFlowUsed());
+    if (interactionFlow == null) {
+      return;
+    }
+    averageResponseTimesMs.merge(interactionFlow, (double) sessionDurationMs,
+        (average, sample) -> average + SMOOTHING_FACTOR * (sample - average));
+  }
+
+  /**
+   * @param interactionFlow interaction flow
+   * @return learned average user response time in milliseconds, or -1 if nothing is learned yet
+   */
+  public long getAverageResponseTimeMs(InteractionFlow interactionFlow) {
+    Double averageResponseTimeMs = averageResponseTimesMs.get(interactionFlow);
+    return averageResponseTimeMs == null ? -1 : averageResponseTimeMs.longValue();
+  }
+
+  private static InteractionFlow findInteractionFlow(String code) {
+    if (code == null) {
+      return null;
+    }
+    for (InteractionFlow interactionFlow : InteractionFlow.values()) {
+      if (interactionFlow.is(code)) {
+        return interactionFlow;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,331 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.InteractionFlow;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
+
+/**
+ * Polls the status of many sessions concurrently without dedicating
+ * a thread to each of them
+ * <p>
+ * Every pending session is a task on the given scheduler. Between polls a
+ * session only occupies a scheduler slot, and the number of status requests
+ * in flight at the same time is capped across all sessions. Poll times are
+ * jittered so sessions started together do not poll in lockstep.
+ * <p>
+ * One instance is meant to be shared by all sessions of the application.
+ */
+public class AsyncSessionStatusPoller {
+
+  private static final Logger logger = LoggerFactory.getLogger(AsyncSessionStatusPoller.class);
+
+  public static final int DEFAULT_MAX_IN_FLIGHT_POLLS = 1000;
+  public static final double DEFAULT_POLLING_JITTER = 0.1;
+
+  private final AsyncSmartIdConnector connector;
+  private final ScheduledExecutorService scheduler;
+  private final int maxInFlightPolls;
+  private final Semaphore inFlightPolls;
+  private final AtomicInteger drainRequests = new AtomicInteger();
+  private final Queue<PendingSession> sessionsWaitingForPermit = new ConcurrentLinkedQueue<>();
+  private volatile long pollingSleepTimeoutMs = 1000L;
+  private volatile double pollingJitter = DEFAULT_POLLING_JITTER;
+  private volatile PollingStrategy pollingStrategy = new FixedPollingStrategy();
+
+  public AsyncSessionStatusPoller(AsyncSmartIdConnector connector, ScheduledExecutorService scheduler) {
+    this(connector, scheduler, DEFAULT_MAX_IN_FLIGHT_POLLS);
+  }
+
+  /**
+   * @param connector connector for the session status requests
+   * @param scheduler scheduler the polls are timed on
+   * @param maxInFlightPolls maximum number of session status requests in flight at the same time
+   */
+  public AsyncSessionStatusPoller(AsyncSmartIdConnector connector, ScheduledExecutorService scheduler, int maxInFlightPolls) {
+    if (maxInFlightPolls <= 0) {
+      throw new SmartIdClientException("Maximum number of in-flight polls must be positive");
+    }
+    this.connector = connector;
+    this.scheduler = scheduler;
+    this.maxInFlightPolls = maxInFlightPolls;
+    this.inFlightPolls = new Semaphore(maxInFlightPolls);
+  }
+
+  /**
+   * Polls the session until its state is no longer RUNNING
+   * <p>
+   * Returns immediately. Cancelling the returned future stops polling
+   * the session.
+   *
+   * @param sessionId session to poll
+   * @return future completed with the final session status, or exceptionally
+   * with the exception the connector reported
+   */
+  public CompletableFuture<SessionStatus> fetchFinalSessionStatus(String sessionId) {
+    return fetchFinalSessionStatus(sessionId, null);
+  }
+
+  /**
+   * @param sessionId session to poll
+   * @param expectedInteractionFlow interaction flow the session most likely uses, or null if not known
+   * @return future completed with the final session status
+   * @see #fetchFinalSessionStatus(String)
+   */
+  public CompletableFuture<SessionStatus> fetchFinalSessionStatus(String sessionId, InteractionFlow expectedInteractionFlow) {
+    return fetchFinalSessionStatus(sessionId, expectedInteractionFlow, null);
+  }
+
+  /**
+   * @param sessionId session to poll
+   * @param expectedInteractionFlow interaction flow the session most likely uses, or null if not known
+   * @param deadline deadline for getting the final session status, or null to poll until the session is no longer running
+   * @return future completed with the final session status, or exceptionally
+   * with {@link DeadlineExceededException} when the session was still running at the deadline
+   * @see #fetchFinalSessionStatus(String)
+   */
+  public CompletableFuture<SessionStatus> fetchFinalSessionStatus(String sessionId, InteractionFlow expectedInteractionFlow, Deadline deadline) {
+    return fetchFinalSessionStatus(sessionId, expectedInteractionFlow, deadline, null);
+  }
+
+  /**
+   * @param sessionId session to poll
+   * @param expectedInteractionFlow interaction flow the session most likely uses, or null if not known
+   * @param deadline deadline for getting the final session status, or null to poll until the session is no longer running
+   * @param runningStatusListener called with every RUNNING status received, or null
+   * @return future completed with the final session status
+   * @see #fetchFinalSessionStatus(String, InteractionFlow, Deadline)
+   */
+  public CompletableFuture<SessionStatus> fetchFinalSessionStatus(String sessionId, InteractionFlow expectedInteractionFlow, Deadline deadline,
+      Consumer<SessionStatus> runningStatusListener) {
+    logger.debug("Starting to poll session status asynchronously for session " + sessionId);
+    PendingSession session = new PendingSession(sessionId, runningStatusListener);
+    long initialDelayMs = pollingStrategy.getInitialPollDelayMs(expectedInteractionFlow);
+    if (initialDelayMs > 0) {
+      schedulePoll(session, initialDelayMs);
+    } else {
+      submit(session);
+    }
+    if (deadline != null) {
+      scheduleDeadline(session, deadline);
+    }
+    return session.result;
+  }
+
+  public void setPollingSleepTime(TimeUnit unit, long timeout) {
+    logger.debug("Polling sleep time is " + timeout + " " + unit.toString());
+    pollingSleepTimeoutMs = unit.toMillis(timeout);
+  }
+
+  /**
+   * Sets how much poll times are randomly spread around the polling sleep time
+   *
+   * @param pollingJitter fraction of the polling sleep time, between 0 and 1
+   */
+  public void setPollingJitter(double pollingJitter) {
+    if (pollingJitter < 0 || pollingJitter > 1) {
+      throw new SmartIdClientException("Polling jitter must be between 0 and 1");
+    }
+    this.pollingJitter = pollingJitter;
+  }
+
+  /**
+   * Sets the strategy deciding when session status is polled
+   * <p>
+   * Defaults to {@link FixedPollingStrategy}.
+   *
+   * @param pollingStrategy polling strategy, may be shared between pollers
+   */
+  public void setPollingStrategy(PollingStrategy pollingStrategy) {
+    this.pollingStrategy = pollingStrategy;
+  }
+
+  /**
+   * @return number of session status requests currently waiting for a response
+   */
+  public int getInFlightPollCount() {
+    return maxInFlightPolls - inFlightPolls.availablePermits();
+  }
+
+  private void submit(PendingSession session) {
+    sessionsWaitingForPermit.add(session);
+    pollWaitingSessions();
+  }
+
+  private void pollWaitingSessions() {
+    // only one thread drains the queue at a time, others just ask it to go another round
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      while (!sessionsWaitingForPermit.isEmpty() && inFlightPolls.tryAcquire()) {
+        PendingSession session = sessionsWaitingForPermit.poll();
+        if (session == null) {
+          inFlightPolls.release();
+          break;
+        }
+        poll(session);
+      }
+      missed = drainRequests.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void poll(PendingSession session) {
+    if (session.result.isDone()) {
+      logger.debug("Stopped polling session " + session.sessionId);
+      inFlightPolls.release();
+      return;
+    }
+    CompletableFuture<SessionStatus> statusFuture;
+    long pollStartTime = System.nanoTime();
+    try {
+      statusFuture = connector.getSessionStatus(session.sessionId);
+    } catch (RuntimeException e) {
+      releasePermit();
+      session.result.completeExceptionally(e);
+      return;
+    }
+    statusFuture.whenComplete((sessionStatus, error) -> {
+      releasePermit();
+      if (error != null) {
+        session.result.completeExceptionally(unwrap(error));
+      } else if (!equalsIgnoreCase("RUNNING", sessionStatus.getState())) {
+        logger.debug("Got final session status response for session " + session.sessionId);
+        pollingStrategy.onFinalSessionStatus(sessionStatus, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - session.startTime));
+        session.result.complete(sessionStatus);
+      } else {
+        notifyRunningStatus(session, sessionStatus);
+        long pollDurationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pollStartTime);
+        schedulePoll(session, nextPollDelayMs(pollDurationMs));
+      }
+    });
+  }
+
+  private void schedulePoll(PendingSession session, long delayMs) {
+    if (session.result.isDone()) {
+      return;
+    }
+    try {
+      scheduler.schedule(() -> submit(session), delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      logger.error("Failed to schedule next session status poll: " + e.getMessage());
+      session.result.completeExceptionally(new SmartIdClientException("Failed to schedule next session status poll", e));
+    }
+  }
+
+  private static void notifyRunningStatus(PendingSession session, SessionStatus sessionStatus) {
+    if (session.runningStatusListener == null) {
+      return;
+    }
+    try {
+      session.runningStatusListener.accept(sessionStatus);
+    } catch (RuntimeException e) {
+      logger.warn("Running status listener of session " + session.sessionId + " failed: " + e.getMessage(), e);
+    }
+  }
+
+  private void scheduleDeadline(PendingSession session, Deadline deadline) {
+    bindToDeadline(session.sessionId, session.result, deadline);
+  }
+
+  /**
+   * Fails the future with {@link DeadlineExceededException} if it is not done by the deadline
+   * <p>
+   * Lets a request waiting for a session that is polled for other requests as well
+   * give up at its own deadline without stopping the poll.
+   *
+   * @param sessionId session the future waits for
+   * @param future future to bound
+   * @param deadline deadline of the future
+   */
+  public void bindToDeadline(String sessionId, CompletableFuture<?> future, Deadline deadline) {
+    try {
+      ScheduledFuture<?> deadlineTimer = scheduler.schedule(() -> {
+        if (future.completeExceptionally(new DeadlineExceededException("Deadline exceeded while polling session status"))) {
+          logger.warn("Deadline exceeded while polling session status for session " + sessionId);
+        }
+      }, deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+      future.whenComplete((result, error) -> deadlineTimer.cancel(false));
+    } catch (RejectedExecutionException e) {
+      logger.error("Failed to schedule session deadline: " + e.getMessage());
+      future.completeExceptionally(new SmartIdClientException("Failed to schedule session deadline", e));
+    }
+  }
+
+  private long nextPollDelayMs(long lastPollDurationMs) {
+    long delay = pollingStrategy.getNextPollDelayMs(pollingSleepTimeoutMs, lastPollDurationMs);
+    double jitter = pollingJitter;
+    if (jitter > 0 && delay > 0) {
+      delay += (long) (delay * jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1));
+    }
+    return Math.max(0, delay);
+  }
+
+  private void releasePermit() {
+    inFlightPolls.release();
+    pollWaitingSessions();
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      return error.getCause();
+    }
+    return error;
+  }
+
+  private static class PendingSession {
+    private final String sessionId;
+    private final Consumer<SessionStatus> runningStatusListener;
+    private final CompletableFuture<SessionStatus> result = new CompletableFuture<>();
+    private final long startTime = System.nanoTime();
+
+    private PendingSession(String sessionId, Consumer<SessionStatus> runningStatusListener) {
+      this.sessionId = sessionId;
+      this.runningStatusListener = runningStatusListener;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.rest.dao.*;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link SmartIdConnector}
+ * <p>
+ * Each method returns immediately and the returned future is completed
+ * once the HTTP round trip is over. Failures are reported by completing
+ * the future exceptionally with the same exceptions
+ * {@link SmartIdConnector} would throw.
+ */
+public interface AsyncSmartIdConnector {
+
+  CompletableFuture<SessionStatus> getSessionStatus(String sessionId);
+
+  CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request);
+
+  CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request);
+
+  CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request);
+
+  CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request);
+
+  CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request);
+
+  CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request);
+
+}
@@ -0,0 +1,207 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.rest.dao.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.*;
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import static ee.sk.smartid.rest.SmartIdRestConnector.CERTIFICATE_NOT_FOUND_MESSAGE;
+import static ee.sk.smartid.rest.SmartIdRestConnector.USER_ACCOUNT_NOT_FOUND_MESSAGE;
+
+/**
+ * {@link AsyncSmartIdConnector} backed by Jersey's asynchronous invoker
+ * <p>
+ * Shares the HTTP client and connection pool of the given
+ * {@link SmartIdRestConnector}. Responses are read and the returned futures
+ * are completed on the caller supplied executor, so dependent stages never
+ * run on the HTTP client's own threads.
+ */
+public class AsyncSmartIdRestConnector implements AsyncSmartIdConnector {
+
+  private static final Logger logger = LoggerFactory.getLogger(AsyncSmartIdRestConnector.class);
+
+  private final SmartIdRestConnector connector;
+  private final Executor executor;
+
+  public AsyncSmartIdRestConnector(SmartIdRestConnector connector, Executor executor) {
+    this.connector = connector;
+    this.executor = executor;
+  }
+
+  @Override
+  public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+    logger.debug("Getting session status asynchronously for " + sessionId);
+    return invoke(connector.sessionStatusTarget(sessionId), null, SessionStatus.class,
+        e -> SmartIdRestConnector.translateSessionStatusException(sessionId, e));
+  }
+
+  @Override
+  public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+    logger.debug("Getting certificate asynchronously for document " + documentNumber);
+    return post(connector.certificateChoiceTarget(documentNumber), request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE);
+  }
+
+  @Override
+  public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+    logger.debug("Getting certificate asynchronously for identifier " + identifier.getIdentifier());
+    return post(connector.certificateChoiceTarget(identifier), request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE);
+  }
+
+  @Override
+  public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+    logger.debug("Signing asynchronously for document " + documentNumber);
+    return post(connector.signatureTarget(documentNumber), request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+  }
+
+  @Override
+  public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+    logger.debug("Signing asynchronously for " + identifier);
+    return post(connector.signatureTarget(identifier), request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+  }
+
+  @Override
+  public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+    logger.debug("Authenticating asynchronously for document " + documentNumber);
+    return post(connector.authenticationTarget(documentNumber), request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+  }
+
+  @Override
+  public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+    logger.debug("Authenticating asynchronously for " + identity);
+    return post(connector.authenticationTarget(identity), request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+  }
+
+  private <T> CompletableFuture<T> post(WebTarget target, Object request, Class<T> responseType, String notFoundMessage) {
+    Entity<Object> requestEntity = Entity.entity(request, MediaType.APPLICATION_JSON);
+    return invoke(target, requestEntity, responseType,
+        e -> SmartIdRestConnector.translatePostException(target.getUri(), e, notFoundMessage));
+  }
+
+  private <T> CompletableFuture<T> invoke(WebTarget target, Entity<?> requestEntity, Class<T> responseType,
+      Function<WebApplicationException, RuntimeException> errorTranslator) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+      @Override
+      public void completed(Response response) {
+        runOnExecutor(() -> completeWithResponse(future, response, responseType, errorTranslator));
+      }
+
+      @Override
+      public void failed(Throwable throwable) {
+        runOnExecutor(() -> future.completeExceptionally(translateFailure(throwable, errorTranslator)));
+      }
+    };
+    try {
+      AsyncInvoker invoker = connector.prepareClient(target).async();
+      if (requestEntity == null) {
+        invoker.get(callback);
+      } else {
+        invoker.post(requestEntity, callback);
+      }
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  private void runOnExecutor(Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.warn("Executor rejected the task, completing on the calling thread", e);
+      task.run();
+    }
+  }
+
+  private static <T> void completeWithResponse(CompletableFuture<T> future, Response response, Class<T> responseType,
+      Function<WebApplicationException, RuntimeException> errorTranslator) {
+    try {
+      if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+        future.complete(response.readEntity(responseType));
+      } else {
+        future.completeExceptionally(errorTranslator.apply(toWebApplicationException(response)));
+      }
+    } catch (WebApplicationException e) {
+      future.completeExceptionally(errorTranslator.apply(e));
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    } finally {
+      response.close();
+    }
+  }
+
+  private static Throwable translateFailure(Throwable throwable, Function<WebApplicationException, RuntimeException> errorTranslator) {
+    if (throwable instanceof WebApplicationException) {
+      return errorTranslator.apply((WebApplicationException) throwable);
+    }
+    if (throwable instanceof ProcessingException && throwable.getCause() instanceof WebApplicationException) {
+      return errorTranslator.apply((WebApplicationException) throwable.getCause());
+    }
+    return throwable;
+  }
+
+  static WebApplicationException toWebApplicationException(Response response) {
+    switch (response.getStatus()) {
+      case 400:
+        return new BadRequestException(response);
+      case 401:
+        return new NotAuthorizedException(response);
+      case 403:
+        return new ForbiddenException(response);
+      case 404:
+        return new NotFoundException(response);
+      case 500:
+        return new InternalServerErrorException(response);
+      case 503:
+        return new ServiceUnavailableException(response);
+      default:
+        break;
+    }
+    switch (response.getStatusInfo().getFamily()) {
+      case CLIENT_ERROR:
+        return new ClientErrorException(response);
+      case SERVER_ERROR:
+        return new ServerErrorException(response);
+      default:
+        return new WebApplicationException(response);
+    }
+  }
+
+}
@@ -0,0 +1,496 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.exception.permanent.CircuitBreakerOpenException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Stops sending requests for a while when most recent requests failed or were slow
+ * <p>
+ * Requests starting a session and session status requests are tracked separately.
+ * When the share of failed (network or server error) or slow requests among the
+ * recent ones of a kind reaches its threshold, the circuit of that kind opens and
+ * its requests fail with {@link CircuitBreakerOpenException} without being sent.
+ * After the open duration a few trial requests are let through. The circuit closes
+ * when they all succeed and opens again when any of them fails.
+ * <p>
+ * A session status request is slow when it takes longer than the slow call duration on
+ * top of the time the server holds it open
+ * (see {@link #setSessionStatusResponseSocketOpenTime(TimeUnit, long)}). When that
+ * time is not set only failed session status requests are counted.
+ */
+public class CircuitBreakerSmartIdConnector implements SmartIdConnector {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerSmartIdConnector.class);
+
+  public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+  public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8;
+  public static final long DEFAULT_SLOW_CALL_DURATION_MS = 5000L;
+  public static final long DEFAULT_OPEN_DURATION_MS = 30000L;
+  public static final int DEFAULT_SLIDING_WINDOW_SIZE = 20;
+  public static final int DEFAULT_MINIMUM_CALLS = 10;
+  static final int TRIAL_CALLS = 3;
+
+  public enum Operation {
+    INITIATION, SESSION_STATUS
+  }
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final SmartIdConnector connector;
+  private volatile double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+  private volatile double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+  private volatile long slowCallDurationMs = DEFAULT_SLOW_CALL_DURATION_MS;
+  private volatile long openDurationMs = DEFAULT_OPEN_DURATION_MS;
+  private volatile long sessionStatusResponseSocketOpenTimeMs;
+  private volatile CircuitBreaker initiationCircuit;
+  private volatile CircuitBreaker sessionStatusCircuit;
+
+  public CircuitBreakerSmartIdConnector(SmartIdConnector connector) {
+    this.connector = connector;
+    setSlidingWindowSize(DEFAULT_SLIDING_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS);
+  }
+
+  /**
+   * @param failureRateThreshold share of failed recent requests that opens the circuit, between 0 and 1
+   */
+  public void setFailureRateThreshold(double failureRateThreshold) {
+    if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+      throw new SmartIdClientException("Failure rate threshold must be greater than 0 and at most 1");
+    }
+    this.failureRateThreshold = failureRateThreshold;
+  }
+
+  /**
+   * @param unit time unit of the {@code slowCallDuration} argument
+   * @param slowCallDuration duration after which a request is considered slow
+   * @param slowCallRateThreshold share of slow recent requests that opens the circuit, between 0 and 1
+   */
+  public void setSlowCallThreshold(TimeUnit unit, long slowCallDuration, double slowCallRateThreshold) {
+    if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+      throw new SmartIdClientException("Slow call rate threshold must be greater than 0 and at most 1");
+    }
+    this.slowCallDurationMs = unit.toMillis(slowCallDuration);
+    this.slowCallRateThreshold = slowCallRateThreshold;
+  }
+
+  /**
+   * @param unit time unit of the {@code openDuration} argument
+   * @param openDuration time requests are rejected for before trial requests are let through
+   */
+  public void setOpenDuration(TimeUnit unit, long openDuration) {
+    this.openDurationMs = unit.toMillis(openDuration);
+  }
+
+  /**
+   * Sets the number of recent requests of a kind the failure and slow call rates are calculated of
+   * <p>
+   * Resets the state of both circuits.
+   *
+   * @param slidingWindowSize number of recent requests taken into account
+   * @param minimumCalls number of requests needed before the circuit can open
+   */
+  public void setSlidingWindowSize(int slidingWindowSize, int minimumCalls) {
+    if (slidingWindowSize < 1 || minimumCalls < 1 || minimumCalls > slidingWindowSize) {
+      throw new SmartIdClientException("Sliding window size and minimum number of calls must be positive and the minimum must not exceed the window size");
+    }
+    this.initiationCircuit = new CircuitBreaker(Operation.INITIATION, slidingWindowSize, minimumCalls);
+    this.sessionStatusCircuit = new CircuitBreaker(Operation.SESSION_STATUS, slidingWindowSize, minimumCalls);
+  }
+
+  public State getState(Operation operation) {
+    return getCircuit(operation).getState();
+  }
+
+  @Override
+  public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+    return execute(Operation.SESSION_STATUS, connector, c -> c.getSessionStatus(sessionId));
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+    return execute(Operation.INITIATION, connector, c -> c.getCertificate(documentNumber, request));
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+    return execute(Operation.INITIATION, connector, c -> c.getCertificate(identifier, request));
+  }
+
+  @Override
+  public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+    return execute(Operation.INITIATION, connector, c -> c.sign(documentNumber, request));
+  }
+
+  @Override
+  public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+    return execute(Operation.INITIATION, connector, c -> c.sign(identifier, request));
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+    return execute(Operation.INITIATION, connector, c -> c.authenticate(documentNumber, request));
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+    return execute(Operation.INITIATION, connector, c -> c.authenticate(identity, request));
+  }
+
+  @Override
+  public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+    if (sessionStatusResponseSocketOpenTimeUnit != null) {
+      this.sessionStatusResponseSocketOpenTimeMs = sessionStatusResponseSocketOpenTimeUnit.toMillis(sessionStatusResponseSocketOpenTimeValue);
+    }
+    connector.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+  }
+
+  @Override
+  public void setSslContext(SSLContext sslContext) {
+    connector.setSslContext(sslContext);
+  }
+
+  @Override
+  public SmartIdConnector withDeadline(Deadline deadline) {
+    return new DeadlineBoundConnector(connector.withDeadline(deadline));
+  }
+
+  /**
+   * @return asynchronous connector sharing the circuits of this one, or null if the wrapped connector does not support asynchronous requests
+   */
+  @Override
+  public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(executor);
+    return asyncConnector == null ? null : new AsyncConnector(asyncConnector);
+  }
+
+  @Override
+  public void warmUp(int connections) {
+    connector.warmUp(connections);
+  }
+
+  private <T> T execute(Operation operation, SmartIdConnector target, Function<SmartIdConnector, T> request) {
+    CircuitBreaker circuit = getCircuit(operation);
+    boolean trial = circuit.acquirePermission();
+    long startTime = System.nanoTime();
+    try {
+      T response = request.apply(target);
+      circuit.onResult(trial, false, isSlow(operation, startTime));
+      return response;
+    } catch (RuntimeException e) {
+      circuit.onResult(trial, FailoverSmartIdConnector.isEndpointFailure(e), isSlow(operation, startTime));
+      throw e;
+    }
+  }
+
+  private CircuitBreaker getCircuit(Operation operation) {
+    return operation == Operation.INITIATION ? initiationCircuit : sessionStatusCircuit;
+  }
+
+  private boolean isSlow(Operation operation, long startTimeNanos) {
+    long expectedDurationMs = 0;
+    if (operation == Operation.SESSION_STATUS) {
+      expectedDurationMs = sessionStatusResponseSocketOpenTimeMs;
+      if (expectedDurationMs <= 0) {
+        // the server holds the request open for as long as it likes
+        return false;
+      }
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos) > expectedDurationMs + slowCallDurationMs;
+  }
+
+  private class CircuitBreaker implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Operation operation;
+    private final int minimumCalls;
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int nextIndex;
+    private int recordedCalls;
+    private int failedCount;
+    private int slowCount;
+    private State state = State.CLOSED;
+    private long openedAtMs;
+    private int trialCallsStarted;
+    private int trialCallsSucceeded;
+
+    private CircuitBreaker(Operation operation, int slidingWindowSize, int minimumCalls) {
+      this.operation = operation;
+      this.minimumCalls = minimumCalls;
+      this.failedCalls = new boolean[slidingWindowSize];
+      this.slowCalls = new boolean[slidingWindowSize];
+    }
+
+    private State getState() {
+      lock.lock();
+      try {
+        return state;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return true if the call is a trial call of a half-open circuit
+     */
+    private boolean acquirePermission() {
+      lock.lock();
+      try {
+        if (state == State.CLOSED) {
+          return false;
+        }
+        if (state == State.OPEN) {
+          long openForMs = System.currentTimeMillis() - openedAtMs;
+          if (openForMs < openDurationMs) {
+            throw new CircuitBreakerOpenException("Circuit breaker of " + operation + " requests is open", openDurationMs - openForMs);
+          }
+          logger.info("Circuit breaker of " + operation + " requests is half-open, letting trial requests through");
+          state = State.HALF_OPEN;
+          trialCallsStarted = 0;
+          trialCallsSucceeded = 0;
+        }
+        if (trialCallsStarted >= TRIAL_CALLS) {
+          throw new CircuitBreakerOpenException("Circuit breaker of " + operation + " requests is waiting for the results of trial requests", 0);
+        }
+        trialCallsStarted++;
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void onResult(boolean trial, boolean failed, boolean slow) {
+      lock.lock();
+      try {
+        if (trial) {
+          onTrialResult(failed || slow);
+        } else if (state == State.CLOSED) {
+          record(failed, slow);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void onTrialResult(boolean failed) {
+      if (state != State.HALF_OPEN) {
+        // another trial request has already decided the state
+        return;
+      }
+      if (failed) {
+        open();
+      } else if (++trialCallsSucceeded >= TRIAL_CALLS) {
+        logger.info("Circuit breaker of " + operation + " requests is closed");
+        state = State.CLOSED;
+        nextIndex = 0;
+        recordedCalls = 0;
+        failedCount = 0;
+        slowCount = 0;
+      }
+    }
+
+    private void record(boolean failed, boolean slow) {
+      if (recordedCalls == failedCalls.length) {
+        failedCount -= failedCalls[nextIndex] ? 1 : 0;
+        slowCount -= slowCalls[nextIndex] ? 1 : 0;
+      } else {
+        recordedCalls++;
+      }
+      failedCalls[nextIndex] = failed;
+      slowCalls[nextIndex] = slow;
+      failedCount += failed ? 1 : 0;
+      slowCount += slow ? 1 : 0;
+      nextIndex = (nextIndex + 1) % failedCalls.length;
+
+      if (recordedCalls >= minimumCalls
+          && ((double) failedCount / recordedCalls >= failureRateThreshold
+          || (double) slowCount / recordedCalls >= slowCallRateThreshold)) {
+        open();
+      }
+    }
+
+    private void open() {
+      logger.warn("Circuit breaker of " + operation + " requests is open for " + openDurationMs + " ms after "
+          + failedCount + " failed and " + slowCount + " slow of " + recordedCalls + " recent requests");
+      state = State.OPEN;
+      openedAtMs = System.currentTimeMillis();
+    }
+  }
+
+  private class DeadlineBoundConnector implements SmartIdConnector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SmartIdConnector boundConnector;
+
+    private DeadlineBoundConnector(SmartIdConnector boundConnector) {
+      this.boundConnector = boundConnector;
+    }
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+      return execute(Operation.SESSION_STATUS, boundConnector, c -> c.getSessionStatus(sessionId));
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+      return execute(Operation.INITIATION, boundConnector, c -> c.getCertificate(documentNumber, request));
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return execute(Operation.INITIATION, boundConnector, c -> c.getCertificate(identifier, request));
+    }
+
+    @Override
+    public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+      return execute(Operation.INITIATION, boundConnector, c -> c.sign(documentNumber, request));
+    }
+
+    @Override
+    public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return execute(Operation.INITIATION, boundConnector, c -> c.sign(identifier, request));
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return execute(Operation.INITIATION, boundConnector, c -> c.authenticate(documentNumber, request));
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return execute(Operation.INITIATION, boundConnector, c -> c.authenticate(identity, request));
+    }
+
+    @Override
+    public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+      CircuitBreakerSmartIdConnector.this.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    }
+
+    @Override
+    public void setSslContext(SSLContext sslContext) {
+      CircuitBreakerSmartIdConnector.this.setSslContext(sslContext);
+    }
+
+    @Override
+    public SmartIdConnector withDeadline(Deadline deadline) {
+      return CircuitBreakerSmartIdConnector.this.withDeadline(deadline);
+    }
+  }
+
+  private class AsyncConnector implements AsyncSmartIdConnector {
+
+    private final AsyncSmartIdConnector asyncConnector;
+
+    private AsyncConnector(AsyncSmartIdConnector asyncConnector) {
+      this.asyncConnector = asyncConnector;
+    }
+
+    @Override
+    public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+      return execute(Operation.SESSION_STATUS, () -> asyncConnector.getSessionStatus(sessionId));
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+      return execute(Operation.INITIATION, () -> asyncConnector.getCertificate(documentNumber, request));
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return execute(Operation.INITIATION, () -> asyncConnector.getCertificate(identifier, request));
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+      return execute(Operation.INITIATION, () -> asyncConnector.sign(documentNumber, request));
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return execute(Operation.INITIATION, () -> asyncConnector.sign(identifier, request));
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return execute(Operation.INITIATION, () -> asyncConnector.authenticate(documentNumber, request));
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return execute(Operation.INITIATION, () -> asyncConnector.authenticate(identity, request));
+    }
+
+    private <T> CompletableFuture<T> execute(Operation operation, Supplier<CompletableFuture<T>> request) {
+      CircuitBreaker circuit = getCircuit(operation);
+      boolean trial;
+      try {
+        trial = circuit.acquirePermission();
+      } catch (CircuitBreakerOpenException e) {
+        CompletableFuture<T> rejected = new CompletableFuture<>();
+        rejected.completeExceptionally(e);
+        return rejected;
+      }
+      long startTime = System.nanoTime();
+      CompletableFuture<T> future;
+      try {
+        future = request.get();
+      } catch (RuntimeException e) {
+        // reported here as the future completing would never be
+        circuit.onResult(trial, FailoverSmartIdConnector.isEndpointFailure(e), isSlow(operation, startTime));
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+      return future.whenComplete((response, error) -> {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        circuit.onResult(trial, cause != null && FailoverSmartIdConnector.isEndpointFailure(cause), isSlow(operation, startTime));
+      });
+    }
+  }
+}
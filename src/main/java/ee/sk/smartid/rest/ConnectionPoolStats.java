@@ -0,0 +1,89 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Usage of a connection pool of {@link SmartIdRestConnector} at one point in time
+ */
+public final class ConnectionPoolStats {
+
+  private final int leased;
+  private final int pending;
+  private final int available;
+  private final int max;
+
+  public ConnectionPoolStats(int leased, int pending, int available, int max) {
+    this.leased = leased;
+    this.pending = pending;
+    this.available = available;
+    this.max = max;
+  }
+
+  static ConnectionPoolStats of(PoolingHttpClientConnectionManager connectionManager) {
+    if (connectionManager == null) {
+      return null;
+    }
+    PoolStats stats = connectionManager.getTotalStats();
+    return new ConnectionPoolStats(stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax());
+  }
+
+  /**
+   * @return number of connections in use by requests
+   */
+  public int getLeased() {
+    return leased;
+  }
+
+  /**
+   * @return number of requests waiting for a connection
+   */
+  public int getPending() {
+    return pending;
+  }
+
+  /**
+   * @return number of idle connections kept open in the pool
+   */
+  public int getAvailable() {
+    return available;
+  }
+
+  /**
+   * @return maximum number of connections in the pool
+   */
+  public int getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectionPoolStats{leased=" + leased + ", pending=" + pending + ", available=" + available + ", max=" + max + "}";
+  }
+}
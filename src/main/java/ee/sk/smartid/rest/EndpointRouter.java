@@ -0,0 +1,182 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import javax.ws.rs.client.WebTarget;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Targets of the Smart-ID API endpoints resolved against a base target
+ * <p>
+ * The base URL and the path of each endpoint are parsed once. Per request
+ * only the encoded identifier is appended, and the session status target
+ * with the last used {@code timeoutMs} query parameter is reused.
+ * Session status may be resolved against a base target of its own
+ * so that long polls go through a separate HTTP client.
+ */
+final class EndpointRouter {
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private final WebTarget sessionStatus;
+  private final WebTarget initiationClientSessionStatus;
+  private final WebTarget certificateChoiceByDocumentNumber;
+  private final WebTarget certificateChoiceBySemanticsIdentifier;
+  private final WebTarget signatureByDocumentNumber;
+  private final WebTarget signatureBySemanticsIdentifier;
+  private final WebTarget authenticationByDocumentNumber;
+  private final WebTarget authenticationBySemanticsIdentifier;
+  private volatile SessionStatusWithTimeout sessionStatusWithTimeout;
+
+  EndpointRouter(WebTarget endpointTarget) {
+    this(endpointTarget, endpointTarget);
+  }
+
+  /**
+   * @param endpointTarget base target of session initiation requests
+   * @param sessionStatusEndpointTarget base target of session status requests
+   */
+  EndpointRouter(WebTarget endpointTarget, WebTarget sessionStatusEndpointTarget) {
+    sessionStatus = sessionStatusEndpointTarget.path("session");
+    initiationClientSessionStatus = sessionStatusEndpointTarget == endpointTarget ? null : endpointTarget.path("session");
+    certificateChoiceByDocumentNumber = endpointTarget.path("certificatechoice/document");
+    certificateChoiceBySemanticsIdentifier = endpointTarget.path("certificatechoice/etsi");
+    signatureByDocumentNumber = endpointTarget.path("signature/document");
+    signatureBySemanticsIdentifier = endpointTarget.path("signature/etsi");
+    authenticationByDocumentNumber = endpointTarget.path("authentication/document");
+    authenticationBySemanticsIdentifier = endpointTarget.path("authentication/etsi");
+  }
+
+  /**
+   * @param sessionId session to get the status of
+   * @param timeoutMs how long the server may hold the request open, 0 for the server default
+   * @return session status target
+   */
+  WebTarget sessionStatus(String sessionId, long timeoutMs) {
+    if (timeoutMs <= 0) {
+      return sessionStatus.path(encodePathSegment(sessionId));
+    }
+    SessionStatusWithTimeout cached = sessionStatusWithTimeout;
+    if (cached == null || cached.timeoutMs != timeoutMs) {
+      cached = new SessionStatusWithTimeout(timeoutMs, sessionStatus.queryParam("timeoutMs", timeoutMs));
+      sessionStatusWithTimeout = cached;
+    }
+    return cached.target.path(encodePathSegment(sessionId));
+  }
+
+  /**
+   * @return whether session status requests are sent through another HTTP client than session initiation requests
+   */
+  boolean hasSeparateSessionStatusClient() {
+    return initiationClientSessionStatus != null;
+  }
+
+  /**
+   * @param sessionId session to get the status of
+   * @return session status target on the HTTP client of session initiation requests
+   */
+  WebTarget initiationClientSessionStatus(String sessionId) {
+    return (initiationClientSessionStatus != null ? initiationClientSessionStatus : sessionStatus).path(encodePathSegment(sessionId));
+  }
+
+  WebTarget certificateChoiceByDocumentNumber(String documentNumber) {
+    return certificateChoiceByDocumentNumber.path(encodePathSegment(documentNumber));
+  }
+
+  WebTarget certificateChoiceBySemanticsIdentifier(String semanticsIdentifier) {
+    return certificateChoiceBySemanticsIdentifier.path(encodePathSegment(semanticsIdentifier));
+  }
+
+  WebTarget signatureByDocumentNumber(String documentNumber) {
+    return signatureByDocumentNumber.path(encodePathSegment(documentNumber));
+  }
+
+  WebTarget signatureBySemanticsIdentifier(String semanticsIdentifier) {
+    return signatureBySemanticsIdentifier.path(encodePathSegment(semanticsIdentifier));
+  }
+
+  WebTarget authenticationByDocumentNumber(String documentNumber) {
+    return authenticationByDocumentNumber.path(encodePathSegment(documentNumber));
+  }
+
+  WebTarget authenticationBySemanticsIdentifier(String semanticsIdentifier) {
+    return authenticationBySemanticsIdentifier.path(encodePathSegment(semanticsIdentifier));
+  }
+
+  /**
+   * Percent-encodes a value for use in a URL path
+   * <p>
+   * Session ids, document numbers and semantics identifiers consist of
+   * unreserved characters only and are returned as is without copying.
+   * Every other character, including the slash, is encoded so that the value
+   * stays within one path segment. A value of only dots is encoded too so that
+   * it is not taken for a relative path segment.
+   *
+   * @param value value to encode
+   * @return encoded value
+   */
+  static String encodePathSegment(String value) {
+    if (".".equals(value) || "..".equals(value)) {
+      return value.replace(".", "%2E");
+    }
+    int length = value.length();
+    int i = 0;
+    while (i < length && isAllowed(value.charAt(i))) {
+      i++;
+    }
+    if (i == length) {
+      return value;
+    }
+    byte[] bytes = value.substring(i).getBytes(StandardCharsets.UTF_8);
+    StringBuilder encoded = new StringBuilder(length + bytes.length * 2).append(value, 0, i);
+    for (byte b : bytes) {
+      char c = (char) (b & 0xFF);
+      if (c < 0x80 && isAllowed(c)) {
+        encoded.append(c);
+      } else {
+        encoded.append('%').append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+      }
+    }
+    return encoded.toString();
+  }
+
+  private static boolean isAllowed(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+        || c == '-' || c == '.' || c == '_' || c == '~';
+  }
+
+  private static final class SessionStatusWithTimeout {
+
+    private final long timeoutMs;
+    private final WebTarget target;
+
+    private SessionStatusWithTimeout(long timeoutMs, WebTarget target) {
+      this.timeoutMs = timeoutMs;
+      this.target = target;
+    }
+  }
+}
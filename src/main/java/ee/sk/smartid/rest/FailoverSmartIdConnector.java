@@ -0,0 +1,538 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.exception.permanent.CircuitBreakerOpenException;
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.ServiceUnavailableException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Spreads requests over several Smart-ID API endpoints
+ * (e.g. data centres or proxies) based on their health
+ * <p>
+ * Latency of initiation requests and the share of requests failing with
+ * network or server errors are tracked per endpoint. Errors count less the
+ * longer ago they happened, so an endpoint that recovers gets traffic again.
+ * Initiation requests go to the endpoint with the lowest latency and error
+ * penalty; if it cannot be connected to or is under maintenance the next
+ * one is tried. Session status requests go to the endpoint that created
+ * the session.
+ */
+public class FailoverSmartIdConnector implements SmartIdConnector {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger logger = LoggerFactory.getLogger(FailoverSmartIdConnector.class);
+
+  private static final double SMOOTHING_FACTOR = 0.2;
+  static final long ERROR_PENALTY_MS = 10000L;
+  static final long ERROR_DECAY_MS = 30000L;
+  private static final long PINNED_SESSION_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+  private final List<Endpoint> endpoints;
+  private final ConcurrentHashMap<String, PinnedSession> pinnedSessions = new ConcurrentHashMap<>();
+  private volatile long nextPruneTimeMs;
+
+  /**
+   * @param connectors connectors of the endpoints, in order of preference when they are equally healthy
+   */
+  public FailoverSmartIdConnector(List<? extends SmartIdConnector> connectors) {
+    if (connectors == null || connectors.isEmpty()) {
+      throw new SmartIdClientException("At least one endpoint connector must be provided");
+    }
+    List<Endpoint> endpoints = new ArrayList<>();
+    for (SmartIdConnector connector : connectors) {
+      endpoints.add(new Endpoint(endpoints.size() + 1, connector));
+    }
+    this.endpoints = Collections.unmodifiableList(endpoints);
+  }
+
+  @Override
+  public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+    return getSessionStatus(sessionId, null);
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+    return initiate(null, connector -> connector.getCertificate(documentNumber, request), CertificateChoiceResponse::getSessionID);
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+    return initiate(null, connector -> connector.getCertificate(identifier, request), CertificateChoiceResponse::getSessionID);
+  }
+
+  @Override
+  public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+    return initiate(null, connector -> connector.sign(documentNumber, request), SignatureSessionResponse::getSessionID);
+  }
+
+  @Override
+  public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+    return initiate(null, connector -> connector.sign(identifier, request), SignatureSessionResponse::getSessionID);
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+    return initiate(null, connector -> connector.authenticate(documentNumber, request), AuthenticationSessionResponse::getSessionID);
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+    return initiate(null, connector -> connector.authenticate(identity, request), AuthenticationSessionResponse::getSessionID);
+  }
+
+  @Override
+  public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+    for (Endpoint endpoint : endpoints) {
+      endpoint.connector.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    }
+  }
+
+  @Override
+  public void setSslContext(SSLContext sslContext) {
+    for (Endpoint endpoint : endpoints) {
+      endpoint.connector.setSslContext(sslContext);
+    }
+  }
+
+  @Override
+  public SmartIdConnector withDeadline(Deadline deadline) {
+    return new DeadlineBoundConnector(deadline);
+  }
+
+  /**
+   * @return asynchronous connector routing requests the same way, or null if any of the endpoint connectors does not support asynchronous requests
+   */
+  @Override
+  public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+    List<AsyncSmartIdConnector> asyncConnectors = new ArrayList<>();
+    for (Endpoint endpoint : endpoints) {
+      AsyncSmartIdConnector asyncConnector = endpoint.connector.getAsyncConnector(executor);
+      if (asyncConnector == null) {
+        return null;
+      }
+      asyncConnectors.add(asyncConnector);
+    }
+    return new AsyncConnector(asyncConnectors);
+  }
+
+  /**
+   * Warms up the connectors of all endpoints
+   *
+   * @throws RuntimeException error of the first endpoint when none of them could be warmed up
+   */
+  @Override
+  public void warmUp(int connections) {
+    RuntimeException failure = null;
+    int failedEndpoints = 0;
+    for (Endpoint endpoint : endpoints) {
+      try {
+        endpoint.connector.warmUp(connections);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to warm up endpoint " + endpoint.number + ": " + e.getMessage());
+        endpoint.recordResult(isEndpointFailure(e), -1);
+        failure = failure == null ? e : failure;
+        failedEndpoints++;
+      }
+    }
+    if (failedEndpoints == endpoints.size()) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @param endpointIndex index of the endpoint in the list of connectors given to the constructor
+   * @return average latency of initiation requests in milliseconds, or -1 if none have been sent
+   */
+  public long getAverageLatencyMs(int endpointIndex) {
+    return (long) endpoints.get(endpointIndex).health.get().latencyMs;
+  }
+
+  /**
+   * @param endpointIndex index of the endpoint in the list of connectors given to the constructor
+   * @return share of recent requests that failed with a network or server error, between 0 and 1
+   */
+  public double getErrorRate(int endpointIndex) {
+    return endpoints.get(endpointIndex).health.get().getErrorRate(System.currentTimeMillis());
+  }
+
+  private SessionStatus getSessionStatus(String sessionId, Deadline deadline) {
+    Endpoint endpoint = getSessionEndpoint(sessionId);
+    try {
+      SessionStatus sessionStatus = endpoint.getConnector(deadline).getSessionStatus(sessionId);
+      endpoint.recordResult(false, -1);
+      if (!"RUNNING".equalsIgnoreCase(sessionStatus.getState())) {
+        pinnedSessions.remove(sessionId);
+      }
+      return sessionStatus;
+    } catch (SessionNotFoundException e) {
+      endpoint.recordResult(false, -1);
+      pinnedSessions.remove(sessionId);
+      throw e;
+    } catch (RuntimeException e) {
+      endpoint.recordResult(isEndpointFailure(e), -1);
+      throw e;
+    }
+  }
+
+  private <T> T initiate(Deadline deadline, Function<SmartIdConnector, T> request, Function<T, String> sessionIdOf) {
+    RuntimeException failure = null;
+    for (Endpoint endpoint : rankEndpoints()) {
+      long startTime = System.nanoTime();
+      try {
+        T response = request.apply(endpoint.getConnector(deadline));
+        endpoint.recordResult(false, elapsedMs(startTime));
+        pinSession(sessionIdOf.apply(response), endpoint);
+        return response;
+      } catch (RuntimeException e) {
+        if (!shouldTryNextEndpoint(endpoint, e, elapsedMs(startTime))) {
+          throw e;
+        }
+        failure = e;
+      }
+    }
+    throw failure;
+  }
+
+  private boolean shouldTryNextEndpoint(Endpoint endpoint, Throwable error, long durationMs) {
+    if (!isEndpointFailure(error)) {
+      endpoint.recordResult(false, durationMs);
+      return false;
+    }
+    endpoint.recordResult(true, -1);
+    if (isUnreachable(error)) {
+      logger.warn("Endpoint " + endpoint.number + " is not available, trying the next one: " + error.getMessage());
+      return true;
+    }
+    return false;
+  }
+
+  List<Endpoint> rankEndpoints() {
+    long now = System.currentTimeMillis();
+    List<Endpoint> ranked = new ArrayList<>(endpoints);
+    // stable sort keeps the configured order among equally healthy endpoints
+    ranked.sort(Comparator.comparingDouble(endpoint -> endpoint.health.get().getScore(now)));
+    return ranked;
+  }
+
+  private Endpoint getSessionEndpoint(String sessionId) {
+    PinnedSession pinnedSession = pinnedSessions.get(sessionId);
+    if (pinnedSession != null) {
+      return pinnedSession.endpoint;
+    }
+    // session was created elsewhere, e.g. by another instance of the client
+    return rankEndpoints().get(0);
+  }
+
+  private void pinSession(String sessionId, Endpoint endpoint) {
+    if (sessionId == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    pinnedSessions.put(sessionId, new PinnedSession(endpoint, now));
+    if (now >= nextPruneTimeMs) {
+      // sessions that were never polled to completion would otherwise stay pinned forever
+      nextPruneTimeMs = now + PINNED_SESSION_TTL_MS / 10;
+      pinnedSessions.values().removeIf(pinned -> now - pinned.pinnedAtMs > PINNED_SESSION_TTL_MS);
+    }
+  }
+
+  static boolean isEndpointFailure(Throwable error) {
+    return error instanceof ProcessingException
+        || error instanceof ServerErrorException
+        || error instanceof ServerMaintenanceException
+        || error instanceof CircuitBreakerOpenException;
+  }
+
+  static boolean isUnreachable(Throwable error) {
+    if (error instanceof ServerMaintenanceException || error instanceof ServiceUnavailableException
+        || error instanceof CircuitBreakerOpenException) {
+      return true;
+    }
+    Throwable cause = error instanceof ProcessingException ? error.getCause() : null;
+    return cause instanceof ConnectException
+        || cause instanceof NoRouteToHostException
+        || cause instanceof UnknownHostException;
+  }
+
+  private static long elapsedMs(long startTimeNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos);
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+  }
+
+  static final class Endpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int number;
+    private final SmartIdConnector connector;
+    private final AtomicReference<Health> health = new AtomicReference<>(new Health(-1, 0, 0));
+
+    private Endpoint(int number, SmartIdConnector connector) {
+      this.number = number;
+      this.connector = connector;
+    }
+
+    SmartIdConnector getConnector(Deadline deadline) {
+      return deadline == null ? connector : connector.withDeadline(deadline);
+    }
+
+    void recordResult(boolean failed, long latencyMs) {
+      long now = System.currentTimeMillis();
+      health.updateAndGet(current -> current.update(failed, latencyMs, now));
+    }
+  }
+
+  private static final class Health implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double latencyMs;
+    private final double errorRate;
+    private final long updatedAtMs;
+
+    private Health(double latencyMs, double errorRate, long updatedAtMs) {
+      this.latencyMs = latencyMs;
+      this.errorRate = errorRate;
+      this.updatedAtMs = updatedAtMs;
+    }
+
+    private double getErrorRate(long now) {
+      return errorRate * Math.exp(-(double) Math.max(0, now - updatedAtMs) / ERROR_DECAY_MS);
+    }
+
+    private double getScore(long now) {
+      return Math.max(0, latencyMs) + getErrorRate(now) * ERROR_PENALTY_MS;
+    }
+
+    private Health update(boolean failed, long sampleLatencyMs, long now) {
+      double currentErrorRate = getErrorRate(now);
+      double newErrorRate = currentErrorRate + SMOOTHING_FACTOR * ((failed ? 1 : 0) - currentErrorRate);
+      double newLatencyMs = latencyMs;
+      if (sampleLatencyMs >= 0) {
+        newLatencyMs = latencyMs < 0 ? sampleLatencyMs : latencyMs + SMOOTHING_FACTOR * (sampleLatencyMs - latencyMs);
+      }
+      return new Health(newLatencyMs, newErrorRate, now);
+    }
+  }
+
+  private static final class PinnedSession implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Endpoint endpoint;
+    private final long pinnedAtMs;
+
+    private PinnedSession(Endpoint endpoint, long pinnedAtMs) {
+      this.endpoint = endpoint;
+      this.pinnedAtMs = pinnedAtMs;
+    }
+  }
+
+  private class DeadlineBoundConnector implements SmartIdConnector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Deadline deadline;
+
+    private DeadlineBoundConnector(Deadline deadline) {
+      this.deadline = deadline;
+    }
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+      return FailoverSmartIdConnector.this.getSessionStatus(sessionId, deadline);
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+      return initiate(deadline, connector -> connector.getCertificate(documentNumber, request), CertificateChoiceResponse::getSessionID);
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return initiate(deadline, connector -> connector.getCertificate(identifier, request), CertificateChoiceResponse::getSessionID);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+      return initiate(deadline, connector -> connector.sign(documentNumber, request), SignatureSessionResponse::getSessionID);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return initiate(deadline, connector -> connector.sign(identifier, request), SignatureSessionResponse::getSessionID);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return initiate(deadline, connector -> connector.authenticate(documentNumber, request), AuthenticationSessionResponse::getSessionID);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return initiate(deadline, connector -> connector.authenticate(identity, request), AuthenticationSessionResponse::getSessionID);
+    }
+
+    @Override
+    public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+      FailoverSmartIdConnector.this.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    }
+
+    @Override
+    public void setSslContext(SSLContext sslContext) {
+      FailoverSmartIdConnector.this.setSslContext(sslContext);
+    }
+
+    @Override
+    public SmartIdConnector withDeadline(Deadline deadline) {
+      return FailoverSmartIdConnector.this.withDeadline(deadline);
+    }
+  }
+
+  private class AsyncConnector implements AsyncSmartIdConnector {
+
+    private final List<AsyncSmartIdConnector> asyncConnectors;
+
+    private AsyncConnector(List<AsyncSmartIdConnector> asyncConnectors) {
+      this.asyncConnectors = asyncConnectors;
+    }
+
+    @Override
+    public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+      Endpoint endpoint = getSessionEndpoint(sessionId);
+      return send(endpoint, connector -> connector.getSessionStatus(sessionId)).whenComplete((sessionStatus, error) -> {
+        Throwable cause = unwrap(error);
+        endpoint.recordResult(cause != null && isEndpointFailure(cause), -1);
+        if (cause instanceof SessionNotFoundException
+            || (sessionStatus != null && !"RUNNING".equalsIgnoreCase(sessionStatus.getState()))) {
+          pinnedSessions.remove(sessionId);
+        }
+      });
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+      return initiate(rankEndpoints(), 0, connector -> connector.getCertificate(documentNumber, request), CertificateChoiceResponse::getSessionID);
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return initiate(rankEndpoints(), 0, connector -> connector.getCertificate(identifier, request), CertificateChoiceResponse::getSessionID);
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+      return initiate(rankEndpoints(), 0, connector -> connector.sign(documentNumber, request), SignatureSessionResponse::getSessionID);
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return initiate(rankEndpoints(), 0, connector -> connector.sign(identifier, request), SignatureSessionResponse::getSessionID);
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return initiate(rankEndpoints(), 0, connector -> connector.authenticate(documentNumber, request), AuthenticationSessionResponse::getSessionID);
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return initiate(rankEndpoints(), 0, connector -> connector.authenticate(identity, request), AuthenticationSessionResponse::getSessionID);
+    }
+
+    private AsyncSmartIdConnector getAsyncConnector(Endpoint endpoint) {
+      return asyncConnectors.get(endpoint.number - 1);
+    }
+
+    // a request throwing before it returns a future is handled like one whose future fails
+    private <T> CompletableFuture<T> send(Endpoint endpoint, Function<AsyncSmartIdConnector, CompletableFuture<T>> request) {
+      try {
+        return request.apply(getAsyncConnector(endpoint));
+      } catch (RuntimeException e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+    }
+
+    private <T> CompletableFuture<T> initiate(List<Endpoint> candidates, int index,
+        Function<AsyncSmartIdConnector, CompletableFuture<T>> request, Function<T, String> sessionIdOf) {
+      Endpoint endpoint = candidates.get(index);
+      long startTime = System.nanoTime();
+      CompletableFuture<T> result = new CompletableFuture<>();
+      send(endpoint, request).whenComplete((response, error) -> {
+        if (error == null) {
+          endpoint.recordResult(false, elapsedMs(startTime));
+          pinSession(sessionIdOf.apply(response), endpoint);
+          result.complete(response);
+          return;
+        }
+        Throwable cause = unwrap(error);
+        if (shouldTryNextEndpoint(endpoint, cause, elapsedMs(startTime)) && index + 1 < candidates.size()) {
+          initiate(candidates, index + 1, request, sessionIdOf).whenComplete((nextResponse, nextError) -> {
+            if (nextError == null) {
+              result.complete(nextResponse);
+            } else {
+              result.completeExceptionally(unwrap(nextError));
+            }
+          });
+        } else {
+          result.completeExceptionally(cause);
+        }
+      });
+      return result;
+    }
+  }
+}
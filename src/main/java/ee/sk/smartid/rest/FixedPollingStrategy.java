@@ -0,0 +1,51 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.rest.dao.InteractionFlow;
+import ee.sk.smartid.rest.dao.SessionStatus;
+
+/**
+ * Polls right away and then always sleeps the full polling sleep time
+ * between requests
+ */
+public class FixedPollingStrategy implements PollingStrategy {
+
+  @Override
+  public long getInitialPollDelayMs(InteractionFlow expectedInteractionFlow) {
+    return 0;
+  }
+
+  @Override
+  public long getNextPollDelayMs(long pollingSleepTimeoutMs, long lastPollDurationMs) {
+    return pollingSleepTimeoutMs;
+  }
+
+  @Override
+  public void onFinalSessionStatus(SessionStatus sessionStatus, long sessionDurationMs) {
+  }
+}
@@ -0,0 +1,514 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second session status request when the first one takes unusually long
+ * and returns whichever answer arrives first
+ * <p>
+ * Session status requests only read the state of a session, so sending one twice is safe.
+ * A request stuck behind a bad connection or a slow proxy would otherwise delay the
+ * result by the whole socket timeout even after the user has answered.
+ * <p>
+ * The second request is sent when the first one has taken longer than the given
+ * percentile of the durations of recent requests that returned a running session.
+ * These include the time the server holds a long poll open, so a normal long poll
+ * is not duplicated. Requests starting a session are never duplicated.
+ * <p>
+ * A blocking request is sent on the calling thread and only the second request takes a thread
+ * of the executor. The calling thread waits for its own answer, so it gets the answer of the
+ * second request sooner only when its own request fails. Asynchronous requests return the first answer.
+ */
+public class HedgingSmartIdConnector implements SmartIdConnector {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger logger = LoggerFactory.getLogger(HedgingSmartIdConnector.class);
+
+  public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+  public static final long DEFAULT_MIN_HEDGE_DELAY_MS = 50L;
+  public static final int DEFAULT_MAX_HEDGED_REQUESTS = 16;
+  static final int LATENCY_SAMPLES = 100;
+  static final int MIN_LATENCY_SAMPLES = 10;
+
+  private final SmartIdConnector connector;
+  private transient Executor executor;
+  private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+  private volatile long minHedgeDelayMs = DEFAULT_MIN_HEDGE_DELAY_MS;
+  private final LatencySamples latencySamples = new LatencySamples();
+  private final AtomicLong hedgedRequests = new AtomicLong();
+  private final AtomicLong hedgedRequestsWon = new AtomicLong();
+
+  /**
+   * @param connector connector sending the requests
+   * @param executor executor sending the second request of blocking session status requests, see {@link #createExecutor(ThreadFactory)}
+   */
+  public HedgingSmartIdConnector(SmartIdConnector connector, Executor executor) {
+    if (executor == null) {
+      throw new SmartIdClientException("Executor for session status requests must be provided");
+    }
+    this.connector = connector;
+    this.executor = executor;
+  }
+
+  /**
+   * Creates an executor for the second requests of blocking session status requests
+   * <p>
+   * At most {@link #DEFAULT_MAX_HEDGED_REQUESTS} second requests are sent at once, no second request
+   * is sent while all are busy. Threads are created when needed and end after being idle for a minute.
+   *
+   * @param threadFactory factory for the threads, or null for daemon threads
+   * @return executor to be shut down by the caller
+   */
+  public static ExecutorService createExecutor(ThreadFactory threadFactory) {
+    if (threadFactory == null) {
+      AtomicInteger threadNumber = new AtomicInteger();
+      threadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "smart-id-hedge-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+    return new ThreadPoolExecutor(0, DEFAULT_MAX_HEDGED_REQUESTS, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+  }
+
+  /**
+   * @param hedgePercentile percentile of recent session status request durations after which a second request is sent, between 0 and 1
+   */
+  public void setHedgePercentile(double hedgePercentile) {
+    if (hedgePercentile <= 0 || hedgePercentile >= 1) {
+      throw new SmartIdClientException("Hedge percentile must be between 0 and 1");
+    }
+    this.hedgePercentile = hedgePercentile;
+  }
+
+  /**
+   * @param unit time unit of the {@code minHedgeDelay} argument
+   * @param minHedgeDelay minimum time to wait for the first request before sending the second one
+   */
+  public void setMinHedgeDelay(TimeUnit unit, long minHedgeDelay) {
+    this.minHedgeDelayMs = unit.toMillis(minHedgeDelay);
+  }
+
+  /**
+   * @return number of session status requests that were sent a second time
+   */
+  public long getHedgedRequestCount() {
+    return hedgedRequests.get();
+  }
+
+  /**
+   * @return number of session status requests answered first by the second request
+   */
+  public long getHedgedRequestWinCount() {
+    return hedgedRequestsWon.get();
+  }
+
+  /**
+   * @return time to wait for a session status request before sending another one, or -1 until enough requests have been observed
+   */
+  public long getHedgeDelayMs() {
+    long percentileMs = latencySamples.getPercentile(hedgePercentile);
+    return percentileMs < 0 ? -1 : Math.max(minHedgeDelayMs, percentileMs);
+  }
+
+  @Override
+  public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+    return getHedgedSessionStatus(() -> connector.getSessionStatus(sessionId));
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+    return connector.getCertificate(documentNumber, request);
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+    return connector.getCertificate(identifier, request);
+  }
+
+  @Override
+  public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+    return connector.sign(documentNumber, request);
+  }
+
+  @Override
+  public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+    return connector.sign(identifier, request);
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+    return connector.authenticate(documentNumber, request);
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+    return connector.authenticate(identity, request);
+  }
+
+  @Override
+  public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+    // durations learned with another long poll time no longer apply
+    latencySamples.clear();
+    connector.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+  }
+
+  @Override
+  public void setSslContext(SSLContext sslContext) {
+    connector.setSslContext(sslContext);
+  }
+
+  @Override
+  public SmartIdConnector withDeadline(Deadline deadline) {
+    return new DeadlineBoundConnector(connector.withDeadline(deadline));
+  }
+
+  /**
+   * @return asynchronous connector hedging session status requests the same way, or null if the wrapped connector does not support asynchronous requests
+   */
+  @Override
+  public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(executor);
+    return asyncConnector == null ? null : new AsyncConnector(asyncConnector);
+  }
+
+  @Override
+  public void warmUp(int connections) {
+    connector.warmUp(connections);
+  }
+
+  // the first request is sent on the calling thread, only the second one takes a thread of the executor
+  private SessionStatus getHedgedSessionStatus(Supplier<SessionStatus> request) {
+    HedgedRequest hedgedRequest = new HedgedRequest(() -> CompletableFuture.supplyAsync(request, executor));
+    hedgedRequest.scheduleSecondRequest();
+    long startTime = System.nanoTime();
+    SessionStatus sessionStatus;
+    try {
+      sessionStatus = request.get();
+    } catch (RuntimeException e) {
+      hedgedRequest.fail(e);
+      return hedgedRequest.awaitSecondRequest(e);
+    }
+    hedgedRequest.answer(sessionStatus, false, startTime);
+    return sessionStatus;
+  }
+
+  private CompletableFuture<SessionStatus> getHedgedSessionStatusAsync(Supplier<CompletableFuture<SessionStatus>> request) {
+    HedgedRequest hedgedRequest = new HedgedRequest(request);
+    hedgedRequest.send(request, false);
+    hedgedRequest.scheduleSecondRequest();
+    return hedgedRequest.result;
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    // the executor is not serialized, a deserialized connector creates threads of its own
+    executor = createExecutor(null);
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return (error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null ? error.getCause() : error;
+  }
+
+  private class HedgedRequest {
+
+    private final Supplier<CompletableFuture<SessionStatus>> secondRequest;
+    private final CompletableFuture<SessionStatus> result = new CompletableFuture<>();
+    private final AtomicInteger pendingRequests = new AtomicInteger(1);
+    private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+    private final AtomicBoolean answered = new AtomicBoolean();
+
+    private HedgedRequest(Supplier<CompletableFuture<SessionStatus>> secondRequest) {
+      this.secondRequest = secondRequest;
+    }
+
+    private void scheduleSecondRequest() {
+      long hedgeDelayMs = getHedgeDelayMs();
+      if (hedgeDelayMs < 0 || result.isDone()) {
+        return;
+      }
+      try {
+        ScheduledFuture<?> hedge = ConnectorTimer.get().schedule(() -> {
+          if (!result.isDone()) {
+            pendingRequests.incrementAndGet();
+            logger.debug("Session status request has taken longer than " + hedgeDelayMs + " ms, sending another one");
+            send(secondRequest, true);
+          }
+        }, hedgeDelayMs, TimeUnit.MILLISECONDS);
+        result.whenComplete((sessionStatus, error) -> hedge.cancel(false));
+      } catch (RejectedExecutionException e) {
+        logger.debug("Could not schedule hedged session status request", e);
+      }
+    }
+
+    private void send(Supplier<CompletableFuture<SessionStatus>> request, boolean hedged) {
+      long startTime = System.nanoTime();
+      CompletableFuture<SessionStatus> future;
+      try {
+        future = request.get();
+      } catch (RejectedExecutionException e) {
+        if (!hedged) {
+          fail(e);
+          return;
+        }
+        // all threads for second requests are busy, the first request is still waited for
+        logger.debug("Could not send hedged session status request", e);
+        requestEnded();
+        return;
+      } catch (RuntimeException e) {
+        fail(e);
+        return;
+      }
+      if (hedged) {
+        hedgedRequests.incrementAndGet();
+      }
+      future.whenComplete((sessionStatus, error) -> {
+        if (error == null) {
+          answer(sessionStatus, hedged, startTime);
+        } else {
+          fail(error);
+        }
+      });
+    }
+
+    private void answer(SessionStatus sessionStatus, boolean hedged, long startTime) {
+      if ("RUNNING".equalsIgnoreCase(sessionStatus.getState())) {
+        latencySamples.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+      }
+      // counted before completing so that the count is up to date when the caller gets the answer
+      if (answered.compareAndSet(false, true)) {
+        if (hedged) {
+          hedgedRequestsWon.incrementAndGet();
+        }
+        result.complete(sessionStatus);
+      }
+    }
+
+    private void fail(Throwable error) {
+      firstError.compareAndSet(null, unwrap(error));
+      requestEnded();
+    }
+
+    private void requestEnded() {
+      if (pendingRequests.decrementAndGet() == 0 && firstError.get() != null) {
+        result.completeExceptionally(firstError.get());
+      }
+    }
+
+    private SessionStatus awaitSecondRequest(RuntimeException firstRequestError) {
+      try {
+        return result.get();
+      } catch (InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw firstRequestError;
+      } catch (ExecutionException e) {
+        Throwable error = unwrap(e);
+        throw error instanceof RuntimeException ? (RuntimeException) error : firstRequestError;
+      }
+    }
+  }
+
+  static final class LatencySamples implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long[] samples = new long[LATENCY_SAMPLES];
+    private final ReentrantLock lock = new ReentrantLock();
+    private int nextIndex;
+    private int count;
+
+    void add(long latencyMs) {
+      lock.lock();
+      try {
+        samples[nextIndex] = latencyMs;
+        nextIndex = (nextIndex + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void clear() {
+      lock.lock();
+      try {
+        nextIndex = 0;
+        count = 0;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    long getPercentile(double percentile) {
+      long[] sorted;
+      lock.lock();
+      try {
+        if (count < MIN_LATENCY_SAMPLES) {
+          return -1;
+        }
+        sorted = Arrays.copyOf(samples, count);
+      } finally {
+        lock.unlock();
+      }
+      Arrays.sort(sorted);
+      return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+  }
+
+  private class DeadlineBoundConnector implements SmartIdConnector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SmartIdConnector boundConnector;
+
+    private DeadlineBoundConnector(SmartIdConnector boundConnector) {
+      this.boundConnector = boundConnector;
+    }
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+      return getHedgedSessionStatus(() -> boundConnector.getSessionStatus(sessionId));
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+      return boundConnector.getCertificate(documentNumber, request);
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return boundConnector.getCertificate(identifier, request);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+      return boundConnector.sign(documentNumber, request);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return boundConnector.sign(identifier, request);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return boundConnector.authenticate(documentNumber, request);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return boundConnector.authenticate(identity, request);
+    }
+
+    @Override
+    public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+      HedgingSmartIdConnector.this.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    }
+
+    @Override
+    public void setSslContext(SSLContext sslContext) {
+      HedgingSmartIdConnector.this.setSslContext(sslContext);
+    }
+
+    @Override
+    public SmartIdConnector withDeadline(Deadline deadline) {
+      return HedgingSmartIdConnector.this.withDeadline(deadline);
+    }
+  }
+
+  private class AsyncConnector implements AsyncSmartIdConnector {
+
+    private final AsyncSmartIdConnector asyncConnector;
+
+    private AsyncConnector(AsyncSmartIdConnector asyncConnector) {
+      this.asyncConnector = asyncConnector;
+    }
+
+    @Override
+    public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+      return getHedgedSessionStatusAsync(() -> asyncConnector.getSessionStatus(sessionId));
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+      return asyncConnector.getCertificate(documentNumber, request);
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return asyncConnector.getCertificate(identifier, request);
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+      return asyncConnector.sign(documentNumber, request);
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return asyncConnector.sign(identifier, request);
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return asyncConnector.authenticate(documentNumber, request);
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return asyncConnector.authenticate(identity, request);
+    }
+  }
+}
@@ -100,8 +100,10 @@ public class LoggingFilter implements ClientRequestFilter, ClientResponseFilter,
 
   private void logResponseBody(ClientResponseContext responseContext) throws IOException {
     Charset charset = MessageUtils.getCharset(responseContext.getMediaType());
-    InputStream entityStream = responseContext.getEntityStream();
-    byte[] bodyBytes = readInputStreamBytes(entityStream);
+    byte[] bodyBytes;
+    try (InputStream entityStream = responseContext.getEntityStream()) {
+      bodyBytes = readInputStreamBytes(entityStream);
+    }
     responseContext.setEntityStream(new ByteArrayInputStream(bodyBytes));
     logger.trace("Response body: " + new String(bodyBytes, charset));
   }
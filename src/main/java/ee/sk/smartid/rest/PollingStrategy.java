@@ -0,0 +1,60 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.rest.dao.InteractionFlow;
+import ee.sk.smartid.rest.dao.SessionStatus;
+
+/**
+ * Decides when session status is polled
+ * <p>
+ * One instance may be shared by many pollers and sessions so
+ * implementations must be thread-safe.
+ */
+public interface PollingStrategy {
+
+  /**
+   * @param expectedInteractionFlow interaction flow the session most likely uses, or null if not known
+   * @return milliseconds to wait before the first session status request
+   */
+  long getInitialPollDelayMs(InteractionFlow expectedInteractionFlow);
+
+  /**
+   * @param pollingSleepTimeoutMs polling sleep time configured on the poller
+   * @param lastPollDurationMs how long the previous session status request took
+   * @return milliseconds to wait after a RUNNING status before the next request
+   */
+  long getNextPollDelayMs(long pollingSleepTimeoutMs, long lastPollDurationMs);
+
+  /**
+   * Called once the session is no longer RUNNING
+   *
+   * @param sessionStatus final session status
+   * @param sessionDurationMs time from the start of polling until the final status was received
+   */
+  void onFinalSessionStatus(SessionStatus sessionStatus, long sessionDurationMs);
+}
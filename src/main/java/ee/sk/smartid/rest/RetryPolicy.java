@@ -0,0 +1,171 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.CircuitBreakerOpenException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which failed requests {@link RetryingSmartIdConnector} sends again and when
+ * <p>
+ * Session status requests are read-only and are retried on any network or server error.
+ * Requests that start a session are retried only when the server cannot have created
+ * the session: the connection could not be established or the server answered that it
+ * is under maintenance.
+ * <p>
+ * The wait before each retry grows exponentially and is randomized so that clients
+ * failing at the same moment do not retry in lockstep. Retries are also limited by a
+ * budget shared by all connectors using the same policy: every request adds a fraction
+ * of a retry to the budget and every retry takes a whole one, so that a failing server
+ * gets at most that fraction of extra load.
+ */
+public class RetryPolicy implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+  public static final long DEFAULT_INITIAL_BACKOFF_MS = 200L;
+  public static final long DEFAULT_MAX_BACKOFF_MS = 5000L;
+  public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+  public static final int DEFAULT_MAX_RETRY_BUDGET = 10;
+
+  // budget is counted in thousandths of a retry so that it fits an AtomicLong
+  private static final long RETRY_COST = 1000L;
+
+  private final int maxAttempts;
+  private final long initialBackoffMs;
+  private final long maxBackoffMs;
+  private final long budgetDeposit;
+  private final long maxBudget;
+  private final AtomicLong budget;
+
+  public RetryPolicy() {
+    this(DEFAULT_MAX_ATTEMPTS, TimeUnit.MILLISECONDS, DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS);
+  }
+
+  /**
+   * @param maxAttempts maximum number of times a request is sent, including the first time
+   * @param backoffUnit time unit of the backoff values
+   * @param initialBackoff wait before the first retry, doubled for every next retry
+   * @param maxBackoff upper bound for the wait before a retry
+   */
+  public RetryPolicy(int maxAttempts, TimeUnit backoffUnit, long initialBackoff, long maxBackoff) {
+    this(maxAttempts, backoffUnit, initialBackoff, maxBackoff, DEFAULT_RETRY_BUDGET_RATIO, DEFAULT_MAX_RETRY_BUDGET);
+  }
+
+  /**
+   * @param maxAttempts maximum number of times a request is sent, including the first time
+   * @param backoffUnit time unit of the backoff values
+   * @param initialBackoff wait before the first retry, doubled for every next retry
+   * @param maxBackoff upper bound for the wait before a retry
+   * @param retryBudgetRatio retries allowed per request sent, between 0 and 1
+   * @param maxRetryBudget number of retries that can be saved up while requests succeed
+   */
+  public RetryPolicy(int maxAttempts, TimeUnit backoffUnit, long initialBackoff, long maxBackoff,
+      double retryBudgetRatio, int maxRetryBudget) {
+    if (maxAttempts < 1) {
+      throw new SmartIdClientException("Maximum number of attempts must be at least 1");
+    }
+    if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+      throw new SmartIdClientException("Backoff must not be negative and the maximum backoff must not be less than the initial backoff");
+    }
+    if (retryBudgetRatio < 0 || retryBudgetRatio > 1) {
+      throw new SmartIdClientException("Retry budget ratio must be between 0 and 1");
+    }
+    if (maxRetryBudget < 0) {
+      throw new SmartIdClientException("Maximum retry budget must not be negative");
+    }
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMs = backoffUnit.toMillis(initialBackoff);
+    this.maxBackoffMs = backoffUnit.toMillis(maxBackoff);
+    this.budgetDeposit = Math.round(retryBudgetRatio * RETRY_COST);
+    this.maxBudget = maxRetryBudget * RETRY_COST;
+    this.budget = new AtomicLong(maxBudget);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param error error the request failed with
+   * @param sessionStatusRequest true if the request polls session status, false if it starts a session
+   * @return true if sending the request again is safe and may succeed
+   */
+  public boolean isRetryable(Throwable error, boolean sessionStatusRequest) {
+    if (error instanceof CircuitBreakerOpenException) {
+      // the circuit stays open for longer than it is worth waiting
+      return false;
+    }
+    if (sessionStatusRequest) {
+      return FailoverSmartIdConnector.isEndpointFailure(error);
+    }
+    return FailoverSmartIdConnector.isUnreachable(error);
+  }
+
+  /**
+   * @param retry number of the retry, starting from 1
+   * @return time to wait before the retry in milliseconds, between half and all of the exponential backoff
+   */
+  public long getBackoffMs(int retry) {
+    long backoffMs = initialBackoffMs;
+    for (int i = 1; i < retry && backoffMs < maxBackoffMs; i++) {
+      backoffMs *= 2;
+    }
+    backoffMs = Math.min(backoffMs, maxBackoffMs);
+    return backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+  }
+
+  /**
+   * @return number of retries currently allowed by the retry budget
+   */
+  public double getRetryBudget() {
+    return (double) budget.get() / RETRY_COST;
+  }
+
+  void onRequest() {
+    if (budgetDeposit > 0) {
+      budget.updateAndGet(current -> Math.min(maxBudget, current + budgetDeposit));
+    }
+  }
+
+  boolean tryAcquireRetry() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < RETRY_COST) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - RETRY_COST));
+    return true;
+  }
+}
@@ -0,0 +1,328 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.rest.dao.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Sends requests that failed with a transient error again, as decided by a {@link RetryPolicy}
+ * <p>
+ * The wait before a retry is skipped together with the retry when it would not end
+ * before the deadline of the operation.
+ */
+public class RetryingSmartIdConnector implements SmartIdConnector {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger logger = LoggerFactory.getLogger(RetryingSmartIdConnector.class);
+
+  private final SmartIdConnector connector;
+  private final RetryPolicy retryPolicy;
+  private transient volatile ScheduledExecutorService retryScheduler;
+
+  /**
+   * @param connector connector sending the requests
+   * @param retryPolicy policy deciding which requests are retried
+   */
+  public RetryingSmartIdConnector(SmartIdConnector connector, RetryPolicy retryPolicy) {
+    this.connector = connector;
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Sets the scheduler that waits before retrying asynchronous requests
+   * <p>
+   * A shared single daemon thread is used by default. It only starts the retries,
+   * the requests themselves are completed on the executor of the asynchronous connector.
+   *
+   * @param retryScheduler scheduler for asynchronous retries
+   */
+  public void setRetryScheduler(ScheduledExecutorService retryScheduler) {
+    this.retryScheduler = retryScheduler;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  @Override
+  public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+    return execute(null, true, connector -> connector.getSessionStatus(sessionId));
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+    return execute(null, false, connector -> connector.getCertificate(documentNumber, request));
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+    return execute(null, false, connector -> connector.getCertificate(identifier, request));
+  }
+
+  @Override
+  public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+    return execute(null, false, connector -> connector.sign(documentNumber, request));
+  }
+
+  @Override
+  public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+    return execute(null, false, connector -> connector.sign(identifier, request));
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+    return execute(null, false, connector -> connector.authenticate(documentNumber, request));
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+    return execute(null, false, connector -> connector.authenticate(identity, request));
+  }
+
+  @Override
+  public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+    connector.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+  }
+
+  @Override
+  public void setSslContext(SSLContext sslContext) {
+    connector.setSslContext(sslContext);
+  }
+
+  @Override
+  public SmartIdConnector withDeadline(Deadline deadline) {
+    return new DeadlineBoundConnector(deadline);
+  }
+
+  /**
+   * @return asynchronous connector retrying the same way, or null if the wrapped connector does not support asynchronous requests
+   */
+  @Override
+  public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(executor);
+    return asyncConnector == null ? null : new AsyncConnector(asyncConnector);
+  }
+
+  @Override
+  public void warmUp(int connections) {
+    connector.warmUp(connections);
+  }
+
+  private <T> T execute(Deadline deadline, boolean sessionStatusRequest, Function<SmartIdConnector, T> request) {
+    SmartIdConnector target = deadline == null ? connector : connector.withDeadline(deadline);
+    retryPolicy.onRequest();
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return request.apply(target);
+      } catch (RuntimeException e) {
+        long backoffMs = getRetryBackoffMs(e, sessionStatusRequest, attempt, deadline);
+        if (backoffMs < 0) {
+          throw e;
+        }
+        try {
+          Thread.sleep(backoffMs);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private long getRetryBackoffMs(Throwable error, boolean sessionStatusRequest, int attempt, Deadline deadline) {
+    if (attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(error, sessionStatusRequest)) {
+      return -1;
+    }
+    long backoffMs = retryPolicy.getBackoffMs(attempt);
+    if (deadline != null && deadline.remainingMillis() <= backoffMs) {
+      return -1;
+    }
+    if (!retryPolicy.tryAcquireRetry()) {
+      logger.warn("Retry budget is exhausted, not retrying request that failed with: " + error.getMessage());
+      return -1;
+    }
+    logger.info("Request attempt " + attempt + " failed with '" + error.getMessage() + "', retrying in " + backoffMs + " ms");
+    return backoffMs;
+  }
+
+  private ScheduledExecutorService getRetryScheduler() {
+    ScheduledExecutorService scheduler = retryScheduler;
+    return scheduler != null ? scheduler : ConnectorTimer.get();
+  }
+
+  private class DeadlineBoundConnector implements SmartIdConnector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Deadline deadline;
+
+    private DeadlineBoundConnector(Deadline deadline) {
+      this.deadline = deadline;
+    }
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+      return execute(deadline, true, connector -> connector.getSessionStatus(sessionId));
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+      return execute(deadline, false, connector -> connector.getCertificate(documentNumber, request));
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return execute(deadline, false, connector -> connector.getCertificate(identifier, request));
+    }
+
+    @Override
+    public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+      return execute(deadline, false, connector -> connector.sign(documentNumber, request));
+    }
+
+    @Override
+    public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return execute(deadline, false, connector -> connector.sign(identifier, request));
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return execute(deadline, false, connector -> connector.authenticate(documentNumber, request));
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return execute(deadline, false, connector -> connector.authenticate(identity, request));
+    }
+
+    @Override
+    public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+      RetryingSmartIdConnector.this.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    }
+
+    @Override
+    public void setSslContext(SSLContext sslContext) {
+      RetryingSmartIdConnector.this.setSslContext(sslContext);
+    }
+
+    @Override
+    public SmartIdConnector withDeadline(Deadline deadline) {
+      return RetryingSmartIdConnector.this.withDeadline(deadline);
+    }
+  }
+
+  private class AsyncConnector implements AsyncSmartIdConnector {
+
+    private final AsyncSmartIdConnector asyncConnector;
+
+    private AsyncConnector(AsyncSmartIdConnector asyncConnector) {
+      this.asyncConnector = asyncConnector;
+    }
+
+    @Override
+    public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+      return execute(true, () -> asyncConnector.getSessionStatus(sessionId));
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+      return execute(false, () -> asyncConnector.getCertificate(documentNumber, request));
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return execute(false, () -> asyncConnector.getCertificate(identifier, request));
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+      return execute(false, () -> asyncConnector.sign(documentNumber, request));
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return execute(false, () -> asyncConnector.sign(identifier, request));
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return execute(false, () -> asyncConnector.authenticate(documentNumber, request));
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return execute(false, () -> asyncConnector.authenticate(identity, request));
+    }
+
+    private <T> CompletableFuture<T> execute(boolean sessionStatusRequest, Supplier<CompletableFuture<T>> request) {
+      retryPolicy.onRequest();
+      CompletableFuture<T> result = new CompletableFuture<>();
+      attempt(1, sessionStatusRequest, request, result);
+      return result;
+    }
+
+    private <T> void attempt(int attempt, boolean sessionStatusRequest, Supplier<CompletableFuture<T>> request, CompletableFuture<T> result) {
+      CompletableFuture<T> future;
+      try {
+        future = request.get();
+      } catch (RuntimeException e) {
+        future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+      }
+      future.whenComplete((response, error) -> {
+        if (error == null) {
+          result.complete(response);
+          return;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        long backoffMs = getRetryBackoffMs(cause, sessionStatusRequest, attempt, null);
+        if (backoffMs < 0) {
+          result.completeExceptionally(cause);
+          return;
+        }
+        try {
+          getRetryScheduler().schedule(() -> attempt(attempt + 1, sessionStatusRequest, request, result), backoffMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+          result.completeExceptionally(cause);
+        }
+      });
+    }
+  }
+}
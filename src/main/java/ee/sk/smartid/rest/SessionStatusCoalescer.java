@@ -0,0 +1,248 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
+
+/**
+ * Shares the polling of a session between everyone waiting for its final status
+ * <p>
+ * However many callers wait for the same session at once (e.g. browser retries or a page refresh),
+ * only one of them polls Smart-ID and the others get its answer. Final COMPLETE statuses are kept for
+ * a while so that callers arriving later get them without another request. The returned
+ * {@link SessionStatus} is shared between the callers and must not be modified.
+ * <p>
+ * Used by {@link SessionStatusPoller}, see {@link SessionStatusPoller#setSessionStatusCoalescer(SessionStatusCoalescer)}.
+ * One instance can be shared between pollers and clients.
+ */
+public class SessionStatusCoalescer {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionStatusCoalescer.class);
+
+  public static final int DEFAULT_MAX_CACHED_STATUSES = 1000;
+  public static final long DEFAULT_CACHE_TIME_TO_LIVE_MS = 60000L;
+
+  private final int maxCachedStatuses;
+  private final long cacheTimeToLiveMs;
+  private final ConcurrentMap<String, CompletableFuture<SessionStatus>> pollsInFlight = new ConcurrentHashMap<>();
+  // insertion order is also expiry order as every entry lives equally long
+  private final Map<String, CachedStatus> completedStatuses = new LinkedHashMap<>();
+  private final ReentrantLock cacheLock = new ReentrantLock();
+  private final AtomicLong coalescedRequests = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+
+  public SessionStatusCoalescer() {
+    this(DEFAULT_MAX_CACHED_STATUSES, TimeUnit.MILLISECONDS, DEFAULT_CACHE_TIME_TO_LIVE_MS);
+  }
+
+  /**
+   * @param maxCachedStatuses maximum number of final statuses kept, 0 to not keep them
+   * @param timeUnit time unit of the {@code timeToLive} argument
+   * @param timeToLive how long a final status is kept
+   */
+  public SessionStatusCoalescer(int maxCachedStatuses, TimeUnit timeUnit, long timeToLive) {
+    if (maxCachedStatuses < 0 || timeToLive < 0) {
+      throw new SmartIdClientException("Cache size and time to live of final session statuses cannot be negative");
+    }
+    this.maxCachedStatuses = maxCachedStatuses;
+    this.cacheTimeToLiveMs = timeUnit.toMillis(timeToLive);
+  }
+
+  /**
+   * Gets the final status of the session from the cache, from a poll loop already running
+   * for the session, or by running the given poll loop
+   * <p>
+   * When the caller running the poll loop gives up because of its own deadline or
+   * an interrupt, one of the other callers takes over polling.
+   *
+   * @param sessionId session to get the final status of
+   * @param deadline deadline of this caller, or null to wait until the session is no longer running
+   * @param pollLoop polls the session until it is no longer running
+   * @return final session status
+   * @throws DeadlineExceededException when the deadline passed before the final status was received
+   */
+  SessionStatus fetchFinalSessionStatus(String sessionId, Deadline deadline, PollLoop pollLoop) throws InterruptedException {
+    while (true) {
+      SessionStatus cachedStatus = getCachedStatus(sessionId);
+      if (cachedStatus != null) {
+        cacheHits.incrementAndGet();
+        logger.debug("Got final session status of session " + sessionId + " from cache");
+        return cachedStatus;
+      }
+      CompletableFuture<SessionStatus> poll = new CompletableFuture<>();
+      CompletableFuture<SessionStatus> pollInFlight = pollsInFlight.putIfAbsent(sessionId, poll);
+      if (pollInFlight == null) {
+        return runPollLoop(sessionId, poll, pollLoop);
+      }
+      coalescedRequests.incrementAndGet();
+      logger.debug("Waiting for session " + sessionId + " polled by another request");
+      SessionStatus sessionStatus = await(pollInFlight, deadline);
+      if (sessionStatus != null) {
+        return sessionStatus;
+      }
+      // the poll loop ended without an answer for this caller
+      pollsInFlight.remove(sessionId, pollInFlight);
+    }
+  }
+
+  /**
+   * @return number of requests that waited for a poll loop of another request instead of polling themselves
+   */
+  public long getCoalescedRequestCount() {
+    return coalescedRequests.get();
+  }
+
+  /**
+   * @return number of requests answered from the cache of final statuses
+   */
+  public long getCacheHitCount() {
+    return cacheHits.get();
+  }
+
+  /**
+   * @return number of sessions being polled
+   */
+  public int getSessionsInFlightCount() {
+    return pollsInFlight.size();
+  }
+
+  private SessionStatus runPollLoop(String sessionId, CompletableFuture<SessionStatus> poll, PollLoop pollLoop) throws InterruptedException {
+    try {
+      SessionStatus sessionStatus = pollLoop.poll();
+      if (equalsIgnoreCase("COMPLETE", sessionStatus.getState())) {
+        cacheStatus(sessionId, sessionStatus);
+      }
+      poll.complete(sessionStatus);
+      return sessionStatus;
+    } catch (RuntimeException | Error | InterruptedException e) {
+      poll.completeExceptionally(e);
+      throw e;
+    } finally {
+      pollsInFlight.remove(sessionId, poll);
+    }
+  }
+
+  private static SessionStatus await(CompletableFuture<SessionStatus> poll, Deadline deadline) throws InterruptedException {
+    try {
+      if (deadline == null) {
+        return poll.get();
+      }
+      return poll.get(Math.max(0L, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      logger.warn("Deadline exceeded while waiting for session status polled by another request");
+      throw new DeadlineExceededException("Deadline exceeded while polling session status");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof DeadlineExceededException || cause instanceof InterruptedException) {
+        return null;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new UnprocessableSmartIdResponseException("Failed to poll session status: " + cause.getMessage(), (Exception) cause);
+    }
+  }
+
+  private SessionStatus getCachedStatus(String sessionId) {
+    cacheLock.lock();
+    try {
+      removeExpiredStatuses(System.currentTimeMillis());
+      CachedStatus cachedStatus = completedStatuses.get(sessionId);
+      return cachedStatus != null ? cachedStatus.sessionStatus : null;
+    } finally {
+      cacheLock.unlock();
+    }
+  }
+
+  private void cacheStatus(String sessionId, SessionStatus sessionStatus) {
+    if (maxCachedStatuses == 0 || cacheTimeToLiveMs == 0) {
+      return;
+    }
+    cacheLock.lock();
+    try {
+      long now = System.currentTimeMillis();
+      removeExpiredStatuses(now);
+      completedStatuses.remove(sessionId);
+      completedStatuses.put(sessionId, new CachedStatus(sessionStatus, now + cacheTimeToLiveMs));
+      Iterator<CachedStatus> eldest = completedStatuses.values().iterator();
+      while (completedStatuses.size() > maxCachedStatuses) {
+        eldest.next();
+        eldest.remove();
+      }
+    } finally {
+      cacheLock.unlock();
+    }
+  }
+
+  private void removeExpiredStatuses(long now) {
+    Iterator<CachedStatus> eldest = completedStatuses.values().iterator();
+    while (eldest.hasNext() && eldest.next().expiresAt <= now) {
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Polls a session until it is no longer running
+   */
+  interface PollLoop {
+
+    SessionStatus poll() throws InterruptedException;
+  }
+
+  private static final class CachedStatus {
+
+    private final SessionStatus sessionStatus;
+    private final long expiresAt;
+
+    private CachedStatus(SessionStatus sessionStatus, long expiresAt) {
+      this.sessionStatus = sessionStatus;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -26,11 +26,13 @@ package ee.sk.smartid.rest;
  * #L%
  */
 
+import ee.sk.smartid.exception.DeadlineExceededException;
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.useraccount.DocumentUnusableException;
 import ee.sk.smartid.exception.useraction.SessionTimeoutException;
 import ee.sk.smartid.exception.useraction.UserRefusedException;
 import ee.sk.smartid.exception.useraction.UserSelectedWrongVerificationCodeException;
+import ee.sk.smartid.rest.dao.InteractionFlow;
 import ee.sk.smartid.rest.dao.SessionStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,38 +47,83 @@ public class SessionStatusPoller {
   private SmartIdConnector connector;
   private TimeUnit pollingSleepTimeUnit = TimeUnit.SECONDS;
   private long pollingSleepTimeout = 1L;
+  private PollingStrategy pollingStrategy = new FixedPollingStrategy();
+  private SessionStatusCoalescer sessionStatusCoalescer;
 
   public SessionStatusPoller(SmartIdConnector connector) {
     this.connector = connector;
   }
 
   public SessionStatus fetchFinalSessionStatus(String sessionId) throws UserRefusedException, UserSelectedWrongVerificationCodeException, SessionTimeoutException, DocumentUnusableException {
+    return fetchFinalSessionStatus(sessionId, null);
+  }
+
+  /**
+   * @param sessionId session to poll
+   * @param expectedInteractionFlow interaction flow the session most likely uses, or null if not known
+   * @return final session status
+   */
+  public SessionStatus fetchFinalSessionStatus(String sessionId, InteractionFlow expectedInteractionFlow) throws UserRefusedException, UserSelectedWrongVerificationCodeException, SessionTimeoutException, DocumentUnusableException {
+    return fetchFinalSessionStatus(sessionId, expectedInteractionFlow, null);
+  }
+
+  /**
+   * @param sessionId session to poll
+   * @param expectedInteractionFlow interaction flow the session most likely uses, or null if not known
+   * @param deadline deadline for getting the final session status, or null to poll until the session is no longer running
+   * @return final session status
+   * @throws DeadlineExceededException when the session was still running at the deadline
+   */
+  public SessionStatus fetchFinalSessionStatus(String sessionId, InteractionFlow expectedInteractionFlow, Deadline deadline) throws UserRefusedException, UserSelectedWrongVerificationCodeException, SessionTimeoutException, DocumentUnusableException, DeadlineExceededException {
     logger.debug("Starting to poll session status for session " + sessionId);
     try {
-      return pollForFinalSessionStatus(sessionId);
+      if (sessionStatusCoalescer != null) {
+        return sessionStatusCoalescer.fetchFinalSessionStatus(sessionId, deadline,
+            () -> pollForFinalSessionStatus(sessionId, expectedInteractionFlow, deadline));
+      }
+      return pollForFinalSessionStatus(sessionId, expectedInteractionFlow, deadline);
     } catch (InterruptedException e) {
       logger.error("Failed to poll session status: " + e.getMessage());
       throw new UnprocessableSmartIdResponseException("Failed to poll session status: " + e.getMessage(), e);
     }
   }
 
-  private SessionStatus pollForFinalSessionStatus(String sessionId) throws InterruptedException {
+  private SessionStatus pollForFinalSessionStatus(String sessionId, InteractionFlow expectedInteractionFlow, Deadline deadline) throws InterruptedException {
+    SmartIdConnector sessionConnector = deadline != null ? connector.withDeadline(deadline) : connector;
+    long startTime = System.nanoTime();
+    sleep(pollingStrategy.getInitialPollDelayMs(expectedInteractionFlow), deadline);
     SessionStatus sessionStatus = null;
     while (sessionStatus == null || equalsIgnoreCase("RUNNING", sessionStatus.getState())) {
-      sessionStatus = pollSessionStatus(sessionId);
+      if (deadline != null && deadline.isExpired()) {
+        logger.warn("Deadline exceeded while polling session status for session " + sessionId);
+        throw new DeadlineExceededException("Deadline exceeded while polling session status");
+      }
+      long pollStartTime = System.nanoTime();
+      sessionStatus = pollSessionStatus(sessionConnector, sessionId);
       if (equalsIgnoreCase("COMPLETE", sessionStatus.getState())) {
         break;
       }
-      logger.debug("Sleeping for " + pollingSleepTimeout + " " + pollingSleepTimeUnit);
-      pollingSleepTimeUnit.sleep(pollingSleepTimeout);
+      long pollDurationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pollStartTime);
+      sleep(pollingStrategy.getNextPollDelayMs(pollingSleepTimeUnit.toMillis(pollingSleepTimeout), pollDurationMs), deadline);
     }
     logger.debug("Got session final session status response");
+    pollingStrategy.onFinalSessionStatus(sessionStatus, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
     return sessionStatus;
   }
 
-  private SessionStatus pollSessionStatus(String sessionId) {
+  private void sleep(long delayMs, Deadline deadline) throws InterruptedException {
+    if (deadline != null) {
+      delayMs = Math.min(delayMs, deadline.remainingMillis());
+    }
+    if (delayMs > 0) {
+      logger.debug("Sleeping for " + delayMs + " " + TimeUnit.MILLISECONDS);
+      TimeUnit.MILLISECONDS.sleep(delayMs);
+    }
+  }
+
+  private SessionStatus pollSessionStatus(SmartIdConnector sessionConnector, String sessionId) {
     logger.debug("Polling session status");
-    return connector.getSessionStatus(sessionId);
+    return sessionConnector.getSessionStatus(sessionId);
   }
 
   public void setPollingSleepTime(TimeUnit unit, long timeout) {
@@ -84,4 +131,26 @@ public class SessionStatusPoller {
     pollingSleepTimeUnit = unit;
     pollingSleepTimeout = timeout;
   }
+
+  /**
+   * Sets the strategy deciding when session status is polled
+   * <p>
+   * Defaults to {@link FixedPollingStrategy}.
+   *
+   * @param pollingStrategy polling strategy, may be shared between pollers
+   */
+  public void setPollingStrategy(PollingStrategy pollingStrategy) {
+    this.pollingStrategy = pollingStrategy;
+  }
+
+  /**
+   * Sets the coalescer sharing one poll loop between all callers waiting for the same session
+   * <p>
+   * Not used by default.
+   *
+   * @param sessionStatusCoalescer session status coalescer, may be shared between pollers, or null to always poll
+   */
+  public void setSessionStatusCoalescer(SessionStatusCoalescer sessionStatusCoalescer) {
+    this.sessionStatusCoalescer = sessionStatusCoalescer;
+  }
 }
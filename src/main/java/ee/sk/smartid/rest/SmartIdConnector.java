@@ -31,6 +31,7 @@ import ee.sk.smartid.rest.dao.*;
 
 import javax.net.ssl.SSLContext;
 import java.io.Serializable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 public interface SmartIdConnector extends Serializable {
@@ -53,4 +54,38 @@ public interface SmartIdConnector extends Serializable {
 
   void setSslContext(SSLContext sslContext);
 
+  /**
+   * Gets a connector whose requests do not outlive the given deadline
+   * <p>
+   * The default implementation ignores the deadline.
+   *
+   * @param deadline deadline of the operation
+   * @return connector bound to the deadline
+   */
+  default SmartIdConnector withDeadline(Deadline deadline) {
+    return this;
+  }
+
+  /**
+   * Gets a non-blocking connector sharing the HTTP client of this one
+   * <p>
+   * The default implementation returns null as asynchronous requests are not supported.
+   *
+   * @param executor executor the returned futures are completed on
+   * @return asynchronous connector or null if not supported
+   */
+  default AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+    return null;
+  }
+
+  /**
+   * Prepares the connector for its first requests, e.g. by opening connections to the server
+   * <p>
+   * The default implementation does nothing.
+   *
+   * @param connections number of connections to open
+   */
+  default void warmUp(int connections) {
+  }
+
 }
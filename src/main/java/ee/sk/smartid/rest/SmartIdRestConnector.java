@@ -26,6 +26,7 @@ package ee.sk.smartid.rest;
  * #L%
  */
 
+import ee.sk.smartid.exception.DeadlineExceededException;
 import ee.sk.smartid.exception.SessionNotFoundException;
 import ee.sk.smartid.exception.permanent.RelyingPartyAccountConfigurationException;
 import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
@@ -34,6 +35,19 @@ import ee.sk.smartid.exception.useraccount.NoSuitableAccountOfRequestedTypeFound
 import ee.sk.smartid.exception.useraccount.PersonShouldViewSmartIdPortalException;
 import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
 import ee.sk.smartid.rest.dao.*;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientAsyncExecutor;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,29 +55,40 @@ import javax.net.ssl.SSLContext;
 import javax.ws.rs.*;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Configuration;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.Response;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 
 public class SmartIdRestConnector implements SmartIdConnector {
 
   private static final Logger logger = LoggerFactory.getLogger(SmartIdRestConnector.class);
-  private static final String SESSION_STATUS_URI = "/session/{sessionId}";
+  static final String CERTIFICATE_NOT_FOUND_MESSAGE = "Certificate not found for URI ";
+  static final String USER_ACCOUNT_NOT_FOUND_MESSAGE = "User account not found for URI ";
 
-  private static final String CERTIFICATE_CHOICE_BY_DOCUMENT_NUMBER_PATH = "/certificatechoice/document/{documentNumber}";
-  private static final String CERTIFICATE_CHOICE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER = "/certificatechoice/etsi/{semanticsIdentifier}";
+  static final long MIN_RESPONSE_SOCKET_OPEN_TIME_MS = 1000L;
+  static final long DEADLINE_RESPONSE_MARGIN_MS = 1000L;
 
-  private static final String SIGNATURE_BY_DOCUMENT_NUMBER_PATH = "/signature/document/{documentNumber}";
-  private static final String SIGNATURE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER = "/signature/etsi/{semanticsIdentifier}";
-
-  private static final String AUTHENTICATE_BY_DOCUMENT_NUMBER_PATH = "/authentication/document/{documentNumber}";
-  private static final String AUTHENTICATE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER = "/authentication/etsi/{semanticsIdentifier}";
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 100;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+  public static final long DEFAULT_CONNECTION_IDLE_TIMEOUT_MS = 30000L;
+  public static final int DEFAULT_MAX_SESSION_STATUS_CONNECTIONS_TOTAL = 100;
+  public static final int DEFAULT_MAX_SESSION_STATUS_CONNECTIONS_PER_ROUTE = 50;
 
   private String endpointUrl;
   private transient Configuration clientConfig;
@@ -73,6 +98,22 @@ public class SmartIdRestConnector implements SmartIdConnector {
   private static final long serialVersionUID = 42L;
   private transient SSLContext sslContext;
 
+  private int maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+  private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  private int maxSessionStatusConnectionsTotal = DEFAULT_MAX_SESSION_STATUS_CONNECTIONS_TOTAL;
+  private int maxSessionStatusConnectionsPerRoute = DEFAULT_MAX_SESSION_STATUS_CONNECTIONS_PER_ROUTE;
+  private long connectionIdleTimeoutMs = DEFAULT_CONNECTION_IDLE_TIMEOUT_MS;
+
+  private transient volatile EndpointRouter endpointRouter;
+  private transient Client ownedClient;
+  private transient PoolingHttpClientConnectionManager connectionManager;
+  private transient Client ownedSessionStatusClient;
+  private transient PoolingHttpClientConnectionManager sessionStatusConnectionManager;
+  private transient volatile long lastIdleConnectionEviction;
+  private transient ExecutorService asyncRequestExecutor;
+  private transient ExecutorService sessionStatusAsyncRequestExecutor;
+  private final ReentrantLock clientLock = new ReentrantLock();
+
   public SmartIdRestConnector(String endpointUrl) {
     this.endpointUrl = endpointUrl;
   }
@@ -89,83 +130,100 @@ public class SmartIdRestConnector implements SmartIdConnector {
 
   @Override
   public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
-    logger.debug("Getting session status for " + sessionId);
-    SessionStatusRequest request = createSessionStatusRequest(sessionId);
-    UriBuilder uriBuilder = UriBuilder
-        .fromUri(endpointUrl)
-        .path(SESSION_STATUS_URI);
-    addResponseSocketOpenTimeUrlParameter(request, uriBuilder);
-    URI uri = uriBuilder.build(request.getSessionId());
-    try {
-      return prepareClient(uri).get(SessionStatus.class);
-    } catch (NotFoundException e) {
-      logger.warn("Session " + request + " not found: " + e.getMessage());
-      throw new SessionNotFoundException();
-    }
-
+    return getSessionStatus(sessionId, null);
   }
 
   @Override
   public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
-    logger.debug("Getting certificate for document " + documentNumber);
-    URI uri = UriBuilder
-        .fromUri(endpointUrl)
-        .path(CERTIFICATE_CHOICE_BY_DOCUMENT_NUMBER_PATH)
-        .build(documentNumber);
-    return postCertificateRequest(uri, request);
+    return getCertificate(documentNumber, request, null);
   }
 
   @Override
   public CertificateChoiceResponse getCertificate(SemanticsIdentifier semanticsIdentifier,
       CertificateRequest request) {
-    logger.debug("Getting certificate for identifier " + semanticsIdentifier.getIdentifier());
-    URI uri = UriBuilder
-        .fromUri(endpointUrl)
-        .path(CERTIFICATE_CHOICE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER)
-        .build(semanticsIdentifier.getIdentifier());
-    return postCertificateRequest(uri, request);
+    return getCertificate(semanticsIdentifier, request, null);
   }
 
   @Override
   public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
-    logger.debug("Signing for document " + documentNumber);
-    URI uri = UriBuilder
-        .fromUri(endpointUrl)
-        .path(SIGNATURE_BY_DOCUMENT_NUMBER_PATH)
-        .build(documentNumber);
-
-    return postSigningRequest(uri, request);
+    return sign(documentNumber, request, null);
   }
 
   @Override
   public SignatureSessionResponse sign(SemanticsIdentifier semanticsIdentifier, SignatureSessionRequest request) {
-    logger.debug("Signing for " + semanticsIdentifier);
-    URI uri = UriBuilder
-        .fromUri(endpointUrl)
-        .path(SIGNATURE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER)
-        .build(semanticsIdentifier.getIdentifier());
-
-    return postSigningRequest(uri, request);
+    return sign(semanticsIdentifier, request, null);
   }
 
   @Override
   public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
-    logger.debug("Authenticating for document " + documentNumber);
-    URI uri = UriBuilder
-        .fromUri(endpointUrl)
-        .path(AUTHENTICATE_BY_DOCUMENT_NUMBER_PATH)
-        .build(documentNumber);
-    return postAuthenticationRequest(uri, request);
+    return authenticate(documentNumber, request, null);
   }
 
   @Override
   public AuthenticationSessionResponse authenticate(SemanticsIdentifier semanticsIdentifier, AuthenticationSessionRequest request) {
+    return authenticate(semanticsIdentifier, request, null);
+  }
+
+  /**
+   * Gets a connector sharing the HTTP client of this one whose requests
+   * do not outlive the given deadline
+   * <p>
+   * Connect and read timeouts of each request are cut to the time left and
+   * session status long polls ask the server to answer before the deadline.
+   * Requests fail with {@link DeadlineExceededException} once it has passed.
+   *
+   * @param deadline deadline of the operation
+   * @return connector bound to the deadline
+   */
+  @Override
+  public SmartIdConnector withDeadline(Deadline deadline) {
+    return new DeadlineBoundConnector(deadline);
+  }
+
+  @Override
+  public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+    return new AsyncSmartIdRestConnector(this, executor);
+  }
+
+  private SessionStatus getSessionStatus(String sessionId, Deadline deadline) throws SessionNotFoundException {
+    logger.debug("Getting session status for " + sessionId);
+    try {
+      return prepareClient(sessionStatusTarget(sessionId, deadline), deadline).get(SessionStatus.class);
+    } catch (WebApplicationException e) {
+      throw translateSessionStatusException(sessionId, e);
+    } catch (ProcessingException e) {
+      throw translateProcessingException(deadline, e);
+    }
+  }
+
+  private CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request, Deadline deadline) {
+    logger.debug("Getting certificate for document " + documentNumber);
+    return postRequest(certificateChoiceTarget(documentNumber), request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private CertificateChoiceResponse getCertificate(SemanticsIdentifier semanticsIdentifier, CertificateRequest request, Deadline deadline) {
+    logger.debug("Getting certificate for identifier " + semanticsIdentifier.getIdentifier());
+    return postRequest(certificateChoiceTarget(semanticsIdentifier), request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request, Deadline deadline) {
+    logger.debug("Signing for document " + documentNumber);
+    return postRequest(signatureTarget(documentNumber), request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private SignatureSessionResponse sign(SemanticsIdentifier semanticsIdentifier, SignatureSessionRequest request, Deadline deadline) {
+    logger.debug("Signing for " + semanticsIdentifier);
+    return postRequest(signatureTarget(semanticsIdentifier), request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request, Deadline deadline) {
+    logger.debug("Authenticating for document " + documentNumber);
+    return postRequest(authenticationTarget(documentNumber), request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private AuthenticationSessionResponse authenticate(SemanticsIdentifier semanticsIdentifier, AuthenticationSessionRequest request, Deadline deadline) {
     logger.debug("Authenticating for " + semanticsIdentifier);
-    URI uri = UriBuilder
-        .fromUri(endpointUrl)
-        .path(AUTHENTICATE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER)
-        .build(semanticsIdentifier.getIdentifier());
-    return postAuthenticationRequest(uri, request);
+    return postRequest(authenticationTarget(semanticsIdentifier), request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
   }
 
   @Override
@@ -174,122 +232,566 @@ public class SmartIdRestConnector implements SmartIdConnector {
     this.sessionStatusResponseSocketOpenTimeValue = sessionStatusResponseSocketOpenTimeValue;
   }
 
-  private Invocation.Builder prepareClient(URI uri) {
-    Client client;
-    if (this.configuredClient == null) {
-      ClientBuilder clientBuilder = ClientBuilder.newBuilder();
-      if (null != this.clientConfig) {
-        clientBuilder.withConfig(this.clientConfig);
+  /**
+   * Sets the size of the connection pool used for session initiation requests
+   * <p>
+   * Only applies when the connector creates the HTTP client itself,
+   * i.e. no preconfigured {@link Client} was passed in. Session status
+   * requests use a pool of their own, see {@link #setSessionStatusConnectionPoolSize(int, int)}.
+   *
+   * @param maxConnectionsTotal maximum number of pooled connections
+   * @param maxConnectionsPerRoute maximum number of pooled connections to a single host
+   */
+  public void setConnectionPoolSize(int maxConnectionsTotal, int maxConnectionsPerRoute) {
+    if (maxConnectionsTotal <= 0 || maxConnectionsPerRoute <= 0) {
+      throw new SmartIdClientException("Connection pool size must be positive");
+    }
+    this.maxConnectionsTotal = maxConnectionsTotal;
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    resetClient();
+  }
+
+  /**
+   * Sets the size of the connection pool used for session status requests
+   * <p>
+   * Long polls (see {@link #setSessionStatusResponseSocketOpenTime(TimeUnit, long)}) hold
+   * their connection for a long time. Keeping them in a pool of their own means that many
+   * pending sessions never make new sessions wait for a connection. Only applies when the
+   * connector creates the HTTP client and its Apache connection pool itself.
+   *
+   * @param maxConnectionsTotal maximum number of pooled connections
+   * @param maxConnectionsPerRoute maximum number of pooled connections to a single host
+   */
+  public void setSessionStatusConnectionPoolSize(int maxConnectionsTotal, int maxConnectionsPerRoute) {
+    if (maxConnectionsTotal <= 0 || maxConnectionsPerRoute <= 0) {
+      throw new SmartIdClientException("Connection pool size must be positive");
+    }
+    this.maxSessionStatusConnectionsTotal = maxConnectionsTotal;
+    this.maxSessionStatusConnectionsPerRoute = maxConnectionsPerRoute;
+    resetClient();
+  }
+
+  /**
+   * Sets the time after which idle pooled connections are evicted
+   *
+   * @param timeUnit time unit of the {@code timeValue} argument
+   * @param timeValue time a connection may stay idle in the pool
+   */
+  public void setConnectionIdleTimeout(TimeUnit timeUnit, long timeValue) {
+    this.connectionIdleTimeoutMs = timeUnit.toMillis(timeValue);
+    resetClient();
+  }
+
+  /**
+   * Sets the executor Jersey runs asynchronous requests on
+   * <p>
+   * The executor stays owned by the caller. Only applies when the
+   * connector creates the HTTP client itself.
+   *
+   * @param asyncRequestExecutor executor for asynchronous HTTP requests
+   */
+  public void setAsyncRequestExecutor(ExecutorService asyncRequestExecutor) {
+    this.asyncRequestExecutor = asyncRequestExecutor;
+    resetClient();
+  }
+
+  /**
+   * Sets the executor Jersey runs asynchronous session status requests on
+   * <p>
+   * Defaults to the executor set with {@link #setAsyncRequestExecutor(ExecutorService)}.
+   * The executor stays owned by the caller. Only applies when the connector creates
+   * the HTTP client itself.
+   *
+   * @param sessionStatusAsyncRequestExecutor executor for asynchronous session status requests
+   */
+  public void setSessionStatusAsyncRequestExecutor(ExecutorService sessionStatusAsyncRequestExecutor) {
+    this.sessionStatusAsyncRequestExecutor = sessionStatusAsyncRequestExecutor;
+    resetClient();
+  }
+
+  /**
+   * @return usage of the connection pool of session initiation requests, or null if the connector does not own one
+   */
+  public ConnectionPoolStats getConnectionPoolStats() {
+    return ConnectionPoolStats.of(connectionManager);
+  }
+
+  /**
+   * @return usage of the connection pool of session status requests, or null if the connector does not own one
+   */
+  public ConnectionPoolStats getSessionStatusConnectionPoolStats() {
+    return ConnectionPoolStats.of(sessionStatusConnectionManager);
+  }
+
+  /**
+   * Releases the HTTP client and pooled connections owned by this connector
+   * <p>
+   * A preconfigured {@link Client} passed in by the caller is left open.
+   */
+  public void close() {
+    resetClient();
+  }
+
+  /**
+   * Creates the HTTP clients, runs a sample of every request and response type through
+   * their JSON providers and opens connections to the Smart-ID host
+   * <p>
+   * The connections are opened with status requests of a session that does not exist
+   * and are kept in the pools of session status and session initiation requests.
+   *
+   * @param connections number of connections to open in each pool, limited by the maximum number of connections to a single host
+   * @throws ProcessingException when the host cannot be connected to
+   */
+  @Override
+  public void warmUp(int connections) {
+    long startTime = System.nanoTime();
+    EndpointRouter router = getEndpointRouter();
+    int openedConnections;
+    if (router.hasSeparateSessionStatusClient()) {
+      openedConnections = warmUp(router.sessionStatus(WarmUpSamples.NONEXISTENT_SESSION_ID, 0),
+          Math.min(connections, maxSessionStatusConnectionsPerRoute));
+      openedConnections += warmUp(router.initiationClientSessionStatus(WarmUpSamples.NONEXISTENT_SESSION_ID),
+          Math.min(connections, maxConnectionsPerRoute));
+    } else {
+      openedConnections = warmUp(router.sessionStatus(WarmUpSamples.NONEXISTENT_SESSION_ID, 0),
+          Math.min(connections, maxConnectionsPerRoute));
+    }
+    logger.info("Warmed up connector with " + openedConnections + " connections to " + endpointUrl
+        + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+  }
+
+  private int warmUp(WebTarget target, int connections) {
+    for (Object sample : WarmUpSamples.requests()) {
+      prepareClient(target).property(WarmUpFilter.SAMPLE_PROPERTY, sample).get(String.class);
+    }
+    for (Object sample : WarmUpSamples.responses()) {
+      prepareClient(target).property(WarmUpFilter.SAMPLE_PROPERTY, sample).get(sample.getClass());
+    }
+    return openConnections(target, connections);
+  }
+
+  private int openConnections(WebTarget target, int connections) {
+    // responses are closed only after all have arrived so that every request needs a connection of its own
+    List<Future<Response>> responses = new ArrayList<>();
+    try {
+      for (int i = 0; i < connections; i++) {
+        responses.add(prepareClient(target).async().get());
+      }
+      for (Future<Response> response : responses) {
+        response.get();
       }
-      if (null != this.sslContext) {
-        clientBuilder.sslContext(this.sslContext);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessingException("Interrupted while opening connections to " + endpointUrl, e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof ProcessingException ? (ProcessingException) e.getCause() : new ProcessingException(e.getCause());
+    } finally {
+      for (Future<Response> response : responses) {
+        closeQuietly(response);
       }
-      client = clientBuilder.build();
     }
-    else {
-      client = this.configuredClient;
+    return responses.size();
+  }
+
+  EndpointRouter getEndpointRouter() {
+    EndpointRouter router = endpointRouter;
+    if (router == null) {
+      router = initEndpointRouter();
     }
+    evictIdleConnections();
+    return router;
+  }
 
+  // locks instead of synchronized so that virtual threads are never pinned while waiting here
+  private EndpointRouter initEndpointRouter() {
+    clientLock.lock();
+    try {
+      if (endpointRouter == null) {
+        Client client = configuredClient != null ? configuredClient : createClient(false);
+        // long polls get a client and pool of their own unless the pool is not created here
+        Client sessionStatusClient = connectionManager != null ? createClient(true) : client;
+        WebTarget endpointTarget = createEndpointTarget(client);
+        WebTarget sessionStatusEndpointTarget = sessionStatusClient == client ? endpointTarget : createEndpointTarget(sessionStatusClient);
+        endpointRouter = new EndpointRouter(endpointTarget, sessionStatusEndpointTarget);
+      }
+      return endpointRouter;
+    } finally {
+      clientLock.unlock();
+    }
+  }
+
+  private WebTarget createEndpointTarget(Client client) {
     return client
-        .register(new LoggingFilter())
-        .target(uri)
+        .target(endpointUrl)
+        .register(LoggingFilter.class)
+        .register(new WarmUpFilter());
+  }
+
+  private Client createClient(boolean sessionStatusRequests) {
+    ClientConfig config = new ClientConfig();
+    if (null != this.clientConfig) {
+      config.loadFrom(this.clientConfig);
+    }
+    if (config.getConnectorProvider() instanceof HttpUrlConnectorProvider) {
+      config.connectorProvider(new ApacheConnectorProvider());
+    }
+    if (config.getConnectorProvider() instanceof ApacheConnectorProvider
+        && config.getProperty(ApacheClientProperties.CONNECTION_MANAGER) == null) {
+      PoolingHttpClientConnectionManager manager;
+      if (sessionStatusRequests) {
+        manager = createConnectionManager(maxSessionStatusConnectionsTotal, maxSessionStatusConnectionsPerRoute);
+        sessionStatusConnectionManager = manager;
+      } else {
+        manager = createConnectionManager(maxConnectionsTotal, maxConnectionsPerRoute);
+        connectionManager = manager;
+      }
+      config.property(ApacheClientProperties.CONNECTION_MANAGER, manager);
+    }
+    ExecutorService executor = sessionStatusRequests && sessionStatusAsyncRequestExecutor != null
+        ? sessionStatusAsyncRequestExecutor : asyncRequestExecutor;
+    if (executor != null) {
+      config.register(new AsyncRequestExecutorProvider(executor));
+    }
+    ClientBuilder clientBuilder = ClientBuilder.newBuilder().withConfig(config);
+    if (null != this.sslContext) {
+      clientBuilder.sslContext(this.sslContext);
+    }
+    Client client = clientBuilder.build();
+    if (sessionStatusRequests) {
+      ownedSessionStatusClient = client;
+    } else {
+      ownedClient = client;
+    }
+    return client;
+  }
+
+  private PoolingHttpClientConnectionManager createConnectionManager(int maxConnectionsTotal, int maxConnectionsPerRoute) {
+    SSLConnectionSocketFactory sslSocketFactory = sslContext != null
+        ? new SSLConnectionSocketFactory(sslContext)
+        : SSLConnectionSocketFactory.getSocketFactory();
+    Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+        .register("https", sslSocketFactory)
+        .build();
+    PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+    manager.setMaxTotal(maxConnectionsTotal);
+    manager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    manager.setValidateAfterInactivity((int) Math.min(Integer.MAX_VALUE, connectionIdleTimeoutMs));
+    return manager;
+  }
+
+  private void evictIdleConnections() {
+    PoolingHttpClientConnectionManager manager = connectionManager;
+    if (manager == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastIdleConnectionEviction < connectionIdleTimeoutMs / 2) {
+      return;
+    }
+    lastIdleConnectionEviction = now;
+    closeIdleConnections(manager);
+    PoolingHttpClientConnectionManager sessionStatusManager = sessionStatusConnectionManager;
+    if (sessionStatusManager != null) {
+      closeIdleConnections(sessionStatusManager);
+    }
+  }
+
+  private void closeIdleConnections(PoolingHttpClientConnectionManager manager) {
+    manager.closeExpiredConnections();
+    manager.closeIdleConnections(connectionIdleTimeoutMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void resetClient() {
+    clientLock.lock();
+    try {
+      endpointRouter = null;
+      if (ownedClient != null) {
+        ownedClient.close();
+        ownedClient = null;
+      }
+      if (connectionManager != null) {
+        connectionManager.shutdown();
+        connectionManager = null;
+      }
+      if (ownedSessionStatusClient != null) {
+        ownedSessionStatusClient.close();
+        ownedSessionStatusClient = null;
+      }
+      if (sessionStatusConnectionManager != null) {
+        sessionStatusConnectionManager.shutdown();
+        sessionStatusConnectionManager = null;
+      }
+    } finally {
+      clientLock.unlock();
+    }
+  }
+
+  WebTarget sessionStatusTarget(String sessionId) {
+    return sessionStatusTarget(sessionId, null);
+  }
+
+  private WebTarget sessionStatusTarget(String sessionId, Deadline deadline) {
+    return getEndpointRouter().sessionStatus(sessionId, getResponseSocketOpenTimeMs(deadline));
+  }
+
+  WebTarget certificateChoiceTarget(String documentNumber) {
+    return getEndpointRouter().certificateChoiceByDocumentNumber(documentNumber);
+  }
+
+  WebTarget certificateChoiceTarget(SemanticsIdentifier semanticsIdentifier) {
+    return getEndpointRouter().certificateChoiceBySemanticsIdentifier(semanticsIdentifier.getIdentifier());
+  }
+
+  WebTarget signatureTarget(String documentNumber) {
+    return getEndpointRouter().signatureByDocumentNumber(documentNumber);
+  }
+
+  WebTarget signatureTarget(SemanticsIdentifier semanticsIdentifier) {
+    return getEndpointRouter().signatureBySemanticsIdentifier(semanticsIdentifier.getIdentifier());
+  }
+
+  WebTarget authenticationTarget(String documentNumber) {
+    return getEndpointRouter().authenticationByDocumentNumber(documentNumber);
+  }
+
+  WebTarget authenticationTarget(SemanticsIdentifier semanticsIdentifier) {
+    return getEndpointRouter().authenticationBySemanticsIdentifier(semanticsIdentifier.getIdentifier());
+  }
+
+  Invocation.Builder prepareClient(WebTarget target) {
+    return target
         .request()
         .accept(APPLICATION_JSON_TYPE);
   }
 
-  private CertificateChoiceResponse postCertificateRequest(URI uri, CertificateRequest request) {
-    try {
-      return postRequest(uri, request, CertificateChoiceResponse.class);
-    } catch (NotFoundException e) {
-      logger.warn("Certificate not found for URI " + uri, e);
-      throw new UserAccountNotFoundException();
-    } catch (ForbiddenException e) {
-      logger.warn("No permission to issue the request", e);
-      throw new RelyingPartyAccountConfigurationException("No permission to issue the request", e);
+  private Invocation.Builder prepareClient(WebTarget target, Deadline deadline) {
+    Invocation.Builder builder = prepareClient(target);
+    if (deadline != null) {
+      int remainingMillis = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, checkDeadline(deadline)));
+      builder.property(ClientProperties.CONNECT_TIMEOUT, boundTimeout(target, ClientProperties.CONNECT_TIMEOUT, remainingMillis));
+      builder.property(ClientProperties.READ_TIMEOUT, boundTimeout(target, ClientProperties.READ_TIMEOUT, remainingMillis));
     }
+    return builder;
   }
 
-  private AuthenticationSessionResponse postAuthenticationRequest(URI uri, AuthenticationSessionRequest request) {
-    try {
-      return postRequest(uri, request, AuthenticationSessionResponse.class);
-    } catch (NotFoundException e) {
-      logger.warn("User account not found for URI " + uri, e);
-      throw new UserAccountNotFoundException();
-    } catch (ForbiddenException e) {
-      logger.warn("No permission to issue the request", e);
-      throw new RelyingPartyAccountConfigurationException("No permission to issue the request", e);
+  private static int boundTimeout(WebTarget target, String property, int remainingMillis) {
+    Object configuredTimeout = target.getConfiguration().getProperty(property);
+    int configuredMillis = 0;
+    if (configuredTimeout instanceof Number) {
+      configuredMillis = ((Number) configuredTimeout).intValue();
+    } else if (configuredTimeout instanceof String) {
+      try {
+        configuredMillis = Integer.parseInt((String) configuredTimeout);
+      } catch (NumberFormatException e) {
+        logger.warn("Ignoring invalid " + property + " value " + configuredTimeout);
+      }
     }
+    return configuredMillis > 0 ? Math.min(configuredMillis, remainingMillis) : remainingMillis;
   }
 
-  private SignatureSessionResponse postSigningRequest(URI uri, SignatureSessionRequest request) {
-    try {
-      return postRequest(uri, request, SignatureSessionResponse.class);
-    } catch (NotFoundException e) {
-      logger.warn("User account not found for URI " + uri, e);
-      throw new UserAccountNotFoundException();
-    } catch (ForbiddenException e) {
-      logger.warn("No permission to issue the request", e);
-      throw new RelyingPartyAccountConfigurationException("No permission to issue the request", e);
+  static long checkDeadline(Deadline deadline) {
+    if (deadline.isExpired()) {
+      logger.warn("Deadline exceeded before sending the request");
+      throw new DeadlineExceededException("Deadline exceeded before sending the request");
     }
+    return deadline.remainingMillis();
   }
 
-  private <T, V> T postRequest(URI uri, V request, Class<T> responseType) {
+  private <T, V> T postRequest(WebTarget target, V request, Class<T> responseType, String notFoundMessage, Deadline deadline) {
     try {
       Entity<V> requestEntity = Entity.entity(request, MediaType.APPLICATION_JSON);
-      return prepareClient(uri).post(requestEntity, responseType);
+      return prepareClient(target, deadline).post(requestEntity, responseType);
+    } catch (WebApplicationException e) {
+      throw translatePostException(target.getUri(), e, notFoundMessage);
+    } catch (ProcessingException e) {
+      throw translateProcessingException(deadline, e);
+    }
+  }
+
+  static RuntimeException translateProcessingException(Deadline deadline, ProcessingException e) {
+    if (deadline != null && deadline.isExpired()) {
+      logger.warn("Deadline exceeded while waiting for response: " + e.getMessage());
+      return new DeadlineExceededException("Deadline exceeded while waiting for response", e);
     }
-    catch (NotAuthorizedException e) {
+    return e;
+  }
+
+  static RuntimeException translateSessionStatusException(String sessionId, WebApplicationException e) {
+    if (e instanceof NotFoundException) {
+      logger.warn("Session " + sessionId + " not found: " + e.getMessage());
+      return new SessionNotFoundException();
+    }
+    return e;
+  }
+
+  static RuntimeException translatePostException(URI uri, WebApplicationException e, String notFoundMessage) {
+    if (e instanceof NotFoundException) {
+      logger.warn(notFoundMessage + uri, e);
+      return new UserAccountNotFoundException();
+    }
+    if (e instanceof ForbiddenException) {
+      logger.warn("No permission to issue the request", e);
+      return new RelyingPartyAccountConfigurationException("No permission to issue the request", e);
+    }
+    if (e instanceof NotAuthorizedException) {
       logger.warn("Request is unauthorized for URI " + uri, e);
-      throw new RelyingPartyAccountConfigurationException("Request is unauthorized for URI " + uri, e);
+      return new RelyingPartyAccountConfigurationException("Request is unauthorized for URI " + uri, e);
     }
-    catch (BadRequestException e) {
+    if (e instanceof BadRequestException) {
       logger.warn("Request is invalid for URI " + uri, e);
-      throw new SmartIdClientException("Server refused the request", e);
+      return new SmartIdClientException("Server refused the request", e);
     }
-    catch (ClientErrorException e) {
+    if (e instanceof ClientErrorException) {
       if (e.getResponse().getStatus() == 471) {
         logger.warn("No suitable account of requested type found, but user has some other accounts.", e);
-        throw new NoSuitableAccountOfRequestedTypeFoundException();
+        return new NoSuitableAccountOfRequestedTypeFoundException();
       }
       if (e.getResponse().getStatus() == 472) {
         logger.warn("Person should view Smart-ID app or Smart-ID self-service portal now.", e);
-        throw new PersonShouldViewSmartIdPortalException();
+        return new PersonShouldViewSmartIdPortalException();
       }
       if (e.getResponse().getStatus() == 480) {
         logger.warn("Client-side API is too old and not supported anymore");
-        throw new SmartIdClientException("Client-side API is too old and not supported anymore");
+        return new SmartIdClientException("Client-side API is too old and not supported anymore");
       }
-      throw e;
     }
-    catch (ServerErrorException e) {
-      if (e.getResponse().getStatus() == 580) {
-        logger.warn("Server is under maintenance, retry later", e);
-        throw new ServerMaintenanceException();
-      }
-      throw e;
+    if (e instanceof ServerErrorException && e.getResponse().getStatus() == 580) {
+      logger.warn("Server is under maintenance, retry later", e);
+      return new ServerMaintenanceException();
     }
+    return e;
   }
 
-
-  private SessionStatusRequest createSessionStatusRequest(String sessionId) {
-    SessionStatusRequest request = new SessionStatusRequest(sessionId);
-    if (sessionStatusResponseSocketOpenTimeUnit != null && sessionStatusResponseSocketOpenTimeValue > 0) {
-      request.setResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
-    }
-    return request;
+  private long getResponseSocketOpenTimeMs(Deadline deadline) {
+    return getResponseSocketOpenTimeMs(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue, deadline);
   }
 
-  private void addResponseSocketOpenTimeUrlParameter(SessionStatusRequest request, UriBuilder uriBuilder) {
-    if (request.isResponseSocketOpenTimeSet()) {
-      TimeUnit timeUnit = request.getResponseSocketOpenTimeUnit();
-      long timeValue = request.getResponseSocketOpenTimeValue();
-      long queryTimeoutInMilliseconds = timeUnit.toMillis(timeValue);
-      uriBuilder.queryParam("timeoutMs", queryTimeoutInMilliseconds);
+  static long getResponseSocketOpenTimeMs(TimeUnit socketOpenTimeUnit, long socketOpenTimeValue, Deadline deadline) {
+    long configuredMs = 0;
+    if (socketOpenTimeUnit != null && socketOpenTimeValue > 0) {
+      configuredMs = socketOpenTimeUnit.toMillis(socketOpenTimeValue);
     }
+    if (deadline == null) {
+      return configuredMs;
+    }
+    // let the server answer the long poll a bit before the client gives up reading
+    long socketOpenTimeMs = Math.max(MIN_RESPONSE_SOCKET_OPEN_TIME_MS, checkDeadline(deadline) - DEADLINE_RESPONSE_MARGIN_MS);
+    return configuredMs > 0 ? Math.min(socketOpenTimeMs, configuredMs) : socketOpenTimeMs;
   }
 
   @Override
   public void setSslContext(SSLContext sslContext) {
     this.sslContext = sslContext;
+    resetClient();
+  }
+
+  private class DeadlineBoundConnector implements SmartIdConnector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Deadline deadline;
+
+    private DeadlineBoundConnector(Deadline deadline) {
+      this.deadline = deadline;
+    }
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+      return SmartIdRestConnector.this.getSessionStatus(sessionId, deadline);
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+      return SmartIdRestConnector.this.getCertificate(documentNumber, request, deadline);
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return SmartIdRestConnector.this.getCertificate(identifier, request, deadline);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+      return SmartIdRestConnector.this.sign(documentNumber, request, deadline);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return SmartIdRestConnector.this.sign(identifier, request, deadline);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return SmartIdRestConnector.this.authenticate(documentNumber, request, deadline);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return SmartIdRestConnector.this.authenticate(identity, request, deadline);
+    }
+
+    @Override
+    public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+      SmartIdRestConnector.this.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    }
+
+    @Override
+    public void setSslContext(SSLContext sslContext) {
+      SmartIdRestConnector.this.setSslContext(sslContext);
+    }
+
+    @Override
+    public SmartIdConnector withDeadline(Deadline deadline) {
+      return SmartIdRestConnector.this.withDeadline(deadline);
+    }
+  }
+
+  private static void closeQuietly(Future<Response> response) {
+    if (!response.isDone()) {
+      response.cancel(true);
+      return;
+    }
+    try {
+      response.get().close();
+    } catch (Exception e) {
+      // failure was already reported
+    }
+  }
+
+  /**
+   * Answers warm-up requests with their sample object without sending them
+   */
+  private static class WarmUpFilter implements ClientRequestFilter {
+
+    private static final String SAMPLE_PROPERTY = WarmUpFilter.class.getName() + ".sample";
+
+    @Override
+    public void filter(ClientRequestContext requestContext) {
+      Object sample = requestContext.getProperty(SAMPLE_PROPERTY);
+      if (sample != null) {
+        requestContext.abortWith(Response.ok(sample, APPLICATION_JSON_TYPE).build());
+      }
+    }
+  }
+
+  @ClientAsyncExecutor
+  private static class AsyncRequestExecutorProvider implements ExecutorServiceProvider {
+
+    private final ExecutorService executorService;
+
+    private AsyncRequestExecutorProvider(ExecutorService executorService) {
+      this.executorService = executorService;
+    }
+
+    @Override
+    public ExecutorService getExecutorService() {
+      return executorService;
+    }
+
+    @Override
+    public void dispose(ExecutorService executorService) {
+      // owned by the caller
+    }
   }
 }
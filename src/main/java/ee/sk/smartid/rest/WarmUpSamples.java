@@ -0,0 +1,107 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.rest.dao.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Request and response objects of every kind the connectors exchange with the server,
+ * used to initialise their JSON mapping before the first real request
+ */
+final class WarmUpSamples {
+
+  /**
+   * Session status requests of this session are answered with "not found" by the server
+   */
+  static final String NONEXISTENT_SESSION_ID = "00000000-0000-0000-0000-000000000000";
+
+  private WarmUpSamples() {
+  }
+
+  static List<Object> requests() {
+    CertificateRequest certificateRequest = new CertificateRequest();
+    certificateRequest.setRelyingPartyUUID(NONEXISTENT_SESSION_ID);
+    certificateRequest.setRelyingPartyName("warm-up");
+    certificateRequest.setCertificateLevel("QUALIFIED");
+    certificateRequest.setNonce("nonce");
+    certificateRequest.setCapabilities(Collections.singleton("ADVANCED"));
+
+    SignatureSessionRequest signatureSessionRequest = new SignatureSessionRequest();
+    signatureSessionRequest.setRelyingPartyUUID(NONEXISTENT_SESSION_ID);
+    signatureSessionRequest.setRelyingPartyName("warm-up");
+    signatureSessionRequest.setCertificateLevel("QUALIFIED");
+    signatureSessionRequest.setHash("AA==");
+    signatureSessionRequest.setHashType("SHA512");
+    signatureSessionRequest.setCapabilities(Collections.singleton("ADVANCED"));
+    signatureSessionRequest.setAllowedInteractionsOrder(Arrays.asList(
+        Interaction.confirmationMessage("warm-up"), Interaction.displayTextAndPIN("warm-up")));
+
+    AuthenticationSessionRequest authenticationSessionRequest = new AuthenticationSessionRequest();
+    authenticationSessionRequest.setRelyingPartyUUID(NONEXISTENT_SESSION_ID);
+    authenticationSessionRequest.setRelyingPartyName("warm-up");
+    authenticationSessionRequest.setCertificateLevel("QUALIFIED");
+    authenticationSessionRequest.setHash("AA==");
+    authenticationSessionRequest.setHashType("SHA512");
+    authenticationSessionRequest.setCapabilities(Collections.singleton("ADVANCED"));
+    authenticationSessionRequest.setAllowedInteractionsOrder(Arrays.asList(
+        Interaction.verificationCodeChoice("warm-up"), Interaction.displayTextAndPIN("warm-up")));
+
+    return Arrays.asList(certificateRequest, signatureSessionRequest, authenticationSessionRequest);
+  }
+
+  static List<Object> responses() {
+    SessionResult result = new SessionResult();
+    result.setEndResult("OK");
+    result.setDocumentNumber("PNOEE-00000000000-WARM-Q");
+    SessionCertificate cert = new SessionCertificate();
+    cert.setValue("AA==");
+    cert.setCertificateLevel("QUALIFIED");
+    SessionSignature signature = new SessionSignature();
+    signature.setAlgorithm("sha512WithRSAEncryption");
+    signature.setValue("AA==");
+    SessionStatus sessionStatus = new SessionStatus();
+    sessionStatus.setState("COMPLETE");
+    sessionStatus.setResult(result);
+    sessionStatus.setCert(cert);
+    sessionStatus.setSignature(signature);
+    sessionStatus.setIgnoredProperties(new String[] {"warm-up"});
+    sessionStatus.setInteractionFlowUsed("displayTextAndPIN");
+
+    CertificateChoiceResponse certificateChoiceResponse = new CertificateChoiceResponse();
+    certificateChoiceResponse.setSessionID(NONEXISTENT_SESSION_ID);
+    SignatureSessionResponse signatureSessionResponse = new SignatureSessionResponse();
+    signatureSessionResponse.setSessionID(NONEXISTENT_SESSION_ID);
+    AuthenticationSessionResponse authenticationSessionResponse = new AuthenticationSessionResponse();
+    authenticationSessionResponse.setSessionID(NONEXISTENT_SESSION_ID);
+
+    return Arrays.asList(sessionStatus, certificateChoiceResponse, signatureSessionResponse, authenticationSessionResponse);
+  }
+}
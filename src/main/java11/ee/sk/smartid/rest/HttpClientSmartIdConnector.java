@@ -0,0 +1,537 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.rest.dao.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static ee.sk.smartid.rest.SmartIdRestConnector.CERTIFICATE_NOT_FOUND_MESSAGE;
+import static ee.sk.smartid.rest.SmartIdRestConnector.USER_ACCOUNT_NOT_FOUND_MESSAGE;
+
+/**
+ * {@link SmartIdConnector} on the HTTP client of Java 11
+ * <p>
+ * Requests of all threads share the connections of one {@link HttpClient}.
+ * Over HTTPS the client negotiates HTTP/2, so any number of concurrent
+ * session status long polls are multiplexed over a few connections
+ * instead of holding a socket each. Servers without HTTP/2 support are
+ * talked to over HTTP/1.1. Errors are mapped to the same exceptions as
+ * {@link SmartIdRestConnector} throws.
+ * <p>
+ * Only available when running on Java 11 or later.
+ */
+public class HttpClientSmartIdConnector implements SmartIdConnector {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger logger = LoggerFactory.getLogger(HttpClientSmartIdConnector.class);
+  private static final ObjectMapper objectMapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private static final String SESSION_STATUS_PATH = "/session/";
+  private static final String CERTIFICATE_CHOICE_BY_DOCUMENT_NUMBER_PATH = "/certificatechoice/document/";
+  private static final String CERTIFICATE_CHOICE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER = "/certificatechoice/etsi/";
+  private static final String SIGNATURE_BY_DOCUMENT_NUMBER_PATH = "/signature/document/";
+  private static final String SIGNATURE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER = "/signature/etsi/";
+  private static final String AUTHENTICATE_BY_DOCUMENT_NUMBER_PATH = "/authentication/document/";
+  private static final String AUTHENTICATE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER = "/authentication/etsi/";
+
+  private final String endpointUrl;
+  private transient HttpClient configuredClient;
+  private transient volatile HttpClient httpClient;
+  private transient SSLContext sslContext;
+  private transient Executor executor;
+  private Duration connectTimeout;
+  private Duration requestTimeout;
+  private TimeUnit sessionStatusResponseSocketOpenTimeUnit;
+  private long sessionStatusResponseSocketOpenTimeValue;
+  private final ReentrantLock clientLock = new ReentrantLock();
+
+  public HttpClientSmartIdConnector(String endpointUrl) {
+    this.endpointUrl = endpointUrl.endsWith("/") ? endpointUrl.substring(0, endpointUrl.length() - 1) : endpointUrl;
+  }
+
+  /**
+   * @param endpointUrl Smart-ID API endpoint
+   * @param configuredClient client to send the requests with, the SSL context, timeouts and executor set on this connector are ignored
+   */
+  public HttpClientSmartIdConnector(String endpointUrl, HttpClient configuredClient) {
+    this(endpointUrl);
+    this.configuredClient = configuredClient;
+  }
+
+  @Override
+  public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+    return getSessionStatus(sessionId, null);
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+    return getCertificate(documentNumber, request, null);
+  }
+
+  @Override
+  public CertificateChoiceResponse getCertificate(SemanticsIdentifier semanticsIdentifier, CertificateRequest request) {
+    return getCertificate(semanticsIdentifier, request, null);
+  }
+
+  @Override
+  public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+    return sign(documentNumber, request, null);
+  }
+
+  @Override
+  public SignatureSessionResponse sign(SemanticsIdentifier semanticsIdentifier, SignatureSessionRequest request) {
+    return sign(semanticsIdentifier, request, null);
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+    return authenticate(documentNumber, request, null);
+  }
+
+  @Override
+  public AuthenticationSessionResponse authenticate(SemanticsIdentifier semanticsIdentifier, AuthenticationSessionRequest request) {
+    return authenticate(semanticsIdentifier, request, null);
+  }
+
+  /**
+   * Gets a connector sharing the HTTP client of this one whose requests
+   * do not outlive the given deadline
+   * <p>
+   * The timeout of each request is cut to the time left and session status
+   * long polls ask the server to answer before the deadline.
+   *
+   * @param deadline deadline of the operation
+   * @return connector bound to the deadline
+   */
+  @Override
+  public SmartIdConnector withDeadline(Deadline deadline) {
+    return new DeadlineBoundConnector(deadline);
+  }
+
+  @Override
+  public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+    return new AsyncConnector(executor);
+  }
+
+  /**
+   * Creates the HTTP client, runs a sample of every request and response type through
+   * the JSON mapper and opens a connection to the Smart-ID host
+   * <p>
+   * Over HTTP/2 all requests share one connection, over HTTP/1.1 up to the given number are opened.
+   *
+   * @param connections number of concurrent requests to send
+   * @throws ProcessingException when the host cannot be connected to
+   */
+  @Override
+  public void warmUp(int connections) {
+    long startTime = System.nanoTime();
+    try {
+      for (Object sample : WarmUpSamples.requests()) {
+        objectMapper.writeValueAsString(sample);
+      }
+      for (Object sample : WarmUpSamples.responses()) {
+        objectMapper.readValue(objectMapper.writeValueAsString(sample), sample.getClass());
+      }
+    } catch (IOException e) {
+      throw new ProcessingException("Failed to initialise JSON mapping", e);
+    }
+
+    HttpRequest request = sessionStatusRequest(WarmUpSamples.NONEXISTENT_SESSION_ID, null);
+    List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>();
+    for (int i = 0; i < connections; i++) {
+      responses.add(getHttpClient().sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+    }
+    try {
+      CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      throw SmartIdRestConnector.translateProcessingException(null, new ProcessingException(e.getCause()));
+    }
+    logger.info("Warmed up connector with " + connections + " requests to " + endpointUrl
+        + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+  }
+
+  @Override
+  public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+    this.sessionStatusResponseSocketOpenTimeUnit = sessionStatusResponseSocketOpenTimeUnit;
+    this.sessionStatusResponseSocketOpenTimeValue = sessionStatusResponseSocketOpenTimeValue;
+  }
+
+  @Override
+  public void setSslContext(SSLContext sslContext) {
+    this.sslContext = sslContext;
+    resetClient();
+  }
+
+  public void setConnectTimeout(TimeUnit timeUnit, long timeValue) {
+    this.connectTimeout = Duration.ofMillis(timeUnit.toMillis(timeValue));
+    resetClient();
+  }
+
+  /**
+   * Sets the time to wait for a response
+   * <p>
+   * Session status requests wait for the response socket open time on top of it.
+   *
+   * @param timeUnit time unit of the timeout
+   * @param timeValue timeout, 0 to wait indefinitely
+   */
+  public void setRequestTimeout(TimeUnit timeUnit, long timeValue) {
+    this.requestTimeout = timeValue > 0 ? Duration.ofMillis(timeUnit.toMillis(timeValue)) : null;
+  }
+
+  /**
+   * Sets the executor the HTTP client runs its own tasks on
+   * <p>
+   * If not provided, the HTTP client creates its own thread pool.
+   *
+   * @param executor executor for the HTTP client
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+    resetClient();
+  }
+
+  private SessionStatus getSessionStatus(String sessionId, Deadline deadline) throws SessionNotFoundException {
+    logger.debug("Getting session status for " + sessionId);
+    return send(sessionStatusRequest(sessionId, deadline), SessionStatus.class, deadline,
+        e -> SmartIdRestConnector.translateSessionStatusException(sessionId, e));
+  }
+
+  private CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request, Deadline deadline) {
+    logger.debug("Getting certificate for document " + documentNumber);
+    return post(uri(CERTIFICATE_CHOICE_BY_DOCUMENT_NUMBER_PATH, documentNumber), request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private CertificateChoiceResponse getCertificate(SemanticsIdentifier semanticsIdentifier, CertificateRequest request, Deadline deadline) {
+    logger.debug("Getting certificate for identifier " + semanticsIdentifier.getIdentifier());
+    return post(uri(CERTIFICATE_CHOICE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER, semanticsIdentifier.getIdentifier()), request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request, Deadline deadline) {
+    logger.debug("Signing for document " + documentNumber);
+    return post(uri(SIGNATURE_BY_DOCUMENT_NUMBER_PATH, documentNumber), request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private SignatureSessionResponse sign(SemanticsIdentifier semanticsIdentifier, SignatureSessionRequest request, Deadline deadline) {
+    logger.debug("Signing for " + semanticsIdentifier);
+    return post(uri(SIGNATURE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER, semanticsIdentifier.getIdentifier()), request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request, Deadline deadline) {
+    logger.debug("Authenticating for document " + documentNumber);
+    return post(uri(AUTHENTICATE_BY_DOCUMENT_NUMBER_PATH, documentNumber), request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  private AuthenticationSessionResponse authenticate(SemanticsIdentifier semanticsIdentifier, AuthenticationSessionRequest request, Deadline deadline) {
+    logger.debug("Authenticating for " + semanticsIdentifier);
+    return post(uri(AUTHENTICATE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER, semanticsIdentifier.getIdentifier()), request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE, deadline);
+  }
+
+  HttpClient getHttpClient() {
+    if (configuredClient != null) {
+      return configuredClient;
+    }
+    HttpClient client = httpClient;
+    if (client != null) {
+      return client;
+    }
+    clientLock.lock();
+    try {
+      if (httpClient == null) {
+        httpClient = createHttpClient();
+      }
+      return httpClient;
+    } finally {
+      clientLock.unlock();
+    }
+  }
+
+  private HttpClient createHttpClient() {
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2);
+    if (sslContext != null) {
+      builder.sslContext(sslContext);
+    }
+    if (connectTimeout != null) {
+      builder.connectTimeout(connectTimeout);
+    }
+    if (executor != null) {
+      builder.executor(executor);
+    }
+    return builder.build();
+  }
+
+  private void resetClient() {
+    clientLock.lock();
+    try {
+      httpClient = null;
+    } finally {
+      clientLock.unlock();
+    }
+  }
+
+  private URI uri(String path, String pathParameter) {
+    return URI.create(endpointUrl + path + EndpointRouter.encodePathSegment(pathParameter));
+  }
+
+  private HttpRequest sessionStatusRequest(String sessionId, Deadline deadline) {
+    long socketOpenTimeMs = SmartIdRestConnector.getResponseSocketOpenTimeMs(
+        sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue, deadline);
+    URI uri = uri(SESSION_STATUS_PATH, sessionId);
+    if (socketOpenTimeMs > 0) {
+      uri = URI.create(uri + "?timeoutMs=" + socketOpenTimeMs);
+    }
+    return newRequest(uri, socketOpenTimeMs, deadline)
+        .GET()
+        .build();
+  }
+
+  private HttpRequest postRequest(URI uri, Object request, Deadline deadline) {
+    String body;
+    try {
+      body = objectMapper.writeValueAsString(request);
+    } catch (JsonProcessingException e) {
+      throw new ProcessingException("Failed to write request to " + uri, e);
+    }
+    return newRequest(uri, 0, deadline)
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private HttpRequest.Builder newRequest(URI uri, long serverWaitTimeMs, Deadline deadline) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+        .header("Accept", "application/json");
+    Duration timeout = requestTimeout != null ? requestTimeout.plusMillis(serverWaitTimeMs) : null;
+    if (deadline != null) {
+      Duration remaining = Duration.ofMillis(Math.max(1L, SmartIdRestConnector.checkDeadline(deadline)));
+      timeout = timeout == null || remaining.compareTo(timeout) < 0 ? remaining : timeout;
+    }
+    if (timeout != null) {
+      builder.timeout(timeout);
+    }
+    return builder;
+  }
+
+  private <T> T post(URI uri, Object request, Class<T> responseType, String notFoundMessage, Deadline deadline) {
+    return send(postRequest(uri, request, deadline), responseType, deadline,
+        e -> SmartIdRestConnector.translatePostException(uri, e, notFoundMessage));
+  }
+
+  private <T> T send(HttpRequest request, Class<T> responseType, Deadline deadline,
+      Function<WebApplicationException, RuntimeException> errorTranslator) {
+    HttpResponse<String> response;
+    try {
+      response = getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+    } catch (IOException e) {
+      throw SmartIdRestConnector.translateProcessingException(deadline, new ProcessingException(e));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessingException("Interrupted while waiting for response from " + request.uri(), e);
+    }
+    return readResponse(response, responseType, errorTranslator);
+  }
+
+  private static <T> T readResponse(HttpResponse<String> response, Class<T> responseType,
+      Function<WebApplicationException, RuntimeException> errorTranslator) {
+    logger.debug("Received " + response.version() + " response " + response.statusCode() + " from " + response.uri());
+    logger.trace("Response body: " + response.body());
+    if (response.statusCode() < 200 || response.statusCode() >= 300) {
+      Response errorResponse = Response.status(response.statusCode()).entity(response.body()).build();
+      throw errorTranslator.apply(AsyncSmartIdRestConnector.toWebApplicationException(errorResponse));
+    }
+    try {
+      return objectMapper.readValue(response.body(), responseType);
+    } catch (IOException e) {
+      throw new ProcessingException("Failed to read response from " + response.uri(), e);
+    }
+  }
+
+  private class DeadlineBoundConnector implements SmartIdConnector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Deadline deadline;
+
+    private DeadlineBoundConnector(Deadline deadline) {
+      this.deadline = deadline;
+    }
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
+      return HttpClientSmartIdConnector.this.getSessionStatus(sessionId, deadline);
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(String documentNumber, CertificateRequest request) {
+      return HttpClientSmartIdConnector.this.getCertificate(documentNumber, request, deadline);
+    }
+
+    @Override
+    public CertificateChoiceResponse getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      return HttpClientSmartIdConnector.this.getCertificate(identifier, request, deadline);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(String documentNumber, SignatureSessionRequest request) {
+      return HttpClientSmartIdConnector.this.sign(documentNumber, request, deadline);
+    }
+
+    @Override
+    public SignatureSessionResponse sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      return HttpClientSmartIdConnector.this.sign(identifier, request, deadline);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      return HttpClientSmartIdConnector.this.authenticate(documentNumber, request, deadline);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      return HttpClientSmartIdConnector.this.authenticate(identity, request, deadline);
+    }
+
+    @Override
+    public void setSessionStatusResponseSocketOpenTime(TimeUnit sessionStatusResponseSocketOpenTimeUnit, long sessionStatusResponseSocketOpenTimeValue) {
+      HttpClientSmartIdConnector.this.setSessionStatusResponseSocketOpenTime(sessionStatusResponseSocketOpenTimeUnit, sessionStatusResponseSocketOpenTimeValue);
+    }
+
+    @Override
+    public void setSslContext(SSLContext sslContext) {
+      HttpClientSmartIdConnector.this.setSslContext(sslContext);
+    }
+
+    @Override
+    public SmartIdConnector withDeadline(Deadline deadline) {
+      return HttpClientSmartIdConnector.this.withDeadline(deadline);
+    }
+  }
+
+  private class AsyncConnector implements AsyncSmartIdConnector {
+
+    private final Executor executor;
+
+    private AsyncConnector(Executor executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+      logger.debug("Getting session status asynchronously for " + sessionId);
+      return sendAsync(() -> sessionStatusRequest(sessionId, null), SessionStatus.class,
+          e -> SmartIdRestConnector.translateSessionStatusException(sessionId, e));
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+      logger.debug("Getting certificate asynchronously for document " + documentNumber);
+      return postAsync(CERTIFICATE_CHOICE_BY_DOCUMENT_NUMBER_PATH, documentNumber, request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE);
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      logger.debug("Getting certificate asynchronously for identifier " + identifier.getIdentifier());
+      return postAsync(CERTIFICATE_CHOICE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER, identifier.getIdentifier(), request, CertificateChoiceResponse.class, CERTIFICATE_NOT_FOUND_MESSAGE);
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+      logger.debug("Signing asynchronously for document " + documentNumber);
+      return postAsync(SIGNATURE_BY_DOCUMENT_NUMBER_PATH, documentNumber, request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      logger.debug("Signing asynchronously for " + identifier);
+      return postAsync(SIGNATURE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER, identifier.getIdentifier(), request, SignatureSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      logger.debug("Authenticating asynchronously for document " + documentNumber);
+      return postAsync(AUTHENTICATE_BY_DOCUMENT_NUMBER_PATH, documentNumber, request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      logger.debug("Authenticating asynchronously for " + identity);
+      return postAsync(AUTHENTICATE_BY_NATURAL_PERSON_SEMANTICS_IDENTIFIER, identity.getIdentifier(), request, AuthenticationSessionResponse.class, USER_ACCOUNT_NOT_FOUND_MESSAGE);
+    }
+
+    private <T> CompletableFuture<T> postAsync(String path, String pathParameter, Object request, Class<T> responseType, String notFoundMessage) {
+      URI uri = uri(path, pathParameter);
+      return sendAsync(() -> postRequest(uri, request, null), responseType,
+          e -> SmartIdRestConnector.translatePostException(uri, e, notFoundMessage));
+    }
+
+    private <T> CompletableFuture<T> sendAsync(Supplier<HttpRequest> requestSupplier, Class<T> responseType,
+        Function<WebApplicationException, RuntimeException> errorTranslator) {
+      CompletableFuture<HttpResponse<String>> response;
+      try {
+        response = getHttpClient().sendAsync(requestSupplier.get(), HttpResponse.BodyHandlers.ofString());
+      } catch (RuntimeException e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+      return response.handleAsync((result, error) -> {
+        if (error != null) {
+          Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+          throw new CompletionException(cause instanceof IOException ? new ProcessingException(cause) : cause);
+        }
+        return readResponse(result, responseType, errorTranslator);
+      }, executor);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static ee.sk.smartid.TrustAnchorIndexTest.readCertificate;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AuthenticationIdentityCacheTest {
+
+  private X509Certificate personCertificate;
+  private X509Certificate intermediateCertificate;
+  private X509Certificate rootCertificate;
+
+  @Before
+  public void setUp() throws Exception {
+    personCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_person.pem.crt");
+    intermediateCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_intermediate_CA.pem.crt");
+    rootCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_root_CA.pem.crt");
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withZeroTimeToLive_shouldThrowException() {
+    new AuthenticationIdentityCache(10, TimeUnit.HOURS, 0L);
+  }
+
+  @Test
+  public void get_afterAdd_returnsNewObjectEveryTime() {
+    AuthenticationIdentityCache cache = new AuthenticationIdentityCache();
+    AuthenticationIdentity identity = AuthenticationIdentityExtractor.extractIdentity(personCertificate);
+
+    assertThat(cache.get(fingerprint(personCertificate)), is(nullValue()));
+    cache.add(fingerprint(personCertificate), personCertificate, identity);
+    identity.setIdentityNumber("changed");
+    AuthenticationIdentity cachedIdentity = cache.get(fingerprint(personCertificate));
+    cachedIdentity.setIdentityNumber("changed");
+
+    assertThat(cachedIdentity, is(not(sameInstance(identity))));
+    assertThat(cache.get(fingerprint(personCertificate)).getIdentityNumber(), is("10101010005"));
+    assertEquals(2L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+  }
+
+  @Test
+  public void get_afterTimeToLive_returnsNull() throws Exception {
+    AuthenticationIdentityCache cache = new AuthenticationIdentityCache(10, TimeUnit.MILLISECONDS, 10L);
+    cache.add(fingerprint(personCertificate), personCertificate, new AuthenticationIdentity());
+
+    Thread.sleep(50L);
+
+    assertThat(cache.get(fingerprint(personCertificate)), is(nullValue()));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void get_withExpiredCertificate_returnsNull() throws Exception {
+    AuthenticationIdentityCache cache = new AuthenticationIdentityCache();
+    // expired in 2021
+    X509Certificate expiredCertificate = readCertificate("/trusted_certificates/wrong.pem.cer");
+    cache.add(fingerprint(expiredCertificate), expiredCertificate, new AuthenticationIdentity());
+
+    assertThat(cache.get(fingerprint(expiredCertificate)), is(nullValue()));
+  }
+
+  @Test
+  public void add_whenFull_dropsLeastRecentlyUsedIdentity() {
+    AuthenticationIdentityCache cache = new AuthenticationIdentityCache(2, TimeUnit.HOURS, 1L);
+    cache.add(fingerprint(personCertificate), personCertificate, new AuthenticationIdentity());
+    cache.add(fingerprint(intermediateCertificate), intermediateCertificate, new AuthenticationIdentity());
+    assertThat(cache.get(fingerprint(personCertificate)), is(not(nullValue())));
+
+    cache.add(fingerprint(rootCertificate), rootCertificate, new AuthenticationIdentity());
+
+    assertEquals(2, cache.size());
+    assertThat(cache.get(fingerprint(personCertificate)), is(not(nullValue())));
+    assertThat(cache.get(fingerprint(intermediateCertificate)), is(nullValue()));
+    assertThat(cache.get(fingerprint(rootCertificate)), is(not(nullValue())));
+  }
+
+  @Test
+  public void clear_removesAllIdentities() {
+    AuthenticationIdentityCache cache = new AuthenticationIdentityCache();
+    cache.add(fingerprint(personCertificate), personCertificate, new AuthenticationIdentity());
+
+    cache.clear();
+
+    assertEquals(0, cache.size());
+    assertThat(cache.get(fingerprint(personCertificate)), is(nullValue()));
+  }
+
+  private static String fingerprint(X509Certificate certificate) {
+    return VerifiedCertificateCache.getFingerprint(certificate);
+  }
+}
@@ -0,0 +1,87 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static ee.sk.smartid.TrustAnchorIndexTest.readCertificate;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.security.cert.X509Certificate;
+import java.time.LocalDate;
+
+import ee.sk.smartid.rest.dao.SemanticsIdentifier.IdentityType;
+import org.junit.Test;
+
+public class AuthenticationIdentityExtractorTest {
+
+  @Test
+  public void extractIdentity() throws Exception {
+    X509Certificate certificate = readCertificate("/trusted_certificates/chain/TEST_chain_person.pem.crt");
+
+    AuthenticationIdentity identity = AuthenticationIdentityExtractor.extractIdentity(certificate);
+
+    assertThat(identity.getCountry(), is("EE"));
+    assertThat(identity.getIdentityNumber(), is("10101010005"));
+    assertThat(identity.getIdentityType(), is(IdentityType.PNO));
+    assertThat(identity.getDateOfBirth(), is(LocalDate.of(1801, 1, 1)));
+    assertThat(identity.getGivenName(), is(nullValue()));
+  }
+
+  @Test
+  public void extractIdentity_ofCertificateWithoutPersonalAttributes() throws Exception {
+    X509Certificate certificate = readCertificate("/trusted_certificates/chain/TEST_chain_root_CA.pem.crt");
+
+    AuthenticationIdentity identity = AuthenticationIdentityExtractor.extractIdentity(certificate);
+
+    assertThat(identity.getCountry(), is("EE"));
+    assertThat(identity.getIdentityNumber(), is(nullValue()));
+    assertThat(identity.getDateOfBirth(), is(nullValue()));
+  }
+
+  @Test
+  public void getDateOfBirth_estonianAndLithuanianPersonalCodes() {
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("EE", "37101010021"), is(LocalDate.of(1971, 1, 1)));
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("EE", "60001019906"), is(LocalDate.of(2000, 1, 1)));
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("LT", "36009067968"), is(LocalDate.of(1960, 9, 6)));
+  }
+
+  @Test
+  public void getDateOfBirth_latvianPersonalCodes() {
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("LV", "010117-21234"), is(LocalDate.of(2017, 1, 1)));
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("LV", "311299-12345"), is(LocalDate.of(1999, 12, 31)));
+  }
+
+  @Test
+  public void getDateOfBirth_whenCodeDoesNotContainDate_returnsNull() {
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("LV", "321234-56789"), is(nullValue()));
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("EE", "31313010021"), is(nullValue()));
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("EE", "97101010021"), is(nullValue()));
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("EE", "3710101002"), is(nullValue()));
+    assertThat(AuthenticationIdentityExtractor.getDateOfBirth("FI", "37101010021"), is(nullValue()));
+  }
+}
@@ -26,9 +26,17 @@ package ee.sk.smartid;
  * #L%
  */
 
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
@@ -36,10 +44,18 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.security.Security;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
@@ -47,6 +63,7 @@ import javax.naming.ldap.Rdn;
 
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.useraccount.CertificateLevelMismatchException;
+import ee.sk.smartid.rest.dao.SemanticsIdentifier.IdentityType;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hamcrest.core.StringContains;
@@ -124,6 +141,50 @@ public class AuthenticationResponseValidatorTest {
     validator.validate(response);
   }
 
+  @Test
+  public void validate_afterSignatureVerificationFailed_shouldPass() {
+    try {
+      validator.validate(createValidationResponseWithInvalidSignature());
+      fail("Signature should not be valid");
+    } catch (UnprocessableSmartIdResponseException expected) {
+    }
+
+    SmartIdAuthenticationResponse response = createValidValidationResponse();
+    AuthenticationIdentity authenticationIdentity = validator.validate(response);
+
+    assertAuthenticationIdentityValid(authenticationIdentity, response.getCertificate());
+  }
+
+  @Test
+  public void validate_withSignatureProvider_shouldPass() {
+    validator.setSignatureProvider(Security.getProvider("SunJCE"));
+
+    SmartIdAuthenticationResponse response = createValidValidationResponse();
+    AuthenticationIdentity authenticationIdentity = validator.validate(response);
+
+    assertAuthenticationIdentityValid(authenticationIdentity, response.getCertificate());
+  }
+
+  @Test
+  public void validate_withValidatorsUsingDifferentSignatureProvidersOnSameThread_shouldPass() {
+    AuthenticationResponseValidator otherValidator = new AuthenticationResponseValidator();
+    otherValidator.setSignatureProvider(Security.getProvider("SunJCE"));
+    SmartIdAuthenticationResponse response = createValidValidationResponse();
+
+    assertAuthenticationIdentityValid(validator.validate(response), response.getCertificate());
+    assertAuthenticationIdentityValid(otherValidator.validate(response), response.getCertificate());
+    assertAuthenticationIdentityValid(validator.validate(response), response.getCertificate());
+  }
+
+  @Test
+  public void validate_withSignatureProviderNotSupportingAlgorithm_shouldThrowException() {
+    expectedException.expect(UnprocessableSmartIdResponseException.class);
+    expectedException.expectMessage("Signature verification failed");
+
+    validator.setSignatureProvider(Security.getProvider("SUN"));
+    validator.validate(createValidValidationResponse());
+  }
+
   @Test
   public void validationReturnsInvalidAuthenticationResult_whenSignersCertExpired() {
     expectedException.expect(UnprocessableSmartIdResponseException.class);
@@ -147,6 +208,170 @@ public class AuthenticationResponseValidatorTest {
     validator.validate(response);
   }
 
+  @Test
+  public void validate_withVerifiedCertificateCache_verifiesCertificateOnce() {
+    VerifiedCertificateCache cache = new VerifiedCertificateCache();
+    validator.setVerifiedCertificateCache(cache);
+
+    validator.validate(createValidValidationResponse());
+    AuthenticationIdentity authenticationIdentity = validator.validate(createValidValidationResponse());
+
+    assertAuthenticationIdentityValid(authenticationIdentity, createValidValidationResponse().getCertificate());
+    assertEquals(1L, cache.getMissCount());
+    assertEquals(1L, cache.getHitCount());
+  }
+
+  @Test
+  public void validate_whenTrustedCACertificatesChange_doesNotUseVerifiedCertificateCache() {
+    expectedException.expect(UnprocessableSmartIdResponseException.class);
+    expectedException.expectMessage(StringContains.containsString("Signer's certificate is not trusted"));
+
+    VerifiedCertificateCache cache = new VerifiedCertificateCache();
+    validator.setVerifiedCertificateCache(cache);
+    validator.validate(createValidValidationResponse());
+
+    validator.clearTrustedCACertificates();
+    assertEquals(0, cache.size());
+
+    validator.validate(createValidValidationResponse());
+  }
+
+  @Test
+  public void validate_withCertificateVerifiedAgainstOtherTrustedCACertificates_doesNotUseVerifiedCertificateCache() {
+    expectedException.expect(UnprocessableSmartIdResponseException.class);
+    expectedException.expectMessage(StringContains.containsString("Signer's certificate is not trusted"));
+
+    VerifiedCertificateCache cache = new VerifiedCertificateCache();
+    validator.setVerifiedCertificateCache(cache);
+    validator.validate(createValidValidationResponse());
+    AuthenticationResponseValidator untrustingValidator = new AuthenticationResponseValidator(new X509Certificate[0]);
+    untrustingValidator.setVerifiedCertificateCache(cache);
+    assertEquals(1, cache.size());
+
+    untrustingValidator.validate(createValidValidationResponse());
+  }
+
+  @Test
+  public void validate_withAuthenticationIdentityCache_readsIdentityOnce() {
+    AuthenticationIdentityCache cache = new AuthenticationIdentityCache();
+    validator.setAuthenticationIdentityCache(cache);
+
+    validator.validate(createValidValidationResponse()).setIdentityNumber("changed");
+    AuthenticationIdentity authenticationIdentity = validator.validate(createValidValidationResponse());
+
+    assertAuthenticationIdentityValid(authenticationIdentity, createValidValidationResponse().getCertificate());
+    assertEquals(1L, cache.getMissCount());
+    assertEquals(1L, cache.getHitCount());
+  }
+
+  @Test
+  public void validate_whenResponseIsNotValid_doesNotAddToAuthenticationIdentityCache() {
+    AuthenticationIdentityCache cache = new AuthenticationIdentityCache();
+    AuthenticationResponseValidator untrustingValidator = new AuthenticationResponseValidator(new X509Certificate[0]);
+    untrustingValidator.setAuthenticationIdentityCache(cache);
+
+    try {
+      untrustingValidator.validate(createValidValidationResponse());
+      fail("Expected UnprocessableSmartIdResponseException");
+    } catch (UnprocessableSmartIdResponseException expected) {
+    }
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void defaultTrustedCACertificates_areSharedBetweenValidators() {
+    assertSame(validator.getTrustedCACertificates(), new AuthenticationResponseValidator().getTrustedCACertificates());
+  }
+
+  @Test
+  public void getTrustedCACertificates_returnsSnapshotThatCannotBeModified() throws CertificateException {
+    List<X509Certificate> trustedCACertificates = validator.getTrustedCACertificates();
+
+    validator.addTrustedCACertificate(Base64.decodeBase64(AUTH_CERTIFICATE_EE));
+
+    assertEquals(trustedCACertificates.size() + 1, validator.getTrustedCACertificates().size());
+    try {
+      trustedCACertificates.clear();
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+
+  @Test
+  public void validate_whileTrustedCACertificatesAreAdded_shouldPass() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<AuthenticationIdentity>> validations = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        validations.add(executor.submit(() -> validator.validate(createValidValidationResponse())));
+        validator.addTrustedCACertificate(Base64.decodeBase64(AUTH_CERTIFICATE_LV));
+      }
+      for (Future<AuthenticationIdentity> validation : validations) {
+        assertNotNull(validation.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void validateAll_returnsOutcomeOfEveryResponseInOrder() {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<AuthenticationValidationResult> results = validator.validateAll(asList(
+          createValidValidationResponse(),
+          createValidationResponseWithInvalidSignature(),
+          createValidationResponseWithInvalidEndResult(),
+          createValidationResponseWithLowerCertificateLevelThanRequested()), executor);
+
+      assertEquals(4, results.size());
+      assertTrue(results.get(0).isValid());
+      assertAuthenticationIdentityValid(results.get(0).getIdentity(), results.get(0).getAuthenticationResponse().getCertificate());
+      assertFalse(results.get(1).isValid());
+      assertNull(results.get(1).getIdentity());
+      assertEquals("Failed to verify validity of signature returned by Smart-ID", results.get(1).getFailureReason());
+      assertEquals("Smart-ID API returned end result code 'NOT OK'", results.get(2).getFailureReason());
+      assertThat(results.get(3).getError(), instanceOf(CertificateLevelMismatchException.class));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void validateAll_withManyResponses_validatesAll() {
+    List<SmartIdAuthenticationResponse> responses = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      responses.add(createValidValidationResponse());
+    }
+
+    List<AuthenticationValidationResult> results = validator.validateAll(responses);
+
+    assertEquals(300, results.size());
+    for (AuthenticationValidationResult result : results) {
+      assertTrue(result.getFailureReason(), result.isValid());
+    }
+  }
+
+  @Test
+  public void isCertificateTrusted_whenIssuedByIntermediateOfTrustedCA_shouldPass() throws Exception {
+    AuthenticationResponseValidator validator = new AuthenticationResponseValidator();
+    validator.clearTrustedCACertificates();
+    validator.addTrustedCACertificate(TrustAnchorIndexTest.readCertificate("/trusted_certificates/chain/TEST_chain_root_CA.pem.crt"));
+    validator.addIntermediateCACertificate(TrustAnchorIndexTest.readCertificate("/trusted_certificates/chain/TEST_chain_intermediate_CA.pem.crt"));
+
+    assertTrue(validator.isCertificateTrusted(TrustAnchorIndexTest.readCertificate("/trusted_certificates/chain/TEST_chain_person.pem.crt")));
+  }
+
+  @Test
+  public void isCertificateTrusted_whenIntermediateIsMissing_shouldFail() throws Exception {
+    AuthenticationResponseValidator validator = new AuthenticationResponseValidator();
+    validator.clearTrustedCACertificates();
+    validator.addTrustedCACertificate(TrustAnchorIndexTest.readCertificate("/trusted_certificates/chain/TEST_chain_root_CA.pem.crt"));
+
+    assertFalse(validator.isCertificateTrusted(TrustAnchorIndexTest.readCertificate("/trusted_certificates/chain/TEST_chain_person.pem.crt")));
+  }
+
   @Test
   public void validationReturnsValidAuthenticationResult_whenCertificateLevelHigherThanRequested_shouldPass() {
        SmartIdAuthenticationResponse response = createValidationResponseWithHigherCertificateLevelThanRequested();
@@ -246,6 +471,8 @@ public class AuthenticationResponseValidatorTest {
     assertThat(authenticationIdentity.getCountry(), is("EE"));
     assertThat(authenticationIdentity.getGivenName(), is("DEMO"));
     assertThat(authenticationIdentity.getSurname(), is("SMART-ID"));
+    assertThat(authenticationIdentity.getDateOfBirth(), is(LocalDate.of(1801, 1, 1)));
+    assertThat(authenticationIdentity.getIdentityType(), is(IdentityType.PNO));
   }
 
   @Test
@@ -258,6 +485,8 @@ public class AuthenticationResponseValidatorTest {
     assertThat(authenticationIdentity.getCountry(), is("LV"));
     assertThat(authenticationIdentity.getGivenName(), is("FORENAME-010117-21234"));
     assertThat(authenticationIdentity.getSurname(), is("SURNAME-010117-21234"));
+    assertThat(authenticationIdentity.getDateOfBirth(), is(LocalDate.of(2017, 1, 1)));
+    assertThat(authenticationIdentity.getIdentityType(), is(IdentityType.PNO));
   }
 
   @Test
@@ -270,6 +499,8 @@ public class AuthenticationResponseValidatorTest {
     assertThat(authenticationIdentity.getCountry(), is("LT"));
     assertThat(authenticationIdentity.getGivenName(), is("FORENAMEPNOLT-36009067968"));
     assertThat(authenticationIdentity.getSurname(), is("SURNAMEPNOLT-36009067968"));
+    assertThat(authenticationIdentity.getDateOfBirth(), is(LocalDate.of(1960, 9, 6)));
+    assertThat(authenticationIdentity.getIdentityType(), is(IdentityType.PNO));
   }
 
   private SmartIdAuthenticationResponse createValidValidationResponse() {
@@ -0,0 +1,227 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.SessionSupersededException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
+import ee.sk.smartid.rest.Deadline;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.*;
+
+public class SessionArbiterTest {
+
+  private final List<CompletableFuture<SessionStatus>> polls = new ArrayList<>();
+  private final List<CompletableFuture<?>> resultsWithDeadline = new ArrayList<>();
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withoutPolicy_shouldThrowException() {
+    new SessionArbiter(null);
+  }
+
+  @Test
+  public void join_requestsOfSamePerson_shareOneSession() throws Exception {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+
+    SessionHandle<String> first = arbiter.initiate("person", "parameters", null, startSession("session-1"));
+    SessionHandle<String> second = arbiter.initiate("person", "parameters", null, startSession("session-2"));
+
+    assertEquals(1, polls.size());
+    assertEquals("session-1", second.getSessionId());
+    assertEquals(first.getVerificationCode(), second.getVerificationCode());
+    assertEquals(1L, arbiter.getJoinedRequestCount());
+
+    polls.get(0).complete(createCompleteStatus());
+    assertEquals("OK", first.getResult().get(1, TimeUnit.SECONDS));
+    assertEquals("OK", second.getResult().get(1, TimeUnit.SECONDS));
+    assertEquals(0, arbiter.getSessionsInFlightCount());
+  }
+
+  @Test
+  public void join_requestsOfDifferentPeople_startSeparateSessions() {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+
+    arbiter.initiate("person", "parameters", null, startSession("session-1"));
+    SessionHandle<String> other = arbiter.initiate("other person", "parameters", null, startSession("session-2"));
+
+    assertEquals(2, polls.size());
+    assertEquals("session-2", other.getSessionId());
+    assertEquals(0L, arbiter.getJoinedRequestCount());
+    assertEquals(2, arbiter.getSessionsInFlightCount());
+  }
+
+  @Test
+  public void join_requestsOfSamePersonWithDifferentParameters_startSeparateSessions() {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+
+    SessionHandle<String> first = arbiter.initiate("person", "QUALIFIED", null, startSession("session-1"));
+    SessionHandle<String> second = arbiter.initiate("person", "ADVANCED", null, startSession("session-2"));
+
+    assertEquals(2, polls.size());
+    assertEquals("session-1", first.getSessionId());
+    assertEquals("session-2", second.getSessionId());
+    assertEquals(0L, arbiter.getJoinedRequestCount());
+  }
+
+  @Test
+  public void supersede_requestWithDifferentParameters_stopsPollingOlderSession() {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.SUPERSEDE);
+    arbiter.initiate("person", "QUALIFIED", null, startSession("session-1"));
+
+    arbiter.initiate("person", "ADVANCED", null, startSession("session-2"));
+
+    assertTrue(polls.get(0).isCompletedExceptionally());
+    assertEquals(1L, arbiter.getSupersededSessionCount());
+  }
+
+  @Test
+  public void join_afterSessionHasEnded_startsNewSession() {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+    arbiter.initiate("person", "parameters", null, startSession("session-1"));
+    polls.get(0).complete(createCompleteStatus());
+
+    SessionHandle<String> next = arbiter.initiate("person", "parameters", null, startSession("session-2"));
+
+    assertEquals("session-2", next.getSessionId());
+    assertEquals(0L, arbiter.getJoinedRequestCount());
+  }
+
+  @Test
+  public void join_whenStartingSessionFails_nextRequestStartsItsOwn() {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+    try {
+      arbiter.initiate("person", "parameters", null, () -> {
+        throw new UserAccountNotFoundException();
+      });
+      fail("Expected UserAccountNotFoundException");
+    } catch (UserAccountNotFoundException expected) {
+    }
+
+    SessionHandle<String> next = arbiter.initiate("person", "parameters", null, startSession("session-1"));
+
+    assertEquals("session-1", next.getSessionId());
+    assertEquals(1, arbiter.getSessionsInFlightCount());
+  }
+
+  @Test
+  public void join_cancellingOneRequest_keepsPollingForOthers() {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+    SessionHandle<String> first = arbiter.initiate("person", "parameters", null, startSession("session-1"));
+    SessionHandle<String> second = arbiter.initiate("person", "parameters", null, startSession("session-2"));
+
+    assertTrue(first.cancel());
+    assertFalse(polls.get(0).isDone());
+    assertFalse(second.isDone());
+
+    assertTrue(second.cancel());
+    assertTrue(polls.get(0).isCancelled());
+    assertEquals(0, arbiter.getSessionsInFlightCount());
+  }
+
+  @Test
+  public void supersede_stopsPollingOlderSession() throws Exception {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.SUPERSEDE);
+    SessionHandle<String> first = arbiter.initiate("person", "parameters", null, startSession("session-1"));
+
+    SessionHandle<String> second = arbiter.initiate("person", "parameters", null, startSession("session-2"));
+
+    assertEquals("session-2", second.getSessionId());
+    assertTrue(polls.get(0).isCompletedExceptionally());
+    assertFalse(polls.get(1).isDone());
+    assertEquals(1L, arbiter.getSupersededSessionCount());
+    try {
+      first.getResult().get(1, TimeUnit.SECONDS);
+      fail("Expected SessionSupersededException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(SessionSupersededException.class));
+    }
+
+    polls.get(1).complete(createCompleteStatus());
+    assertEquals("OK", second.getResult().get(1, TimeUnit.SECONDS));
+    assertEquals(0, arbiter.getSessionsInFlightCount());
+  }
+
+  @Test
+  public void join_whenJoiningRequestPassesItsDeadline_failsOnlyThatRequest() throws Exception {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+    SessionHandle<String> first = arbiter.initiate("person", "parameters", null, startSession("session-1"));
+    SessionHandle<String> second = arbiter.initiate("person", "parameters", Deadline.after(TimeUnit.SECONDS, 1L), startSession("session-2"));
+    assertEquals(1, resultsWithDeadline.size());
+
+    resultsWithDeadline.get(0).completeExceptionally(new DeadlineExceededException("Deadline exceeded while polling session status"));
+
+    try {
+      second.getResult().get(1, TimeUnit.SECONDS);
+      fail("Expected DeadlineExceededException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(DeadlineExceededException.class));
+    }
+    assertFalse(polls.get(0).isDone());
+    polls.get(0).complete(createCompleteStatus());
+    assertEquals("OK", first.getResult().get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void join_whenAllRequestsPassTheirDeadline_stopsPolling() {
+    SessionArbiter arbiter = new SessionArbiter(SessionArbiter.Policy.JOIN);
+    arbiter.initiate("person", "parameters", Deadline.after(TimeUnit.SECONDS, 1L), startSession("session-1"));
+    arbiter.initiate("person", "parameters", Deadline.after(TimeUnit.SECONDS, 2L), startSession("session-2"));
+
+    resultsWithDeadline.get(0).completeExceptionally(new DeadlineExceededException("Deadline exceeded while polling session status"));
+    assertFalse(polls.get(0).isDone());
+    resultsWithDeadline.get(1).completeExceptionally(new DeadlineExceededException("Deadline exceeded while polling session status"));
+
+    assertTrue(polls.get(0).isCancelled());
+    assertEquals(0, arbiter.getSessionsInFlightCount());
+  }
+
+  private Supplier<SharedSession<String>> startSession(String sessionId) {
+    return () -> new SharedSession<>(sessionId, "1234", status -> status.getResult().getEndResult(), runningStatusListener -> {
+      CompletableFuture<SessionStatus> poll = new CompletableFuture<>();
+      polls.add(poll);
+      return poll;
+    }, (result, deadline) -> resultsWithDeadline.add(result));
+  }
+
+  private static SessionStatus createCompleteStatus() {
+    SessionStatus status = new SessionStatus();
+    status.setState("COMPLETE");
+    status.setResult(DummyData.createSessionEndResult());
+    return status;
+  }
+}
@@ -0,0 +1,206 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ee.sk.smartid.exception.useraction.UserRefusedException;
+import ee.sk.smartid.rest.dao.SessionResult;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class SessionEventPublisherTest {
+
+  private AtomicInteger cancelCount;
+  private SessionEventPublisher publisher;
+
+  @Before
+  public void setUp() {
+    cancelCount = new AtomicInteger();
+    publisher = new SessionEventPublisher("session-id");
+    publisher.setCancelAction(cancelCount::incrementAndGet);
+  }
+
+  @Test
+  public void subscribe_withUnboundedDemand_receivesAllEventsAndCompletes() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    publisher.onRunningStatus(createSessionStatus("RUNNING"));
+    publisher.onFinalStatus(createSessionStatus("COMPLETE"));
+    publisher.onResult("result", null);
+
+    assertThat(subscriber.types(), contains(SessionEvent.Type.INITIATED, SessionEvent.Type.RUNNING, SessionEvent.Type.COMPLETE));
+    assertEquals("session-id", subscriber.events.get(2).getSessionId());
+    assertEquals("OK", subscriber.events.get(2).getEndResult());
+    assertNull(subscriber.events.get(0).getSessionStatus());
+    assertTrue(subscriber.completed);
+    assertNull(subscriber.error);
+  }
+
+  @Test
+  public void subscribe_withoutDemand_buffersEventsUntilRequested() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.onFinalStatus(createSessionStatus("COMPLETE"));
+    publisher.onResult("result", null);
+
+    assertThat(subscriber.events, empty());
+    assertFalse(subscriber.completed);
+
+    subscriber.subscription.request(1);
+    assertThat(subscriber.types(), contains(SessionEvent.Type.INITIATED));
+    assertFalse(subscriber.completed);
+
+    subscriber.subscription.request(1);
+    assertThat(subscriber.types(), contains(SessionEvent.Type.INITIATED, SessionEvent.Type.COMPLETE));
+    assertTrue(subscriber.completed);
+  }
+
+  @Test
+  public void runningEvents_withoutDemand_areCoalescedToLatest() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(1);
+
+    SessionStatus latest = createSessionStatus("RUNNING");
+    publisher.onRunningStatus(createSessionStatus("RUNNING"));
+    publisher.onRunningStatus(createSessionStatus("RUNNING"));
+    publisher.onRunningStatus(latest);
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    assertThat(subscriber.types(), contains(SessionEvent.Type.INITIATED, SessionEvent.Type.RUNNING));
+    assertTrue(subscriber.events.get(1).getSessionStatus() == latest);
+  }
+
+  @Test
+  public void onResult_withError_signalsUnwrappedError() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    publisher.onResult(null, new CompletionException(new UserRefusedException()));
+
+    assertThat(subscriber.error, instanceOf(UserRefusedException.class));
+    assertFalse(subscriber.completed);
+  }
+
+  @Test
+  public void secondSubscriber_isRejected() {
+    publisher.subscribe(new RecordingSubscriber());
+    RecordingSubscriber second = new RecordingSubscriber();
+    publisher.subscribe(second);
+
+    assertThat(second.error, instanceOf(IllegalStateException.class));
+  }
+
+  @Test
+  public void request_withNonPositiveAmount_signalsError() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(0);
+
+    assertThat(subscriber.error, instanceOf(IllegalArgumentException.class));
+  }
+
+  @Test
+  public void cancel_runsCancelActionOnceAndStopsEvents() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.cancel();
+    subscriber.subscription.cancel();
+    subscriber.subscription.request(Long.MAX_VALUE);
+    publisher.onResult("result", null);
+
+    assertEquals(1, cancelCount.get());
+    assertThat(subscriber.events, empty());
+    assertFalse(subscriber.completed);
+  }
+
+  private static SessionStatus createSessionStatus(String state) {
+    SessionStatus sessionStatus = new SessionStatus();
+    sessionStatus.setState(state);
+    if ("COMPLETE".equals(state)) {
+      SessionResult result = new SessionResult();
+      result.setEndResult("OK");
+      sessionStatus.setResult(result);
+    }
+    return sessionStatus;
+  }
+
+  private static class RecordingSubscriber implements Subscriber<SessionEvent> {
+
+    private final List<SessionEvent> events = new ArrayList<>();
+    private Subscription subscription;
+    private Throwable error;
+    private boolean completed;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(SessionEvent event) {
+      events.add(event);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+
+    private List<SessionEvent.Type> types() {
+      List<SessionEvent.Type> types = new ArrayList<>();
+      for (SessionEvent event : events) {
+        types.add(event.getType());
+      }
+      return types;
+    }
+  }
+}
@@ -27,9 +27,12 @@ package ee.sk.smartid;
  */
 
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
 import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static ee.sk.smartid.SmartIdRestServiceStubs.stubErrorResponse;
@@ -41,20 +44,32 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.isOneOf;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.security.cert.X509Certificate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.SessionSupersededException;
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.permanent.RelyingPartyAccountConfigurationException;
 import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
@@ -66,6 +81,10 @@ import ee.sk.smartid.exception.useraccount.RequiredInteractionNotSupportedByAppE
 import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
 import ee.sk.smartid.exception.useraction.SessionTimeoutException;
 import ee.sk.smartid.exception.useraction.UserRefusedException;
+import ee.sk.smartid.rest.Deadline;
+import ee.sk.smartid.rest.RetryPolicy;
+import ee.sk.smartid.rest.RetryingSmartIdConnector;
+import ee.sk.smartid.rest.SessionStatusCoalescer;
 import ee.sk.smartid.rest.SmartIdConnector;
 import ee.sk.smartid.rest.SmartIdRestConnector;
 import ee.sk.smartid.rest.dao.Interaction;
@@ -78,6 +97,8 @@ import org.glassfish.jersey.client.ClientConfig;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 public class SmartIdClientTest {
 
@@ -563,6 +584,197 @@ public class SmartIdClientTest {
     assertAuthenticationResponseValid(authenticationResponse);
   }
 
+  @Test
+  public void authenticateUsingDocumentNumber_withSeveralHosts_failsOverToReachableHost() {
+    client.setHostUrls("http://localhost:18099", "http://localhost:18089");
+    stubRequestWithResponse("/authentication/document/PNOEE-32222222222-Z1B2-Q", "requests/authenticationSessionRequest.json", "responses/authenticationSessionResponse.json");
+
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    SmartIdAuthenticationResponse authenticationResponse = client
+        .createAuthentication()
+        .withDocumentNumber("PNOEE-32222222222-Z1B2-Q")
+        .withAuthenticationHash(authenticationHash)
+        .withCertificateLevel("ADVANCED")
+        .withAllowedInteractionsOrder(asList(
+                Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+                Interaction.displayTextAndPIN("Log in?"))
+        )
+        .authenticate();
+
+    assertAuthenticationResponseValid(authenticationResponse);
+  }
+
+  @Test
+  public void authenticateUsingDocumentNumber_withSessionStatusHedgingEnabled() {
+    client.setSessionStatusHedgingEnabled(true);
+    client.setRetryPolicy(new RetryPolicy());
+    stubRequestWithResponse("/authentication/document/PNOEE-32222222222-Z1B2-Q", "requests/authenticationSessionRequest.json", "responses/authenticationSessionResponse.json");
+
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    SmartIdAuthenticationResponse authenticationResponse = client
+        .createAuthentication()
+        .withDocumentNumber("PNOEE-32222222222-Z1B2-Q")
+        .withAuthenticationHash(authenticationHash)
+        .withCertificateLevel("ADVANCED")
+        .withAllowedInteractionsOrder(asList(
+                Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+                Interaction.displayTextAndPIN("Log in?"))
+        )
+        .authenticate();
+
+    assertAuthenticationResponseValid(authenticationResponse);
+    assertThat(client.getSmartIdConnector(), instanceOf(RetryingSmartIdConnector.class));
+  }
+
+  @Test
+  public void authenticateUsingDocumentNumber_withSessionStatusCoalescer_pollsCompletedSessionOnce() {
+    client.setSessionStatusCoalescer(new SessionStatusCoalescer());
+    stubRequestWithResponse("/authentication/document/PNOEE-32222222222-Z1B2-Q", "requests/authenticationSessionRequest.json", "responses/authenticationSessionResponse.json");
+
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    for (int i = 0; i < 2; i++) {
+      SmartIdAuthenticationResponse authenticationResponse = client
+          .createAuthentication()
+          .withDocumentNumber("PNOEE-32222222222-Z1B2-Q")
+          .withAuthenticationHash(authenticationHash)
+          .withCertificateLevel("ADVANCED")
+          .withAllowedInteractionsOrder(asList(
+                  Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+                  Interaction.displayTextAndPIN("Log in?"))
+          )
+          .authenticate();
+      assertAuthenticationResponseValid(authenticationResponse);
+    }
+
+    verify(1, getRequestedFor(urlEqualTo("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb")));
+  }
+
+  @Test
+  public void initiateAuthentication_withJoiningSessionArbiter_startsOneSessionForSamePerson() throws Exception {
+    client.setSessionArbiter(new SessionArbiter(SessionArbiter.Policy.JOIN));
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 100L);
+    stubSessionStatusWithState("1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusRunning.json", STARTED, "COMPLETE");
+    stubSessionStatusWithState("1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusForSuccessfulAuthenticationRequest.json", "COMPLETE", STARTED);
+
+    SessionHandle<SmartIdAuthenticationResponse> first = initiateAuthentication();
+    SessionHandle<SmartIdAuthenticationResponse> second = initiateAuthentication();
+
+    assertEquals(first.getVerificationCode(), second.getVerificationCode());
+    assertAuthenticationResponseValid(first.getResult().get(5, TimeUnit.SECONDS));
+    assertAuthenticationResponseValid(second.getResult().get(5, TimeUnit.SECONDS));
+    verify(1, postRequestedFor(urlEqualTo("/authentication/document/PNOEE-31111111111")));
+  }
+
+  @Test
+  public void initiateAuthentication_withJoiningSessionArbiter_startsSessionForRequestWithOtherParameters() throws Exception {
+    client.setSessionArbiter(new SessionArbiter(SessionArbiter.Policy.JOIN));
+    stubRequestWithResponse("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusRunning.json");
+    stubRequestWithResponse("/authentication/document/PNOEE-31111111111", "requests/authenticationSessionRequestWithNonce.json", "responses/authenticationSessionResponse.json");
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    SessionHandle<SmartIdAuthenticationResponse> first = initiateAuthentication();
+    SessionHandle<SmartIdAuthenticationResponse> withNonce = client
+        .createAuthentication()
+        .withDocumentNumber("PNOEE-31111111111")
+        .withAuthenticationHash(authenticationHash)
+        .withCertificateLevel("ADVANCED")
+        .withNonce("g9rp4kjca3")
+        .withAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+            Interaction.displayTextAndPIN("Log in?"))
+        )
+        .initiate();
+
+    assertTrue(first.cancel());
+    assertTrue(withNonce.cancel());
+    Thread.sleep(100L);
+    int pollsAfterCancel = findAll(getRequestedFor(urlPathEqualTo("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb"))).size();
+    Thread.sleep(200L);
+    assertEquals(pollsAfterCancel, findAll(getRequestedFor(urlPathEqualTo("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb"))).size());
+    verify(2, postRequestedFor(urlEqualTo("/authentication/document/PNOEE-31111111111")));
+  }
+
+  @Test
+  public void authenticate_withJoiningSessionArbiter_joiningRequestFailsAtItsOwnDeadline() throws Exception {
+    client.setSessionArbiter(new SessionArbiter(SessionArbiter.Policy.JOIN));
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 100L);
+    stubRequestWithResponse("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusRunning.json");
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    SessionHandle<SmartIdAuthenticationResponse> first = initiateAuthentication();
+    long startTime = System.currentTimeMillis();
+    try {
+      client
+          .createAuthentication()
+          .withDocumentNumber("PNOEE-31111111111")
+          .withAuthenticationHash(authenticationHash)
+          .withCertificateLevel("ADVANCED")
+          .withAllowedInteractionsOrder(asList(
+              Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+              Interaction.displayTextAndPIN("Log in?"))
+          )
+          .withDeadline(Deadline.after(TimeUnit.MILLISECONDS, 300L))
+          .authenticate();
+      fail("Expected DeadlineExceededException");
+    } catch (DeadlineExceededException e) {
+      assertThat(System.currentTimeMillis() - startTime, lessThan(3000L));
+    }
+
+    assertFalse(first.isDone());
+    assertTrue(first.cancel());
+    verify(1, postRequestedFor(urlEqualTo("/authentication/document/PNOEE-31111111111")));
+  }
+
+  @Test
+  public void initiateAuthentication_withSupersedingSessionArbiter_stopsPollingOlderSession() throws Exception {
+    client.setSessionArbiter(new SessionArbiter(SessionArbiter.Policy.SUPERSEDE));
+    stubRequestWithResponse("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusRunning.json");
+
+    SessionHandle<SmartIdAuthenticationResponse> first = initiateAuthentication();
+    SessionHandle<SmartIdAuthenticationResponse> second = initiateAuthentication();
+
+    try {
+      first.getResult().get(5, TimeUnit.SECONDS);
+      fail("Expected SessionSupersededException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(SessionSupersededException.class));
+    }
+    assertFalse(second.isDone());
+    assertTrue(second.cancel());
+    Thread.sleep(100L);
+    int pollsAfterCancel = findAll(getRequestedFor(urlPathEqualTo("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb"))).size();
+    Thread.sleep(200L);
+    assertEquals(pollsAfterCancel, findAll(getRequestedFor(urlPathEqualTo("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb"))).size());
+    verify(2, postRequestedFor(urlEqualTo("/authentication/document/PNOEE-31111111111")));
+  }
+
+  @Test
+  public void warmUpAsync_opensConnectionsToHost() throws Exception {
+    stubNotFoundResponse("/session/00000000-0000-0000-0000-000000000000");
+
+    client.warmUpAsync(2).get(10, TimeUnit.SECONDS);
+
+    verify(4, getRequestedFor(urlEqualTo("/session/00000000-0000-0000-0000-000000000000")));
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void setHostUrls_withoutUrls_shouldThrowException() {
+    client.setHostUrls();
+  }
+
   @Test
   public void authenticate_usingSemanticsIdentifier() {
     AuthenticationHash authenticationHash = new AuthenticationHash();
@@ -964,6 +1176,201 @@ public class SmartIdClientTest {
     assertValidSignatureCreated(signResponse);
   }
 
+  @Test
+  public void authenticate_whenSessionStillRunningAtDeadline_shouldThrowException() {
+    stubRequestWithResponse("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusRunning.json");
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 100L);
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    long startTime = System.currentTimeMillis();
+    try {
+      client
+          .createAuthentication()
+          .withDocumentNumber("PNOEE-31111111111")
+          .withAuthenticationHash(authenticationHash)
+          .withCertificateLevel("ADVANCED")
+          .withAllowedInteractionsOrder(asList(
+              Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+              Interaction.displayTextAndPIN("Log in?"))
+          )
+          .withDeadline(Deadline.after(TimeUnit.MILLISECONDS, 1500L))
+          .authenticate();
+      fail("Expected DeadlineExceededException");
+    } catch (DeadlineExceededException e) {
+      long duration = System.currentTimeMillis() - startTime;
+      assertTrue("Duration is " + duration, duration >= 1500L);
+      assertTrue("Duration is " + duration, duration < 2500L);
+      verify(getRequestedFor(urlMatching("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb\\?timeoutMs=1000")));
+    }
+  }
+
+  @Test
+  public void initiateAuthentication_returnsHandleWithVerificationCodeBeforeResult() throws Exception {
+    stubSessionStatusWithState("1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusRunning.json", STARTED, "COMPLETE");
+    stubSessionStatusWithState("1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusForSuccessfulAuthenticationRequest.json", "COMPLETE", STARTED);
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 100L);
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    SessionHandle<SmartIdAuthenticationResponse> session = client
+        .createAuthentication()
+        .withDocumentNumber("PNOEE-31111111111")
+        .withAuthenticationHash(authenticationHash)
+        .withCertificateLevel("ADVANCED")
+        .withAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+            Interaction.displayTextAndPIN("Log in?"))
+        )
+        .initiate();
+
+    assertEquals("1dcc1600-29a6-4e95-a95c-d69b31febcfb", session.getSessionId());
+    assertEquals(authenticationHash.calculateVerificationCode(), session.getVerificationCode());
+    assertAuthenticationResponseValid(session.getResult().get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void initiateSignature_whenUserRefuses_resultFailsWithUserRefusedException() throws Exception {
+    stubRequestWithResponse("/session/2c52caf4-13b0-41c4-bdc6-aa268403cc00", "responses/sessionStatusWhenUserRefusedGeneral.json");
+    SignableHash hashToSign = new SignableHash();
+    hashToSign.setHashType(HashType.SHA256);
+    hashToSign.setHashInBase64("0nbgC2fVdLVQFZJdBbmG7oPoElpCYsQMtrY0c0wKYRg=");
+
+    SessionHandle<SmartIdSignature> session = client
+        .createSignature()
+        .withDocumentNumber("PNOEE-31111111111")
+        .withSignableHash(hashToSign)
+        .withCertificateLevel("ADVANCED")
+        .withAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessage("Authorize transfer of 1 unit from account 113245344343 to account 7677323232?"),
+            Interaction.displayTextAndPIN("Transfer 1 unit to account 7677323232?"))
+        )
+        .initiate();
+
+    assertEquals(hashToSign.calculateVerificationCode(), session.getVerificationCode());
+    try {
+      session.getResult().get(5, TimeUnit.SECONDS);
+      fail("Expected UserRefusedException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(UserRefusedException.class));
+    }
+  }
+
+  @Test
+  public void initiateCertificateChoice_cancel_stopsPolling() throws Exception {
+    stubRequestWithResponse("/certificatechoice/document/PNOEE-31111111111", "requests/certificateChoiceRequest.json", "responses/certificateChoiceResponse.json");
+    stubRequestWithResponse("/session/97f5058e-e308-4c83-ac14-7712b0eb9d86", "responses/sessionStatusRunning.json");
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 50L);
+
+    SessionHandle<SmartIdCertificate> session = client
+        .getCertificate()
+        .withDocumentNumber("PNOEE-31111111111")
+        .withCertificateLevel("ADVANCED")
+        .initiate();
+
+    assertNull(session.getVerificationCode());
+    Thread.sleep(200L);
+    assertTrue(session.cancel());
+    assertTrue(session.getResult().isCancelled());
+    Thread.sleep(100L);
+    int pollsAfterCancel = findAll(getRequestedFor(urlPathEqualTo("/session/97f5058e-e308-4c83-ac14-7712b0eb9d86"))).size();
+    Thread.sleep(200L);
+    assertEquals(pollsAfterCancel, findAll(getRequestedFor(urlPathEqualTo("/session/97f5058e-e308-4c83-ac14-7712b0eb9d86"))).size());
+  }
+
+  @Test
+  public void initiateAuthentication_events_publishSessionTransitions() throws Exception {
+    stubSessionStatusWithState("1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusRunning.json", STARTED, "COMPLETE");
+    stubSessionStatusWithState("1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusForSuccessfulAuthenticationRequest.json", "COMPLETE", STARTED);
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 10L);
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    SessionHandle<SmartIdAuthenticationResponse> session = client
+        .createAuthentication()
+        .withDocumentNumber("PNOEE-31111111111")
+        .withAuthenticationHash(authenticationHash)
+        .withCertificateLevel("ADVANCED")
+        .withAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+            Interaction.displayTextAndPIN("Log in?"))
+        )
+        .initiate();
+
+    List<SessionEvent.Type> eventTypes = new CopyOnWriteArrayList<>();
+    CompletableFuture<String> endResult = new CompletableFuture<>();
+    session.getEvents().subscribe(new Subscriber<SessionEvent>() {
+      @Override
+      public void onSubscribe(Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(SessionEvent event) {
+        eventTypes.add(event.getType());
+        if (event.getType() == SessionEvent.Type.COMPLETE) {
+          endResult.complete(event.getEndResult());
+        }
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        endResult.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
+        endResult.complete(null);
+      }
+    });
+
+    assertEquals("OK", endResult.get(5, TimeUnit.SECONDS));
+    assertEquals(asList(SessionEvent.Type.INITIATED, SessionEvent.Type.RUNNING, SessionEvent.Type.COMPLETE), eventTypes);
+  }
+
+  @Test
+  public void getAsyncSessionStatusPoller_withThreadFactory_runsRequestsOnProvidedThreads() throws Exception {
+    AtomicInteger createdThreads = new AtomicInteger();
+    client.setThreadFactory(runnable -> {
+      Thread thread = new Thread(runnable, "test-client-thread-" + createdThreads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 1L);
+
+    SessionStatus sessionStatus = client.getAsyncSessionStatusPoller()
+        .fetchFinalSessionStatus("1dcc1600-29a6-4e95-a95c-d69b31febcfb")
+        .get(5, TimeUnit.SECONDS);
+
+    assertEquals("COMPLETE", sessionStatus.getState());
+    assertTrue(createdThreads.get() > 0);
+  }
+
+  @Test
+  public void close_stopsThreadsCreatedWithThreadFactory() throws Exception {
+    List<Thread> createdThreads = new CopyOnWriteArrayList<>();
+    client.setThreadFactory(runnable -> {
+      Thread thread = new Thread(runnable, "test-client-thread-" + createdThreads.size());
+      createdThreads.add(thread);
+      return thread;
+    });
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 1L);
+    client.getAsyncSessionStatusPoller()
+        .fetchFinalSessionStatus("1dcc1600-29a6-4e95-a95c-d69b31febcfb")
+        .get(5, TimeUnit.SECONDS);
+    assertFalse(createdThreads.isEmpty());
+
+    client.close();
+
+    for (Thread thread : createdThreads) {
+      thread.join(5000L);
+      assertFalse(thread.getName() + " is still running", thread.isAlive());
+    }
+  }
+
   private long measureSigningDuration() {
     long startTime = System.currentTimeMillis();
     SmartIdSignature signature = createSignature();
@@ -1089,6 +1496,23 @@ public class SmartIdClientTest {
     assertThat(signature.getInteractionFlowUsed(), is("displayTextAndPIN"));
   }
 
+  private SessionHandle<SmartIdAuthenticationResponse> initiateAuthentication() {
+    AuthenticationHash authenticationHash = new AuthenticationHash();
+    authenticationHash.setHashInBase64("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    authenticationHash.setHashType(HashType.SHA512);
+
+    return client
+        .createAuthentication()
+        .withDocumentNumber("PNOEE-31111111111")
+        .withAuthenticationHash(authenticationHash)
+        .withCertificateLevel("ADVANCED")
+        .withAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+            Interaction.displayTextAndPIN("Log in?"))
+        )
+        .initiate();
+  }
+
   private void assertAuthenticationResponseValid(SmartIdAuthenticationResponse authenticationResponse) {
     assertNotNull(authenticationResponse);
     assertEquals("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==", authenticationResponse.getSignedHashInBase64());
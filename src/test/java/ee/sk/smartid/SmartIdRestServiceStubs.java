@@ -81,6 +81,16 @@ public class SmartIdRestServiceStubs {
             .withBody(readFileBody(responseFile))));
   }
 
+  public static void stubRequestWithDelayedResponse(String urlEquals, String responseFile, int delayMs) {
+    stubFor(get(urlPathEqualTo(urlEquals))
+        .withHeader("Accept", equalTo("application/json"))
+        .willReturn(aResponse()
+            .withFixedDelay(delayMs)
+            .withStatus(200)
+            .withHeader("Content-Type", "application/json")
+            .withBody(readFileBody(responseFile))));
+  }
+
   public static void stubRequestWithResponse(String url, String requestFile, String responseFile) {
     stubFor(post(urlEqualTo(url))
         .withHeader("Accept", equalTo("application/json"))
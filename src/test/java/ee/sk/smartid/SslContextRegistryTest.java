@@ -0,0 +1,129 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class SslContextRegistryTest {
+
+  private Certificate demoCertificate;
+  private Certificate issuerCertificate;
+
+  @Before
+  public void setUp() throws Exception {
+    SslContextRegistry.clear();
+    demoCertificate = readCertificate("/trusted_certificates/sid.demo.pem.cer");
+    issuerCertificate = readCertificate("/trusted_certificates/TEST_of_EID-SK_2016.pem.crt");
+  }
+
+  @After
+  public void tearDown() {
+    SslContextRegistry.setSessionCacheSize(SslContextRegistry.DEFAULT_SESSION_CACHE_SIZE);
+    SslContextRegistry.setSessionTimeout(TimeUnit.SECONDS, SslContextRegistry.DEFAULT_SESSION_TIMEOUT_SECONDS);
+    SslContextRegistry.clear();
+  }
+
+  @Test
+  public void getSslContext_withSameCertificatesInAnyOrder_returnsSameContext() {
+    SSLContext sslContext = SslContextRegistry.getSslContext(asList(demoCertificate, issuerCertificate));
+    assertSame(sslContext, SslContextRegistry.getSslContext(asList(issuerCertificate, demoCertificate)));
+    assertEquals(1, SslContextRegistry.size());
+  }
+
+  @Test
+  public void getSslContext_withDifferentCertificates_returnsDifferentContexts() {
+    SSLContext sslContext = SslContextRegistry.getSslContext(asList(demoCertificate, issuerCertificate));
+    assertNotSame(sslContext, SslContextRegistry.getSslContext(asList(demoCertificate)));
+    assertEquals(2, SslContextRegistry.size());
+  }
+
+  @Test
+  public void getSslContext_withKeyStore_returnsContextOfItsCertificates() throws Exception {
+    KeyStore trustStore = KeyStore.getInstance("JKS");
+    trustStore.load(null);
+    trustStore.setCertificateEntry("demo", demoCertificate);
+    assertSame(SslContextRegistry.getSslContext(asList(demoCertificate)), SslContextRegistry.getSslContext(trustStore));
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void getSslContext_withKeyStoreNotLoaded_shouldThrowException() throws Exception {
+    SslContextRegistry.getSslContext(KeyStore.getInstance("JKS"));
+  }
+
+  @Test
+  public void setSessionCacheSize_appliesToExistingAndNewContexts() {
+    SSLContext sslContext = SslContextRegistry.getSslContext(asList(demoCertificate));
+    assertEquals(SslContextRegistry.DEFAULT_SESSION_CACHE_SIZE, sslContext.getClientSessionContext().getSessionCacheSize());
+
+    SslContextRegistry.setSessionCacheSize(50);
+    SslContextRegistry.setSessionTimeout(TimeUnit.MINUTES, 10);
+
+    assertEquals(50, sslContext.getClientSessionContext().getSessionCacheSize());
+    assertEquals(600, sslContext.getClientSessionContext().getSessionTimeout());
+    SSLContext newSslContext = SslContextRegistry.getSslContext(asList(issuerCertificate));
+    assertEquals(50, newSslContext.getClientSessionContext().getSessionCacheSize());
+    assertEquals(600, newSslContext.getClientSessionContext().getSessionTimeout());
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void setSessionCacheSize_withNegativeSize_shouldThrowException() {
+    SslContextRegistry.setSessionCacheSize(-1);
+  }
+
+  @Test
+  public void setTrustStore_onSeveralClients_sharesContext() throws Exception {
+    InputStream is = SslContextRegistryTest.class.getResourceAsStream("/demo_server_trusted_ssl_certs.jks");
+    KeyStore trustStore = KeyStore.getInstance("JKS");
+    trustStore.load(is, "changeit".toCharArray());
+
+    SmartIdClient firstClient = new SmartIdClient();
+    firstClient.setTrustStore(trustStore);
+    SmartIdClient secondClient = new SmartIdClient();
+    secondClient.setTrustStore(trustStore);
+
+    assertEquals(1, SslContextRegistry.size());
+  }
+
+  private static Certificate readCertificate(String resource) throws Exception {
+    try (InputStream is = SslContextRegistryTest.class.getResourceAsStream(resource)) {
+      return CertificateFactory.getInstance("X509").generateCertificate(is);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrustAnchorIndexTest {
+
+  private X509Certificate rootCertificate;
+  private X509Certificate intermediateCertificate;
+  private X509Certificate personCertificate;
+  private X509Certificate otherCACertificate;
+
+  @Before
+  public void setUp() throws Exception {
+    rootCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_root_CA.pem.crt");
+    intermediateCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_intermediate_CA.pem.crt");
+    personCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_person.pem.crt");
+    otherCACertificate = readCertificate("/trusted_certificates/TEST_of_NQ-SK_2016.pem.crt");
+  }
+
+  @Test
+  public void getAuthorityKeyIdentifier_matchesSubjectKeyIdentifierOfIssuer() {
+    assertEquals(TrustAnchorIndex.getSubjectKeyIdentifier(intermediateCertificate), TrustAnchorIndex.getAuthorityKeyIdentifier(personCertificate));
+  }
+
+  @Test
+  public void findIssuer_returnsCertificateThatIssuedIt() {
+    TrustAnchorIndex index = new TrustAnchorIndex(asList(otherCACertificate, rootCertificate, intermediateCertificate));
+
+    assertSame(intermediateCertificate, index.findIssuer(personCertificate));
+    assertSame(rootCertificate, index.findIssuer(intermediateCertificate));
+  }
+
+  @Test
+  public void findIssuer_whenIssuerIsNotIndexed_returnsNull() {
+    TrustAnchorIndex index = new TrustAnchorIndex(asList(otherCACertificate, rootCertificate));
+
+    assertNull(index.findIssuer(personCertificate));
+  }
+
+  @Test
+  public void with_returnsNewIndexAndKeepsOriginal() {
+    TrustAnchorIndex index = new TrustAnchorIndex(singletonList(rootCertificate));
+
+    TrustAnchorIndex extendedIndex = index.with(intermediateCertificate);
+
+    assertEquals(singletonList(rootCertificate), index.getCertificates());
+    assertEquals(asList(rootCertificate, intermediateCertificate), extendedIndex.getCertificates());
+    assertNull(index.findIssuer(personCertificate));
+    assertSame(intermediateCertificate, extendedIndex.findIssuer(personCertificate));
+  }
+
+  static X509Certificate readCertificate(String resource) throws IOException, CertificateException {
+    try (InputStream is = TrustAnchorIndexTest.class.getResourceAsStream(resource)) {
+      return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package ee.sk.smartid;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static ee.sk.smartid.TrustAnchorIndexTest.readCertificate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VerifiedCertificateCacheTest {
+
+  private X509Certificate personCertificate;
+  private X509Certificate intermediateCertificate;
+  private X509Certificate rootCertificate;
+  private final Object trustAnchors = new Object();
+
+  @Before
+  public void setUp() throws Exception {
+    personCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_person.pem.crt");
+    intermediateCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_intermediate_CA.pem.crt");
+    rootCertificate = readCertificate("/trusted_certificates/chain/TEST_chain_root_CA.pem.crt");
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withZeroSize_shouldThrowException() {
+    new VerifiedCertificateCache(0, TimeUnit.HOURS, 1L);
+  }
+
+  @Test
+  public void isVerified_afterAdd_countsHit() {
+    VerifiedCertificateCache cache = new VerifiedCertificateCache();
+
+    assertFalse(cache.isVerified(personCertificate, trustAnchors));
+    cache.add(personCertificate, trustAnchors);
+
+    assertTrue(cache.isVerified(personCertificate, trustAnchors));
+    assertEquals(1L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+  }
+
+  @Test
+  public void isVerified_afterTimeToLive_returnsFalse() throws Exception {
+    VerifiedCertificateCache cache = new VerifiedCertificateCache(10, TimeUnit.MILLISECONDS, 10L);
+    cache.add(personCertificate, trustAnchors);
+
+    Thread.sleep(50L);
+
+    assertFalse(cache.isVerified(personCertificate, trustAnchors));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void isVerified_withExpiredCertificate_returnsFalse() throws Exception {
+    VerifiedCertificateCache cache = new VerifiedCertificateCache();
+    // expired in 2021
+    X509Certificate expiredCertificate = readCertificate("/trusted_certificates/wrong.pem.cer");
+    cache.add(expiredCertificate, trustAnchors);
+
+    assertFalse(cache.isVerified(expiredCertificate, trustAnchors));
+  }
+
+  @Test
+  public void add_whenFull_dropsLeastRecentlyUsedCertificate() {
+    VerifiedCertificateCache cache = new VerifiedCertificateCache(2, TimeUnit.HOURS, 1L);
+    cache.add(personCertificate, trustAnchors);
+    cache.add(intermediateCertificate, trustAnchors);
+    assertTrue(cache.isVerified(personCertificate, trustAnchors));
+
+    cache.add(rootCertificate, trustAnchors);
+
+    assertEquals(2, cache.size());
+    assertTrue(cache.isVerified(personCertificate, trustAnchors));
+    assertFalse(cache.isVerified(intermediateCertificate, trustAnchors));
+    assertTrue(cache.isVerified(rootCertificate, trustAnchors));
+  }
+
+  @Test
+  public void isVerified_againstOtherTrustAnchors_returnsFalse() {
+    VerifiedCertificateCache cache = new VerifiedCertificateCache();
+    cache.add(personCertificate, trustAnchors);
+
+    assertFalse(cache.isVerified(personCertificate, new Object()));
+    assertTrue(cache.isVerified(personCertificate, trustAnchors));
+  }
+}
@@ -0,0 +1,125 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.dao.InteractionFlow;
+import ee.sk.smartid.rest.dao.SessionResult;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AdaptivePollingStrategyTest {
+
+  private final AdaptivePollingStrategy strategy = new AdaptivePollingStrategy();
+
+  @Test
+  public void getNextPollDelay_sleepsOnlyTheRestOfThePollingSleepTime() {
+    assertThat(strategy.getNextPollDelayMs(1000L, 0L), is(1000L));
+    assertThat(strategy.getNextPollDelayMs(1000L, 300L), is(700L));
+  }
+
+  @Test
+  public void getNextPollDelay_afterLongPoll_doesNotSleep() {
+    assertThat(strategy.getNextPollDelayMs(1000L, 1000L), is(0L));
+    assertThat(strategy.getNextPollDelayMs(1000L, 30000L), is(0L));
+  }
+
+  @Test
+  public void getInitialPollDelay_withoutLearnedResponseTimes_pollsRightAway() {
+    assertThat(strategy.getInitialPollDelayMs(InteractionFlow.DISPLAY_TEXT_AND_PIN), is(0L));
+    assertThat(strategy.getInitialPollDelayMs(null), is(0L));
+  }
+
+  @Test
+  public void getInitialPollDelay_usesLearnedResponseTimeOfInteractionFlow() {
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("confirmationMessage"), 6000L);
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("displayTextAndPIN"), 2000L);
+
+    assertThat(strategy.getAverageResponseTimeMs(InteractionFlow.DISPLAY_TEXT_AND_PIN), is(2000L));
+    assertThat(strategy.getInitialPollDelayMs(InteractionFlow.DISPLAY_TEXT_AND_PIN), is(1000L));
+    assertThat(strategy.getInitialPollDelayMs(InteractionFlow.CONFIRMATION_MESSAGE), is(3000L));
+    assertThat(strategy.getInitialPollDelayMs(InteractionFlow.VERIFICATION_CODE_CHOICE), is(0L));
+  }
+
+  @Test
+  public void onFinalSessionStatus_smoothsResponseTimes() {
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("displayTextAndPIN"), 2000L);
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("displayTextAndPIN"), 7000L);
+
+    assertThat(strategy.getAverageResponseTimeMs(InteractionFlow.DISPLAY_TEXT_AND_PIN), is(3000L));
+  }
+
+  @Test
+  public void getInitialPollDelay_isCappedByMaxInitialDelay() {
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("displayTextAndPIN"), 60000L);
+
+    assertThat(strategy.getInitialPollDelayMs(InteractionFlow.DISPLAY_TEXT_AND_PIN), is(AdaptivePollingStrategy.DEFAULT_MAX_INITIAL_DELAY_MS));
+  }
+
+  @Test
+  public void onFinalSessionStatus_withUnknownInteractionFlow_isIgnored() {
+    strategy.onFinalSessionStatus(createCompleteSessionStatus(null), 2000L);
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("somethingNew"), 2000L);
+
+    for (InteractionFlow interactionFlow : InteractionFlow.values()) {
+      assertThat(strategy.getAverageResponseTimeMs(interactionFlow), is(-1L));
+    }
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withInvalidInitialDelayFactor_shouldThrowException() {
+    new AdaptivePollingStrategy(1.5, TimeUnit.SECONDS, 5L);
+  }
+
+  @Test
+  public void onFinalSessionStatus_whenSessionDidNotEndWithOk_isIgnored() {
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("displayTextAndPIN", "TIMEOUT"), 90000L);
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("displayTextAndPIN", "USER_REFUSED"), 3000L);
+    strategy.onFinalSessionStatus(createCompleteSessionStatus("displayTextAndPIN", "WRONG_VC"), 3000L);
+
+    assertThat(strategy.getAverageResponseTimeMs(InteractionFlow.DISPLAY_TEXT_AND_PIN), is(-1L));
+  }
+
+  private static SessionStatus createCompleteSessionStatus(String interactionFlowUsed) {
+    return createCompleteSessionStatus(interactionFlowUsed, "OK");
+  }
+
+  private static SessionStatus createCompleteSessionStatus(String interactionFlowUsed, String endResult) {
+    SessionResult result = new SessionResult();
+    result.setEndResult(endResult);
+    SessionStatus sessionStatus = new SessionStatus();
+    sessionStatus.setState("COMPLETE");
+    sessionStatus.setResult(result);
+    sessionStatus.setInteractionFlowUsed(interactionFlowUsed);
+    return sessionStatus;
+  }
+}
@@ -0,0 +1,261 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.rest.dao.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.sk.smartid.DummyData.createSessionEndResult;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.*;
+
+public class AsyncSessionStatusPollerTest {
+
+  private ScheduledExecutorService scheduler;
+  private ScheduledExecutorService network;
+  private AsyncConnectorStub connector;
+  private AsyncSessionStatusPoller poller;
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newScheduledThreadPool(2);
+    network = Executors.newScheduledThreadPool(1);
+    connector = new AsyncConnectorStub(network);
+    poller = new AsyncSessionStatusPoller(connector, scheduler, 10);
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 1L);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+    network.shutdownNow();
+  }
+
+  @Test
+  public void getFirstCompleteResponse() throws Exception {
+    connector.runningPollsBeforeComplete.put("97f5058e-e308-4c83-ac14-7712b0eb9d86", 0);
+    SessionStatus status = poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86").get(5, TimeUnit.SECONDS);
+    assertEquals("COMPLETE", status.getState());
+    assertEquals(1, connector.pollCount.get());
+  }
+
+  @Test
+  public void pollAndGetThirdCompleteResponse() throws Exception {
+    connector.runningPollsBeforeComplete.put("97f5058e-e308-4c83-ac14-7712b0eb9d86", 2);
+    SessionStatus status = poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86").get(5, TimeUnit.SECONDS);
+    assertEquals("COMPLETE", status.getState());
+    assertEquals(3, connector.pollCount.get());
+  }
+
+  @Test
+  public void setPollingSleepTime() throws Exception {
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 200L);
+    poller.setPollingJitter(0);
+    connector.runningPollsBeforeComplete.put("97f5058e-e308-4c83-ac14-7712b0eb9d86", 5);
+    long startTime = System.currentTimeMillis();
+    poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86").get(5, TimeUnit.SECONDS);
+    long duration = System.currentTimeMillis() - startTime;
+    assertThat(duration, is(greaterThanOrEqualTo(1000L)));
+    assertThat(duration, is(lessThanOrEqualTo(1500L)));
+  }
+
+  @Test
+  public void pollingStrategy_delaysFirstPoll() throws Exception {
+    poller.setPollingStrategy(new PollingStrategy() {
+      @Override
+      public long getInitialPollDelayMs(InteractionFlow expectedInteractionFlow) {
+        return expectedInteractionFlow == InteractionFlow.DISPLAY_TEXT_AND_PIN ? 300L : 0L;
+      }
+
+      @Override
+      public long getNextPollDelayMs(long pollingSleepTimeoutMs, long lastPollDurationMs) {
+        return pollingSleepTimeoutMs;
+      }
+
+      @Override
+      public void onFinalSessionStatus(SessionStatus sessionStatus, long sessionDurationMs) {
+      }
+    });
+    connector.runningPollsBeforeComplete.put("97f5058e-e308-4c83-ac14-7712b0eb9d86", 0);
+    long startTime = System.currentTimeMillis();
+    poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86", InteractionFlow.DISPLAY_TEXT_AND_PIN).get(5, TimeUnit.SECONDS);
+    long duration = System.currentTimeMillis() - startTime;
+    assertThat(duration, is(greaterThanOrEqualTo(300L)));
+    assertEquals(1, connector.pollCount.get());
+  }
+
+  @Test
+  public void deadline_stopsPollingAndCompletesExceptionally() throws Exception {
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 50L);
+    connector.runningPollsBeforeComplete.put("97f5058e-e308-4c83-ac14-7712b0eb9d86", Integer.MAX_VALUE);
+    CompletableFuture<SessionStatus> future = poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86", null, Deadline.after(TimeUnit.MILLISECONDS, 200L));
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Expected DeadlineExceededException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(DeadlineExceededException.class));
+    }
+    Thread.sleep(100L);
+    int pollsAfterDeadline = connector.pollCount.get();
+    Thread.sleep(200L);
+    assertEquals(pollsAfterDeadline, connector.pollCount.get());
+  }
+
+  @Test
+  public void connectorFailure_completesExceptionally() throws Exception {
+    try {
+      poller.fetchFinalSessionStatus("unknown").get(5, TimeUnit.SECONDS);
+      fail("Expected SessionNotFoundException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(SessionNotFoundException.class));
+    }
+  }
+
+  @Test
+  public void cancel_stopsPolling() throws Exception {
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 50L);
+    connector.runningPollsBeforeComplete.put("97f5058e-e308-4c83-ac14-7712b0eb9d86", Integer.MAX_VALUE);
+    CompletableFuture<SessionStatus> future = poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86");
+    Thread.sleep(120L);
+    future.cancel(false);
+    Thread.sleep(100L);
+    int pollsAfterCancel = connector.pollCount.get();
+    Thread.sleep(200L);
+    assertEquals(pollsAfterCancel, connector.pollCount.get());
+    assertEquals(0, poller.getInFlightPollCount());
+  }
+
+  @Test
+  public void manyPendingSessions_arePolledOnFewThreadsWithinInFlightCap() throws Exception {
+    int sessionCount = 50_000;
+    int maxInFlightPolls = 500;
+    poller = new AsyncSessionStatusPoller(connector, scheduler, maxInFlightPolls);
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 5L);
+    List<CompletableFuture<SessionStatus>> futures = new ArrayList<>(sessionCount);
+    for (int i = 0; i < sessionCount; i++) {
+      String sessionId = "session-" + i;
+      connector.runningPollsBeforeComplete.put(sessionId, 2);
+      futures.add(poller.fetchFinalSessionStatus(sessionId));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+
+    assertEquals(sessionCount * 3, connector.pollCount.get());
+    assertThat(connector.maxInFlight.get(), is(lessThanOrEqualTo(maxInFlightPolls)));
+    assertEquals(0, poller.getInFlightPollCount());
+  }
+
+  static class AsyncConnectorStub implements AsyncSmartIdConnector {
+    final Map<String, Integer> runningPollsBeforeComplete = new ConcurrentHashMap<>();
+    final AtomicInteger pollCount = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    private final ScheduledExecutorService network;
+
+    AsyncConnectorStub(ScheduledExecutorService network) {
+      this.network = network;
+    }
+
+    @Override
+    public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+      pollCount.incrementAndGet();
+      int current = inFlight.incrementAndGet();
+      maxInFlight.accumulateAndGet(current, Math::max);
+      CompletableFuture<SessionStatus> future = new CompletableFuture<>();
+      network.schedule(() -> {
+        inFlight.decrementAndGet();
+        Integer runningPollsLeft = runningPollsBeforeComplete.get(sessionId);
+        if (runningPollsLeft == null) {
+          future.completeExceptionally(new SessionNotFoundException());
+        } else if (runningPollsLeft > 0) {
+          runningPollsBeforeComplete.put(sessionId, runningPollsLeft - 1);
+          future.complete(createStatus("RUNNING"));
+        } else {
+          future.complete(createStatus("COMPLETE"));
+        }
+      }, 1, TimeUnit.MILLISECONDS);
+      return future;
+    }
+
+    private static SessionStatus createStatus(String state) {
+      SessionStatus status = new SessionStatus();
+      status.setState(state);
+      if ("COMPLETE".equals(state)) {
+        status.setResult(createSessionEndResult());
+      }
+      return status;
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.exception.permanent.RelyingPartyAccountConfigurationException;
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.exception.useraccount.NoSuitableAccountOfRequestedTypeFoundException;
+import ee.sk.smartid.exception.useraccount.PersonShouldViewSmartIdPortalException;
+import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
+import ee.sk.smartid.rest.dao.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.ws.rs.ServerErrorException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static ee.sk.smartid.SmartIdRestServiceStubs.*;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.StringStartsWith.startsWith;
+import static org.junit.Assert.*;
+
+public class AsyncSmartIdRestConnectorTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(18089);
+
+  private ExecutorService executor;
+  private SmartIdRestConnector restConnector;
+  private AsyncSmartIdConnector connector;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+    restConnector = new SmartIdRestConnector("http://localhost:18089");
+    connector = new AsyncSmartIdRestConnector(restConnector, executor);
+  }
+
+  @After
+  public void tearDown() {
+    restConnector.close();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void getSessionStatus() throws Exception {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json");
+    SessionStatus sessionStatus = connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016").get(5, TimeUnit.SECONDS);
+    assertEquals("COMPLETE", sessionStatus.getState());
+    assertThat(sessionStatus.getCert().getValue(), startsWith("MIIHhjCCBW6gAwIBAgIQDNYLtVwrKURYStrYApYViTANBgkqhkiG9"));
+  }
+
+  @Test
+  public void getSessionStatus_whenSessionNotFound() {
+    stubNotFoundResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016");
+    assertFailsWith(SessionNotFoundException.class, connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016"));
+  }
+
+  @Test
+  public void getSessionStatus_manyConcurrentRequests() throws Exception {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+    List<CompletableFuture<SessionStatus>> futures = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      futures.add(connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016"));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    for (CompletableFuture<SessionStatus> future : futures) {
+      assertEquals("RUNNING", future.get().getState());
+    }
+  }
+
+  @Test
+  public void getCertificate_usingDocumentNumber() throws Exception {
+    stubRequestWithResponse("/certificatechoice/document/PNOEE-123456", "requests/certificateChoiceRequest.json", "responses/certificateChoiceResponse.json");
+    CertificateChoiceResponse response = connector.getCertificate("PNOEE-123456", createDummyCertificateRequest()).get(5, TimeUnit.SECONDS);
+    assertEquals("97f5058e-e308-4c83-ac14-7712b0eb9d86", response.getSessionID());
+  }
+
+  @Test
+  public void getCertificate_whenDocumentNumberNotFound() {
+    stubNotFoundResponse("/certificatechoice/document/PNOEE-123456", "requests/certificateChoiceRequest.json");
+    assertFailsWith(UserAccountNotFoundException.class, connector.getCertificate("PNOEE-123456", createDummyCertificateRequest()));
+  }
+
+  @Test
+  public void getCertificate_whenUnauthorized() {
+    stubUnauthorizedResponse("/certificatechoice/document/PNOEE-123456", "requests/certificateChoiceRequest.json");
+    assertFailsWith(RelyingPartyAccountConfigurationException.class, connector.getCertificate("PNOEE-123456", createDummyCertificateRequest()));
+  }
+
+  @Test
+  public void getCertificate_whenForbidden() {
+    stubForbiddenResponse("/certificatechoice/document/PNOEE-123456", "requests/certificateChoiceRequest.json");
+    assertFailsWith(RelyingPartyAccountConfigurationException.class, connector.getCertificate("PNOEE-123456", createDummyCertificateRequest()));
+  }
+
+  @Test
+  public void getCertificate_whenBadRequest() {
+    stubBadRequestResponse("/certificatechoice/document/PNOEE-123456", "requests/certificateChoiceRequest.json");
+    assertFailsWith(SmartIdClientException.class, connector.getCertificate("PNOEE-123456", createDummyCertificateRequest()));
+  }
+
+  @Test
+  public void authenticate_usingSemanticsIdentifier() throws Exception {
+    stubRequestWithResponse("/authentication/etsi/PASKZ-987654321012", "requests/authenticationSessionRequest.json", "responses/authenticationSessionResponse.json");
+    AuthenticationSessionResponse response = connector.authenticate(new SemanticsIdentifier("PASKZ-987654321012"), createDummyAuthenticationSessionRequest()).get(5, TimeUnit.SECONDS);
+    assertEquals("1dcc1600-29a6-4e95-a95c-d69b31febcfb", response.getSessionID());
+  }
+
+  @Test
+  public void authenticate_whenNoSuitableAccountFound() {
+    stubErrorResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json", 471);
+    assertFailsWith(NoSuitableAccountOfRequestedTypeFoundException.class, connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest()));
+  }
+
+  @Test
+  public void authenticate_whenPersonShouldViewPortal() {
+    stubErrorResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json", 472);
+    assertFailsWith(PersonShouldViewSmartIdPortalException.class, connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest()));
+  }
+
+  @Test
+  public void authenticate_whenClientSideApiNotSupported() {
+    stubErrorResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json", 480);
+    assertFailsWith(SmartIdClientException.class, connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest()));
+  }
+
+  @Test
+  public void sign_whenSystemUnderMaintenance() {
+    stubErrorResponse("/signature/document/PNOEE-123456", "requests/signatureSessionRequest.json", 580);
+    assertFailsWith(ServerMaintenanceException.class, connector.sign("PNOEE-123456", createDummySignatureSessionRequest()));
+  }
+
+  @Test
+  public void sign_whenServerError() {
+    stubErrorResponse("/signature/document/PNOEE-123456", "requests/signatureSessionRequest.json", 502);
+    assertFailsWith(ServerErrorException.class, connector.sign("PNOEE-123456", createDummySignatureSessionRequest()));
+  }
+
+  private static void assertFailsWith(Class<? extends Throwable> expected, CompletableFuture<?> future) {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Expected " + expected.getSimpleName());
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(expected));
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private CertificateRequest createDummyCertificateRequest() {
+    CertificateRequest request = new CertificateRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    return request;
+  }
+
+  private SignatureSessionRequest createDummySignatureSessionRequest() {
+    SignatureSessionRequest request = new SignatureSessionRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    request.setHash("0nbgC2fVdLVQFZJdBbmG7oPoElpCYsQMtrY0c0wKYRg=");
+    request.setHashType("SHA256");
+    request.setAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessage("Authorize transfer of 1 unit from account 113245344343 to account 7677323232?"),
+            Interaction.displayTextAndPIN("Transfer 1 unit to account 7677323232?"))
+    );
+    return request;
+  }
+
+  private AuthenticationSessionRequest createDummyAuthenticationSessionRequest() {
+    AuthenticationSessionRequest request = new AuthenticationSessionRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    request.setHash("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    request.setHashType("SHA512");
+    request.setAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+            Interaction.displayTextAndPIN("Log in?"))
+    );
+    return request;
+  }
+}
@@ -0,0 +1,300 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.CircuitBreakerOpenException;
+import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
+import ee.sk.smartid.rest.CircuitBreakerSmartIdConnector.Operation;
+import ee.sk.smartid.rest.CircuitBreakerSmartIdConnector.State;
+import ee.sk.smartid.rest.dao.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CircuitBreakerSmartIdConnectorTest {
+
+  private ControllableConnector connector;
+  private CircuitBreakerSmartIdConnector circuitBreaker;
+
+  @Before
+  public void setUp() {
+    connector = new ControllableConnector();
+    connector.sessionStatusToRespond = new SessionStatus();
+    connector.sessionStatusToRespond.setState("RUNNING");
+    connector.authenticationSessionResponseToRespond = new AuthenticationSessionResponse();
+    circuitBreaker = new CircuitBreakerSmartIdConnector(connector);
+    circuitBreaker.setSlidingWindowSize(4, 4);
+    circuitBreaker.setOpenDuration(TimeUnit.MILLISECONDS, 100L);
+  }
+
+  @Test
+  public void authenticate_whenFailureRateReachesThreshold_opensCircuitAndFailsFast() {
+    connector.error = new ProcessingException(new SocketTimeoutException());
+    authenticateTimes(2);
+    connector.error = null;
+    authenticateTimes(2);
+    assertEquals(State.OPEN, circuitBreaker.getState(Operation.INITIATION));
+
+    try {
+      authenticate();
+      fail("Expected CircuitBreakerOpenException");
+    } catch (CircuitBreakerOpenException e) {
+      assertThat(e.getRetryAfterMs(), allOf(greaterThan(0L), lessThanOrEqualTo(100L)));
+    }
+    assertEquals(4, connector.calls);
+  }
+
+  @Test
+  public void authenticate_whenUserAccountNotFound_doesNotCountAsFailure() {
+    connector.error = new UserAccountNotFoundException();
+    authenticateTimes(10);
+    assertEquals(State.CLOSED, circuitBreaker.getState(Operation.INITIATION));
+    assertEquals(10, connector.calls);
+  }
+
+  @Test
+  public void getSessionStatus_whenInitiationCircuitOpen_isNotAffected() {
+    connector.error = new ProcessingException(new SocketTimeoutException());
+    authenticateTimes(4);
+    connector.error = null;
+
+    assertEquals(State.OPEN, circuitBreaker.getState(Operation.INITIATION));
+    assertEquals("RUNNING", circuitBreaker.getSessionStatus("session").getState());
+    assertEquals(State.CLOSED, circuitBreaker.getState(Operation.SESSION_STATUS));
+  }
+
+  @Test
+  public void authenticate_afterOpenDuration_closesCircuitWhenTrialRequestsSucceed() throws Exception {
+    connector.error = new ProcessingException(new SocketTimeoutException());
+    authenticateTimes(4);
+    connector.error = null;
+    Thread.sleep(150);
+
+    authenticate();
+    assertEquals(State.HALF_OPEN, circuitBreaker.getState(Operation.INITIATION));
+    authenticateTimes(CircuitBreakerSmartIdConnector.TRIAL_CALLS - 1);
+    assertEquals(State.CLOSED, circuitBreaker.getState(Operation.INITIATION));
+  }
+
+  @Test
+  public void authenticate_afterOpenDuration_reopensCircuitWhenTrialRequestFails() throws Exception {
+    connector.error = new ProcessingException(new SocketTimeoutException());
+    authenticateTimes(4);
+    Thread.sleep(150);
+
+    authenticateTimes(1);
+
+    assertEquals(State.OPEN, circuitBreaker.getState(Operation.INITIATION));
+    assertEquals(5, connector.calls);
+  }
+
+  @Test
+  public void authenticate_whenSlowCallRateReachesThreshold_opensCircuit() {
+    circuitBreaker.setSlowCallThreshold(TimeUnit.MILLISECONDS, 10L, 0.5);
+    connector.delayMs = 30;
+    authenticateTimes(2);
+    connector.delayMs = 0;
+    authenticateTimes(2);
+
+    assertEquals(State.OPEN, circuitBreaker.getState(Operation.INITIATION));
+  }
+
+  @Test
+  public void getSessionStatus_heldOpenBySocketOpenTime_isNotSlow() {
+    circuitBreaker.setSlowCallThreshold(TimeUnit.MILLISECONDS, 10L, 0.5);
+    circuitBreaker.setSessionStatusResponseSocketOpenTime(TimeUnit.MILLISECONDS, 50L);
+    connector.delayMs = 30;
+    for (int i = 0; i < 4; i++) {
+      circuitBreaker.getSessionStatus("session");
+    }
+    assertEquals(State.CLOSED, circuitBreaker.getState(Operation.SESSION_STATUS));
+
+    connector.delayMs = 80;
+    for (int i = 0; i < 4; i++) {
+      try {
+        circuitBreaker.getSessionStatus("session");
+      } catch (CircuitBreakerOpenException ignored) {
+      }
+    }
+    assertEquals(State.OPEN, circuitBreaker.getState(Operation.SESSION_STATUS));
+  }
+
+  @Test
+  public void getSessionStatus_withoutSocketOpenTime_countsOnlyFailures() {
+    circuitBreaker.setSlowCallThreshold(TimeUnit.MILLISECONDS, 10L, 0.5);
+    connector.delayMs = 30;
+    for (int i = 0; i < 4; i++) {
+      circuitBreaker.getSessionStatus("session");
+    }
+    assertEquals(State.CLOSED, circuitBreaker.getState(Operation.SESSION_STATUS));
+  }
+
+  @Test
+  public void asyncAuthenticate_whenCircuitOpen_completesExceptionally() throws Exception {
+    AsyncSmartIdConnector asyncConnector = circuitBreaker.getAsyncConnector(Runnable::run);
+    connector.error = new ProcessingException(new SocketTimeoutException());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(asyncConnector.authenticate("PNOEE-123456", new AuthenticationSessionRequest()).isCompletedExceptionally());
+    }
+    try {
+      asyncConnector.authenticate("PNOEE-123456", new AuthenticationSessionRequest()).get();
+      fail("Expected CircuitBreakerOpenException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(CircuitBreakerOpenException.class));
+    }
+    assertEquals(4, connector.calls);
+  }
+
+  @Test
+  public void asyncAuthenticate_whenRequestThrows_releasesTrialCall() throws Exception {
+    AsyncSmartIdConnector asyncConnector = circuitBreaker.getAsyncConnector(Runnable::run);
+    connector.error = new ProcessingException(new SocketTimeoutException());
+    authenticateTimes(4);
+    connector.error = null;
+    Thread.sleep(150);
+
+    for (int i = 0; i < CircuitBreakerSmartIdConnector.TRIAL_CALLS; i++) {
+      try {
+        asyncConnector.authenticate(new SemanticsIdentifier("PNOEE-123456"), new AuthenticationSessionRequest()).get();
+        fail("Expected UnsupportedOperationException");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause(), instanceOf(UnsupportedOperationException.class));
+      }
+    }
+
+    assertNotNull(authenticate());
+  }
+
+  private void authenticateTimes(int times) {
+    for (int i = 0; i < times; i++) {
+      try {
+        authenticate();
+      } catch (RuntimeException ignored) {
+      }
+    }
+  }
+
+  private AuthenticationSessionResponse authenticate() {
+    return circuitBreaker.authenticate("PNOEE-123456", new AuthenticationSessionRequest());
+  }
+
+  private static class ControllableConnector extends SmartIdConnectorSpy {
+
+    private volatile RuntimeException error;
+    private volatile long delayMs;
+    private int calls;
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) {
+      call();
+      return super.getSessionStatus(sessionId);
+    }
+
+    @Override
+    public AuthenticationSessionResponse authenticate(String documentNumber, AuthenticationSessionRequest request) {
+      call();
+      return super.authenticate(documentNumber, request);
+    }
+
+    @Override
+    public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+      return new ControllableAsyncConnector();
+    }
+
+    private void call() {
+      calls++;
+      if (delayMs > 0) {
+        try {
+          Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+
+    private class ControllableAsyncConnector implements AsyncSmartIdConnector {
+
+      @Override
+      public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+        return supply(() -> ControllableConnector.this.getSessionStatus(sessionId));
+      }
+
+      @Override
+      public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+        return supply(() -> ControllableConnector.this.authenticate(documentNumber, request));
+      }
+
+      @Override
+      public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+        throw new UnsupportedOperationException();
+      }
+
+      private <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+          future.complete(supplier.get());
+        } catch (RuntimeException e) {
+          future.completeExceptionally(e);
+        }
+        return future;
+      }
+    }
+  }
+}
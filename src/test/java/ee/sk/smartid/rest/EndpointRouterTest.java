@@ -0,0 +1,106 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.client.ClientBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class EndpointRouterTest {
+
+  private EndpointRouter router;
+
+  @Before
+  public void setUp() {
+    router = new EndpointRouter(ClientBuilder.newClient().target("https://sid.demo.sk.ee/smart-id-rp/v2/"));
+  }
+
+  @Test
+  public void sessionStatus() {
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/session/de305d54-75b4-431b-adb2-eb6b9e546016",
+        router.sessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016", 0).getUri().toString());
+  }
+
+  @Test
+  public void sessionStatus_withTimeout() {
+    router.sessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016", 5000L);
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/session/97f5058e-e308-4c83-ac14-7712b0eb9d86?timeoutMs=5000",
+        router.sessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86", 5000L).getUri().toString());
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/session/97f5058e-e308-4c83-ac14-7712b0eb9d86?timeoutMs=1000",
+        router.sessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86", 1000L).getUri().toString());
+  }
+
+  @Test
+  public void initiationTargets() {
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/certificatechoice/document/PNOEE-31111111111-Z1B2-Q",
+        router.certificateChoiceByDocumentNumber("PNOEE-31111111111-Z1B2-Q").getUri().toString());
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/certificatechoice/etsi/PNOEE-31111111111",
+        router.certificateChoiceBySemanticsIdentifier("PNOEE-31111111111").getUri().toString());
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/signature/document/PNOEE-31111111111-Z1B2-Q",
+        router.signatureByDocumentNumber("PNOEE-31111111111-Z1B2-Q").getUri().toString());
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/signature/etsi/PNOEE-31111111111",
+        router.signatureBySemanticsIdentifier("PNOEE-31111111111").getUri().toString());
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/authentication/document/PNOEE-31111111111-Z1B2-Q",
+        router.authenticationByDocumentNumber("PNOEE-31111111111-Z1B2-Q").getUri().toString());
+    assertEquals("https://sid.demo.sk.ee/smart-id-rp/v2/authentication/etsi/PNOEE-31111111111",
+        router.authenticationBySemanticsIdentifier("PNOEE-31111111111").getUri().toString());
+  }
+
+  @Test
+  public void endpointWithoutTrailingSlash() {
+    router = new EndpointRouter(ClientBuilder.newClient().target("http://localhost:18089"));
+    assertEquals("http://localhost:18089/session/de305d54-75b4-431b-adb2-eb6b9e546016",
+        router.sessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016", 0).getUri().toString());
+  }
+
+  @Test
+  public void encodePathSegment_withUnreservedCharacters_returnsSameInstance() {
+    String documentNumber = "PNOEE-31111111111-Z1B2-Q";
+    assertSame(documentNumber, EndpointRouter.encodePathSegment(documentNumber));
+  }
+
+  @Test
+  public void encodePathSegment_encodesOtherCharacters() {
+    assertEquals("PNOEE-3%20%7Bx%7D%C3%A4%3F", EndpointRouter.encodePathSegment("PNOEE-3 {x}ä?"));
+    assertEquals("http://localhost:18089/authentication/document/PNOEE-3%20%7Bx%7D",
+        new EndpointRouter(ClientBuilder.newClient().target("http://localhost:18089"))
+            .authenticationByDocumentNumber("PNOEE-3 {x}").getUri().toString());
+  }
+
+  @Test
+  public void encodePathSegment_keepsPathTraversalInOneSegment() {
+    assertEquals("..%2F..%2Fsignature%2Fdocument%2FPNOEE-31111111111", EndpointRouter.encodePathSegment("../../signature/document/PNOEE-31111111111"));
+    assertEquals("%2E%2E", EndpointRouter.encodePathSegment(".."));
+    assertEquals("http://localhost:18089/session/..%2Fauthentication%2Fetsi%2FPNOEE-31111111111",
+        new EndpointRouter(ClientBuilder.newClient().target("http://localhost:18089"))
+            .sessionStatus("../authentication/etsi/PNOEE-31111111111", 0).getUri().toString());
+  }
+}
@@ -0,0 +1,282 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import ee.sk.smartid.exception.permanent.CircuitBreakerOpenException;
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
+import ee.sk.smartid.rest.dao.AuthenticationSessionRequest;
+import ee.sk.smartid.rest.dao.AuthenticationSessionResponse;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class FailoverSmartIdConnectorTest {
+
+  private static final String AUTHENTICATION_PATH = "/authentication/document/PNOEE-123456";
+  private static final String SESSION_STATUS_PATH = "/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb";
+
+  @Rule
+  public WireMockRule firstEndpoint = new WireMockRule(18089);
+
+  @Rule
+  public WireMockRule secondEndpoint = new WireMockRule(18090);
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withoutConnectors_shouldThrowException() {
+    new FailoverSmartIdConnector(Collections.<SmartIdConnector>emptyList());
+  }
+
+  @Test
+  public void authenticate_usesFirstEndpoint_andPollsSessionFromIt() throws IOException {
+    stubAuthentication(firstEndpoint, 0);
+    stubAuthentication(secondEndpoint, 0);
+    stubSessionStatus(firstEndpoint);
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18089", "http://localhost:18090");
+
+    AuthenticationSessionResponse response = connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+    SessionStatus sessionStatus = connector.getSessionStatus(response.getSessionID());
+
+    assertEquals("COMPLETE", sessionStatus.getState());
+    secondEndpoint.verify(0, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+    secondEndpoint.verify(0, getRequestedFor(urlPathEqualTo(SESSION_STATUS_PATH)));
+  }
+
+  @Test
+  public void authenticate_whenEndpointUnreachable_failsOverToNextEndpoint() throws IOException {
+    stubAuthentication(firstEndpoint, 0);
+    stubSessionStatus(firstEndpoint);
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18099", "http://localhost:18089");
+
+    AuthenticationSessionResponse response = connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+    assertEquals("COMPLETE", connector.getSessionStatus(response.getSessionID()).getState());
+
+    assertTrue(connector.getErrorRate(0) > 0);
+    assertEquals(0.0, connector.getErrorRate(1), 0.0);
+    assertTrue(connector.getAverageLatencyMs(1) >= 0);
+    assertEquals(-1, connector.getAverageLatencyMs(0));
+  }
+
+  @Test
+  public void authenticate_afterEndpointFailed_routesToHealthyEndpointFirst() throws IOException {
+    stubAuthentication(firstEndpoint, 0);
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18099", "http://localhost:18089");
+
+    connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+    connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+
+    firstEndpoint.verify(2, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+    // the unreachable endpoint was tried only once, for the first request
+    assertEquals(0.2, connector.getErrorRate(0), 0.01);
+  }
+
+  @Test
+  public void authenticate_prefersEndpointWithLowerLatency() throws IOException {
+    stubAuthentication(firstEndpoint, 300);
+    stubAuthentication(secondEndpoint, 0);
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18089", "http://localhost:18090");
+
+    for (int i = 0; i < 4; i++) {
+      connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+    }
+
+    firstEndpoint.verify(1, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+    secondEndpoint.verify(3, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+  }
+
+  @Test
+  public void authenticate_whenEndpointUnderMaintenance_failsOverToNextEndpoint() throws IOException {
+    firstEndpoint.stubFor(post(urlEqualTo(AUTHENTICATION_PATH)).willReturn(aResponse().withStatus(580)));
+    stubAuthentication(secondEndpoint, 0);
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18089", "http://localhost:18090");
+
+    AuthenticationSessionResponse response = connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+
+    assertEquals("1dcc1600-29a6-4e95-a95c-d69b31febcfb", response.getSessionID());
+  }
+
+  @Test(expected = ServerMaintenanceException.class)
+  public void authenticate_whenAllEndpointsUnderMaintenance_throwsLastError() {
+    firstEndpoint.stubFor(post(urlEqualTo(AUTHENTICATION_PATH)).willReturn(aResponse().withStatus(580)));
+    secondEndpoint.stubFor(post(urlEqualTo(AUTHENTICATION_PATH)).willReturn(aResponse().withStatus(580)));
+    createConnector("http://localhost:18089", "http://localhost:18090").authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+  }
+
+  @Test
+  public void authenticate_whenUserAccountNotFound_doesNotFailOver() {
+    firstEndpoint.stubFor(post(urlEqualTo(AUTHENTICATION_PATH)).willReturn(aResponse().withStatus(404)));
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18089", "http://localhost:18090");
+    try {
+      connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+      fail("Expected UserAccountNotFoundException");
+    } catch (UserAccountNotFoundException e) {
+      secondEndpoint.verify(0, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+      assertEquals(0.0, connector.getErrorRate(0), 0.0);
+    }
+  }
+
+  @Test
+  public void asyncAuthenticate_whenEndpointUnreachable_failsOverAndPollsPinnedEndpoint() throws Exception {
+    stubAuthentication(secondEndpoint, 0);
+    stubSessionStatus(secondEndpoint);
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18099", "http://localhost:18090");
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(ForkJoinPool.commonPool());
+
+    AuthenticationSessionResponse response = asyncConnector.authenticate("PNOEE-123456", createAuthenticationSessionRequest())
+        .get(5, TimeUnit.SECONDS);
+    SessionStatus sessionStatus = asyncConnector.getSessionStatus(response.getSessionID()).get(5, TimeUnit.SECONDS);
+
+    assertEquals("COMPLETE", sessionStatus.getState());
+    assertTrue(connector.getErrorRate(0) > 0);
+  }
+
+  @Test
+  public void asyncAuthenticate_whenRequestThrowsBeforeReturningFuture_failsOverToNextEndpoint() throws Exception {
+    stubAuthentication(secondEndpoint, 0);
+    FailoverSmartIdConnector connector = new FailoverSmartIdConnector(asList(
+        createThrowingAsyncConnector(new ProcessingException(new ConnectException())), new SmartIdRestConnector("http://localhost:18090")));
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(ForkJoinPool.commonPool());
+
+    AuthenticationSessionResponse response = asyncConnector.authenticate("PNOEE-123456", createAuthenticationSessionRequest())
+        .get(5, TimeUnit.SECONDS);
+
+    assertEquals("1dcc1600-29a6-4e95-a95c-d69b31febcfb", response.getSessionID());
+    assertTrue(connector.getErrorRate(0) > 0);
+  }
+
+  @Test
+  public void asyncGetSessionStatus_whenRequestThrowsBeforeReturningFuture_returnsFailedFuture() throws Exception {
+    FailoverSmartIdConnector connector = new FailoverSmartIdConnector(Collections.singletonList(
+        createThrowingAsyncConnector(new ProcessingException(new IOException()))));
+    CompletableFuture<SessionStatus> sessionStatus = connector.getAsyncConnector(ForkJoinPool.commonPool()).getSessionStatus("session");
+
+    try {
+      sessionStatus.get(5, TimeUnit.SECONDS);
+      fail("Expected ProcessingException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ProcessingException);
+    }
+    assertTrue(connector.getErrorRate(0) > 0);
+  }
+
+  @Test
+  public void warmUp_whenEndpointUnreachable_warmsUpOtherEndpoints() {
+    secondEndpoint.stubFor(get(urlEqualTo("/session/00000000-0000-0000-0000-000000000000"))
+        .willReturn(aResponse().withStatus(404)));
+    FailoverSmartIdConnector connector = createConnector("http://localhost:18099", "http://localhost:18090");
+
+    connector.warmUp(2);
+
+    secondEndpoint.verify(4, getRequestedFor(urlEqualTo("/session/00000000-0000-0000-0000-000000000000")));
+    assertTrue(connector.getErrorRate(0) > 0);
+  }
+
+  @Test(expected = ProcessingException.class)
+  public void warmUp_whenAllEndpointsUnreachable_shouldThrowException() {
+    createConnector("http://localhost:18099", "http://localhost:18098").warmUp(1);
+  }
+
+  @Test
+  public void isUnreachable() {
+    assertTrue(FailoverSmartIdConnector.isUnreachable(new ProcessingException(new ConnectException())));
+    assertTrue(FailoverSmartIdConnector.isUnreachable(new ServerMaintenanceException()));
+    assertTrue(FailoverSmartIdConnector.isUnreachable(new CircuitBreakerOpenException("open", 1000L)));
+    assertFalse(FailoverSmartIdConnector.isUnreachable(new ProcessingException(new IOException())));
+    assertTrue(FailoverSmartIdConnector.isEndpointFailure(new ProcessingException(new IOException())));
+    assertFalse(FailoverSmartIdConnector.isEndpointFailure(new UserAccountNotFoundException()));
+  }
+
+  private static SmartIdConnector createThrowingAsyncConnector(RuntimeException error) {
+    return new SmartIdConnectorSpy() {
+      @Override
+      public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+        return (AsyncSmartIdConnector) Proxy.newProxyInstance(AsyncSmartIdConnector.class.getClassLoader(),
+            new Class<?>[] {AsyncSmartIdConnector.class}, (proxy, method, args) -> {
+              throw error;
+            });
+      }
+    };
+  }
+
+  private static FailoverSmartIdConnector createConnector(String... hostUrls) {
+    SmartIdRestConnector[] connectors = new SmartIdRestConnector[hostUrls.length];
+    for (int i = 0; i < hostUrls.length; i++) {
+      connectors[i] = new SmartIdRestConnector(hostUrls[i]);
+    }
+    return new FailoverSmartIdConnector(asList(connectors));
+  }
+
+  private static void stubAuthentication(WireMockRule endpoint, int delayMs) throws IOException {
+    endpoint.stubFor(post(urlEqualTo(AUTHENTICATION_PATH))
+        .willReturn(aResponse()
+            .withFixedDelay(delayMs)
+            .withStatus(200)
+            .withHeader("Content-Type", "application/json")
+            .withBody(readResource("responses/authenticationSessionResponse.json"))));
+  }
+
+  private static void stubSessionStatus(WireMockRule endpoint) throws IOException {
+    endpoint.stubFor(get(urlPathEqualTo(SESSION_STATUS_PATH))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withHeader("Content-Type", "application/json")
+            .withBody(readResource("responses/sessionStatusForSuccessfulAuthenticationRequest.json"))));
+  }
+
+  private static String readResource(String name) throws IOException {
+    return IOUtils.toString(FailoverSmartIdConnectorTest.class.getClassLoader().getResourceAsStream(name), StandardCharsets.UTF_8);
+  }
+
+  private static AuthenticationSessionRequest createAuthenticationSessionRequest() {
+    AuthenticationSessionRequest request = new AuthenticationSessionRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    request.setHash("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    request.setHashType("SHA512");
+    return request;
+  }
+}
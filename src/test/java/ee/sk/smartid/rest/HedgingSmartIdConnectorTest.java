@@ -0,0 +1,307 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.rest.dao.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.*;
+
+public class HedgingSmartIdConnectorTest {
+
+  private ExecutorService executor;
+  private DelayingConnector connector;
+  private HedgingSmartIdConnector hedgingConnector;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    connector = new DelayingConnector();
+    hedgingConnector = new HedgingSmartIdConnector(connector, executor);
+    hedgingConnector.setMinHedgeDelay(TimeUnit.MILLISECONDS, 20L);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void getSessionStatus_beforeEnoughRequestsObserved_doesNotHedge() {
+    connector.delaysMs.add(300L);
+    long startTime = System.currentTimeMillis();
+
+    assertEquals("RUNNING", hedgingConnector.getSessionStatus("session").getState());
+
+    assertTrue(System.currentTimeMillis() - startTime >= 300);
+    assertEquals(-1, hedgingConnector.getHedgeDelayMs());
+    assertEquals(0, hedgingConnector.getHedgedRequestCount());
+  }
+
+  @Test
+  public void getSessionStatus_whenRequestTakesUnusuallyLong_sendsSecondRequestOnExecutor() {
+    observeFastRequests();
+    connector.delaysMs.add(300L);
+    connector.delaysMs.add(0L);
+
+    assertEquals("RUNNING", hedgingConnector.getSessionStatus("session").getState());
+
+    assertEquals(1, hedgingConnector.getHedgedRequestCount());
+    assertEquals(1, hedgingConnector.getHedgedRequestWinCount());
+    assertEquals(HedgingSmartIdConnector.MIN_LATENCY_SAMPLES + 2, connector.calls.get());
+    assertEquals(Thread.currentThread().getName(), connector.threadNames.get(HedgingSmartIdConnector.MIN_LATENCY_SAMPLES));
+    assertNotEquals(Thread.currentThread().getName(), connector.threadNames.get(HedgingSmartIdConnector.MIN_LATENCY_SAMPLES + 1));
+  }
+
+  @Test
+  public void getSessionStatus_whenFirstRequestFailsAfterSecondAnswered_returnsAnswerOfSecondRequest() {
+    observeFastRequests();
+    connector.delaysMs.add(300L);
+    connector.delaysMs.add(0L);
+    connector.errors.add(new ProcessingException("read timed out"));
+
+    assertEquals("RUNNING", hedgingConnector.getSessionStatus("session").getState());
+
+    assertEquals(1, hedgingConnector.getHedgedRequestCount());
+    assertEquals(1, hedgingConnector.getHedgedRequestWinCount());
+  }
+
+  @Test
+  public void getSessionStatus_whenExecutorRejectsSecondRequest_returnsAnswerOfFirstRequest() {
+    hedgingConnector = new HedgingSmartIdConnector(connector, runnable -> {
+      throw new RejectedExecutionException();
+    });
+    hedgingConnector.setMinHedgeDelay(TimeUnit.MILLISECONDS, 20L);
+    observeFastRequests();
+    connector.delaysMs.add(300L);
+
+    assertEquals("RUNNING", hedgingConnector.getSessionStatus("session").getState());
+
+    assertEquals(0, hedgingConnector.getHedgedRequestCount());
+    assertEquals(HedgingSmartIdConnector.MIN_LATENCY_SAMPLES + 1, connector.calls.get());
+  }
+
+  @Test
+  public void getSessionStatus_async_whenRequestTakesUnusuallyLong_returnsAnswerOfSecondRequest() throws Exception {
+    observeFastRequests();
+    connector.delaysMs.add(5000L);
+    connector.delaysMs.add(0L);
+    long startTime = System.currentTimeMillis();
+
+    SessionStatus sessionStatus = hedgingConnector.getAsyncConnector(executor).getSessionStatus("session").get();
+
+    assertEquals("RUNNING", sessionStatus.getState());
+    assertThat(System.currentTimeMillis() - startTime, lessThan(2000L));
+    assertEquals(1, hedgingConnector.getHedgedRequestCount());
+    assertEquals(1, hedgingConnector.getHedgedRequestWinCount());
+  }
+
+  @Test
+  public void getSessionStatus_afterDeserialization_sendsSecondRequest() throws Exception {
+    observeFastRequests();
+    connector.delaysMs.add(300L);
+    connector.delaysMs.add(0L);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(hedgingConnector);
+    }
+    HedgingSmartIdConnector deserializedConnector;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      deserializedConnector = (HedgingSmartIdConnector) in.readObject();
+    }
+
+    assertEquals("RUNNING", deserializedConnector.getSessionStatus("session").getState());
+
+    assertEquals(1, deserializedConnector.getHedgedRequestCount());
+  }
+
+  @Test
+  public void getSessionStatus_whenRequestIsFast_doesNotHedge() throws Exception {
+    observeFastRequests();
+
+    hedgingConnector.getSessionStatus("session");
+    Thread.sleep(100);
+
+    assertEquals(0, hedgingConnector.getHedgedRequestCount());
+    assertEquals(HedgingSmartIdConnector.MIN_LATENCY_SAMPLES + 1, connector.calls.get());
+  }
+
+  @Test
+  public void getSessionStatus_whenRequestFailsBeforeHedgeDelay_throwsError() throws Exception {
+    observeFastRequests();
+    connector.error = new SessionNotFoundException();
+    try {
+      hedgingConnector.getSessionStatus("session");
+      fail("Expected SessionNotFoundException");
+    } catch (SessionNotFoundException expected) {
+    }
+    Thread.sleep(100);
+    assertEquals(0, hedgingConnector.getHedgedRequestCount());
+  }
+
+  @Test
+  public void getSessionStatus_whenBothRequestsFail_throwsFirstError() {
+    observeFastRequests();
+    connector.delaysMs.add(200L);
+    connector.delaysMs.add(300L);
+    connector.error = new ProcessingException("read timed out");
+    try {
+      hedgingConnector.getSessionStatus("session");
+      fail("Expected ProcessingException");
+    } catch (ProcessingException e) {
+      assertEquals(1, hedgingConnector.getHedgedRequestCount());
+      assertEquals(0, hedgingConnector.getHedgedRequestWinCount());
+    }
+  }
+
+  @Test
+  public void getSessionStatus_completedSessions_areNotObserved() {
+    connector.state = "COMPLETE";
+    observeFastRequests();
+    assertEquals(-1, hedgingConnector.getHedgeDelayMs());
+  }
+
+  @Test
+  public void setSessionStatusResponseSocketOpenTime_forgetsObservedRequests() {
+    observeFastRequests();
+    assertTrue(hedgingConnector.getHedgeDelayMs() >= 20);
+
+    hedgingConnector.setSessionStatusResponseSocketOpenTime(TimeUnit.SECONDS, 10L);
+
+    assertEquals(-1, hedgingConnector.getHedgeDelayMs());
+  }
+
+  @Test
+  public void latencySamples_getPercentile() {
+    HedgingSmartIdConnector.LatencySamples samples = new HedgingSmartIdConnector.LatencySamples();
+    for (int i = 1; i <= HedgingSmartIdConnector.LATENCY_SAMPLES + 50; i++) {
+      samples.add(i);
+    }
+    assertEquals(145, samples.getPercentile(0.95));
+    assertEquals(100, samples.getPercentile(0.5));
+  }
+
+  private void observeFastRequests() {
+    for (int i = 0; i < HedgingSmartIdConnector.MIN_LATENCY_SAMPLES; i++) {
+      hedgingConnector.getSessionStatus("session");
+    }
+  }
+
+  private static class DelayingConnector extends SmartIdConnectorSpy {
+
+    private final ConcurrentLinkedQueue<Long> delaysMs = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final List<String> threadNames = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<RuntimeException> errors = new ConcurrentLinkedQueue<>();
+    private volatile RuntimeException error;
+    private volatile String state = "RUNNING";
+
+    @Override
+    public SessionStatus getSessionStatus(String sessionId) {
+      calls.incrementAndGet();
+      threadNames.add(Thread.currentThread().getName());
+      RuntimeException callError = errors.poll();
+      Long delayMs = delaysMs.poll();
+      if (delayMs != null) {
+        try {
+          Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (callError != null) {
+        throw callError;
+      }
+      if (error != null) {
+        throw error;
+      }
+      SessionStatus sessionStatus = new SessionStatus();
+      sessionStatus.setState(state);
+      return sessionStatus;
+    }
+
+    @Override
+    public AsyncSmartIdConnector getAsyncConnector(Executor executor) {
+      return new AsyncSmartIdConnector() {
+        @Override
+        public CompletableFuture<SessionStatus> getSessionStatus(String sessionId) {
+          return CompletableFuture.supplyAsync(() -> DelayingConnector.this.getSessionStatus(sessionId), executor);
+        }
+
+        @Override
+        public CompletableFuture<CertificateChoiceResponse> getCertificate(String documentNumber, CertificateRequest request) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<CertificateChoiceResponse> getCertificate(SemanticsIdentifier identifier, CertificateRequest request) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<SignatureSessionResponse> sign(String documentNumber, SignatureSessionRequest request) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<SignatureSessionResponse> sign(SemanticsIdentifier identifier, SignatureSessionRequest request) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<AuthenticationSessionResponse> authenticate(String documentNumber, AuthenticationSessionRequest request) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<AuthenticationSessionResponse> authenticate(SemanticsIdentifier identity, AuthenticationSessionRequest request) {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.permanent.CircuitBreakerOpenException;
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
+import org.junit.Test;
+
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServiceUnavailableException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void isRetryable_sessionStatusRequest_retriesNetworkAndServerErrors() {
+    RetryPolicy retryPolicy = new RetryPolicy();
+    assertTrue(retryPolicy.isRetryable(new ProcessingException(new SocketTimeoutException()), true));
+    assertTrue(retryPolicy.isRetryable(new InternalServerErrorException(), true));
+    assertTrue(retryPolicy.isRetryable(new ServerMaintenanceException(), true));
+    assertFalse(retryPolicy.isRetryable(new UserAccountNotFoundException(), true));
+  }
+
+  @Test
+  public void isRetryable_initiationRequest_retriesOnlyWhenSessionCannotHaveBeenCreated() {
+    RetryPolicy retryPolicy = new RetryPolicy();
+    assertTrue(retryPolicy.isRetryable(new ProcessingException(new ConnectException()), false));
+    assertTrue(retryPolicy.isRetryable(new ServerMaintenanceException(), false));
+    assertTrue(retryPolicy.isRetryable(new ServiceUnavailableException(), false));
+    assertFalse(retryPolicy.isRetryable(new ProcessingException(new SocketTimeoutException()), false));
+    assertFalse(retryPolicy.isRetryable(new InternalServerErrorException(), false));
+    assertFalse(retryPolicy.isRetryable(new UserAccountNotFoundException(), false));
+  }
+
+  @Test
+  public void isRetryable_whenCircuitBreakerOpen_doesNotRetry() {
+    RetryPolicy retryPolicy = new RetryPolicy();
+    assertFalse(retryPolicy.isRetryable(new CircuitBreakerOpenException("open", 1000L), true));
+    assertFalse(retryPolicy.isRetryable(new CircuitBreakerOpenException("open", 1000L), false));
+  }
+
+  @Test
+  public void getBackoffMs_growsExponentiallyWithJitterUpToMaximum() {
+    RetryPolicy retryPolicy = new RetryPolicy(10, TimeUnit.MILLISECONDS, 100L, 1000L);
+    for (int i = 0; i < 100; i++) {
+      assertThat(retryPolicy.getBackoffMs(1), allOf(greaterThanOrEqualTo(50L), lessThanOrEqualTo(100L)));
+      assertThat(retryPolicy.getBackoffMs(3), allOf(greaterThanOrEqualTo(200L), lessThanOrEqualTo(400L)));
+      assertThat(retryPolicy.getBackoffMs(9), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L)));
+    }
+  }
+
+  @Test
+  public void tryAcquireRetry_spendsBudgetThatRequestsRefill() {
+    RetryPolicy retryPolicy = new RetryPolicy(3, TimeUnit.MILLISECONDS, 0L, 0L, 0.5, 2);
+    assertTrue(retryPolicy.tryAcquireRetry());
+    assertTrue(retryPolicy.tryAcquireRetry());
+    assertFalse(retryPolicy.tryAcquireRetry());
+
+    retryPolicy.onRequest();
+    assertFalse(retryPolicy.tryAcquireRetry());
+    retryPolicy.onRequest();
+    assertTrue(retryPolicy.tryAcquireRetry());
+  }
+
+  @Test
+  public void onRequest_doesNotSaveUpMoreThanMaximumBudget() {
+    RetryPolicy retryPolicy = new RetryPolicy(3, TimeUnit.MILLISECONDS, 0L, 0L, 1, 2);
+    for (int i = 0; i < 10; i++) {
+      retryPolicy.onRequest();
+    }
+    assertEquals(2.0, retryPolicy.getRetryBudget(), 0.0);
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withoutAttempts_shouldThrowException() {
+    new RetryPolicy(0, TimeUnit.MILLISECONDS, 100L, 1000L);
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withMaxBackoffLessThanInitial_shouldThrowException() {
+    new RetryPolicy(3, TimeUnit.MILLISECONDS, 1000L, 100L);
+  }
+}
@@ -0,0 +1,192 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.rest.dao.AuthenticationSessionRequest;
+import ee.sk.smartid.rest.dao.AuthenticationSessionResponse;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.ServiceUnavailableException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.*;
+
+public class RetryingSmartIdConnectorTest {
+
+  private static final String AUTHENTICATION_PATH = "/authentication/document/PNOEE-123456";
+  private static final String SESSION_ID = "1dcc1600-29a6-4e95-a95c-d69b31febcfb";
+  private static final String SESSION_STATUS_PATH = "/session/" + SESSION_ID;
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(18089);
+
+  @Test
+  public void getSessionStatus_whenServerErrorIsTransient_retries() throws IOException {
+    stubFailingOnce(get(urlPathEqualTo(SESSION_STATUS_PATH)), 503, "responses/sessionStatusForSuccessfulAuthenticationRequest.json");
+    RetryingSmartIdConnector connector = createConnector(new RetryPolicy(3, TimeUnit.MILLISECONDS, 10L, 10L));
+
+    SessionStatus sessionStatus = connector.getSessionStatus(SESSION_ID);
+
+    assertEquals("COMPLETE", sessionStatus.getState());
+    verify(2, getRequestedFor(urlPathEqualTo(SESSION_STATUS_PATH)));
+  }
+
+  @Test
+  public void getSessionStatus_whenErrorPersists_givesUpAfterMaxAttempts() {
+    stubFor(get(urlPathEqualTo(SESSION_STATUS_PATH)).willReturn(aResponse().withStatus(500)));
+    RetryingSmartIdConnector connector = createConnector(new RetryPolicy(3, TimeUnit.MILLISECONDS, 10L, 10L));
+    try {
+      connector.getSessionStatus(SESSION_ID);
+      fail("Expected InternalServerErrorException");
+    } catch (InternalServerErrorException e) {
+      verify(3, getRequestedFor(urlPathEqualTo(SESSION_STATUS_PATH)));
+    }
+  }
+
+  @Test
+  public void authenticate_whenServerUnderMaintenance_retries() throws IOException {
+    stubFailingOnce(post(urlEqualTo(AUTHENTICATION_PATH)), 580, "responses/authenticationSessionResponse.json");
+    RetryingSmartIdConnector connector = createConnector(new RetryPolicy(3, TimeUnit.MILLISECONDS, 10L, 10L));
+
+    AuthenticationSessionResponse response = connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+
+    assertEquals(SESSION_ID, response.getSessionID());
+    verify(2, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+  }
+
+  @Test
+  public void authenticate_whenServerFailsAfterReceivingRequest_doesNotRetry() {
+    stubFor(post(urlEqualTo(AUTHENTICATION_PATH)).willReturn(aResponse().withStatus(500)));
+    RetryingSmartIdConnector connector = createConnector(new RetryPolicy(3, TimeUnit.MILLISECONDS, 10L, 10L));
+    try {
+      connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+      fail("Expected InternalServerErrorException");
+    } catch (InternalServerErrorException e) {
+      verify(1, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+    }
+  }
+
+  @Test
+  public void authenticate_whenRetryBudgetExhausted_doesNotRetry() {
+    stubFor(post(urlEqualTo(AUTHENTICATION_PATH)).willReturn(aResponse().withStatus(580)));
+    RetryPolicy retryPolicy = new RetryPolicy(3, TimeUnit.MILLISECONDS, 10L, 10L, 0, 1);
+    RetryingSmartIdConnector connector = createConnector(retryPolicy);
+
+    assertAuthenticationFailsWithMaintenance(connector);
+    verify(2, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+    assertAuthenticationFailsWithMaintenance(connector);
+    verify(3, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+  }
+
+  @Test
+  public void authenticate_whenRetryWouldPassDeadline_doesNotRetry() {
+    stubFor(post(urlEqualTo(AUTHENTICATION_PATH)).willReturn(aResponse().withStatus(580)));
+    RetryingSmartIdConnector connector = createConnector(new RetryPolicy(3, TimeUnit.SECONDS, 10L, 10L));
+    try {
+      connector.withDeadline(Deadline.after(TimeUnit.SECONDS, 5L)).authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+      fail("Expected ServerMaintenanceException");
+    } catch (ServerMaintenanceException e) {
+      verify(1, postRequestedFor(urlEqualTo(AUTHENTICATION_PATH)));
+    }
+  }
+
+  @Test
+  public void asyncGetSessionStatus_whenServerErrorIsTransient_retries() throws Exception {
+    stubFailingOnce(get(urlPathEqualTo(SESSION_STATUS_PATH)), 503, "responses/sessionStatusForSuccessfulAuthenticationRequest.json");
+    AsyncSmartIdConnector connector = createConnector(new RetryPolicy(3, TimeUnit.MILLISECONDS, 10L, 10L))
+        .getAsyncConnector(ForkJoinPool.commonPool());
+
+    SessionStatus sessionStatus = connector.getSessionStatus(SESSION_ID).get(5, TimeUnit.SECONDS);
+
+    assertEquals("COMPLETE", sessionStatus.getState());
+    verify(2, getRequestedFor(urlPathEqualTo(SESSION_STATUS_PATH)));
+  }
+
+  @Test
+  public void asyncGetSessionStatus_whenErrorPersists_completesWithLastError() throws Exception {
+    stubFor(get(urlPathEqualTo(SESSION_STATUS_PATH)).willReturn(aResponse().withStatus(503)));
+    AsyncSmartIdConnector connector = createConnector(new RetryPolicy(2, TimeUnit.MILLISECONDS, 10L, 10L))
+        .getAsyncConnector(ForkJoinPool.commonPool());
+    try {
+      connector.getSessionStatus(SESSION_ID).get(5, TimeUnit.SECONDS);
+      fail("Expected ServiceUnavailableException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(ServiceUnavailableException.class));
+      verify(2, getRequestedFor(urlPathEqualTo(SESSION_STATUS_PATH)));
+    }
+  }
+
+  private static void assertAuthenticationFailsWithMaintenance(RetryingSmartIdConnector connector) {
+    try {
+      connector.authenticate("PNOEE-123456", createAuthenticationSessionRequest());
+      fail("Expected ServerMaintenanceException");
+    } catch (ServerMaintenanceException expected) {
+    }
+  }
+
+  private static RetryingSmartIdConnector createConnector(RetryPolicy retryPolicy) {
+    return new RetryingSmartIdConnector(new SmartIdRestConnector("http://localhost:18089"), retryPolicy);
+  }
+
+  private static void stubFailingOnce(com.github.tomakehurst.wiremock.client.MappingBuilder request, int errorStatus, String responseFile) throws IOException {
+    stubFor(request
+        .inScenario("transient error")
+        .whenScenarioStateIs(Scenario.STARTED)
+        .willReturn(aResponse().withStatus(errorStatus))
+        .willSetStateTo("recovered"));
+    stubFor(request
+        .inScenario("transient error")
+        .whenScenarioStateIs("recovered")
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withHeader("Content-Type", "application/json")
+            .withBody(IOUtils.toString(RetryingSmartIdConnectorTest.class.getClassLoader().getResourceAsStream(responseFile), StandardCharsets.UTF_8))));
+  }
+
+  private static AuthenticationSessionRequest createAuthenticationSessionRequest() {
+    AuthenticationSessionRequest request = new AuthenticationSessionRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    request.setHash("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    request.setHashType("SHA512");
+    return request;
+  }
+}
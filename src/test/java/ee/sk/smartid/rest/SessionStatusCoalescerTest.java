@@ -0,0 +1,211 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.rest.SessionStatusPollerTest.SmartIdConnectorStub;
+import ee.sk.smartid.rest.dao.SessionStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static ee.sk.smartid.DummyData.createSessionEndResult;
+import static org.junit.Assert.*;
+
+public class SessionStatusCoalescerTest {
+
+  private static final String SESSION_ID = "97f5058e-e308-4c83-ac14-7712b0eb9d86";
+
+  private SmartIdConnectorStub connector;
+  private SessionStatusCoalescer coalescer;
+
+  @Before
+  public void setUp() {
+    connector = new SmartIdConnectorStub();
+    coalescer = new SessionStatusCoalescer();
+  }
+
+  @Test
+  public void fetchFinalSessionStatus_withConcurrentWaiters_pollsOnce() throws Exception {
+    connector.responseDelayMs = 200;
+    connector.responses.add(createRunningSessionStatus());
+    connector.responses.add(createCompleteSessionStatus());
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<SessionStatus>> results = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        results.add(executor.submit(() -> createPoller().fetchFinalSessionStatus(SESSION_ID)));
+      }
+      for (Future<SessionStatus> result : results) {
+        assertEquals("COMPLETE", result.get(5, TimeUnit.SECONDS).getState());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, connector.responseNumber);
+    assertEquals(2, coalescer.getCoalescedRequestCount() + coalescer.getCacheHitCount());
+    assertEquals(0, coalescer.getSessionsInFlightCount());
+  }
+
+  @Test
+  public void fetchFinalSessionStatus_afterSessionCompleted_returnsCachedStatus() {
+    connector.responses.add(createCompleteSessionStatus());
+    SessionStatus sessionStatus = createPoller().fetchFinalSessionStatus(SESSION_ID);
+
+    assertSame(sessionStatus, createPoller().fetchFinalSessionStatus(SESSION_ID));
+    assertEquals(1, connector.responseNumber);
+    assertEquals(1, coalescer.getCacheHitCount());
+  }
+
+  @Test
+  public void fetchFinalSessionStatus_afterCachedStatusExpired_pollsAgain() throws Exception {
+    coalescer = new SessionStatusCoalescer(10, TimeUnit.MILLISECONDS, 10L);
+    connector.responses.add(createCompleteSessionStatus());
+    connector.responses.add(createCompleteSessionStatus());
+    createPoller().fetchFinalSessionStatus(SESSION_ID);
+    Thread.sleep(20);
+
+    createPoller().fetchFinalSessionStatus(SESSION_ID);
+
+    assertEquals(2, connector.responseNumber);
+    assertEquals(0, coalescer.getCacheHitCount());
+  }
+
+  @Test
+  public void fetchFinalSessionStatus_whenCacheFull_evictsEldestStatus() {
+    coalescer = new SessionStatusCoalescer(1, TimeUnit.MINUTES, 1L);
+    for (int i = 0; i < 3; i++) {
+      connector.responses.add(createCompleteSessionStatus());
+    }
+    createPoller().fetchFinalSessionStatus(SESSION_ID);
+    createPoller().fetchFinalSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+
+    createPoller().fetchFinalSessionStatus(SESSION_ID);
+
+    assertEquals(3, connector.responseNumber);
+  }
+
+  @Test(expected = SessionNotFoundException.class)
+  public void fetchFinalSessionStatus_whenPollingFails_throwsSameErrorToWaiters() throws Exception {
+    CountDownLatch waiterStarted = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit(() -> coalescer.fetchFinalSessionStatus(SESSION_ID, null, () -> {
+        waiterStarted.await();
+        Thread.sleep(50);
+        throw new SessionNotFoundException();
+      }));
+      waitUntilPolling();
+      waiterStarted.countDown();
+
+      coalescer.fetchFinalSessionStatus(SESSION_ID, null, () -> {
+        throw new AssertionError("Session should not be polled twice");
+      });
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void fetchFinalSessionStatus_whenPollingCallerGivesUp_waiterTakesOverPolling() throws Exception {
+    CountDownLatch waiterStarted = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit(() -> coalescer.fetchFinalSessionStatus(SESSION_ID, null, () -> {
+        waiterStarted.await();
+        Thread.sleep(50);
+        throw new DeadlineExceededException("Deadline exceeded while polling session status");
+      }));
+      waitUntilPolling();
+      waiterStarted.countDown();
+
+      SessionStatus sessionStatus = coalescer.fetchFinalSessionStatus(SESSION_ID, null, this::createCompleteSessionStatus);
+
+      assertEquals("COMPLETE", sessionStatus.getState());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = DeadlineExceededException.class)
+  public void fetchFinalSessionStatus_whenWaiterDeadlinePasses_shouldThrowException() throws Exception {
+    CountDownLatch pollingDone = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit(() -> coalescer.fetchFinalSessionStatus(SESSION_ID, null, () -> {
+        pollingDone.await();
+        return createCompleteSessionStatus();
+      }));
+      waitUntilPolling();
+      coalescer.fetchFinalSessionStatus(SESSION_ID, Deadline.after(TimeUnit.MILLISECONDS, 50L), this::createCompleteSessionStatus);
+    } finally {
+      pollingDone.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void create_withNegativeCacheSize_shouldThrowException() {
+    new SessionStatusCoalescer(-1, TimeUnit.MINUTES, 1L);
+  }
+
+  private SessionStatusPoller createPoller() {
+    SessionStatusPoller poller = new SessionStatusPoller(connector);
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 1L);
+    poller.setSessionStatusCoalescer(coalescer);
+    return poller;
+  }
+
+  private void waitUntilPolling() throws InterruptedException {
+    long waitUntil = System.currentTimeMillis() + 1000;
+    while (coalescer.getSessionsInFlightCount() == 0 && System.currentTimeMillis() < waitUntil) {
+      Thread.sleep(5);
+    }
+  }
+
+  private SessionStatus createCompleteSessionStatus() {
+    SessionStatus sessionStatus = new SessionStatus();
+    sessionStatus.setState("COMPLETE");
+    sessionStatus.setResult(createSessionEndResult());
+    return sessionStatus;
+  }
+
+  private SessionStatus createRunningSessionStatus() {
+    SessionStatus status = new SessionStatus();
+    status.setState("RUNNING");
+    return status;
+  }
+}
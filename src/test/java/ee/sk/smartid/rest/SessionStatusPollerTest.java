@@ -26,6 +26,7 @@ package ee.sk.smartid.rest;
  * #L%
  */
 
+import ee.sk.smartid.exception.DeadlineExceededException;
 import ee.sk.smartid.exception.SessionNotFoundException;
 import ee.sk.smartid.rest.dao.*;
 import org.junit.Before;
@@ -103,6 +104,70 @@ public class SessionStatusPollerTest {
     assertFalse(connector.requestUsed.isResponseSocketOpenTimeSet());
   }
 
+  @Test
+  public void adaptivePollingStrategy_doesNotSleepAfterLongPoll() {
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 200L);
+    poller.setPollingStrategy(new AdaptivePollingStrategy());
+    connector.responseDelayMs = 200L;
+    addMultipleRunningSessionResponses(4);
+    connector.responses.add(createCompleteSessionStatus());
+    long duration = measurePollingDuration();
+    assertThat(duration, is(greaterThanOrEqualTo(1000L)));
+    assertThat(duration, is(lessThanOrEqualTo(1500L)));
+  }
+
+  @Test
+  public void fixedPollingStrategy_sleepsAfterLongPoll() {
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 200L);
+    connector.responseDelayMs = 200L;
+    addMultipleRunningSessionResponses(4);
+    connector.responses.add(createCompleteSessionStatus());
+    long duration = measurePollingDuration();
+    assertThat(duration, is(greaterThanOrEqualTo(1800L)));
+  }
+
+  @Test
+  public void adaptivePollingStrategy_delaysFirstPollByLearnedResponseTime() {
+    AdaptivePollingStrategy pollingStrategy = new AdaptivePollingStrategy(0.5, TimeUnit.SECONDS, 5L);
+    SessionStatus completeStatus = createCompleteSessionStatus();
+    completeStatus.setInteractionFlowUsed("displayTextAndPIN");
+    pollingStrategy.onFinalSessionStatus(completeStatus, 800L);
+    poller.setPollingStrategy(pollingStrategy);
+    connector.responses.add(createCompleteSessionStatus());
+
+    long startTime = System.currentTimeMillis();
+    poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86", InteractionFlow.DISPLAY_TEXT_AND_PIN);
+    long duration = System.currentTimeMillis() - startTime;
+
+    assertThat(duration, is(greaterThanOrEqualTo(400L)));
+    assertThat(duration, is(lessThanOrEqualTo(800L)));
+  }
+
+  @Test
+  public void fetchFinalSessionStatus_whenStillRunningAtDeadline_shouldThrowException() {
+    poller.setPollingSleepTime(TimeUnit.MILLISECONDS, 100L);
+    addMultipleRunningSessionResponses(20);
+    connector.responses.add(createCompleteSessionStatus());
+    long startTime = System.currentTimeMillis();
+    try {
+      poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86", null, Deadline.after(TimeUnit.MILLISECONDS, 350L));
+      fail("Expected DeadlineExceededException");
+    } catch (DeadlineExceededException e) {
+      long duration = System.currentTimeMillis() - startTime;
+      assertThat(duration, is(greaterThanOrEqualTo(350L)));
+      assertThat(duration, is(lessThanOrEqualTo(600L)));
+      assertThat(connector.responseNumber, is(lessThanOrEqualTo(4)));
+    }
+  }
+
+  @Test
+  public void fetchFinalSessionStatus_completedBeforeDeadline() {
+    addMultipleRunningSessionResponses(2);
+    connector.responses.add(createCompleteSessionStatus());
+    SessionStatus status = poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86", null, Deadline.after(TimeUnit.SECONDS, 5L));
+    assertCompleteStateReceived(status);
+  }
+
   private long measurePollingDuration() {
     long startTime = System.currentTimeMillis();
     SessionStatus status = poller.fetchFinalSessionStatus("97f5058e-e308-4c83-ac14-7712b0eb9d86");
@@ -139,6 +204,7 @@ public class SessionStatusPollerTest {
     SessionStatusRequest requestUsed;
     List<SessionStatus> responses = new ArrayList<>();
     int responseNumber = 0;
+    long responseDelayMs = 0;
     private TimeUnit sessionStatusResponseSocketOpenTimeUnit;
     private long sessionStatusResponseSocketOpenTimeValue;
 
@@ -146,6 +212,13 @@ public class SessionStatusPollerTest {
     public SessionStatus getSessionStatus(String sessionId) throws SessionNotFoundException {
       sessionIdUsed = sessionId;
       requestUsed = createSessionStatusRequest(sessionId);
+      if (responseDelayMs > 0) {
+        try {
+          TimeUnit.MILLISECONDS.sleep(responseDelayMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
       return responses.get(responseNumber++);
     }
     @Override
@@ -28,6 +28,7 @@ package ee.sk.smartid.rest;
 
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import ee.sk.smartid.ClientRequestHeaderFilter;
+import ee.sk.smartid.exception.DeadlineExceededException;
 import ee.sk.smartid.exception.SessionNotFoundException;
 import ee.sk.smartid.exception.permanent.RelyingPartyAccountConfigurationException;
 import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
@@ -40,14 +41,20 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static ee.sk.smartid.SmartIdRestServiceStubs.*;
 import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.core.StringStartsWith.startsWith;
 import static org.junit.Assert.*;
 
@@ -168,6 +175,47 @@ public class SmartIdRestConnectorTest {
     verify(getRequestedFor(urlEqualTo("/session/de305d54-75b4-431b-adb2-eb6b9e546016?timeoutMs=10000")));
   }
 
+  @Test
+  public void getSessionStatus_withDeadline_shrinksTimeoutParameterToRemainingTime() {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json");
+    connector.setSessionStatusResponseSocketOpenTime(TimeUnit.SECONDS, 120L);
+    SessionStatus sessionStatus = connector.withDeadline(Deadline.after(TimeUnit.SECONDS, 10L)).getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+    assertSuccessfulResponse(sessionStatus);
+    verify(getRequestedFor(urlMatching("/session/de305d54-75b4-431b-adb2-eb6b9e546016\\?timeoutMs=(8|9)\\d{3}")));
+  }
+
+  @Test
+  public void getSessionStatus_withDistantDeadline_keepsConfiguredTimeoutParameter() {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json");
+    connector.setSessionStatusResponseSocketOpenTime(TimeUnit.SECONDS, 2L);
+    connector.withDeadline(Deadline.after(TimeUnit.MINUTES, 1L)).getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+    verify(getRequestedFor(urlEqualTo("/session/de305d54-75b4-431b-adb2-eb6b9e546016?timeoutMs=2000")));
+  }
+
+  @Test
+  public void getSessionStatus_whenResponseArrivesAfterDeadline_shouldThrowException() {
+    stubRequestWithDelayedResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json", 3000);
+    long startTime = System.currentTimeMillis();
+    try {
+      connector.withDeadline(Deadline.after(TimeUnit.MILLISECONDS, 500L)).getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+      fail("Expected DeadlineExceededException");
+    } catch (DeadlineExceededException e) {
+      long duration = System.currentTimeMillis() - startTime;
+      assertTrue("Duration is " + duration, duration < 2500L);
+    }
+  }
+
+  @Test
+  public void authenticate_withExpiredDeadline_shouldThrowExceptionWithoutSendingRequest() {
+    AuthenticationSessionRequest request = createDummyAuthenticationSessionRequest();
+    try {
+      connector.withDeadline(Deadline.after(TimeUnit.MILLISECONDS, 0L)).authenticate("PNOEE-123456", request);
+      fail("Expected DeadlineExceededException");
+    } catch (DeadlineExceededException e) {
+      verify(0, postRequestedFor(urlEqualTo("/authentication/document/PNOEE-123456")));
+    }
+  }
+
   @Test
   public void getCertificate_usingDocumentNumber() {
     stubRequestWithResponse("/certificatechoice/document/PNOEE-123456", "requests/certificateChoiceRequest.json", "responses/certificateChoiceResponse.json");
@@ -583,6 +631,114 @@ public class SmartIdRestConnectorTest {
         .withHeader(headerName, equalTo(headerValue)));
   }
 
+  @Test
+  public void getSessionStatus_withConfiguredClient_doesNotRegisterFilterOnClient() {
+    Client configuredClient = ClientBuilder.newClient();
+    connector = new SmartIdRestConnector("http://localhost:18089", configuredClient);
+    SessionStatus sessionStatus = getStubbedSessionStatusWithResponse("responses/sessionStatusRunning.json");
+    assertEquals("RUNNING", sessionStatus.getState());
+    assertFalse(configuredClient.getConfiguration().isRegistered(LoggingFilter.class));
+  }
+
+  @Test
+  public void getSessionStatus_repeatedCallsReuseClient() {
+    SmartIdRestConnector restConnector = new SmartIdRestConnector("http://localhost:18089");
+    restConnector.setConnectionPoolSize(2, 1);
+    connector = restConnector;
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+    EndpointRouter router = restConnector.getEndpointRouter();
+    for (int i = 0; i < 5; i++) {
+      assertEquals("RUNNING", connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016").getState());
+    }
+    assertSame(router, restConnector.getEndpointRouter());
+    verify(5, getRequestedFor(urlEqualTo("/session/de305d54-75b4-431b-adb2-eb6b9e546016")));
+  }
+
+  @Test
+  public void getSessionStatus_afterClose_createsNewClient() {
+    SmartIdRestConnector restConnector = new SmartIdRestConnector("http://localhost:18089");
+    connector = restConnector;
+    SessionStatus sessionStatus = getStubbedSessionStatusWithResponse("responses/sessionStatusRunning.json");
+    assertEquals("RUNNING", sessionStatus.getState());
+    restConnector.close();
+    sessionStatus = connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+    assertEquals("RUNNING", sessionStatus.getState());
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void setConnectionPoolSize_withZeroSize_shouldThrowException() {
+    new SmartIdRestConnector("http://localhost:18089").setConnectionPoolSize(0, 1);
+  }
+
+  @Test
+  public void warmUp_opensConnectionsInBothPoolsWithoutSendingSamples() {
+    SmartIdRestConnector restConnector = new SmartIdRestConnector("http://localhost:18089");
+    stubNotFoundResponse("/session/00000000-0000-0000-0000-000000000000");
+    restConnector.warmUp(3);
+    assertEquals(3, restConnector.getConnectionPoolStats().getAvailable());
+    assertEquals(3, restConnector.getSessionStatusConnectionPoolStats().getAvailable());
+    verify(6, getRequestedFor(urlEqualTo("/session/00000000-0000-0000-0000-000000000000")));
+    verify(0, postRequestedFor(anyUrl()));
+  }
+
+  @Test
+  public void warmUp_limitsConnectionsToPoolSize() {
+    SmartIdRestConnector restConnector = new SmartIdRestConnector("http://localhost:18089");
+    restConnector.setConnectionPoolSize(10, 2);
+    restConnector.setSessionStatusConnectionPoolSize(10, 1);
+    stubNotFoundResponse("/session/00000000-0000-0000-0000-000000000000");
+    restConnector.warmUp(5);
+    verify(3, getRequestedFor(urlEqualTo("/session/00000000-0000-0000-0000-000000000000")));
+  }
+
+  @Test
+  public void authenticate_whenSessionStatusPoolIsExhausted_doesNotWaitForLongPolls() throws Exception {
+    SmartIdRestConnector restConnector = new SmartIdRestConnector("http://localhost:18089");
+    restConnector.setConnectionPoolSize(1, 1);
+    restConnector.setSessionStatusConnectionPoolSize(1, 1);
+    connector = restConnector;
+    stubRequestWithDelayedResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json", 1500);
+    stubRequestWithResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json", "responses/authenticationSessionResponse.json");
+    restConnector.getEndpointRouter();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int i = 0; i < 2; i++) {
+        executor.submit(() -> connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016"));
+      }
+      long waitUntil = System.currentTimeMillis() + 1000;
+      while (restConnector.getSessionStatusConnectionPoolStats().getPending() < 1 && System.currentTimeMillis() < waitUntil) {
+        Thread.sleep(10);
+      }
+      long startTime = System.currentTimeMillis();
+
+      connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+
+      assertThat(System.currentTimeMillis() - startTime, lessThan(1000L));
+      ConnectionPoolStats sessionStatusPoolStats = restConnector.getSessionStatusConnectionPoolStats();
+      assertEquals(1, sessionStatusPoolStats.getLeased());
+      assertEquals(1, sessionStatusPoolStats.getPending());
+      assertEquals(1, sessionStatusPoolStats.getMax());
+      assertEquals(0, restConnector.getConnectionPoolStats().getLeased());
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void getConnectionPoolStats_withConfiguredClient_returnsNull() {
+    SmartIdRestConnector restConnector = new SmartIdRestConnector("http://localhost:18089", ClientBuilder.newClient());
+    connector = restConnector;
+    getStubbedSessionStatusWithResponse("responses/sessionStatusRunning.json");
+    assertNull(restConnector.getConnectionPoolStats());
+    assertNull(restConnector.getSessionStatusConnectionPoolStats());
+  }
+
+  @Test(expected = ProcessingException.class)
+  public void warmUp_whenHostUnreachable_shouldThrowException() {
+    new SmartIdRestConnector("http://localhost:18099").warmUp(1);
+  }
+
   private ClientConfig getClientConfigWithCustomRequestHeader(Map<String, String> headers) {
     ClientConfig clientConfig = new ClientConfig().connectorProvider(new ApacheConnectorProvider());
     clientConfig.register(new ClientRequestHeaderFilter(headers));
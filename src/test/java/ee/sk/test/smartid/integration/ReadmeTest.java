@@ -4,24 +4,47 @@ import static java.util.Arrays.asList;
 
 import java.io.InputStream;
 import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import ee.sk.smartid.AuthenticationHash;
 import ee.sk.smartid.AuthenticationIdentity;
+import ee.sk.smartid.AuthenticationIdentityCache;
+import ee.sk.smartid.AuthenticationRequestBuilder;
 import ee.sk.smartid.AuthenticationResponseValidator;
+import ee.sk.smartid.AuthenticationValidationResult;
 import ee.sk.smartid.HashType;
+import ee.sk.smartid.SessionArbiter;
+import ee.sk.smartid.SessionEvent;
+import ee.sk.smartid.SessionHandle;
 import ee.sk.smartid.SignableHash;
 import ee.sk.smartid.SmartIdAuthenticationResponse;
 import ee.sk.smartid.SmartIdCertificate;
 import ee.sk.smartid.SmartIdClient;
 import ee.sk.smartid.SmartIdSignature;
+import ee.sk.smartid.SslContextRegistry;
+import ee.sk.smartid.VerifiedCertificateCache;
 import ee.sk.smartid.exception.UnprocessableSmartIdResponseException;
 import ee.sk.smartid.exception.permanent.SmartIdClientException;
 import ee.sk.smartid.exception.useraccount.RequiredInteractionNotSupportedByAppException;
 import ee.sk.smartid.exception.useraction.UserSelectedWrongVerificationCodeException;
+import ee.sk.smartid.rest.CircuitBreakerSmartIdConnector;
+import ee.sk.smartid.rest.Deadline;
+import ee.sk.smartid.rest.AdaptivePollingStrategy;
+import ee.sk.smartid.rest.RetryPolicy;
+import ee.sk.smartid.rest.SessionStatusCoalescer;
+import ee.sk.smartid.rest.SmartIdConnector;
+import ee.sk.smartid.rest.SmartIdRestConnector;
 import ee.sk.smartid.rest.dao.Interaction;
 import ee.sk.smartid.rest.dao.InteractionFlow;
 import ee.sk.smartid.rest.dao.SemanticsIdentifier;
@@ -32,6 +55,8 @@ import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
 import org.junit.Before;
 import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -161,6 +186,22 @@ It is recommended to read trusted certificates from a file.
 
     /*
 
+    ### Sharing TLS sessions between clients
+
+    Clients trusting the same certificates share one SSL context, no matter in which order the certificates are given
+    or whether they come from a key store. New connections to a Smart-ID host then resume an earlier TLS session
+    instead of doing a full handshake, also across clients of different tenants.
+    The number of sessions kept for resumption and how long they are kept can be set for the whole process.
+
+     */
+    @Test
+    public void documentTlsSessionSharing() {
+        SslContextRegistry.setSessionCacheSize(100);
+        SslContextRegistry.setSessionTimeout(TimeUnit.MINUTES, 30);
+    }
+
+    /*
+
     ## Examples of performing authentication
 
        ### Authenticating with semantics identifier
@@ -237,6 +278,119 @@ It is recommended to read trusted certificates from a file.
                 .authenticate();
     }
 
+    /*
+    ### Authenticating without blocking the calling thread
+
+    `initiate()` returns as soon as the session has been created. The session is then polled in the background
+    and the result is delivered through a `CompletableFuture`. The verification code is available right away.
+    Signing and certificate choice builders offer the same method.
+
+     */
+
+    @Test
+    public void documentAuthenticatingWithoutBlocking() {
+
+        SessionHandle<SmartIdAuthenticationResponse> session = client
+                .createAuthentication()
+                .withDocumentNumber("PNOEE-10101010005-Z1B2-Q")
+                .withAuthenticationHash(AuthenticationHash.generateRandomHash())
+                .withCertificateLevel("QUALIFIED")
+                .withAllowedInteractionsOrder(Collections.singletonList(
+                        Interaction.displayTextAndPIN("Log in?")
+                ))
+                .initiate();
+
+        // display session.getVerificationCode() to the user
+
+        session.getResult().thenAccept(authenticationResponse -> {
+            // validate the authentication response
+        });
+
+        // session.cancel() stops polling if the user leaves
+        session.cancel();
+    }
+
+    /*
+    Session state transitions are also available as a [Reactive Streams](https://www.reactive-streams.org/) `Publisher`.
+    It emits `INITIATED`, `RUNNING` (only the latest one is kept while the subscriber has no demand) and `COMPLETE`,
+    then completes or fails with the same exception as the result. Cancelling the subscription stops polling.
+
+     */
+
+    @Test
+    public void documentSessionEvents() {
+        SessionHandle<SmartIdAuthenticationResponse> session = client
+                .createAuthentication()
+                .withDocumentNumber("PNOEE-10101010005-Z1B2-Q")
+                .withAuthenticationHash(AuthenticationHash.generateRandomHash())
+                .withCertificateLevel("QUALIFIED")
+                .withAllowedInteractionsOrder(Collections.singletonList(
+                        Interaction.displayTextAndPIN("Log in?")
+                ))
+                .initiate();
+
+        Subscriber<SessionEvent> subscriber = new Subscriber<SessionEvent>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(SessionEvent event) {
+                // show event.getType() to the user
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+
+        session.getEvents().subscribe(subscriber);
+        session.cancel();
+    }
+
+    /*
+    ### Starting one session per person
+
+    A double click on "Log in" or a second browser tab would start a second Smart-ID session for the same person.
+    A session arbiter decides what happens then. With `JOIN` a later identical request takes part in the session already running
+    and gets its result, verification code and signed hash included. Requests are identical when the certificate level, hash, nonce
+    and allowed interactions with their texts are all equal, otherwise the later request starts a session of its own.
+    With `SUPERSEDE` a new session is started and polling of the older one stops right away, its request fails with `SessionSupersededException`.
+    Only authentications started with `authenticate()` or `initiate()` are arbitrated.
+    Every request waits only until its own deadline set with `withDeadline()` and fails with `DeadlineExceededException` then,
+    the session is polled on for the other requests.
+
+    The hash is one of the parameters, so requests only join when the same authentication hash is used for the whole login attempt,
+    e.g. kept with the HTTP session until the authentication has ended. With a new random hash for every request each of them
+    starts a session of its own and `JOIN` has no effect.
+
+     */
+    @Test
+    public void documentSessionArbiter() {
+        Map<String, AuthenticationHash> authenticationHashes = new ConcurrentHashMap<>();
+        String loginAttemptId = "id of the HTTP session";
+        client.setSessionArbiter(new SessionArbiter(SessionArbiter.Policy.JOIN));
+
+        // one hash per login attempt, a double click or a second tab reuses it and joins the running session
+        AuthenticationHash authenticationHash = authenticationHashes.computeIfAbsent(loginAttemptId, id -> AuthenticationHash.generateRandomHash());
+
+        AuthenticationRequestBuilder authenticationRequest = client
+            .createAuthentication()
+            .withDocumentNumber("PNOEE-10101010005-Z1B2-Q")
+            .withAuthenticationHash(authenticationHash)
+            .withCertificateLevel("QUALIFIED");
+        // authenticate with authenticationRequest.authenticate() and remove the hash of the login attempt when it has ended
+    }
+
         /*
 
     ## Validating authentication response
@@ -249,6 +403,9 @@ It is recommended to read trusted certificates from a file.
         - The person's certificate given in the "cert.value" is valid (not expired, signed by trusted CA and with correct (i.e. the same as in response structure, greater than or equal to that in the original request) level).
         - The identity of the authenticated person is in the 'subject' field of the included X.509 certificate.
 
+        Validation returns information about the authenticated person.
+        One validator can be shared by all threads. The trusted CA certificates bundled with the library are read once per process.
+
          */
 
     @Test(expected = UnprocessableSmartIdResponseException.class)
@@ -265,7 +422,84 @@ It is recommended to read trusted certificates from a file.
         String surname = authIdentity.getSurname(); // e.g. "Männik"
         String identityCode = authIdentity.getIdentityNumber(); // e.g. "47101010033"
         String country = authIdentity.getCountry(); // e.g. "EE"
+        LocalDate dateOfBirth = authIdentity.getDateOfBirth(); // e.g. 1971-01-01, null when not in the identity code
+        SemanticsIdentifier.IdentityType identityType = authIdentity.getIdentityType(); // e.g. PNO
+
+    }
+
+    /*
+    Certificates of intermediate CAs that are not trusted by themselves can be added too.
+    A person's certificate is then trusted when its chain of intermediate CA certificates ends with a trusted CA certificate.
+    The issuing CA certificate is looked up by the authority key identifier of the certificate, so every certificate of the chain is verified once.
+
+     */
+    @Test
+    public void documentIntermediateCACertificates() throws Exception {
+        X509Certificate intermediateCACertificate;
+        try (InputStream is = ReadmeTest.class.getResourceAsStream("/trusted_certificates/chain/TEST_chain_intermediate_CA.pem.crt")) {
+            intermediateCACertificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+        }
+
+        AuthenticationResponseValidator authenticationResponseValidator = new AuthenticationResponseValidator();
+        authenticationResponseValidator.addIntermediateCACertificate(intermediateCACertificate);
+    }
+
+    /*
+    When the same people authenticate often, certificates already found to be trusted can be cached.
+    Their later authentications then only verify the signature of the session.
+    A certificate is kept until the time to live passes, but never after it expires.
+    The cache is emptied when the trusted CA certificates of the validator change. A certificate verified while they change
+    is not taken as verified against the new ones, even when one cache is shared by several validators.
 
+     */
+    @Test
+    public void documentVerifiedCertificateCache() {
+        AuthenticationResponseValidator authenticationResponseValidator = new AuthenticationResponseValidator();
+        // keep at most 10000 certificates for an hour
+        authenticationResponseValidator.setVerifiedCertificateCache(new VerifiedCertificateCache(10000, TimeUnit.HOURS, 1L));
+    }
+
+    /*
+    The identities read from the certificates of valid authentications can be cached as well.
+    An identity is kept until the time to live passes, but never after the certificate expires.
+    The cache holds personal data, so it is not used unless set, and it can be emptied with `clear()`.
+
+     */
+    @Test
+    public void documentAuthenticationIdentityCache() {
+        AuthenticationResponseValidator authenticationResponseValidator = new AuthenticationResponseValidator();
+        // keep at most 10000 identities for 10 minutes
+        authenticationResponseValidator.setAuthenticationIdentityCache(new AuthenticationIdentityCache(10000, TimeUnit.MINUTES, 10L));
+    }
+
+    /*
+    Many authentication responses can be validated at once.
+    Every response gets a result of its own instead of an exception, in the order the responses were given.
+    The responses are validated in parallel, in the common fork-join pool or with the given executor.
+
+     */
+    @Test
+    public void documentValidateAll() {
+        AuthenticationResponseValidator authenticationResponseValidator = new AuthenticationResponseValidator();
+        List<SmartIdAuthenticationResponse> authenticationResponses = new ArrayList<>();
+
+        List<AuthenticationValidationResult> results = authenticationResponseValidator.validateAll(authenticationResponses);
+        for (AuthenticationValidationResult result : results) {
+            if (!result.isValid()) {
+                logger.warn("Authentication failed: " + result.getFailureReason());
+            }
+        }
+    }
+
+    /*
+    Signatures are verified with the most preferred JCA provider supporting the key of the certificate.
+    Another provider can be chosen, e.g. a faster one installed by the application.
+
+     */
+    @Test
+    public void documentSignatureProvider() {
+        AuthenticationResponseValidator authenticationResponseValidator = new AuthenticationResponseValidator();
+        authenticationResponseValidator.setSignatureProvider(Security.getProvider("SunJCE"));
     }
 
 
@@ -545,6 +779,21 @@ Session status request by default is a long poll method, meaning the request met
     }
 
     /*
+By default the client sleeps the full polling sleep time after every session status poll.
+With `AdaptivePollingStrategy` the polling sleep time is the minimum time between the starts of two polls, so the client does not sleep after a poll that the server already held open that long.
+It also learns how long users take to answer each interaction in sessions that ended with result OK, so that the first poll of a session is sent about when the answer is expected.
+Implement `PollingStrategy` for a custom schedule:
+     */
+
+    @Test
+    public void documentPollingStrategyConfig() {
+
+        SmartIdClient client = new SmartIdClient();
+        // ...
+        client.setPollingStrategy(new AdaptivePollingStrategy());
+    }
+
+    /*
 
     As Smart-ID Java client uses Jersey client for network communication underneath, we've exposed Jersey API for network connection configuration.
 
@@ -567,7 +816,7 @@ Here's an example how to configure HTTP connector's custom socket timeouts for t
 
     /*
 
-    And here's an example how to use Apache Http Client with custom socket timeouts as the HTTP connector instead of the default HttpUrlConnection:
+    The client uses Apache Http Client with a pool of keep-alive connections as the HTTP connector by default. Here's an example how to set custom socket timeouts for it:
 
      */
     @Test
@@ -589,6 +838,188 @@ Here's an example how to configure HTTP connector's custom socket timeouts for t
 
     Keep in mind that the HTTP connector timeout of waiting for data shouldn't normally be less than the timeout for session status poll.
 
+    The connection pools are created once and reused for all requests. Session status long polls hold their connection for a long time,
+    so they use a pool of their own and many pending sessions never make a new login wait for a connection.
+    The size of both pools and the time idle connections are kept open can be tuned:
+
+     */
+    @Test
+    public void documentConnectionPoolConfig() {
+        SmartIdClient client = new SmartIdClient();
+        // ...
+        // at most 200 pooled connections for starting sessions, at most 100 of them to the Smart-ID host
+        client.setConnectionPoolSize(200, 100);
+        // at most 400 pooled connections for session status long polls, at most 200 of them to the Smart-ID host
+        client.setSessionStatusConnectionPoolSize(400, 200);
+        // close connections that have been idle for more than 30 seconds
+        client.setConnectionIdleTimeout(TimeUnit.SECONDS, 30L);
+    }
+
+    /*
+
+    `SmartIdRestConnector.getConnectionPoolStats()` and `getSessionStatusConnectionPoolStats()` return the number of connections in use
+    and of requests waiting for a connection in each pool.
+
+     */
+
+    /*
+
+    By default session status is polled until the session is no longer running. A deadline limits the whole operation, including the initiation request.
+    Connect and read timeouts of each request and the session status poll timeout are cut to the time left and `DeadlineExceededException` is thrown when the deadline passes.
+    The same deadline can be passed to several requests, e.g. certificate choice and signing, to share one time budget:
+
+     */
+    @Test
+    public void documentDeadline() {
+        SignableHash hashToSign = new SignableHash();
+        hashToSign.setHashType(HashType.SHA256);
+        hashToSign.setHashInBase64("0nbgC2fVdLVQFZJdBbmG7oPoElpCYsQMtrY0c0wKYRg=");
+
+        SmartIdSignature smartIdSignature = client
+            .createSignature()
+            .withDocumentNumber("PNOEE-31111111111-MOCK-Q")
+            .withSignableHash(hashToSign)
+            .withCertificateLevel("QUALIFIED")
+            .withAllowedInteractionsOrder(Collections.singletonList(
+                Interaction.displayTextAndPIN("012345678901234567890123456789012345678901234567890123456789")
+            ))
+            .withDeadline(Deadline.after(TimeUnit.SECONDS, 90L))
+            .sign();
+    }
+
+    /*
+
+    ### Using several Smart-ID hosts
+
+    When more than one host URL is set, every new session is started on the healthiest host: the one with the lowest recent response time and error rate.
+    If a host cannot be connected to or is under maintenance the next host is tried. Session status is always polled from the host that started the session.
+
+     */
+    @Test
+    public void documentHostUrls() {
+        SmartIdClient client = new SmartIdClient();
+        // ...
+        client.setHostUrls(
+            "https://rp-api.smart-id.com/v2/",
+            "https://rp-api-backup.example.com/v2/");
+    }
+
+    /*
+
+    ### Retrying failed requests
+
+    Requests that fail with a transient error can be retried with a growing, randomized wait in between.
+    Session status requests are retried on any network or server error. Requests starting a session are retried only
+    when the server cannot have created the session: the connection failed or the server is under maintenance.
+    Every request adds a tenth of a retry to the retry budget of the policy and every retry takes a whole one,
+    so that retries add at most 10% to the load of a failing server. Retries that would not finish before the deadline of the operation are skipped.
+
+     */
+    @Test
+    public void documentRetryPolicy() {
+        SmartIdClient client = new SmartIdClient();
+        // ...
+        // at most 3 attempts, waiting about 200 ms before the first retry and at most 5 s before any retry
+        client.setRetryPolicy(new RetryPolicy(3, TimeUnit.MILLISECONDS, 200L, 5000L));
+    }
+
+    /*
+
+    ### Failing fast when Smart-ID is unavailable
+
+    A circuit breaker stops sending requests for a while when most recent requests failed or were slow,
+    so that threads do not pile up waiting for socket timeouts during an outage.
+    Requests starting a session and session status requests are tracked separately.
+    While a circuit is open requests fail with `CircuitBreakerOpenException` without being sent.
+    After the open duration a few trial requests are let through and the circuit closes again when they succeed.
+    With several hosts the next host is used while the circuit of one is open.
+
+     */
+    @Test
+    public void documentCircuitBreaker() {
+        SmartIdClient client = new SmartIdClient();
+        // ...
+        client.setCircuitBreakerEnabled(true);
+    }
+
+    /*
+
+    `CircuitBreakerSmartIdConnector` can also wrap a connector of your own and be tuned:
+
+     */
+    @Test
+    public void documentCircuitBreakerConnector() {
+        SmartIdClient client = new SmartIdClient();
+        SmartIdConnector smartIdConnector = new SmartIdRestConnector("https://sid.demo.sk.ee/smart-id-rp/v2/");
+        // ...
+        CircuitBreakerSmartIdConnector connector = new CircuitBreakerSmartIdConnector(smartIdConnector);
+        // open when half of the last 20 requests failed
+        connector.setFailureRateThreshold(0.5);
+        connector.setSlidingWindowSize(20, 10);
+        // or when 80% of them took more than 5 seconds
+        connector.setSlowCallThreshold(TimeUnit.SECONDS, 5L, 0.8);
+        connector.setOpenDuration(TimeUnit.SECONDS, 30L);
+        client.setSmartIdConnector(connector);
+    }
+
+    /*
+
+    ### Hedging slow session status requests
+
+    A session status request stuck behind a bad connection delays the result by the whole socket timeout even after the user has answered.
+    With hedging enabled, a session status request that takes longer than 95% of recent requests returning a running session is sent again
+    on another connection and the answer that arrives first is used. Session status requests only read the state of the session, so this is safe.
+    Requests starting a session are never sent twice.
+    A blocking request keeps waiting for its own answer and gets the other answer sooner only when its own request fails,
+    so requests polled asynchronously with `initiate()` benefit the most. The second requests of blocking calls run on at most
+    16 threads the client creates and `close()` releases.
+
+     */
+    @Test
+    public void documentSessionStatusHedging() {
+        SmartIdClient client = new SmartIdClient();
+        // ...
+        client.setSessionStatusHedgingEnabled(true);
+    }
+
+    /*
+
+    ### Warming up the client at startup
+
+    The first requests after startup are slower than the rest: the HTTP client and its JSON mapping are initialised
+    and connections to Smart-ID, including the TLS handshake, are opened. Calling `warmUp()` once the client is configured
+    does this in advance. It opens connections with session status requests for a session that does not exist,
+    keeps them in the connection pool and runs a sample of every request and response type through the JSON mapping.
+    `warmUpAsync()` does the same in the background, a readiness check can wait for the returned future.
+
+     */
+    @Test
+    public void documentWarmUp() {
+        CompletableFuture<Void> warmUp = client.warmUpAsync(SmartIdClient.DEFAULT_WARM_UP_CONNECTIONS);
+        // ...
+        boolean ready = warmUp.isDone() && !warmUp.isCompletedExceptionally();
+    }
+
+    /*
+
+    ### Sharing session status polling between requests
+
+    The same session is often waited for by several requests, e.g. after a browser retry or a page refresh.
+    With a session status coalescer only one of them polls Smart-ID and the others get its answer.
+    Final statuses of completed sessions are kept for a while so that requests arriving later get them without another request to Smart-ID.
+    Clients sharing a coalescer share its polling and cache.
+
+     */
+    @Test
+    public void documentSessionStatusCoalescer() {
+        SmartIdClient client = new SmartIdClient();
+        // ...
+        // keep final statuses of at most 1000 sessions for a minute
+        client.setSessionStatusCoalescer(new SessionStatusCoalescer(1000, TimeUnit.MINUTES, 1L));
+    }
+
+    /*
+
     ### Example of creating a client with configured ssl context on JBoss using JAXWS RS
 
 
@@ -0,0 +1,288 @@
+package ee.sk.smartid.rest;
+
+/*-
+ * #%L
+ * Smart ID sample Java client
+ * %%
+ * Copyright (C) 2018 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import ee.sk.smartid.SmartIdClient;
+import ee.sk.smartid.exception.DeadlineExceededException;
+import ee.sk.smartid.exception.SessionNotFoundException;
+import ee.sk.smartid.exception.permanent.RelyingPartyAccountConfigurationException;
+import ee.sk.smartid.exception.permanent.ServerMaintenanceException;
+import ee.sk.smartid.exception.permanent.SmartIdClientException;
+import ee.sk.smartid.exception.useraccount.NoSuitableAccountOfRequestedTypeFoundException;
+import ee.sk.smartid.exception.useraccount.UserAccountNotFoundException;
+import ee.sk.smartid.rest.dao.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static ee.sk.smartid.SmartIdRestServiceStubs.*;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.*;
+
+public class HttpClientSmartIdConnectorTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(18089);
+  private HttpClientSmartIdConnector connector;
+
+  @Before
+  public void setUp() {
+    connector = new HttpClientSmartIdConnector("http://localhost:18089/");
+  }
+
+  @Test
+  public void getSessionStatus() {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json");
+    SessionStatus sessionStatus = connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+    assertEquals("COMPLETE", sessionStatus.getState());
+    assertEquals("OK", sessionStatus.getResult().getEndResult());
+    assertEquals("PNOEE-31111111111", sessionStatus.getResult().getDocumentNumber());
+    assertEquals("QUALIFIED", sessionStatus.getCert().getCertificateLevel());
+  }
+
+  @Test
+  public void getSessionStatus_withIgnoredProperties() {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunningWithIgnoredProperties.json");
+    SessionStatus sessionStatus = connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+    assertEquals("RUNNING", sessionStatus.getState());
+    assertEquals(2, sessionStatus.getIgnoredProperties().length);
+  }
+
+  @Test(expected = SessionNotFoundException.class)
+  public void getNotExistingSessionStatus() {
+    stubNotFoundResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016");
+    connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+  }
+
+  @Test
+  public void getSessionStatus_withTimeoutParameter() {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json");
+    connector.setSessionStatusResponseSocketOpenTime(TimeUnit.SECONDS, 10L);
+    connector.setRequestTimeout(TimeUnit.SECONDS, 1L);
+    connector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+    verify(getRequestedFor(urlEqualTo("/session/de305d54-75b4-431b-adb2-eb6b9e546016?timeoutMs=10000")));
+  }
+
+  @Test
+  public void getSessionStatus_withDeadline_shrinksTimeoutParameterToRemainingTime() {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json");
+    connector.setSessionStatusResponseSocketOpenTime(TimeUnit.SECONDS, 120L);
+    connector.withDeadline(Deadline.after(TimeUnit.SECONDS, 10L)).getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+    verify(getRequestedFor(urlMatching("/session/de305d54-75b4-431b-adb2-eb6b9e546016\\?timeoutMs=(8|9)\\d{3}")));
+  }
+
+  @Test
+  public void getSessionStatus_whenResponseArrivesAfterDeadline_shouldThrowException() {
+    stubRequestWithDelayedResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusForSuccessfulCertificateRequest.json", 3000);
+    long startTime = System.currentTimeMillis();
+    try {
+      connector.withDeadline(Deadline.after(TimeUnit.MILLISECONDS, 500L)).getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016");
+      fail("Expected DeadlineExceededException");
+    } catch (DeadlineExceededException e) {
+      long duration = System.currentTimeMillis() - startTime;
+      assertTrue("Duration is " + duration, duration < 2500L);
+    }
+  }
+
+  @Test
+  public void authenticate_usingDocumentNumber() {
+    stubRequestWithResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json", "responses/authenticationSessionResponse.json");
+    AuthenticationSessionResponse response = connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+    assertEquals("1dcc1600-29a6-4e95-a95c-d69b31febcfb", response.getSessionID());
+  }
+
+  @Test
+  public void authenticate_usingSemanticsIdentifier() {
+    stubRequestWithResponse("/authentication/etsi/PASKZ-987654321012", "requests/authenticationSessionRequest.json", "responses/authenticationSessionResponse.json");
+    SemanticsIdentifier semanticsIdentifier = new SemanticsIdentifier(SemanticsIdentifier.IdentityType.PAS, "KZ", "987654321012");
+    AuthenticationSessionResponse response = connector.authenticate(semanticsIdentifier, createDummyAuthenticationSessionRequest());
+    assertEquals("1dcc1600-29a6-4e95-a95c-d69b31febcfb", response.getSessionID());
+  }
+
+  @Test
+  public void getCertificate_usingDocumentNumber() {
+    stubRequestWithResponse("/certificatechoice/document/PNOEE-123456", "requests/certificateChoiceRequest.json", "responses/certificateChoiceResponse.json");
+    CertificateChoiceResponse response = connector.getCertificate("PNOEE-123456", createDummyCertificateRequest());
+    assertEquals("97f5058e-e308-4c83-ac14-7712b0eb9d86", response.getSessionID());
+  }
+
+  @Test
+  public void sign_usingDocumentNumber() {
+    stubRequestWithResponse("/signature/document/PNOEE-123456", "requests/signatureSessionRequest.json", "responses/signatureSessionResponse.json");
+    SignatureSessionResponse response = connector.sign("PNOEE-123456", createDummySignatureSessionRequest());
+    assertEquals("2c52caf4-13b0-41c4-bdc6-aa268403cc00", response.getSessionID());
+  }
+
+  @Test(expected = UserAccountNotFoundException.class)
+  public void authenticate_whenDocumentNumberNotFound_shouldThrowException() {
+    stubNotFoundResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json");
+    connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+  }
+
+  @Test(expected = RelyingPartyAccountConfigurationException.class)
+  public void authenticate_withWrongAuthenticationParams_shouldThrowException() {
+    stubUnauthorizedResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json");
+    connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+  }
+
+  @Test(expected = RelyingPartyAccountConfigurationException.class)
+  public void authenticate_whenRequestForbidden_shouldThrowException() {
+    stubForbiddenResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json");
+    connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+  }
+
+  @Test(expected = SmartIdClientException.class)
+  public void authenticate_withWrongRequestParams_shouldThrowException() {
+    stubBadRequestResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json");
+    connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+  }
+
+  @Test(expected = NoSuitableAccountOfRequestedTypeFoundException.class)
+  public void authenticate_whenNoSuitableAccount_shouldThrowException() {
+    stubErrorResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json", 471);
+    connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+  }
+
+  @Test(expected = ServerMaintenanceException.class)
+  public void authenticate_whenSystemUnderMaintenance_shouldThrowException() {
+    stubErrorResponse("/authentication/document/PNOEE-123456", "requests/authenticationSessionRequest.json", 580);
+    connector.authenticate("PNOEE-123456", createDummyAuthenticationSessionRequest());
+  }
+
+  @Test
+  public void getAsyncConnector_getSessionStatus() throws Exception {
+    stubRequestWithResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(ForkJoinPool.commonPool());
+    SessionStatus sessionStatus = asyncConnector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016").get(5, TimeUnit.SECONDS);
+    assertEquals("RUNNING", sessionStatus.getState());
+  }
+
+  @Test
+  public void getAsyncConnector_whenSessionNotFound_failsWithSessionNotFoundException() throws Exception {
+    stubNotFoundResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016");
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(ForkJoinPool.commonPool());
+    try {
+      asyncConnector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016").get(5, TimeUnit.SECONDS);
+      fail("Expected SessionNotFoundException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(SessionNotFoundException.class));
+    }
+  }
+
+  @Test
+  public void getAsyncConnector_concurrentLongPolls_areServedInParallel() throws Exception {
+    stubRequestWithDelayedResponse("/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json", 500);
+    AsyncSmartIdConnector asyncConnector = connector.getAsyncConnector(ForkJoinPool.commonPool());
+
+    long startTime = System.currentTimeMillis();
+    List<CompletableFuture<SessionStatus>> polls = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      polls.add(asyncConnector.getSessionStatus("de305d54-75b4-431b-adb2-eb6b9e546016"));
+    }
+    CompletableFuture.allOf(polls.toArray(new CompletableFuture[0])).get(20, TimeUnit.SECONDS);
+    long duration = System.currentTimeMillis() - startTime;
+
+    for (CompletableFuture<SessionStatus> poll : polls) {
+      assertEquals("RUNNING", poll.get().getState());
+    }
+    assertTrue("Duration is " + duration, duration < 10000L);
+  }
+
+  @Test
+  public void smartIdClient_pollsSessionStatusThroughConnector() throws Exception {
+    stubRequestWithResponse("/session/1dcc1600-29a6-4e95-a95c-d69b31febcfb", "responses/sessionStatusForSuccessfulAuthenticationRequest.json");
+    SmartIdClient client = new SmartIdClient();
+    client.setSmartIdConnector(connector);
+    client.setPollingSleepTimeout(TimeUnit.MILLISECONDS, 1L);
+
+    SessionStatus sessionStatus = client.getAsyncSessionStatusPoller()
+        .fetchFinalSessionStatus("1dcc1600-29a6-4e95-a95c-d69b31febcfb")
+        .get(5, TimeUnit.SECONDS);
+
+    assertEquals("COMPLETE", sessionStatus.getState());
+  }
+
+  @Test
+  public void warmUp_sendsSessionStatusRequests() {
+    stubNotFoundResponse("/session/00000000-0000-0000-0000-000000000000");
+    connector.warmUp(2);
+    verify(2, getRequestedFor(urlEqualTo("/session/00000000-0000-0000-0000-000000000000")));
+  }
+
+  @Test(expected = ProcessingException.class)
+  public void warmUp_whenHostUnreachable_shouldThrowException() {
+    new HttpClientSmartIdConnector("http://localhost:18099").warmUp(1);
+  }
+
+  private CertificateRequest createDummyCertificateRequest() {
+    CertificateRequest request = new CertificateRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    return request;
+  }
+
+  private SignatureSessionRequest createDummySignatureSessionRequest() {
+    SignatureSessionRequest request = new SignatureSessionRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    request.setHash("0nbgC2fVdLVQFZJdBbmG7oPoElpCYsQMtrY0c0wKYRg=");
+    request.setHashType("SHA256");
+    request.setAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessage("Authorize transfer of 1 unit from account 113245344343 to account 7677323232?"),
+            Interaction.displayTextAndPIN("Transfer 1 unit to account 7677323232?"))
+    );
+    return request;
+  }
+
+  private AuthenticationSessionRequest createDummyAuthenticationSessionRequest() {
+    AuthenticationSessionRequest request = new AuthenticationSessionRequest();
+    request.setRelyingPartyUUID("de305d54-75b4-431b-adb2-eb6b9e546014");
+    request.setRelyingPartyName("BANK123");
+    request.setCertificateLevel("ADVANCED");
+    request.setHash("K74MSLkafRuKZ1Ooucvh2xa4Q3nz+R/hFWIShN96SPHNcem+uQ6mFMe9kkJQqp5EaoZnJeaFpl310TmlzRgNyQ==");
+    request.setHashType("SHA512");
+    request.setAllowedInteractionsOrder(asList(
+            Interaction.confirmationMessageAndVerificationCodeChoice("Log in to self-service?"),
+            Interaction.displayTextAndPIN("Log in?"))
+    );
+    return request;
+  }
+}